@@ -1,8 +1,13 @@
 package com.example.whatapp;
 
 import android.Manifest;
+import android.annotation.SuppressLint;
+import android.content.Context;
 import android.content.pm.PackageManager;
+import android.location.Location;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Looper;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -24,52 +29,104 @@ import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.example.whatapp.ble.ConnectionPool;
+import com.example.whatapp.ble.ConnectionSupervisor;
+import com.example.whatapp.ble.DeviceRegistry;
+import com.example.whatapp.ble.Relay;
+import com.example.whatapp.ble.ScanPipeline;
+import com.example.whatapp.ble.TxQueue;
+import com.example.whatapp.data.ChatLog;
+import com.example.whatapp.data.ChatLogs;
+import com.example.whatapp.data.ContactStore;
+import com.example.whatapp.data.Group;
+import com.example.whatapp.data.MessageWindow;
+import com.example.whatapp.geo.LocationCache;
+import com.example.whatapp.geo.LocationSharer;
+import com.example.whatapp.geo.PeerLocationStore;
+import com.example.whatapp.wire.JsonCodec;
+import com.example.whatapp.wire.MacAddress;
+import com.example.whatapp.wire.WireMessage;
 import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
+import com.google.android.gms.location.Priority;
 import com.google.android.material.appbar.MaterialToolbar;
 import com.polidea.rxandroidble3.RxBleClient;
-import com.polidea.rxandroidble3.RxBleConnection;
 import com.polidea.rxandroidble3.RxBleDevice;
 
-import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.Locale;
+import java.util.Random;
 import java.util.UUID;
 
 import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers;
-import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Maybe;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Single;
 import io.reactivex.rxjava3.disposables.CompositeDisposable;
 import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
 
 public class ChatFragment extends Fragment {
+    /** Log position of a message to scroll to, in a {@link #showMessageRequest} result. */
+    public static final String KEY_POSITION = "position";
     private static final String TAG = "ChatBluetooth";
     private static final UUID SERVICE_UUID = UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
     private static final UUID RX_CHAR_UUID = UUID.fromString("6e400003-b5a3-f393-e0a9-e50e24dcca9e");
     private static final UUID TX_CHAR_UUID = UUID.fromString("6e400002-b5a3-f393-e0a9-e50e24dcca9e");
-    private static final int CHUNK_SIZE = 125; // MTU–3
 
     private RxBleClient rxBleClient;
-    private RxBleConnection connection;
+    // Every board this handset is connected to, each with its own notification pipeline and TX queue
+    private final ConnectionPool pool = new ConnectionPool(RX_CHAR_UUID, TX_CHAR_UUID,
+            ConnectionPool.DEFAULT_MAX_CONNECTIONS);
+    // Reconnects dropped boards and tunes their connection priority to the traffic
+    private final ConnectionSupervisor supervisor = new ConnectionSupervisor(pool, Schedulers.computation(),
+            new Random());
+    // Drops duplicate frames and, when switched on, forwards frames between the boards
+    private final Relay relay = new Relay(pool, Schedulers.computation());
     private final CompositeDisposable disposables = new CompositeDisposable();
+    // Routed for the fragment's lifetime, so peers' positions reach the map and messages reach
+    // the log while the chat is in the back stack
+    private Disposable inboundRoute;
 
     private TextView statusTextView;
     private EditText messageEditText;
+    private ImageButton sendBtn;
     private RecyclerView chatRecyclerView;
     private ChatAdapter chatAdapter;
-    private final ArrayList<ChatMessage> chatMessages = new ArrayList<>();
+    // Only pages near the viewport are kept; the rest is read back from chatLog
+    private final MessageWindow messageWindow = new MessageWindow(MessageWindow.DEFAULT_BUDGET_BYTES,
+            Schedulers.single(), AndroidSchedulers.mainThread());
+    private final RenderedTextCache renderedText = new RenderedTextCache();
+    // Message picked on the map, shown once the history is attached
+    private int pendingPosition = -1;
+
+    // Opened, written and closed on Schedulers.single() only, which keeps appends in order
+    private volatile ChatLog chatLog;
+    private Disposable historyLoad;
+
+    // Conversation key from HomeFragment.openChatFragment, and its contact or group entry
+    private String conversation = "default";
+    private ContactStore contacts;
+    private ChatsModel conversationEntry;
+    // Used off the main thread, where the fragment may already be detached
+    private Context appContext;
 
     private FusedLocationProviderClient fusedLocationClient;
-    private final Map<String, RxBleDevice> discovered = new HashMap<>();
-    private final ArrayList<String> deviceNamesList = new ArrayList<>();
+    private final LocationCache locationCache = new LocationCache(this::lookupLocation, Schedulers.computation(),
+            LocationCache.DEFAULT_MAX_AGE_MS);
+    private final LocationSharer locationSharer = new LocationSharer();
+    private Disposable locationShare;
+    private final DeviceRegistry devices = new DeviceRegistry(DeviceRegistry.DEFAULT_TTL_MS);
+    private ScanPipeline scanPipeline;
+    private Disposable scanDisposable;
     private RxBleDevice selectedDevice;
 
-    // Buffer for incoming RX fragments
-    private final ByteArrayOutputStream incomingBuffer = new ByteArrayOutputStream();
-
     // permissions
     private final ActivityResultLauncher<String[]> permLauncher =
             registerForActivityResult(new ActivityResultContracts.RequestMultiplePermissions(), result -> {
@@ -105,6 +162,12 @@ public class ChatFragment extends Fragment {
                 } else if (id == R.id.action_connect) {
                     showDeviceDialog();
                     return true;
+                } else if (id == R.id.action_relay) {
+                    toggleRelay();
+                    return true;
+                } else if (id == R.id.action_share_location) {
+                    toggleLocationShare();
+                    return true;
 //                } else if (id == R.id.action_disconnect) {
 //                    disconnect();
 //                    return true;
@@ -113,19 +176,55 @@ public class ChatFragment extends Fragment {
                 }
             });
 
+            popup.getMenu().findItem(R.id.action_relay).setChecked(relay.isEnabled());
+            popup.getMenu().findItem(R.id.action_share_location).setChecked(locationShare != null);
             popup.show();
         });
 
         statusTextView = v.findViewById(R.id.statusTextView);
         messageEditText = v.findViewById(R.id.messageEditText);
         chatRecyclerView = v.findViewById(R.id.chatRecyclerView);
-        ImageButton sendBtn = v.findViewById(R.id.sendButton);
+        sendBtn = v.findViewById(R.id.sendButton);
+
+        Bundle args = getArguments();
+        if (args != null && args.getString("name") != null) conversation = args.getString("name");
+        renderedText.setConversation(conversation);
+        // The map hands a picked message back to this chat rather than opening another one
+        getParentFragmentManager().setFragmentResultListener(showMessageRequest(conversation),
+                this, (key, result) -> scrollToMessage(result.getInt(KEY_POSITION, -1)));
+        appContext = requireContext().getApplicationContext();
+        contacts = ContactStore.get(appContext);
+        conversationEntry = contacts.find(conversation);
 
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(requireActivity());
-        chatAdapter = new ChatAdapter(chatMessages);
-        chatRecyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
+        chatAdapter = new ChatAdapter(messageWindow, renderedText);
+        LinearLayoutManager layoutManager = new LinearLayoutManager(getContext());
+        chatRecyclerView.setLayoutManager(layoutManager);
         chatRecyclerView.setAdapter(chatAdapter);
+        messageWindow.setListener(new MessageWindow.Listener() {
+            @Override public void onInserted(int from, int count) {
+                chatAdapter.notifyItemRangeInserted(from, count);
+                chatRecyclerView.scrollToPosition(messageWindow.size() - 1);
+            }
+
+            @Override public void onChanged(int from, int count) {
+                chatAdapter.notifyItemRangeChanged(from, count);
+            }
+        });
+        chatRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override public void onScrolled(@NonNull RecyclerView rv, int dx, int dy) {
+                int first = layoutManager.findFirstVisibleItemPosition();
+                if (first != RecyclerView.NO_POSITION) {
+                    messageWindow.setViewport(first, layoutManager.findLastVisibleItemPosition());
+                }
+            }
+        });
+        loadHistory();
         rxBleClient = RxBleClient.create(requireContext());
+        scanPipeline = new ScanPipeline(rxBleClient, SERVICE_UUID);
+        routeInbound();
+        observeConnections();
+        reconnectLastDevice();
 
         sendBtn.setOnClickListener(x -> {
             if (ContextCompat.checkSelfPermission(requireContext(),
@@ -146,87 +245,158 @@ public class ChatFragment extends Fragment {
 
     private void startScan() {
         statusTextView.setText("Scanning…");
-        discovered.clear();
-        deviceNamesList.clear();
+        if (scanDisposable != null) scanDisposable.dispose();
 
-        Disposable d = rxBleClient.scanBleDevices()
+        // Filtering, dedup and RSSI smoothing happen off the main thread; the UI gets a few snapshots a second.
+        // A chat bound to a board stops scanning as soon as that board is seen, and connects to it
+        long target = scanTarget();
+        scanDisposable = scanPipeline.scan(ScanPipeline.DEFAULT_WINDOW_MS, target)
                 .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(scanResult -> {
-                    RxBleDevice dev = scanResult.getBleDevice();
-                    String mac = dev.getMacAddress();
-                    String name = dev.getName() != null ? dev.getName() : mac;
-                    if (!discovered.containsKey(mac)) {
-                        discovered.put(mac, dev);
-                        deviceNamesList.add(name + " (" + mac + ")");
-                        statusTextView.setText("Found " + discovered.size());
-                    }
+                .subscribe(snapshot -> {
+                    showScanSnapshot(snapshot);
+                    if (snapshot.targetFound) connectTarget(target);
                 }, t -> {
                     statusTextView.setText("Scan failed");
                     Log.e(TAG, "scan", t);
+                }, () -> {
+                    if (!supervisor.isSupervised(target)) statusTextView.setText("Scan done, found " + devices.size());
                 });
-        disposables.add(d);
+        disposables.add(scanDisposable);
+    }
+
+    /** This contact's board if it is known and not connected, else {@link MacAddress#NONE} to scan for all. */
+    private long scanTarget() {
+        if (conversationEntry == null || conversationEntry.isGroup()) return MacAddress.NONE;
+        long mac = conversationEntry.getDeviceMac();
+        return mac != MacAddress.NONE && !pool.isConnected(mac) ? mac : MacAddress.NONE;
+    }
+
+    private void connectTarget(long mac) {
+        DeviceRegistry.Device target = devices.get(mac);
+        if (target == null) return;
+        selectedDevice = target.device;
+        statusTextView.setText("Found " + target.getDisplayName() + ", connecting…");
+        connect();
+    }
+
+    private void showScanSnapshot(ScanPipeline.Snapshot snapshot) {
+        devices.update(snapshot);
+        devices.evictStale(System.currentTimeMillis());
+        statusTextView.setText("Found " + devices.size());
     }
 
     private void showDeviceDialog() {
-        if (discovered.isEmpty()) {
+        devices.evictStale(System.currentTimeMillis());
+        List<DeviceRegistry.Device> picks = devices.snapshot(DeviceRegistry.Order.RSSI);
+        if (picks.isEmpty()) {
             statusTextView.setText("No devices");
             return;
         }
+        String[] labels = new String[picks.size()];
+        for (int i = 0; i < labels.length; i++) {
+            DeviceRegistry.Device d = picks.get(i);
+            labels[i] = d.getDisplayName() + " (" + MacAddress.format(d.mac) + ")  " + d.rssi + " dBm"
+                    + (d.state == DeviceRegistry.State.CONNECTED ? "  connected" : "");
+        }
         new androidx.appcompat.app.AlertDialog.Builder(requireContext())
                 .setTitle("Select device")
-                .setItems(deviceNamesList.toArray(new String[0]), (dlg, which) -> {
-                    String pick = deviceNamesList.get(which);
-                    String mac = pick.substring(pick.indexOf('(') + 1, pick.indexOf(')'));
-                    selectedDevice = discovered.get(mac);
-                    statusTextView.setText("Selected " + pick);
+                .setItems(labels, (dlg, which) -> {
+                    DeviceRegistry.Device pick = picks.get(which);
+                    selectedDevice = pick.device;
+                    statusTextView.setText("Selected " + pick.getDisplayName());
                     connect();
                 }).show();
     }
 
     private void connect() {
         if (selectedDevice == null) return;
-        Disposable d = selectedDevice.establishConnection(false)
-                .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(conn -> {
-                    connection = conn;
-                    statusTextView.setText("Connected");
-                    subscribeNotifications();
-                }, t -> {
-                    statusTextView.setText("Connect failed");
-                    Log.e(TAG, "conn", t);
-                });
-        disposables.add(d);
+        long mac = MacAddress.parse(selectedDevice.getMacAddress());
+        devices.setState(mac, DeviceRegistry.State.CONNECTING);
+        // Later sends from this chat resolve its board from here
+        contacts.bindDevice(conversation, mac);
+        // Kept connected, and reconnected after drops, until the user disconnects
+        supervisor.supervise(selectedDevice);
     }
 
-    private void subscribeNotifications() {
-        Disposable d = connection
-                .setupNotification(TX_CHAR_UUID)
-                .flatMap(obs -> obs)
+    /** Goes straight to the board this chat last used, without scanning first. */
+    private void reconnectLastDevice() {
+        if (conversationEntry == null || conversationEntry.isGroup()) return;
+        long mac = conversationEntry.getDeviceMac();
+        if (mac == MacAddress.NONE || supervisor.isSupervised(mac)) return;
+        if (!hasConnectPermission()) {
+            // Every attempt would fail, and the supervisor would keep retrying
+            statusTextView.setText("Bluetooth permission needed to reconnect");
+            return;
+        }
+        statusTextView.setText("Reconnecting…");
+        supervisor.supervise(rxBleClient.getBleDevice(MacAddress.format(mac)));
+    }
+
+    private boolean hasConnectPermission() {
+        // Before Android 12 connecting needs no runtime permission
+        return Build.VERSION.SDK_INT < Build.VERSION_CODES.S
+                || ContextCompat.checkSelfPermission(requireContext(),
+                Manifest.permission.BLUETOOTH_CONNECT) == PackageManager.PERMISSION_GRANTED;
+    }
+
+    private void routeInbound() {
+        if (inboundRoute != null) return;
+        // Framing and decoding run per board on the BLE callback threads and bubble text
+        // is rendered on a worker; only ready-to-bind messages reach the main thread
+        inboundRoute = pool.inbound()
+                .filter(relay::offer)
+                .filter(inbound -> {
+                    WireMessage payload = inbound.message;
+                    if (!WireMessage.TYPE_LOCATION.equals(payload.getType()) || !payload.hasLocation()) return true;
+                    long sender = payload.getSenderMac() != MacAddress.NONE ? payload.getSenderMac() : inbound.mac;
+                    PeerLocationStore.get().update(sender, payload, System.currentTimeMillis());
+                    return false;
+                })
+                .observeOn(Schedulers.computation())
+                .map(this::toChatMessage)
+                .filter(this::isForThisChat)
+                .doOnNext(renderedText::render)
                 .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(bytes -> {
-                    incomingBuffer.write(bytes, 0, bytes.length);
-                    String currentData = new String(incomingBuffer.toByteArray(), StandardCharsets.UTF_8);
+                .subscribe(this::appendMessage, t -> Log.e(TAG, "inbound", t));
+    }
 
-                    if (isCompleteJson(currentData)) {
-                        addChatMessage("RX: " + currentData, false, "Device", "DEVICE");
-                        incomingBuffer.reset();
+    private void observeConnections() {
+        Disposable d = pool.events()
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(e -> {
+                    ConnectionPool.Member member = pool.get(e.mac);
+                    if (e.connected && member != null) {
+                        devices.setState(e.mac, DeviceRegistry.State.CONNECTED);
+                        statusTextView.setText("Connected to " + pool.size() + " (MTU " + member.link.getMtu() + ")");
+                        observeTxQueue(member);
+                    } else if (!e.connected) {
+                        devices.setState(e.mac, DeviceRegistry.State.DISCOVERED);
+                        statusTextView.setText(pool.size() > 0 ? "Connected to " + pool.size() : "Disconnected");
                     }
-                }, t -> Log.e(TAG, "notif", t));
+                }, t -> Log.e(TAG, "pool events", t));
         disposables.add(d);
+        Disposable retries = supervisor.retries()
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(r -> statusTextView.setText("Connect failed, retrying in "
+                        + (r.delayMs + 999) / 1000 + " s"), t -> Log.e(TAG, "retries", t));
+        disposables.add(retries);
     }
 
-    private boolean isCompleteJson(String data) {
-        int braceCount = 0;
-        for (char c : data.toCharArray()) {
-            if (c == '{') braceCount++;
-            else if (c == '}') braceCount--;
-        }
-        return braceCount == 0 && data.trim().endsWith("}");
+    private void observeTxQueue(ConnectionPool.Member member) {
+        // Hold the user back while any board's queue is nearly full
+        Disposable d = member.txQueue.stats()
+                .takeUntil(pool.events().filter(e -> e.mac == member.mac && !e.connected))
+                .map(stats -> pool.isSaturated())
+                .distinctUntilChanged()
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(saturated -> sendBtn.setEnabled(!saturated),
+                        t -> Log.e(TAG, "tx stats", t));
+        disposables.add(d);
     }
 
     private void disconnectDevice() {
-        disposables.clear();
-        connection = null;
+        supervisor.stopAll();
+        sendBtn.setEnabled(true);
         statusTextView.setText("Disconnected");
     }
 
@@ -241,55 +411,268 @@ public class ChatFragment extends Fragment {
             // for ActivityCompat#requestPermissions for more details.
             return;
         }
-        fusedLocationClient.getLastLocation()
+        String text = messageEditText.getText().toString().trim();
+        // A recent fix is reused; only a stale cache waits on the location provider
+        Disposable d = locationCache.get()
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(fix -> splitAndSend(text, fix), t -> Toast.makeText(requireContext(),
+                        "Could not fetch location", Toast.LENGTH_SHORT).show(), () -> splitAndSend(text, null));
+        disposables.add(d);
+    }
+
+    private static LocationCache.Fix toFix(Location location) {
+        return LocationCache.Fix.of(location.getLatitude(), location.getLongitude(),
+                location.hasAccuracy() ? location.getAccuracy() : 0, location.getTime());
+    }
+
+    @SuppressLint("MissingPermission")
+    private Maybe<LocationCache.Fix> lookupLocation() {
+        // Callers have checked the location permission
+        return Maybe.create(emitter -> fusedLocationClient.getLastLocation()
                 .addOnSuccessListener(location -> {
-                    String text = messageEditText.getText().toString().trim();
-                    String msg = text;
-                    if (location != null) {
-                        msg += "\nLocation: https://www.openstreetmap.org/?mlat=" +
-                                location.getLatitude() + "&mlon=" + location.getLongitude();
+                    if (location == null) {
+                        emitter.onComplete();
+                    } else {
+                        emitter.onSuccess(toFix(location));
                     }
-                    splitAndSend(msg);
                 })
-                .addOnFailureListener(e -> Toast.makeText(requireContext(),
-                        "Could not fetch location", Toast.LENGTH_SHORT).show());
+                .addOnFailureListener(emitter::tryOnError));
     }
 
-    private void splitAndSend(String msg) {
-        if (connection == null) {
+    private void splitAndSend(String msg, @Nullable LocationCache.Fix fix) {
+        if (pool.size() == 0) {
             Toast.makeText(requireContext(), "Not connected to any device", Toast.LENGTH_SHORT).show();
             return;
         }
-        addChatMessage("TX: " + msg, true, "Me", "SELF");
+        long[] targets = sendTargets();
+        if (targets.length == 0) {
+            // Never handed to unrelated boards; the text stays in the box for a retry
+            Toast.makeText(requireContext(), conversation + " is not connected", Toast.LENGTH_SHORT).show();
+            return;
+        }
         messageEditText.setText("");
-        // sending as chunks
-        Disposable d = connection
-                .requestMtu(128)
-                .flatMapPublisher(mtu -> {
-                    byte[] data = msg.getBytes(StandardCharsets.UTF_8);
-                    List<byte[]> chunks = new ArrayList<>();
-                    for (int i = 0; i < data.length; i += CHUNK_SIZE) {
-                        int end = Math.min(data.length, i + CHUNK_SIZE);
-                        chunks.add(Arrays.copyOfRange(data, i, end));
-                    }
-                    return Flowable.fromIterable(chunks);
-                })
-                .concatMap(chunk -> connection.writeCharacteristic(RX_CHAR_UUID, chunk).toFlowable())
+        // Each board's queue serializes frames and sizes chunks from its negotiated MTU
+        String groupId = conversationEntry != null && conversationEntry.isGroup()
+                ? conversationEntry.getGroup().getWireId() : null;
+        WireMessage.Builder builder = WireMessage.builder()
+                .type(WireMessage.TYPE_MESSAGE)
+                .groupId(groupId)
+                .text(msg);
+        if (fix != null) fix.applyTo(builder);
+        WireMessage frame = relay.stamp(builder.build());
+        StringBuilder echo = new StringBuilder("TX: ").append(msg);
+        if (fix != null) {
+            echo.append('\n').append(MessageFormatter.LOCATION_PREFIX);
+            MessageFormatter.appendCoordinates(echo, frame);
+        }
+        addChatMessage(echo.toString(), true, "Me", "SELF");
+        // Boards on plain JSON take the typed text as is, with the location as a link
+        byte[] plainText = (fix != null
+                ? msg + "\n" + MessageFormatter.LOCATION_PREFIX + MessageFormatter.osmLink(frame)
+                : msg).getBytes(StandardCharsets.UTF_8);
+        Disposable d = pool.send(targets, codec -> codec == JsonCodec.INSTANCE ? plainText : codec.encode(frame))
                 .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(bytes -> Log.d(TAG, "chunk sent, size=" + bytes.length),
-                        t -> Log.e(TAG, "send failed", t));
+                .subscribe(() -> Log.d(TAG, "frame sent to " + targets.length + " boards"), t -> {
+                    if (t instanceof TxQueue.QueueFullException) {
+                        Toast.makeText(requireContext(), "Send queue full, try again", Toast.LENGTH_SHORT).show();
+                    }
+                    Log.e(TAG, "send failed", t);
+                });
         disposables.add(d);
     }
 
+    private void toggleRelay() {
+        relay.setEnabled(!relay.isEnabled());
+        Relay.Stats stats = relay.getStats();
+        String text = relay.isEnabled()
+                ? "Relay on"
+                : String.format(Locale.US, "Relay off: %d relayed (%.1f/s), %d duplicates (%.0f%%), "
+                                + "%d over hop limit, %d failed",
+                        stats.relayed, stats.getThroughput(), stats.duplicates, stats.getCacheHitRate() * 100,
+                        stats.hopLimited, stats.forwardFailures);
+        Toast.makeText(requireContext(), text, Toast.LENGTH_LONG).show();
+    }
+
+    private void toggleLocationShare() {
+        if (locationShare != null) {
+            locationShare.dispose();
+            locationShare = null;
+            Toast.makeText(requireContext(), "Stopped sharing location", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (ContextCompat.checkSelfPermission(requireContext(),
+                Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
+            Toast.makeText(requireContext(), "Location permission needed", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        locationSharer.reset();
+        // The provider is re-asked at the sharer's pace and only fixes that moved far enough go
+        // out, delta-coded per board; keeps going while the map is open, until switched off
+        locationShare = locationSharer.pollIntervals()
+                .distinctUntilChanged()
+                .switchMap(this::locationUpdates)
+                .doOnNext(locationCache::offer)
+                .filter(locationSharer::offer)
+                .concatMapCompletable(fix -> pool.size() == 0 ? Completable.complete()
+                        : pool.sendLocation(sendTargets(),
+                                fix.applyTo(WireMessage.builder().type(WireMessage.TYPE_LOCATION)).build())
+                        .doOnError(t -> Log.e(TAG, "location send failed", t))
+                        .onErrorComplete())
+                .subscribe(() -> { }, t -> {
+                    Log.e(TAG, "location share", t);
+                    locationShare = null;
+                    Toast.makeText(appContext, "Location sharing stopped", Toast.LENGTH_SHORT).show();
+                });
+        Toast.makeText(requireContext(), "Sharing location", Toast.LENGTH_SHORT).show();
+    }
+
+    @SuppressLint("MissingPermission")
+    private Observable<LocationCache.Fix> locationUpdates(long intervalMs) {
+        // Callers have checked the location permission; updates arrive on the main thread
+        return Observable.create(emitter -> {
+            LocationCallback callback = new LocationCallback() {
+                @Override
+                public void onLocationResult(@NonNull LocationResult result) {
+                    for (Location location : result.getLocations()) emitter.onNext(toFix(location));
+                }
+            };
+            LocationRequest request = new LocationRequest.Builder(Priority.PRIORITY_HIGH_ACCURACY, intervalMs).build();
+            fusedLocationClient.requestLocationUpdates(request, callback, Looper.getMainLooper())
+                    .addOnFailureListener(emitter::tryOnError);
+            emitter.setCancellable(() -> fusedLocationClient.removeLocationUpdates(callback));
+        });
+    }
+
+    /**
+     * Boards a message from this chat goes to: the members' connected boards for a
+     * group, the contact's board if it is connected, or none. A chat with no
+     * contact entry has no recipient of its own and goes to every connected board.
+     */
+    private long[] sendTargets() {
+        long[] bound;
+        if (conversationEntry == null) {
+            return pool.connected();
+        } else if (conversationEntry.isGroup()) {
+            bound = contacts.memberDevices(conversationEntry.getGroup());
+        } else {
+            bound = new long[]{conversationEntry.getDeviceMac()};
+        }
+        long[] targets = new long[bound.length];
+        int n = 0;
+        for (long mac : bound) {
+            if (pool.isConnected(mac)) targets[n++] = mac;
+        }
+        return n == targets.length ? targets : Arrays.copyOf(targets, n);
+    }
+
+    private ChatMessage toChatMessage(ConnectionPool.Inbound inbound) {
+        // Parsed once here; binding only reads the decoded fields
+        WireMessage payload = inbound.message;
+        long sender = payload.getSenderMac() != MacAddress.NONE ? payload.getSenderMac() : inbound.mac;
+        return new ChatMessage(payload, false, "Device", MacAddress.format(sender));
+    }
+
     private void addChatMessage(String text, boolean isSent, String senderName, String senderMac) {
-        chatMessages.add(new ChatMessage(text, isSent, senderName, senderMac, false, ""));
-        chatAdapter.notifyItemInserted(chatMessages.size() - 1);
-        chatRecyclerView.scrollToPosition(chatMessages.size() - 1);
+        appendMessage(new ChatMessage(text, isSent, senderName, senderMac, false, ""));
+    }
+
+    /**
+     * Adds a message to the window and the log, in the same order, whether or not
+     * the list is showing; a list created later reads it from the window.
+     */
+    private void appendMessage(ChatMessage message) {
+        messageWindow.append(message);
+        logMessage(message);
+        if (getView() == null) return;
+        chatAdapter.notifyItemInserted(messageWindow.size() - 1);
+        chatRecyclerView.scrollToPosition(messageWindow.size() - 1);
+    }
+
+    private void loadHistory() {
+        if (chatLog != null || historyLoad != null) return;
+        // Only the newest page is read, however long the chat is
+        historyLoad = Single.fromCallable(() -> {
+                    ChatLog log = ChatLogs.get(appContext, conversation);
+                    chatLog = log;
+                    return MessageWindow.readHead(log);
+                })
+                .subscribeOn(Schedulers.single())
+                .observeOn(AndroidSchedulers.mainThread())
+                // Anything added while the log was opening is logged after the history
+                .subscribe(head -> {
+                    messageWindow.attach(chatLog, head);
+                    // Attaching scrolls to the newest message; a message picked on the map wins
+                    if (pendingPosition >= 0) scrollToMessage(pendingPosition);
+                }, t -> Log.e(TAG, "history", t));
+    }
+
+    /** Fragment result key under which the map sends {@code conversation} a message to show. */
+    public static String showMessageRequest(String conversation) {
+        return "showMessage:" + conversation;
+    }
+
+    private void scrollToMessage(int position) {
+        if (getView() == null || !messageWindow.isAttached()) {
+            pendingPosition = position;
+            return;
+        }
+        pendingPosition = -1;
+        if (position >= 0 && position < messageWindow.size()) {
+            ((LinearLayoutManager) chatRecyclerView.getLayoutManager()).scrollToPositionWithOffset(position, 0);
+        }
+    }
+
+    /**
+     * Frames for a group other than this chat go straight to that group's log;
+     * the lookup is by interned group, no name parsing.
+     */
+    private boolean isForThisChat(ChatMessage message) {
+        Group group = contacts.findGroup(message.getPayload().getGroupId());
+        if (group == null || (conversationEntry != null && group.getId() == conversationEntry.getId())) {
+            return true;
+        }
+        Completable.fromAction(() -> ChatLogs.get(appContext, group.getName()).append(message))
+                .subscribeOn(Schedulers.single())
+                .subscribe(() -> { }, t -> Log.e(TAG, "route to " + group.getName(), t));
+        return false;
+    }
+
+    private void logMessage(ChatMessage message) {
+        Completable.fromAction(() -> {
+                    ChatLog log = chatLog;
+                    if (log != null) log.append(message);
+                })
+                .subscribeOn(Schedulers.single())
+                .subscribe(() -> { }, t -> Log.e(TAG, "chat log", t));
     }
 
     @Override
     public void onDestroyView() {
         super.onDestroyView();
         disposables.clear();
+        renderedText.cancelPrefetch();
+        messageWindow.cancelLoads();
+        messageWindow.setListener(null);
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        if (historyLoad != null) historyLoad.dispose();
+        if (locationShare != null) locationShare.dispose();
+        if (inboundRoute != null) inboundRoute.dispose();
+        // Boards stay connected while the chat is in the back stack, e.g. under the map
+        supervisor.stopAll();
+        // The log stays open for routed frames; just make what we wrote durable
+        Schedulers.single().scheduleDirect(() -> {
+            ChatLog log = chatLog;
+            chatLog = null;
+            if (log == null) return;
+            try {
+                log.sync();
+            } catch (Exception e) {
+                Log.e(TAG, "chat log sync", e);
+            }
+        });
     }
 }
@@ -1,12 +1,22 @@
 package com.example.whatapp;
 
+import com.example.whatapp.wire.WireMessage;
+
+import java.util.concurrent.atomic.AtomicLong;
+
 public class ChatMessage {
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    // Stable key for caches, unlike the adapter position
+    private long id = NEXT_ID.incrementAndGet();
     private String message;
     private boolean isSent;
     private String senderName;
     private String senderMac;
     private boolean isGroupMessage;
     private String groupId;
+    // Decoded frame, parsed once at ingest; null for locally typed text
+    private WireMessage payload;
 
     // Constructor for simple messages (backward compatibility)
     public ChatMessage(String message, boolean isSentByUser) {
@@ -29,7 +39,18 @@ public class ChatMessage {
         this.groupId = groupId;
     }
 
+    // Constructor for frames received from a board
+    public ChatMessage(WireMessage payload, boolean isSent, String senderName, String senderMac) {
+        this(payload.getText() != null ? payload.getText() : "", isSent, senderName, senderMac,
+                payload.getGroupId() != null && !payload.getGroupId().isEmpty(), payload.getGroupId());
+        this.payload = payload;
+    }
+
     // Getters
+    public long getId() {
+        return id;
+    }
+
     public String getMessage() {
         return message;
     }
@@ -59,7 +80,15 @@ public class ChatMessage {
         return groupId;
     }
 
+    public WireMessage getPayload() {
+        return payload;
+    }
+
     // Setters
+    public void setId(long id) {
+        this.id = id;
+    }
+
     public void setMessage(String message) {
         this.message = message;
     }
@@ -83,4 +112,8 @@ public class ChatMessage {
     public void setGroupId(String groupId) {
         this.groupId = groupId;
     }
+
+    public void setPayload(WireMessage payload) {
+        this.payload = payload;
+    }
 }
\ No newline at end of file
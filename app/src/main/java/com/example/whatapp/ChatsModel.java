@@ -1,13 +1,49 @@
 package com.example.whatapp;
 
+import com.example.whatapp.data.Group;
+import com.example.whatapp.wire.MacAddress;
+
 public class ChatsModel {
+    public static final int NO_ID = -1;
+
+    private final int id;
     private String name;
+    // Set for group entries, null for contacts
+    private final Group group;
+    // Board this contact was last connected through, as a packed MAC
+    private long deviceMac = MacAddress.NONE;
 
     public ChatsModel(String name) {
+        this(NO_ID, name, null);
+    }
+
+    public ChatsModel(int id, String name, Group group) {
+        this.id = id;
         this.name = name;
+        this.group = group;
+    }
+
+    public int getId() {
+        return id;
     }
 
     public String getName() {
         return name;
     }
+
+    public Group getGroup() {
+        return group;
+    }
+
+    public boolean isGroup() {
+        return group != null;
+    }
+
+    public long getDeviceMac() {
+        return deviceMac;
+    }
+
+    public void setDeviceMac(long deviceMac) {
+        this.deviceMac = deviceMac;
+    }
 }
@@ -0,0 +1,95 @@
+package com.example.whatapp;
+
+import com.example.whatapp.wire.JsonCodec;
+import com.example.whatapp.wire.MacAddress;
+import com.example.whatapp.wire.WireMessage;
+
+/**
+ * Builds the text shown in a chat bubble.
+ * <p>
+ * Received frames are formatted from the fields decoded once at ingest, so no
+ * JSON is looked at while binding. Plain text typed on this phone is shown as is.
+ */
+public final class MessageFormatter {
+
+    public static final String LOCATION_PREFIX = "Location: ";
+    static final String OSM_URL = "https://www.openstreetmap.org/?mlat=";
+
+    private MessageFormatter() { }
+
+    public static String format(ChatMessage chat) {
+        StringBuilder formatted = new StringBuilder();
+        WireMessage payload = chat.getPayload();
+
+        if (payload != null) {
+            if (payload.getSenderMac() != MacAddress.NONE) {
+                formatted.append("From: ").append(chat.getSenderName()).append("\n");
+            }
+
+            String groupId = payload.getGroupId();
+            if (groupId != null && !groupId.isEmpty()) {
+                formatted.append("To: Group ").append(groupId).append("\n");
+            } else {
+                formatted.append("To: All\n");
+            }
+
+            if (payload.hasLocation()) {
+                formatted.append(LOCATION_PREFIX);
+                appendCoordinates(formatted, payload);
+                if (payload.getAccuracyM() != WireMessage.NO_ACCURACY) {
+                    formatted.append(" (\u00b1").append(payload.getAccuracyM()).append(" m)");
+                }
+                formatted.append("\n");
+            }
+
+            String message = payload.getText();
+            String type = payload.getType();
+            if (message != null && !message.isEmpty()) {
+                formatted.append("Message: ").append(message);
+            } else if (type != null) {
+                // Handle system messages
+                switch (type) {
+                    case WireMessage.TYPE_GROUP_CREATE:
+                        formatted.append("System: Group created");
+                        break;
+                    case WireMessage.TYPE_GROUP_JOIN:
+                        formatted.append("System: Device joined");
+                        break;
+                    case WireMessage.TYPE_GROUP_INVITE:
+                        formatted.append("System: Invitation sent");
+                        break;
+                    default:
+                        formatted.append("System: ").append(type);
+                }
+            }
+        } else if (chat.isGroupMessage() && !chat.isSent()) {
+            // Non-frame messages only need sender info for groups
+            formatted.append("From: ").append(chat.getSenderName()).append("\n");
+            formatted.append("To: Group ").append(chat.getGroupId()).append("\n");
+            formatted.append(chat.getMessage());
+        } else {
+            formatted.append(chat.getMessage());
+        }
+
+        return formatted.toString();
+    }
+
+    /**
+     * The location as an OpenStreetMap link, for boards that only pass text on.
+     * Frames carry the coordinates themselves and are linked when displayed.
+     */
+    public static String osmLink(WireMessage payload) {
+        StringBuilder sb = new StringBuilder(OSM_URL.length() + 32).append(OSM_URL);
+        JsonCodec.appendE6(sb, payload.getLatitudeE6());
+        sb.append("&mlon=");
+        JsonCodec.appendE6(sb, payload.getLongitudeE6());
+        return sb.toString();
+    }
+
+    /** "lat, lon" with six decimals, the form shown after {@link #LOCATION_PREFIX}. */
+    public static void appendCoordinates(StringBuilder sb, WireMessage payload) {
+        JsonCodec.appendE6(sb, payload.getLatitudeE6());
+        sb.append(", ");
+        JsonCodec.appendE6(sb, payload.getLongitudeE6());
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.whatapp;
+
+import android.os.Bundle;
+import android.text.Spannable;
+import android.text.SpannableString;
+import android.text.style.ClickableSpan;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.navigation.Navigation;
+
+import com.example.whatapp.data.MessageWindow;
+import com.example.whatapp.wire.WireMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+
+/**
+ * Bubble text for chat rows, rendered once per message and kept in an LRU
+ * keyed by {@link ChatMessage#getId()}.
+ * <p>
+ * Rendering (formatting, coordinate spans and, once the row's text metrics are
+ * known, {@link PrecomputedTextCompat} measurement) runs on a background
+ * scheduler, either at ingest or just ahead of the scroll position, so binding a row
+ * normally only assigns the cached result.
+ */
+public final class RenderedTextCache {
+    private static final String TAG = "RenderedTextCache";
+
+    // Budget in characters; a typical bubble is well under 200
+    static final int DEFAULT_MAX_CHARS = 200_000;
+    // Rows rendered ahead of the bound position in the scroll direction
+    static final int PREFETCH_DISTANCE = 40;
+
+    private static final Pattern COORD_TEXT_PATTERN = Pattern.compile(
+            "(\\d+\\.\\d+),\\s*(\\d+\\.\\d+)"
+    );
+
+    private final LruCache<Long, CharSequence> cache;
+    private final Scheduler scheduler;
+    private final AtomicBoolean prefetching = new AtomicBoolean();
+
+    private volatile PrecomputedTextCompat.Params textMetrics;
+    // Passed to the map so it can plot the rest of the conversation's locations
+    private volatile String conversation;
+
+    // Main thread only
+    private int lastBound = -1;
+    private int prefetchedFrom;
+    private int prefetchedTo;
+    private Disposable prefetchTask;
+
+    public RenderedTextCache() {
+        this(DEFAULT_MAX_CHARS, Schedulers.computation());
+    }
+
+    public RenderedTextCache(int maxChars, Scheduler scheduler) {
+        this.cache = new LruCache<Long, CharSequence>(maxChars) {
+            @Override protected int sizeOf(Long key, CharSequence value) {
+                return Math.max(1, value.length());
+            }
+        };
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Metrics of the bubble TextView. Text rendered after this is precomputed
+     * against them; anything cached earlier is dropped so it gets measured too.
+     */
+    public void setTextMetrics(@NonNull PrecomputedTextCompat.Params params) {
+        if (params.equals(textMetrics)) return;
+        textMetrics = params;
+        cache.evictAll();
+    }
+
+    /** Conversation the rendered messages belong to; set before rendering. */
+    public void setConversation(String conversation) {
+        this.conversation = conversation;
+    }
+
+    public CharSequence get(ChatMessage message) {
+        return cache.get(message.getId());
+    }
+
+    /** Cached text, rendering it on the calling thread on a miss. */
+    public CharSequence getOrRender(ChatMessage message) {
+        CharSequence text = cache.get(message.getId());
+        return text != null ? text : render(message);
+    }
+
+    /** Renders and caches; safe to call from any thread. */
+    public CharSequence render(ChatMessage message) {
+        String formatted = MessageFormatter.format(message);
+        SpannableString spannable = new SpannableString(formatted);
+        makeCoordinatesClickable(spannable, formatted, message.getPayload());
+
+        CharSequence text = spannable;
+        PrecomputedTextCompat.Params params = textMetrics;
+        if (params != null) {
+            text = PrecomputedTextCompat.create(spannable, params);
+        }
+        cache.put(message.getId(), text);
+        return text;
+    }
+
+    /**
+     * Called on bind: renders the next rows in the scroll direction that are not
+     * cached yet, one batch at a time.
+     */
+    public void prefetch(MessageWindow messages, int position) {
+        boolean forward = position >= lastBound;
+        lastBound = position;
+        if (forward ? position + PREFETCH_DISTANCE / 2 < prefetchedTo
+                : position - PREFETCH_DISTANCE / 2 >= prefetchedFrom && position <= prefetchedTo) {
+            return;
+        }
+        if (!prefetching.compareAndSet(false, true)) return;
+
+        int from = forward ? position + 1 : Math.max(0, position - PREFETCH_DISTANCE);
+        int to = forward ? Math.min(messages.size(), position + 1 + PREFETCH_DISTANCE) : position;
+        List<ChatMessage> batch = new ArrayList<>(Math.max(0, to - from));
+        for (int i = from; i < to; i++) {
+            ChatMessage message = messages.peek(i);
+            if (message != null && cache.get(message.getId()) == null) batch.add(message);
+        }
+        prefetchedFrom = from;
+        prefetchedTo = to;
+        if (batch.isEmpty()) {
+            prefetching.set(false);
+            return;
+        }
+        prefetchTask = Completable.fromAction(() -> {
+                    for (ChatMessage message : batch) render(message);
+                })
+                .subscribeOn(scheduler)
+                .doFinally(() -> prefetching.set(false))
+                .subscribe(() -> { }, t -> Log.e(TAG, "prefetch", t));
+    }
+
+    public void invalidate(ChatMessage message) {
+        cache.remove(message.getId());
+    }
+
+    /** Stops rendering ahead, e.g. when the list goes away; cached text is kept. */
+    public void cancelPrefetch() {
+        if (prefetchTask != null) prefetchTask.dispose();
+        prefetchTask = null;
+        prefetching.set(false);
+        lastBound = -1;
+        prefetchedFrom = prefetchedTo = 0;
+    }
+
+    public void clear() {
+        cancelPrefetch();
+        cache.evictAll();
+    }
+
+    private void makeCoordinatesClickable(SpannableString spannable, String text, WireMessage payload) {
+        if (payload != null) {
+            // Position is known from the formatter, no need to search the text
+            if (!payload.hasLocation()) return;
+            int start = text.indexOf(MessageFormatter.LOCATION_PREFIX);
+            if (start < 0) return;
+            start += MessageFormatter.LOCATION_PREFIX.length();
+            int end = text.indexOf('\n', start);
+            setCoordinateSpan(spannable, payload.getLatitude(), payload.getLongitude(),
+                    start, end < 0 ? text.length() : end);
+            return;
+        }
+
+        // Look for coordinate patterns like "12.3456, 78.9012" in plain text
+        Matcher matcher = COORD_TEXT_PATTERN.matcher(text);
+        while (matcher.find()) {
+            setCoordinateSpan(spannable, Double.parseDouble(matcher.group(1)),
+                    Double.parseDouble(matcher.group(2)), matcher.start(), matcher.end());
+        }
+    }
+
+    private void setCoordinateSpan(SpannableString spannable, final double lat, final double lon,
+                                   int start, int end) {
+        // Only captures values, so cached text never holds on to a view
+        final String conversation = this.conversation;
+        spannable.setSpan(new ClickableSpan() {
+            @Override public void onClick(@NonNull View widget) {
+                Bundle args = new Bundle();
+                args.putDouble("lat", lat);
+                args.putDouble("lon", lon);
+                if (conversation != null) args.putString("conversation", conversation);
+                Navigation.findNavController(widget)
+                        .navigate(R.id.action_chatFragment_to_mapFragment, args);
+            }
+        }, start, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+    }
+}
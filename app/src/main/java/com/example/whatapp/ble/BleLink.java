@@ -0,0 +1,122 @@
+package com.example.whatapp.ble;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import com.polidea.rxandroidble3.LongWriteOperationBuilder;
+import com.polidea.rxandroidble3.RxBleConnection;
+
+import java.util.UUID;
+
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Single;
+
+/**
+ * Write side of one GATT connection to the board's NUS RX characteristic.
+ * <p>
+ * The MTU is negotiated once per connection (asking for the maximum of 517)
+ * and the granted value is cached, so chunk sizing follows whatever the
+ * peripheral accepted instead of a hard-coded 125 bytes. Frames that do not
+ * fit into one ATT write go through RxAndroidBle's long-write builder, which
+ * keeps all batches of the frame together in the operation queue. When the
+ * characteristic supports it, writes are issued without response.
+ */
+public final class BleLink {
+
+    public static final int DEFAULT_MTU = 23;
+    public static final int MAX_MTU = 517;
+    // ATT opcode + attribute handle
+    private static final int ATT_WRITE_OVERHEAD = 3;
+    // Longest attribute value allowed by the spec
+    private static final int MAX_ATTRIBUTE_LENGTH = 512;
+
+    private final RxBleConnection connection;
+    private final UUID characteristicUuid;
+    private final Single<Integer> mtu;
+    private final Single<WriteTarget> target;
+
+    private volatile int grantedMtu = DEFAULT_MTU;
+
+    public BleLink(RxBleConnection connection, UUID characteristicUuid) {
+        this.connection = connection;
+        this.characteristicUuid = characteristicUuid;
+        this.mtu = connection.requestMtu(MAX_MTU)
+                .onErrorReturn(t -> connection.getMtu())
+                .doOnSuccess(value -> grantedMtu = value)
+                .cache();
+        this.target = connection.getCharacteristic(characteristicUuid)
+                .map(WriteTarget::configure)
+                // Fall back to UUID addressed writes if discovery is unavailable
+                .onErrorReturn(t -> WriteTarget.BY_UUID)
+                .cache();
+    }
+
+    public RxBleConnection getConnection() {
+        return connection;
+    }
+
+    /** Negotiates the MTU on first subscription; later subscribers get the cached value. */
+    public Single<Integer> negotiateMtu() {
+        return mtu;
+    }
+
+    public int getMtu() {
+        return grantedMtu;
+    }
+
+    /** Largest payload a single ATT write can carry with the current MTU. */
+    public int getPayloadSize() {
+        return Math.min(grantedMtu - ATT_WRITE_OVERHEAD, MAX_ATTRIBUTE_LENGTH);
+    }
+
+    /** Writes bytes that already fit into one ATT packet. */
+    public Single<byte[]> writeChunk(byte[] chunk) {
+        return target.flatMap(t -> t.characteristic != null
+                ? connection.writeCharacteristic(t.characteristic, chunk)
+                : connection.writeCharacteristic(characteristicUuid, chunk));
+    }
+
+    /**
+     * Writes a whole frame, splitting it by the negotiated payload size when needed.
+     */
+    public Completable writeFrame(byte[] frame) {
+        return mtu.flatMapCompletable(ignored -> {
+            int payload = getPayloadSize();
+            if (frame.length <= payload) {
+                return writeChunk(frame).ignoreElement();
+            }
+            return target.flatMapObservable(t -> longWriteBuilder(t)
+                            .setBytes(frame)
+                            .setMaxBatchSize(payload)
+                            .build())
+                    .ignoreElements();
+        });
+    }
+
+    private LongWriteOperationBuilder longWriteBuilder(WriteTarget t) {
+        LongWriteOperationBuilder builder = connection.createNewLongWriteBuilder();
+        if (t.characteristic != null) {
+            builder.setCharacteristic(t.characteristic);
+        } else {
+            builder.setCharacteristicUuid(characteristicUuid);
+        }
+        return builder;
+    }
+
+    private static final class WriteTarget {
+        static final WriteTarget BY_UUID = new WriteTarget(null);
+
+        final BluetoothGattCharacteristic characteristic;
+
+        private WriteTarget(BluetoothGattCharacteristic characteristic) {
+            this.characteristic = characteristic;
+        }
+
+        static WriteTarget configure(BluetoothGattCharacteristic characteristic) {
+            if ((characteristic.getProperties()
+                    & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0) {
+                characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+            }
+            return new WriteTarget(characteristic);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.whatapp.ble;
+
+import com.example.whatapp.wire.BinaryCodec;
+import com.example.whatapp.wire.DeflateCodec;
+import com.example.whatapp.wire.JsonCodec;
+import com.example.whatapp.wire.LocationDelta;
+import com.example.whatapp.wire.WireCodec;
+import com.example.whatapp.wire.WireCodecs;
+import com.example.whatapp.wire.WireMessage;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Per-connection capability handshake that picks the codec used for sending.
+ * <p>
+ * Right after connecting, the app announces the codecs it supports, most
+ * preferred first, in a JSON caps frame that every board can parse:
+ * {@code {"type":"caps","message":"bin1,json"}}. A board that understands the
+ * handshake answers with its own caps frame, and the first codec in our list
+ * that the board also supports wins. Boards that never answer keep getting
+ * JSON. Receiving always accepts both formats, whatever was negotiated.
+ * <p>
+ * After the codecs the hello lists optional features; {@value #RELIABLE}
+ * means frames may be sent through {@link ReliableTransport}, and
+ * {@value #COMPRESSED} that the negotiated codec's frames may be wrapped in a
+ * {@link DeflateCodec} envelope, and {@value #LOCATION_DELTAS} that live
+ * positions may be sent as {@link LocationDelta} updates.
+ */
+public final class CodecNegotiator {
+
+    public static final String RELIABLE = "rel1";
+    public static final String COMPRESSED = DeflateCodec.NAME;
+    public static final String LOCATION_DELTAS = LocationDelta.NAME;
+
+    private static final WireCodec[] PREFERRED = {BinaryCodec.INSTANCE, JsonCodec.INSTANCE};
+
+    private volatile WireCodec codec = JsonCodec.INSTANCE;
+    private volatile boolean negotiated;
+    private volatile boolean reliable;
+    private volatile boolean compressed;
+    private volatile boolean locationDeltas;
+
+    /** The caps frame to send once the link is up. Always JSON. */
+    public byte[] helloFrame() {
+        StringBuilder names = new StringBuilder();
+        for (WireCodec c : PREFERRED) {
+            if (names.length() > 0) names.append(',');
+            names.append(c.name());
+        }
+        names.append(',').append(RELIABLE).append(',').append(COMPRESSED)
+                .append(',').append(LOCATION_DELTAS);
+        return JsonCodec.INSTANCE.encode(WireMessage.builder()
+                .type(WireMessage.TYPE_CAPS)
+                .text(names.toString())
+                .build());
+    }
+
+    /**
+     * Consumes caps frames from the board.
+     *
+     * @return true if the message was part of the handshake and should not be shown
+     */
+    public boolean handle(WireMessage message) {
+        if (!WireMessage.TYPE_CAPS.equals(message.getType())) return false;
+        String offered = message.getText() != null ? message.getText() : "";
+        String[] names = offered.split(",");
+        for (int i = 0; i < names.length; i++) names[i] = names[i].trim();
+        List<String> offeredNames = Arrays.asList(names);
+        reliable = offeredNames.contains(RELIABLE);
+        compressed = offeredNames.contains(COMPRESSED);
+        locationDeltas = offeredNames.contains(LOCATION_DELTAS);
+        for (WireCodec candidate : PREFERRED) {
+            for (String name : offeredNames) {
+                if (candidate == WireCodecs.forName(name)) {
+                    codec = compressed ? DeflateCodec.wrapping(candidate) : candidate;
+                    negotiated = true;
+                    return true;
+                }
+            }
+        }
+        return true;
+    }
+
+    public WireCodec getCodec() {
+        return codec;
+    }
+
+    public boolean isNegotiated() {
+        return negotiated;
+    }
+
+    /** True if the board acks segments of the {@link ReliableTransport}. */
+    public boolean isReliable() {
+        return reliable;
+    }
+
+    /** True if the board inflates {@link DeflateCodec} frames; {@link #getCodec()} then compresses. */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /** True if the board passes on {@link LocationDelta} updates. */
+    public boolean isLocationDeltas() {
+        return locationDeltas;
+    }
+
+    public void reset() {
+        codec = JsonCodec.INSTANCE;
+        negotiated = false;
+        reliable = false;
+        compressed = false;
+        locationDeltas = false;
+    }
+}
@@ -0,0 +1,330 @@
+package com.example.whatapp.ble;
+
+import com.example.whatapp.wire.LocationDelta;
+import com.example.whatapp.wire.MacAddress;
+import com.example.whatapp.wire.WireCodec;
+import com.example.whatapp.wire.WireMessage;
+import com.polidea.rxandroidble3.RxBleConnection;
+import com.polidea.rxandroidble3.RxBleDevice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.disposables.CompositeDisposable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+import io.reactivex.rxjava3.subjects.SingleSubject;
+import io.reactivex.rxjava3.subjects.Subject;
+
+/**
+ * Open connections to several boards at once.
+ * <p>
+ * Every board gets its own {@link BleLink}, {@link TxQueue}, frame decoder and
+ * codec handshake, so a slow or chatty board never holds up the others.
+ * Decoded frames from all boards arrive on one {@link #inbound()} stream,
+ * tagged with the board's MAC. Sends go to one board, a subset or all of them;
+ * the writes run in parallel, one queue per board.
+ * <p>
+ * The pool owns the connection subscriptions: a board stays connected until
+ * {@link #disconnect} or until the link drops, whoever subscribed to
+ * {@link #connect}.
+ */
+public final class ConnectionPool {
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 4;
+
+    /** Raised by {@link #connect} when every slot is taken. */
+    public static final class PoolFullException extends IllegalStateException {
+        PoolFullException(int max) {
+            super("Connection pool full: " + max + " boards connected");
+        }
+    }
+
+    /** Builds the frame for one board from the codec negotiated with it. */
+    public interface FrameEncoder {
+        byte[] encode(WireCodec codec);
+    }
+
+    /** A decoded frame and the board it came from. */
+    public static final class Inbound {
+        public final long mac;
+        public final WireMessage message;
+
+        Inbound(long mac, WireMessage message) {
+            this.mac = mac;
+            this.message = message;
+        }
+    }
+
+    /** A board joining or leaving the pool; {@code error} is set when the link failed. */
+    public static final class Event {
+        public final long mac;
+        public final boolean connected;
+        public final Throwable error;
+
+        Event(long mac, boolean connected, Throwable error) {
+            this.mac = mac;
+            this.connected = connected;
+            this.error = error;
+        }
+    }
+
+    /** One connected board. */
+    public static final class Member {
+        public final long mac;
+        public final RxBleConnection connection;
+        public final BleLink link;
+        public final TxQueue txQueue;
+        public final ReliableTransport transport;
+        final FrameDecoder decoder = new FrameDecoder();
+        final CodecNegotiator negotiator = new CodecNegotiator();
+        final LocationDelta.Encoder locationEncoder = new LocationDelta.Encoder();
+
+        Member(long mac, RxBleConnection connection, UUID writeUuid) {
+            this.mac = mac;
+            this.connection = connection;
+            this.link = new BleLink(connection, writeUuid);
+            this.txQueue = new TxQueue(link);
+            // Segments go through the queue like any other write
+            this.transport = new ReliableTransport(new ReliableTransport.Channel() {
+                @Override public int payloadSize() {
+                    return link.getPayloadSize();
+                }
+
+                @Override public Completable write(byte[] frame) {
+                    return txQueue.send(frame);
+                }
+            }, decoder, ReliableTransport.DEFAULT_WINDOW, Schedulers.computation());
+            decoder.setTransport(transport);
+        }
+
+        public WireCodec getCodec() {
+            return negotiator.getCodec();
+        }
+
+        public boolean isReliable() {
+            return negotiator.isReliable();
+        }
+    }
+
+    private static final class Slot {
+        final SingleSubject<Member> ready = SingleSubject.create();
+        final CompositeDisposable disposables = new CompositeDisposable();
+        Member member;
+    }
+
+    private final UUID writeUuid;
+    private final UUID notifyUuid;
+    private final int maxConnections;
+    private final Subject<Inbound> inbound = PublishSubject.<Inbound>create().toSerialized();
+    private final Subject<Event> events = PublishSubject.<Event>create().toSerialized();
+
+    // Guarded by this; connecting and connected boards in connect order
+    private final Map<Long, Slot> slots = new LinkedHashMap<>();
+
+    /**
+     * @param writeUuid  characteristic frames are written to
+     * @param notifyUuid characteristic the board notifies frames on
+     */
+    public ConnectionPool(UUID writeUuid, UUID notifyUuid, int maxConnections) {
+        this.writeUuid = writeUuid;
+        this.notifyUuid = notifyUuid;
+        this.maxConnections = maxConnections;
+    }
+
+    public Single<Member> connect(RxBleDevice device) {
+        return connect(MacAddress.parse(device.getMacAddress()), device.establishConnection(false));
+    }
+
+    /**
+     * Connects through {@code connection}, which stays subscribed for as long as the
+     * board is in the pool. Emits once the MTU is negotiated and the caps frame is
+     * written; connecting a board that is already in the pool joins that attempt.
+     */
+    public Single<Member> connect(long mac, Observable<RxBleConnection> connection) {
+        return Single.defer(() -> {
+            Slot slot;
+            synchronized (this) {
+                slot = slots.get(mac);
+                if (slot != null) return slot.ready;
+                if (slots.size() >= maxConnections) return Single.error(new PoolFullException(maxConnections));
+                slot = new Slot();
+                slots.put(mac, slot);
+            }
+            Slot s = slot;
+            s.disposables.add(connection.subscribe(
+                    conn -> onConnected(mac, s, conn),
+                    t -> drop(mac, s, t),
+                    () -> drop(mac, s, null)));
+            return s.ready;
+        });
+    }
+
+    private void onConnected(long mac, Slot slot, RxBleConnection connection) {
+        Member member = new Member(mac, connection, writeUuid);
+        synchronized (this) {
+            if (slots.get(mac) != slot || slot.member != null) return;
+            slot.member = member;
+        }
+        // Decoding stays on the BLE callback thread; subscribers pick their own scheduler
+        slot.disposables.add(connection.setupNotification(notifyUuid)
+                .flatMap(obs -> obs)
+                .concatMapIterable(member.decoder::feed)
+                .filter(message -> !member.negotiator.handle(message))
+                .subscribe(message -> inbound.onNext(new Inbound(mac, message)), t -> drop(mac, slot, t)));
+        slot.disposables.add(member.link.negotiateMtu()
+                .flatMap(mtu -> member.txQueue.send(member.negotiator.helloFrame()).toSingleDefault(mtu))
+                .subscribe(mtu -> {
+                    events.onNext(new Event(mac, true, null));
+                    slot.ready.onSuccess(member);
+                }, t -> drop(mac, slot, t)));
+    }
+
+    private void drop(long mac, Slot slot, Throwable error) {
+        boolean wasConnected;
+        synchronized (this) {
+            if (slots.get(mac) != slot) return;
+            slots.remove(mac);
+            wasConnected = slot.ready.hasValue();
+        }
+        slot.disposables.dispose();
+        if (slot.member != null) {
+            slot.member.transport.close();
+            slot.member.txQueue.dispose();
+        }
+        if (!slot.ready.hasValue()) {
+            slot.ready.onError(error != null ? error : new IllegalStateException("Disconnected"));
+        }
+        if (wasConnected || error != null) events.onNext(new Event(mac, false, error));
+    }
+
+    /** Frames from every connected board, on the BLE callback threads. */
+    public Observable<Inbound> inbound() {
+        return inbound;
+    }
+
+    public Observable<Event> events() {
+        return events;
+    }
+
+    public void disconnect(long mac) {
+        Slot slot;
+        synchronized (this) {
+            slot = slots.get(mac);
+        }
+        if (slot != null) drop(mac, slot, null);
+    }
+
+    public void disconnectAll() {
+        List<Long> macs;
+        synchronized (this) {
+            macs = new ArrayList<>(slots.keySet());
+        }
+        for (long mac : macs) disconnect(mac);
+    }
+
+    /** The board if it is connected and past the handshake, else null. */
+    public synchronized Member get(long mac) {
+        Slot slot = slots.get(mac);
+        return slot != null && slot.ready.hasValue() ? slot.member : null;
+    }
+
+    public synchronized boolean isConnected(long mac) {
+        return get(mac) != null;
+    }
+
+    /** MACs of the connected boards, in connect order. */
+    public synchronized long[] connected() {
+        long[] out = new long[slots.size()];
+        int n = 0;
+        for (Slot slot : slots.values()) {
+            if (slot.ready.hasValue()) out[n++] = slot.member.mac;
+        }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    public synchronized int size() {
+        return connected().length;
+    }
+
+    /** True if any connected board's TX queue is saturated. */
+    public synchronized boolean isSaturated() {
+        for (Slot slot : slots.values()) {
+            Member m = slot.member;
+            if (m != null && slot.ready.hasValue() && m.txQueue.getStats().isSaturated()) return true;
+        }
+        return false;
+    }
+
+    public Completable send(long mac, WireMessage message) {
+        return send(new long[]{mac}, codec -> codec.encode(message));
+    }
+
+    public Completable sendAll(FrameEncoder encoder) {
+        return send(connected(), encoder);
+    }
+
+    /**
+     * Sends to each of {@code macs} in parallel. Boards sharing a codec share the
+     * encoded frame. Completes when every board has the frame: acknowledged by boards
+     * on the {@link ReliableTransport}, written for the rest. One board failing,
+     * or not being connected, does not stop the others, and its error is reported
+     * once the rest are done.
+     */
+    public Completable send(long[] macs, FrameEncoder encoder) {
+        return Completable.defer(() -> {
+            List<Completable> writes = new ArrayList<>(macs.length);
+            Map<WireCodec, byte[]> frames = new IdentityHashMap<>(2);
+            for (long mac : macs) {
+                Member member = get(mac);
+                if (member == null) {
+                    writes.add(Completable.error(new IllegalStateException(
+                            "Not connected: " + MacAddress.format(mac))));
+                    continue;
+                }
+                WireCodec codec = member.getCodec();
+                byte[] frame = frames.get(codec);
+                if (frame == null) {
+                    frame = encoder.encode(codec);
+                    frames.put(codec, frame);
+                }
+                writes.add(member.isReliable() ? member.transport.send(frame) : member.txQueue.send(frame));
+            }
+            return Completable.mergeDelayError(writes);
+        });
+    }
+
+    /**
+     * Sends a live position update to each of {@code macs}: delta-coded against the
+     * previous update on boards that take {@link LocationDelta}, as a plain frame in the
+     * negotiated codec on the rest. Failures are reported as for {@link #send(long[], FrameEncoder)}.
+     */
+    public Completable sendLocation(long[] macs, WireMessage update) {
+        return Completable.defer(() -> {
+            List<Completable> writes = new ArrayList<>(macs.length);
+            for (long mac : macs) {
+                Member member = get(mac);
+                if (member == null) {
+                    writes.add(Completable.error(new IllegalStateException(
+                            "Not connected: " + MacAddress.format(mac))));
+                    continue;
+                }
+                boolean delta = member.negotiator.isLocationDeltas();
+                byte[] frame = delta ? member.locationEncoder.encode(update) : member.getCodec().encode(update);
+                Completable write = member.isReliable() ? member.transport.send(frame) : member.txQueue.send(frame);
+                // The board may have missed it, so the next update must not build on it
+                if (delta) write = write.doOnError(t -> member.locationEncoder.reset());
+                writes.add(write);
+            }
+            return Completable.mergeDelayError(writes);
+        });
+    }
+}
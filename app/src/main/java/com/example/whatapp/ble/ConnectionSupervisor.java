@@ -0,0 +1,290 @@
+package com.example.whatapp.ble;
+
+import android.bluetooth.BluetoothGatt;
+
+import com.example.whatapp.wire.MacAddress;
+import com.polidea.rxandroidble3.RxBleConnection;
+import com.polidea.rxandroidble3.RxBleDevice;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+import io.reactivex.rxjava3.subjects.Subject;
+
+/**
+ * Keeps supervised boards in the {@link ConnectionPool} connected.
+ * <p>
+ * When a link drops the board is reconnected at once, directly. If that fails,
+ * attempts are spaced by a jittered exponential backoff, and after
+ * {@link #DIRECT_ATTEMPTS} direct tries the connection is left to the OS with
+ * {@code autoConnect}, which waits for the board to come back in range without
+ * timing out.
+ * <p>
+ * While a board is connected its connection priority follows the traffic:
+ * {@code HIGH} as soon as its TX queue has frames or it notifies, back to
+ * {@code BALANCED} after {@link #BUSY_HOLD_MS} without traffic and to
+ * {@code LOW_POWER} after {@link #LOW_POWER_AFTER_MS}. Reconnect times and the
+ * time spent in each priority are kept per board in {@link Metrics}.
+ */
+public final class ConnectionSupervisor {
+
+    public static final long INITIAL_BACKOFF_MS = 500;
+    public static final long MAX_BACKOFF_MS = 30_000;
+    public static final int DIRECT_ATTEMPTS = 3;
+    public static final long BUSY_HOLD_MS = 2_000;
+    public static final long LOW_POWER_AFTER_MS = 30_000;
+    // Traffic within this interval of the last burst does not restart the idle timers
+    private static final long ACTIVITY_SAMPLE_MS = 250;
+    // Android has no callback for priority changes; RxAndroidBle holds its queue this long instead.
+    // The new interval applies after a few connection events, up to 125 ms apart at LOW_POWER
+    private static final long PRIORITY_SETTLE_MS = 500;
+
+    /** Opens a connection to one board. */
+    public interface Connector {
+        Observable<RxBleConnection> establish(boolean autoConnect);
+    }
+
+    /** A reconnect attempt that was scheduled after a failure. */
+    public static final class Retry {
+        public final long mac;
+        public final int attempt;
+        public final long delayMs;
+        public final boolean autoConnect;
+
+        Retry(long mac, int attempt, long delayMs, boolean autoConnect) {
+            this.mac = mac;
+            this.attempt = attempt;
+            this.delayMs = delayMs;
+            this.autoConnect = autoConnect;
+        }
+    }
+
+    /** Counters for one board. */
+    public static final class Metrics {
+        public final int reconnects;
+        public final long lastReconnectMs;
+        public final long totalReconnectMs;
+        public final int failedAttempts;
+        /** Indexed by {@code BluetoothGatt.CONNECTION_PRIORITY_*}. */
+        public final long[] timeInPriorityMs;
+
+        Metrics(int reconnects, long lastReconnectMs, long totalReconnectMs, int failedAttempts,
+                long[] timeInPriorityMs) {
+            this.reconnects = reconnects;
+            this.lastReconnectMs = lastReconnectMs;
+            this.totalReconnectMs = totalReconnectMs;
+            this.failedAttempts = failedAttempts;
+            this.timeInPriorityMs = timeInPriorityMs;
+        }
+
+        public long getAverageReconnectMs() {
+            return reconnects == 0 ? 0 : totalReconnectMs / reconnects;
+        }
+    }
+
+    private static final class Supervised {
+        final long mac;
+        final Connector connector;
+        int failures;
+        boolean up;
+        long droppedAtMs = -1;
+        Disposable pending;
+        Disposable priorityTask;
+        int priority = -1;
+        long prioritySinceMs;
+
+        int reconnects;
+        long lastReconnectMs;
+        long totalReconnectMs;
+        int failedAttempts;
+        // BALANCED, HIGH and LOW_POWER are 0, 1 and 2
+        final long[] timeInPriorityMs = new long[3];
+
+        Supervised(long mac, Connector connector) {
+            this.mac = mac;
+            this.connector = connector;
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final Scheduler scheduler;
+    private final Random random;
+    private final Subject<Retry> retries = PublishSubject.<Retry>create().toSerialized();
+    private final Disposable poolEvents;
+
+    // Guarded by this
+    private final Map<Long, Supervised> supervised = new HashMap<>();
+
+    /**
+     * @param scheduler runs backoff and idle timers, and is the clock for metrics
+     */
+    public ConnectionSupervisor(ConnectionPool pool, Scheduler scheduler, Random random) {
+        this.pool = pool;
+        this.scheduler = scheduler;
+        this.random = random;
+        this.poolEvents = pool.events()
+                .filter(e -> !e.connected)
+                .subscribe(e -> onDropped(e.mac));
+    }
+
+    public void supervise(RxBleDevice device) {
+        supervise(MacAddress.parse(device.getMacAddress()), device::establishConnection);
+    }
+
+    /** Connects the board now and keeps it connected until {@link #stop}. */
+    public synchronized void supervise(long mac, Connector connector) {
+        if (supervised.containsKey(mac)) return;
+        Supervised s = new Supervised(mac, connector);
+        supervised.put(mac, s);
+        attempt(s);
+    }
+
+    public synchronized boolean isSupervised(long mac) {
+        return supervised.containsKey(mac);
+    }
+
+    /** Stops reconnecting and disconnects the board. */
+    public void stop(long mac) {
+        Supervised s;
+        synchronized (this) {
+            s = supervised.remove(mac);
+            if (s == null) return;
+            cancel(s);
+        }
+        pool.disconnect(mac);
+    }
+
+    public void stopAll() {
+        Long[] macs;
+        synchronized (this) {
+            macs = supervised.keySet().toArray(new Long[0]);
+        }
+        for (long mac : macs) stop(mac);
+    }
+
+    public void dispose() {
+        stopAll();
+        poolEvents.dispose();
+    }
+
+    /** Reconnect attempts scheduled after failures, e.g. for a status line. */
+    public Observable<Retry> retries() {
+        return retries;
+    }
+
+    public synchronized Metrics getMetrics(long mac) {
+        Supervised s = supervised.get(mac);
+        if (s == null) return null;
+        long[] time = s.timeInPriorityMs.clone();
+        if (s.priority >= 0) time[s.priority] += now() - s.prioritySinceMs;
+        return new Metrics(s.reconnects, s.lastReconnectMs, s.totalReconnectMs, s.failedAttempts, time);
+    }
+
+    private void attempt(Supervised s) {
+        boolean autoConnect = s.failures >= DIRECT_ATTEMPTS;
+        s.pending = pool.connect(s.mac, s.connector.establish(autoConnect))
+                .subscribe(member -> onConnected(s, member), t -> onFailed(s));
+    }
+
+    private synchronized void onConnected(Supervised s, ConnectionPool.Member member) {
+        if (supervised.get(s.mac) != s) return;
+        long now = now();
+        if (s.droppedAtMs >= 0) {
+            s.reconnects++;
+            s.lastReconnectMs = now - s.droppedAtMs;
+            s.totalReconnectMs += s.lastReconnectMs;
+            s.droppedAtMs = -1;
+        }
+        s.failures = 0;
+        s.up = true;
+        // Android starts every connection at balanced
+        s.priority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+        s.prioritySinceMs = now;
+        s.priorityTask = followTraffic(s, member);
+    }
+
+    private synchronized void onFailed(Supervised s) {
+        if (supervised.get(s.mac) != s || s.up) return;
+        s.failedAttempts++;
+        int attempt = s.failures++;
+        long delay = backoff(attempt);
+        boolean autoConnect = s.failures >= DIRECT_ATTEMPTS;
+        retries.onNext(new Retry(s.mac, s.failures, delay, autoConnect));
+        s.pending = scheduler.scheduleDirect(() -> {
+            synchronized (this) {
+                if (supervised.get(s.mac) == s) attempt(s);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void onDropped(long mac) {
+        Supervised s = supervised.get(mac);
+        if (s == null || !s.up) return;
+        s.up = false;
+        s.droppedAtMs = now();
+        closePriority(s);
+        // Fast path: the board was just here, so try it again straight away
+        s.failures = 0;
+        attempt(s);
+    }
+
+    /** Equal jitter: half the exponential delay, plus a random share of the other half. */
+    long backoff(int attempt) {
+        long cap = Math.min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS << Math.min(attempt, 16));
+        long half = cap / 2;
+        return half + (long) (random.nextDouble() * (cap - half));
+    }
+
+    private Disposable followTraffic(Supervised s, ConnectionPool.Member member) {
+        Observable<Object> traffic = Observable.merge(
+                pool.inbound().filter(in -> in.mac == s.mac),
+                member.txQueue.stats().filter(stats -> stats.pendingFrames > 0));
+        return traffic
+                .throttleFirst(ACTIVITY_SAMPLE_MS, TimeUnit.MILLISECONDS, scheduler)
+                .switchMap(x -> Observable.timer(BUSY_HOLD_MS, TimeUnit.MILLISECONDS, scheduler)
+                        .map(t -> BluetoothGatt.CONNECTION_PRIORITY_BALANCED)
+                        .concatWith(Observable.timer(LOW_POWER_AFTER_MS - BUSY_HOLD_MS, TimeUnit.MILLISECONDS, scheduler)
+                                .map(t -> BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER))
+                        .startWithItem(BluetoothGatt.CONNECTION_PRIORITY_HIGH))
+                .concatMapCompletable(priority -> setPriority(s, member.connection, priority))
+                .subscribe(() -> { }, t -> { });
+    }
+
+    private Completable setPriority(Supervised s, RxBleConnection connection, int priority) {
+        synchronized (this) {
+            if (s.priority == priority || !s.up) return Completable.complete();
+            long now = now();
+            s.timeInPriorityMs[s.priority] += now - s.prioritySinceMs;
+            s.priority = priority;
+            s.prioritySinceMs = now;
+        }
+        // A rejected request only costs us the optimisation
+        return connection.requestConnectionPriority(priority, PRIORITY_SETTLE_MS, TimeUnit.MILLISECONDS)
+                .onErrorComplete();
+    }
+
+    private void closePriority(Supervised s) {
+        if (s.priorityTask != null) s.priorityTask.dispose();
+        s.priorityTask = null;
+        if (s.priority >= 0) s.timeInPriorityMs[s.priority] += now() - s.prioritySinceMs;
+        s.priority = -1;
+    }
+
+    private void cancel(Supervised s) {
+        if (s.pending != null) s.pending.dispose();
+        s.pending = null;
+        closePriority(s);
+        s.up = false;
+    }
+
+    private long now() {
+        return scheduler.now(TimeUnit.MILLISECONDS);
+    }
+}
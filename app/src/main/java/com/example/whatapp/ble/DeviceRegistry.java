@@ -0,0 +1,126 @@
+package com.example.whatapp.ble;
+
+import com.example.whatapp.wire.MacAddress;
+import com.polidea.rxandroidble3.RxBleDevice;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Boards seen by scans, keyed by their packed {@link MacAddress}.
+ * <p>
+ * Each entry holds the latest name, RSSI, last-seen time and connection state.
+ * Entries not seen within the TTL are dropped, except for devices we are
+ * connecting or connected to. The picker reads a sorted {@link #snapshot}
+ * and selects by MAC, so no display string is ever parsed back.
+ */
+public final class DeviceRegistry {
+
+    public static final long DEFAULT_TTL_MS = 30_000;
+
+    public enum State { DISCOVERED, CONNECTING, CONNECTED }
+
+    public enum Order {
+        /** Strongest smoothed signal first. */
+        RSSI,
+        /** Most recently seen first. */
+        RECENT
+    }
+
+    /** Immutable view of one device. */
+    public static final class Device {
+        public final long mac;
+        public final String name;
+        public final RxBleDevice device;
+        public final int rssi;
+        public final double smoothedRssi;
+        public final long lastSeenMs;
+        public final State state;
+
+        Device(long mac, String name, RxBleDevice device, int rssi, double smoothedRssi,
+               long lastSeenMs, State state) {
+            this.mac = mac;
+            this.name = name;
+            this.device = device;
+            this.rssi = rssi;
+            this.smoothedRssi = smoothedRssi;
+            this.lastSeenMs = lastSeenMs;
+            this.state = state;
+        }
+
+        public String getDisplayName() {
+            return name != null ? name : MacAddress.format(mac);
+        }
+    }
+
+    private static final Comparator<Device> BY_RSSI =
+            (a, b) -> Double.compare(b.smoothedRssi, a.smoothedRssi);
+    private static final Comparator<Device> BY_RECENT =
+            (a, b) -> Long.compare(b.lastSeenMs, a.lastSeenMs);
+
+    private final long ttlMs;
+    private final Map<Long, Device> devices = new HashMap<>();
+
+    public DeviceRegistry(long ttlMs) {
+        this.ttlMs = ttlMs;
+    }
+
+    /** Merges a scan snapshot; peers not in it keep their previous entry. */
+    public synchronized void update(ScanPipeline.Snapshot snapshot) {
+        for (ScanPipeline.Peer peer : snapshot.peers) {
+            seen(peer.mac, peer.name, peer.device, peer.rssi, peer.smoothedRssi, peer.lastSeenMs);
+        }
+    }
+
+    public synchronized void seen(long mac, String name, RxBleDevice device, int rssi, double smoothedRssi,
+                                  long lastSeenMs) {
+        if (mac == MacAddress.NONE) return;
+        Device old = devices.get(mac);
+        if (old != null && old.lastSeenMs > lastSeenMs) return;
+        if (name == null && old != null) name = old.name;
+        State state = old != null ? old.state : State.DISCOVERED;
+        devices.put(mac, new Device(mac, name, device, rssi, smoothedRssi, lastSeenMs, state));
+    }
+
+    /** Sets the connection state of a known device; returns false if it is not registered. */
+    public synchronized boolean setState(long mac, State state) {
+        Device d = devices.get(mac);
+        if (d == null) return false;
+        if (d.state != state) {
+            devices.put(mac, new Device(d.mac, d.name, d.device, d.rssi, d.smoothedRssi, d.lastSeenMs, state));
+        }
+        return true;
+    }
+
+    public synchronized Device get(long mac) {
+        return devices.get(mac);
+    }
+
+    public synchronized int size() {
+        return devices.size();
+    }
+
+    /** Drops devices not seen since {@code nowMs - ttl}; returns how many were dropped. */
+    public synchronized int evictStale(long nowMs) {
+        int evicted = 0;
+        for (Iterator<Device> it = devices.values().iterator(); it.hasNext(); ) {
+            Device d = it.next();
+            if (d.state == State.DISCOVERED && nowMs - d.lastSeenMs > ttlMs) {
+                it.remove();
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    public synchronized List<Device> snapshot(Order order) {
+        List<Device> list = new ArrayList<>(devices.values());
+        Collections.sort(list, order == Order.RECENT ? BY_RECENT : BY_RSSI);
+        return Collections.unmodifiableList(list);
+    }
+}
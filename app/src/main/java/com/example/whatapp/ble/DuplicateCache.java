@@ -0,0 +1,71 @@
+package com.example.whatapp.ble;
+
+import java.util.Arrays;
+
+/**
+ * Bounded memory of recently seen message ids.
+ * <p>
+ * Ids go into the current generation, an open-addressing int table; once it
+ * holds {@code capacity} ids it becomes the previous generation and the old
+ * previous one is cleared for reuse. An id is therefore remembered for at
+ * least {@code capacity} and at most {@code 2 * capacity} newer ids, memory is
+ * fixed, and unlike a Bloom filter a new id is never mistaken for a seen one.
+ */
+final class DuplicateCache {
+
+    private final int capacity;
+    private final int mask;
+    private int[] current;
+    private int[] previous;
+    private int count;
+
+    /** @param capacity ids per generation */
+    DuplicateCache(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity " + capacity);
+        this.capacity = capacity;
+        // At most half full, so probes stay short
+        int size = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        this.mask = size - 1;
+        this.current = new int[size];
+        this.previous = new int[size];
+    }
+
+    /**
+     * Records {@code id}, which must not be 0.
+     *
+     * @return true if it was not already remembered
+     */
+    synchronized boolean add(int id) {
+        if (id == 0) throw new IllegalArgumentException("id 0");
+        if (contains(previous, id)) return false;
+        int slot = mix(id) & mask;
+        while (current[slot] != 0) {
+            if (current[slot] == id) return false;
+            slot = (slot + 1) & mask;
+        }
+        current[slot] = id;
+        if (++count == capacity) {
+            int[] recycled = previous;
+            Arrays.fill(recycled, 0);
+            previous = current;
+            current = recycled;
+            count = 0;
+        }
+        return true;
+    }
+
+    private boolean contains(int[] table, int id) {
+        int slot = mix(id) & mask;
+        while (table[slot] != 0) {
+            if (table[slot] == id) return true;
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    private static int mix(int id) {
+        // Ids from older firmware are derived from content and may be poorly spread
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,274 @@
+package com.example.whatapp.ble;
+
+import com.example.whatapp.wire.BinaryCodec;
+import com.example.whatapp.wire.DeflateCodec;
+import com.example.whatapp.wire.LocationDelta;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Incremental framer for the byte stream arriving on the NUS TX characteristic.
+ * <p>
+ * Two kinds of frame may share the stream. JSON frames start with '{' and are
+ * delimited by brace depth. The scanner tracks string/escape state, so braces
+ * inside quoted text do not end a frame. All structural characters are ASCII
+ * and never appear inside a multi-byte UTF-8 sequence, so notifications may
+ * split a frame anywhere, including in the middle of a code point. Binary
+ * frames start with one of the registered marker bytes (see
+ * {@link #isMarker}) followed by a varint body length (see {@link BinaryCodec}).
+ * Their bodies are skipped over, not scanned. Emitted frames include the
+ * marker and length. Any other byte between frames, including stray UTF-8 or
+ * line noise with the high bit set, is counted as skipped.
+ * <p>
+ * Every byte is looked at once at most.
+ * <p>
+ * A frame that is entirely contained in one notification is handed to the sink
+ * as a slice of that notification. Only frames spanning several notifications
+ * are copied into the internal carry buffer. Not thread-safe; feed it from a
+ * single notification stream.
+ */
+public final class FrameAssembler {
+
+    /** Receives complete frames. The slice is only valid during the call. */
+    public interface FrameSink {
+        void onFrame(byte[] buffer, int offset, int length);
+    }
+
+    public static final int DEFAULT_MAX_FRAME_SIZE = 16 * 1024;
+
+    private final int maxFrameSize;
+
+    // Carry buffer for a frame that spans notifications
+    private byte[] carry = new byte[256];
+    private int carryLength;
+
+    private static final int IDLE = 0;
+    private static final int TEXT = 1;
+    private static final int LENGTH = 2;
+    private static final int BODY = 3;
+    private static final int SKIP = 4;
+
+    private int state = IDLE;
+    // TEXT state
+    private boolean inString;
+    private boolean escaped;
+    private int depth;
+    // LENGTH and BODY states
+    private int bodyRemaining;
+    private int lengthShift;
+
+    private final StringCollector collector = new StringCollector();
+
+    private long framesEmitted;
+    private long bytesSkipped;
+    private long framesDropped;
+
+    public FrameAssembler() {
+        this(DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    public FrameAssembler(int maxFrameSize) {
+        if (maxFrameSize <= 0) throw new IllegalArgumentException("maxFrameSize must be > 0");
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * Scans {@code count} new bytes and reports every frame they complete.
+     */
+    public void feed(byte[] data, int offset, int count, FrameSink sink) {
+        final int end = offset + count;
+        // Start of the current frame's bytes inside data, -1 when not in a frame
+        int segmentStart = isCollecting() ? offset : -1;
+
+        int i = offset;
+        while (i < end) {
+            byte b = data[i];
+            switch (state) {
+                case IDLE:
+                    if (b == '{') {
+                        state = TEXT;
+                        segmentStart = i;
+                        depth = 1;
+                    } else if (isMarker(b)) {
+                        // Marker byte of a length-prefixed frame
+                        state = LENGTH;
+                        segmentStart = i;
+                        bodyRemaining = 0;
+                        lengthShift = 0;
+                    } else if (!isWhitespace(b)) {
+                        bytesSkipped++;
+                    }
+                    i++;
+                    break;
+
+                case TEXT:
+                    i++;
+                    if (inString) {
+                        if (escaped) escaped = false;
+                        else if (b == '\\') escaped = true;
+                        else if (b == '"') inString = false;
+                    } else if (b == '"') {
+                        inString = true;
+                    } else if (b == '{' || b == '[') {
+                        depth++;
+                    } else if ((b == '}' || b == ']') && --depth == 0) {
+                        emit(data, segmentStart, i, sink);
+                        segmentStart = -1;
+                    }
+                    break;
+
+                case LENGTH:
+                    i++;
+                    bodyRemaining |= (b & 0x7F) << lengthShift;
+                    lengthShift += 7;
+                    if ((b & 0x80) != 0) {
+                        if (lengthShift > 28) {
+                            // Not a length we could ever accept; treat as noise
+                            bytesSkipped += i - segmentStart;
+                            reset();
+                            segmentStart = -1;
+                        }
+                        break;
+                    }
+                    if (bodyRemaining > maxFrameSize) {
+                        // Too big to buffer; step over its body without emitting
+                        framesDropped++;
+                        state = SKIP;
+                        carryLength = 0;
+                        segmentStart = -1;
+                    } else if (bodyRemaining == 0) {
+                        emit(data, segmentStart, i, sink);
+                        segmentStart = -1;
+                    } else {
+                        state = BODY;
+                    }
+                    break;
+
+                case SKIP:
+                    int skip = Math.min(bodyRemaining, end - i);
+                    i += skip;
+                    bodyRemaining -= skip;
+                    if (bodyRemaining == 0) state = IDLE;
+                    break;
+
+                case BODY:
+                default:
+                    // Opaque bytes, no need to look at them one by one
+                    int take = Math.min(bodyRemaining, end - i);
+                    i += take;
+                    bodyRemaining -= take;
+                    if (bodyRemaining == 0) {
+                        emit(data, segmentStart, i, sink);
+                        segmentStart = -1;
+                    }
+                    break;
+            }
+        }
+
+        if (isCollecting() && segmentStart >= 0) {
+            append(data, segmentStart, end);
+        }
+    }
+
+    private boolean isCollecting() {
+        return state != IDLE && state != SKIP;
+    }
+
+    /**
+     * Convenience variant for JSON-only streams that decodes completed frames as UTF-8.
+     * Returns a shared empty list when the chunk completes nothing, so partial chunks
+     * cost no allocation.
+     */
+    public List<String> feed(byte[] data) {
+        feed(data, 0, data.length, collector);
+        List<String> frames = collector.frames;
+        collector.frames = null;
+        return frames != null ? frames : Collections.<String>emptyList();
+    }
+
+    /** Drops any partial frame, e.g. after a disconnect. */
+    public void reset() {
+        carryLength = 0;
+        state = IDLE;
+        inString = false;
+        escaped = false;
+        depth = 0;
+        bodyRemaining = 0;
+        lengthShift = 0;
+    }
+
+    public boolean hasPartialFrame() {
+        return isCollecting();
+    }
+
+    public long getFramesEmitted() {
+        return framesEmitted;
+    }
+
+    /** Non-whitespace bytes seen between frames (line noise, stray prompts). */
+    public long getBytesSkipped() {
+        return bytesSkipped;
+    }
+
+    /** Frames discarded because they grew past the maximum frame size. */
+    public long getFramesDropped() {
+        return framesDropped;
+    }
+
+    private void emit(byte[] data, int from, int to, FrameSink sink) {
+        state = IDLE;
+        if (carryLength == 0) {
+            framesEmitted++;
+            sink.onFrame(data, from, to - from);
+            return;
+        }
+        append(data, from, to);
+        if (carryLength == 0) return; // dropped as oversized
+        framesEmitted++;
+        int length = carryLength;
+        carryLength = 0;
+        sink.onFrame(carry, 0, length);
+    }
+
+    private void append(byte[] data, int from, int to) {
+        int n = to - from;
+        if (carryLength + n > maxFrameSize) {
+            // Give up on this frame and resynchronise on the next frame start
+            framesDropped++;
+            reset();
+            return;
+        }
+        if (carryLength + n > carry.length) {
+            int size = carry.length;
+            while (size < carryLength + n) size <<= 1;
+            byte[] grown = new byte[Math.min(size, maxFrameSize)];
+            System.arraycopy(carry, 0, grown, 0, carryLength);
+            carry = grown;
+        }
+        System.arraycopy(data, from, carry, carryLength, n);
+        carryLength += n;
+    }
+
+    /** Whether {@code b} starts one of the length-prefixed frames the app speaks. */
+    static boolean isMarker(byte b) {
+        return b == BinaryCodec.MARKER || b == DeflateCodec.MARKER || b == LocationDelta.MARKER
+                || b == ReliableTransport.DATA_MARKER || b == ReliableTransport.ACK_MARKER;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private static final class StringCollector implements FrameSink {
+        List<String> frames;
+
+        @Override
+        public void onFrame(byte[] buffer, int offset, int length) {
+            if (frames == null) frames = new ArrayList<>(2);
+            frames.add(new String(buffer, offset, length, StandardCharsets.UTF_8));
+        }
+    }
+}
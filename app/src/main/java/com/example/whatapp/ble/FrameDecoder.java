@@ -0,0 +1,86 @@
+package com.example.whatapp.ble;
+
+import com.example.whatapp.wire.LocationDelta;
+import com.example.whatapp.wire.WireCodecs;
+import com.example.whatapp.wire.WireFormatException;
+import com.example.whatapp.wire.WireMessage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Turns raw notifications into decoded messages: frames are cut by
+ * {@link FrameAssembler} and decoded in place from its slice, with the codec
+ * picked per frame from the first byte.
+ * <p>
+ * Malformed frames are counted and dropped so one bad frame does not
+ * terminate the notification stream. Segments of a {@link ReliableTransport}
+ * go to the transport, and the frames it reassembles come back through
+ * {@link #onFrame}. {@link LocationDelta} updates are resolved against this
+ * link's earlier updates into absolute positions.
+ */
+public final class FrameDecoder implements FrameAssembler.FrameSink {
+
+    private final FrameAssembler assembler;
+    private final LocationDelta.Decoder locations = new LocationDelta.Decoder();
+    private ReliableTransport transport;
+    private List<WireMessage> decoded;
+    private long malformedFrames;
+
+    public FrameDecoder() {
+        this(new FrameAssembler());
+    }
+
+    public FrameDecoder(FrameAssembler assembler) {
+        this.assembler = assembler;
+    }
+
+    public void setTransport(ReliableTransport transport) {
+        this.transport = transport;
+    }
+
+    /** Returns a shared empty list when the notification completes no frame. */
+    public List<WireMessage> feed(byte[] notification) {
+        assembler.feed(notification, 0, notification.length, this);
+        List<WireMessage> out = decoded;
+        decoded = null;
+        return out != null ? out : Collections.<WireMessage>emptyList();
+    }
+
+    @Override
+    public void onFrame(byte[] buffer, int offset, int length) {
+        if (transport != null && length > 0 && ReliableTransport.isSegment(buffer[offset])) {
+            transport.onFrame(buffer, offset, length);
+            return;
+        }
+        try {
+            WireMessage message = length > 0 && buffer[offset] == LocationDelta.MARKER
+                    ? locations.decode(buffer, offset, length)
+                    : WireCodecs.decode(buffer, offset, length);
+            if (message == null) return;
+            if (decoded == null) decoded = new ArrayList<>(2);
+            decoded.add(message);
+        } catch (WireFormatException e) {
+            malformedFrames++;
+        }
+    }
+
+    public void reset() {
+        assembler.reset();
+        decoded = null;
+    }
+
+    public FrameAssembler getAssembler() {
+        return assembler;
+    }
+
+    public long getMalformedFrames() {
+        return malformedFrames;
+    }
+
+    /** Location deltas dropped because the update before them was missed. */
+    public long getUnresolvedLocations() {
+        return locations.getUnresolved();
+    }
+}
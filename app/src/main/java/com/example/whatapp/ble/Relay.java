@@ -0,0 +1,192 @@
+package com.example.whatapp.ble;
+
+import com.example.whatapp.wire.WireMessage;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.exceptions.CompositeException;
+
+/**
+ * Store-and-forward between boards that cannot hear each other.
+ * <p>
+ * Every inbound frame goes through {@link #offer}: copies already seen, by
+ * message id, are dropped there, so the chat shows each message once whether
+ * or not relaying is on. With relaying on, a new frame is also written to every
+ * other connected board, its hop limit lowered by one; a frame whose hop limit
+ * is used up is only delivered locally.
+ * <p>
+ * Frames from older firmware carry no id and are always delivered, since the
+ * same text twice ("ok", "ok") is as likely to be two messages as one. With
+ * relaying on they get an id derived from their content, which only decides
+ * whether to forward them: relayed copies carry it, so their echoes are
+ * dropped like any other duplicate.
+ * <p>
+ * {@link #stamp} gives frames this phone originates an id and a full hop limit,
+ * and remembers the id so the boards' echoes are dropped too.
+ */
+public final class Relay {
+
+    /** Relays a frame may still pass through when it leaves its originator. */
+    public static final int DEFAULT_HOP_LIMIT = 3;
+    /** Ids per cache generation; see {@link DuplicateCache}. */
+    public static final int DEFAULT_CACHE_SIZE = 512;
+
+    public static final class Stats {
+        public final long received;
+        public final long duplicates;
+        public final long hopLimited;
+        /** Frames forwarded, once per frame however many boards it went to. */
+        public final long relayed;
+        /** Board writes that completed. */
+        public final long forwards;
+        /** Board writes that failed, including those a full queue refused. */
+        public final long forwardFailures;
+        /** Time relaying has been on, in total. */
+        public final long enabledMs;
+
+        Stats(long received, long duplicates, long hopLimited, long relayed, long forwards,
+              long forwardFailures, long enabledMs) {
+            this.received = received;
+            this.duplicates = duplicates;
+            this.hopLimited = hopLimited;
+            this.relayed = relayed;
+            this.forwards = forwards;
+            this.forwardFailures = forwardFailures;
+            this.enabledMs = enabledMs;
+        }
+
+        /** Share of received frames the duplicate cache already knew. */
+        public double getCacheHitRate() {
+            return received == 0 ? 0 : duplicates / (double) received;
+        }
+
+        /** Frames relayed per second while relaying was on. */
+        public double getThroughput() {
+            return enabledMs == 0 ? 0 : relayed * 1000.0 / enabledMs;
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final DuplicateCache seen;
+    private final Scheduler clock;
+    private final Random random;
+
+    // Guarded by this
+    private boolean enabled;
+    private long enabledSinceMs;
+    private long enabledMs;
+    private long received;
+    private long duplicates;
+    private long hopLimited;
+    private long relayed;
+    private long forwards;
+    private long forwardFailures;
+
+    public Relay(ConnectionPool pool, Scheduler clock) {
+        this(pool, DEFAULT_CACHE_SIZE, clock, new Random());
+    }
+
+    /** @param clock only used to time how long relaying is on */
+    public Relay(ConnectionPool pool, int cacheSize, Scheduler clock, Random random) {
+        this.pool = pool;
+        this.seen = new DuplicateCache(cacheSize);
+        this.clock = clock;
+        this.random = random;
+    }
+
+    public synchronized void setEnabled(boolean enabled) {
+        if (enabled == this.enabled) return;
+        long now = clock.now(TimeUnit.MILLISECONDS);
+        if (enabled) enabledSinceMs = now;
+        else enabledMs += now - enabledSinceMs;
+        this.enabled = enabled;
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Gives an outgoing frame a fresh id and a full hop limit, and remembers the id. */
+    public WireMessage stamp(WireMessage message) {
+        int id;
+        do {
+            id = random.nextInt();
+        } while (id == WireMessage.NO_ID || !seen.add(id));
+        return message.toBuilder().msgId(id).hopLimit(DEFAULT_HOP_LIMIT).build();
+    }
+
+    /**
+     * Drops copies already seen and, when relaying is on, forwards new frames to the
+     * other connected boards.
+     *
+     * @return true if the frame is new and should be delivered locally
+     */
+    public boolean offer(ConnectionPool.Inbound inbound) {
+        WireMessage message = inbound.message;
+        boolean legacy = message.getMsgId() == WireMessage.NO_ID;
+        int id = legacy ? contentId(message) : message.getMsgId();
+        boolean forward;
+        synchronized (this) {
+            received++;
+            if (legacy) {
+                // Never dropped on a content hash; it only keeps one copy from being forwarded twice
+                forward = enabled && seen.add(id);
+            } else if (!seen.add(id)) {
+                duplicates++;
+                return false;
+            } else {
+                forward = enabled;
+            }
+        }
+        if (forward) forward(inbound.mac, message, id);
+        return true;
+    }
+
+    private void forward(long from, WireMessage message, int id) {
+        int hops = message.getHopLimit() != WireMessage.NO_HOP_LIMIT ? message.getHopLimit() : DEFAULT_HOP_LIMIT;
+        if (hops == 0) {
+            synchronized (this) {
+                hopLimited++;
+            }
+            return;
+        }
+        long[] connected = pool.connected();
+        long[] targets = new long[connected.length];
+        int n = 0;
+        for (long mac : connected) {
+            if (mac != from) targets[n++] = mac;
+        }
+        if (n == 0) return;
+        long[] to = n == targets.length ? targets : Arrays.copyOf(targets, n);
+        WireMessage copy = message.toBuilder().msgId(id).hopLimit(hops - 1).build();
+        synchronized (this) {
+            relayed++;
+        }
+        pool.send(to, codec -> codec.encode(copy)).subscribe(() -> onForwarded(to.length, 0), t -> {
+            int failed = t instanceof CompositeException ? ((CompositeException) t).size() : 1;
+            onForwarded(to.length - failed, failed);
+        });
+    }
+
+    private synchronized void onForwarded(int ok, int failed) {
+        forwards += ok;
+        forwardFailures += failed;
+    }
+
+    public synchronized Stats getStats() {
+        long on = enabledMs + (enabled ? clock.now(TimeUnit.MILLISECONDS) - enabledSinceMs : 0);
+        return new Stats(received, duplicates, hopLimited, relayed, forwards, forwardFailures, on);
+    }
+
+    /** Id for a frame that carries none: a hash of everything but the hop limit. */
+    static int contentId(WireMessage message) {
+        int h = message.toBuilder().hopLimit(WireMessage.NO_HOP_LIMIT).build().hashCode();
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h != WireMessage.NO_ID ? h : 1;
+    }
+}
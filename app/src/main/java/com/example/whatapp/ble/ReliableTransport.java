@@ -0,0 +1,516 @@
+package com.example.whatapp.ble;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.CompletableEmitter;
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.disposables.Disposable;
+
+/**
+ * Sliding-window delivery of whole frames over the NUS characteristics.
+ * <pre>
+ * data = 0xD1 varint(bodyLength) seq(u16) flags(u8) payload
+ * ack  = 0xD2 varint(bodyLength) next(u16) sack(u32)
+ * </pre>
+ * Frames are cut into segments that fit one write and numbered with a 16-bit
+ * sequence. Up to {@code window} segments are written without waiting for
+ * each other, through the same queue as all other writes. The receiver acks
+ * the next sequence it expects, plus a bitmap of the {@link #SACK_BITS}
+ * segments after it that already arrived out of order, so the sender only
+ * resends the holes. Anything not acked within the retransmission timeout,
+ * estimated from measured round trips as in RFC 6298, is sent again.
+ * <p>
+ * A segment still unacked after {@link #MAX_TRANSMISSIONS} fails every frame
+ * in flight or queued, and the sender starts over with a fresh round-trip
+ * estimate. Sequence numbers carry on, and the next segment is flagged as a
+ * reset, which tells the receiver to give up on the hole and everything before
+ * it. The receiving half is unaffected, so a stall never leaves the board
+ * deaf; only {@link #close} stops the transport for good.
+ * <p>
+ * Both directions use the same class: the board runs the receiving half for
+ * what we send and the sending half for what it sends us. The segment markers
+ * sit in the length-prefixed range {@link FrameAssembler} already cuts, so
+ * segments share the stream with plain frames.
+ */
+public final class ReliableTransport {
+
+    public static final byte DATA_MARKER = (byte) 0xD1;
+    public static final byte ACK_MARKER = (byte) 0xD2;
+    public static final int DEFAULT_WINDOW = 8;
+    // Segments the receiver buffers past a hole, and the span of one SACK bitmap
+    public static final int SACK_BITS = 32;
+
+    static final long INITIAL_RTO_MS = 500;
+    static final long MIN_RTO_MS = 100;
+    static final long MAX_RTO_MS = 5_000;
+    static final int MAX_TRANSMISSIONS = 8;
+    // In-order segments are acked in pairs, or after this delay
+    static final long ACK_DELAY_MS = 20;
+    static final int ACK_EVERY = 2;
+    // Marker, a length that always fits two varint bytes, sequence and flags
+    static final int DATA_OVERHEAD = 1 + 2 + 2 + 1;
+
+    private static final int ACK_BODY = 2 + 4;
+    private static final int FLAG_END = 1;
+    // Segments before this one were abandoned by the sender
+    private static final int FLAG_RESET = 2;
+
+    /** Where segments are written; all writes of a connection should share it. */
+    public interface Channel {
+        /** Largest frame one write can carry. */
+        int payloadSize();
+
+        Completable write(byte[] frame);
+    }
+
+    /** Raised to senders whose frame could not be delivered. */
+    public static final class DeliveryFailedException extends IllegalStateException {
+        DeliveryFailedException(String reason) {
+            super(reason);
+        }
+    }
+
+    /** Counters since creation. */
+    public static final class Stats {
+        public final long segmentsSent;
+        public final long retransmissions;
+        public final long framesDelivered;
+        public final long bytesDelivered;
+        public final long framesReceived;
+        public final long duplicatesReceived;
+        public final long rtoMs;
+        public final double srttMs;
+
+        Stats(long segmentsSent, long retransmissions, long framesDelivered, long bytesDelivered,
+              long framesReceived, long duplicatesReceived, long rtoMs, double srttMs) {
+            this.segmentsSent = segmentsSent;
+            this.retransmissions = retransmissions;
+            this.framesDelivered = framesDelivered;
+            this.bytesDelivered = bytesDelivered;
+            this.framesReceived = framesReceived;
+            this.duplicatesReceived = duplicatesReceived;
+            this.rtoMs = rtoMs;
+            this.srttMs = srttMs;
+        }
+    }
+
+    private static final class Segment {
+        final int seq;
+        final byte[] frame;
+        // Set on the last segment of a frame
+        final CompletableEmitter delivery;
+        final int frameLength;
+        long sentAtMs;
+        int transmissions;
+        boolean sacked;
+        boolean fastRetransmitted;
+
+        Segment(int seq, byte[] frame, CompletableEmitter delivery, int frameLength) {
+            this.seq = seq;
+            this.frame = frame;
+            this.delivery = delivery;
+            this.frameLength = frameLength;
+        }
+    }
+
+    private final Channel channel;
+    private final FrameAssembler.FrameSink receiver;
+    private final int window;
+    private final int maxFrameSize;
+    private final Scheduler scheduler;
+
+    // Sending half, guarded by this
+    private final ArrayDeque<Segment> unsent = new ArrayDeque<>();
+    private final ArrayDeque<Segment> inFlight = new ArrayDeque<>();
+    private int nextSeq;
+    private double srtt = -1;
+    private double rttvar;
+    private long rto = INITIAL_RTO_MS;
+    private Disposable retransmitTimer;
+    private boolean closed;
+    // Set after a failure, until the next segment carries FLAG_RESET
+    private boolean resetPending;
+
+    // Receiving half, guarded by this
+    private int expected;
+    private final byte[][] reorder = new byte[SACK_BITS][];
+    private byte[] assembly = new byte[256];
+    private int assemblyLength;
+    private int unackedInOrder;
+    private Disposable ackTimer;
+
+    private long segmentsSent;
+    private long retransmissions;
+    private long framesDelivered;
+    private long bytesDelivered;
+    private long framesReceived;
+    private long duplicatesReceived;
+
+    /**
+     * @param receiver gets every frame the peer sent, once and in order
+     * @param scheduler runs the retransmission and delayed-ack timers, and is the clock for round trips
+     */
+    public ReliableTransport(Channel channel, FrameAssembler.FrameSink receiver, int window, Scheduler scheduler) {
+        this(channel, receiver, window, FrameAssembler.DEFAULT_MAX_FRAME_SIZE, scheduler);
+    }
+
+    ReliableTransport(Channel channel, FrameAssembler.FrameSink receiver, int window, int maxFrameSize,
+                      Scheduler scheduler) {
+        if (window < 1 || window > SACK_BITS) throw new IllegalArgumentException("window " + window);
+        this.channel = channel;
+        this.receiver = receiver;
+        this.window = window;
+        this.maxFrameSize = maxFrameSize;
+        this.scheduler = scheduler;
+    }
+
+    public static boolean isSegment(byte first) {
+        return first == DATA_MARKER || first == ACK_MARKER;
+    }
+
+    /**
+     * Queues a frame. The returned Completable subscribes lazily and completes once the
+     * peer has received every segment of it.
+     */
+    public Completable send(byte[] frame) {
+        return Completable.create(emitter -> {
+            List<byte[]> out = new ArrayList<>();
+            synchronized (this) {
+                if (closed) {
+                    emitter.onError(new DeliveryFailedException("Transport closed"));
+                    return;
+                }
+                int chunk = Math.max(1, channel.payloadSize() - DATA_OVERHEAD);
+                int pos = 0;
+                do {
+                    int n = Math.min(chunk, frame.length - pos);
+                    boolean end = pos + n == frame.length;
+                    int flags = (end ? FLAG_END : 0) | (resetPending ? FLAG_RESET : 0);
+                    resetPending = false;
+                    unsent.add(new Segment(nextSeq, dataFrame(nextSeq, flags, frame, pos, n),
+                            end ? emitter : null, frame.length));
+                    nextSeq = (nextSeq + 1) & 0xFFFF;
+                    pos += n;
+                } while (pos < frame.length);
+                fillWindow(out);
+            }
+            write(out);
+        });
+    }
+
+    /** Feeds a segment frame cut from the notification stream. */
+    public void onFrame(byte[] buffer, int offset, int length) {
+        if (length < 2) return;
+        int pos = offset + 1;
+        int end = offset + length;
+        // Skip the length prefix; the assembler already checked it
+        while (pos < end && (buffer[pos++] & 0x80) != 0) { }
+        if (buffer[offset] == DATA_MARKER && end - pos >= 3) {
+            onData((buffer[pos] & 0xFF) << 8 | (buffer[pos + 1] & 0xFF), buffer[pos + 2],
+                    buffer, pos + 3, end - pos - 3);
+        } else if (buffer[offset] == ACK_MARKER && end - pos >= ACK_BODY) {
+            int next = (buffer[pos] & 0xFF) << 8 | (buffer[pos + 1] & 0xFF);
+            int sack = (buffer[pos + 2] & 0xFF) << 24 | (buffer[pos + 3] & 0xFF) << 16
+                    | (buffer[pos + 4] & 0xFF) << 8 | (buffer[pos + 5] & 0xFF);
+            onAck(next, sack);
+        }
+    }
+
+    /** Fails every undelivered frame and stops all timers. */
+    public void close() {
+        List<Segment> dropped;
+        synchronized (this) {
+            closed = true;
+            dropped = new ArrayList<>(inFlight);
+            dropped.addAll(unsent);
+            inFlight.clear();
+            unsent.clear();
+            if (retransmitTimer != null) retransmitTimer.dispose();
+            if (ackTimer != null) ackTimer.dispose();
+        }
+        fail(dropped, "Transport closed");
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(segmentsSent, retransmissions, framesDelivered, bytesDelivered, framesReceived,
+                duplicatesReceived, rto, srtt);
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight.size();
+    }
+
+    // --- Sending half ---
+
+    private void onAck(int next, int sack) {
+        List<byte[]> out = new ArrayList<>();
+        List<CompletableEmitter> delivered = new ArrayList<>();
+        synchronized (this) {
+            if (closed) return;
+            long now = now();
+            boolean progress = false;
+            // Round trip of the newest segment this ack covers for the first time. Older ones
+            // may have sat behind a hole, and per Karn resent ones are ambiguous.
+            long newestSentAt = -1;
+            while (!inFlight.isEmpty() && diff(inFlight.peek().seq, next) < 0) {
+                Segment s = inFlight.poll();
+                progress = true;
+                if (s.transmissions == 1 && !s.sacked) newestSentAt = Math.max(newestSentAt, s.sentAtMs);
+                if (s.delivery != null) {
+                    delivered.add(s.delivery);
+                    framesDelivered++;
+                    bytesDelivered += s.frameLength;
+                }
+            }
+            int highestSacked = -1;
+            for (Segment s : inFlight) {
+                int bit = diff(s.seq, next) - 1;
+                if (bit >= 0 && bit < SACK_BITS && (sack & (1 << bit)) != 0) {
+                    if (!s.sacked && s.transmissions == 1) newestSentAt = Math.max(newestSentAt, s.sentAtMs);
+                    s.sacked = true;
+                    highestSacked = bit;
+                }
+            }
+            if (newestSentAt >= 0) sampleRtt(now - newestSentAt);
+            // Segments before the newest SACKed one were lost, resend each once without waiting
+            for (Segment s : inFlight) {
+                if (diff(s.seq, next) - 1 >= highestSacked) break;
+                if (!s.sacked && !s.fastRetransmitted) {
+                    s.fastRetransmitted = true;
+                    transmit(s, out, now);
+                    retransmissions++;
+                }
+            }
+            fillWindow(out);
+            if (progress || !out.isEmpty()) armRetransmitTimer();
+        }
+        write(out);
+        for (CompletableEmitter e : delivered) e.onComplete();
+    }
+
+    private void onRetransmitTimeout() {
+        List<byte[]> out = new ArrayList<>();
+        List<Segment> failed = null;
+        synchronized (this) {
+            retransmitTimer = null;
+            if (closed || inFlight.isEmpty()) return;
+            long now = now();
+            for (Segment s : inFlight) {
+                if (s.sacked || now - s.sentAtMs < rto) continue;
+                if (s.transmissions >= MAX_TRANSMISSIONS) {
+                    failed = new ArrayList<>(inFlight);
+                    break;
+                }
+                transmit(s, out, now);
+                retransmissions++;
+            }
+            if (failed != null) {
+                // The peer stopped answering; nothing queued behind it can get through either.
+                // Start the sender over, and keep receiving
+                failed.addAll(unsent);
+                inFlight.clear();
+                unsent.clear();
+                out.clear();
+                srtt = -1;
+                rttvar = 0;
+                rto = INITIAL_RTO_MS;
+                resetPending = true;
+            } else {
+                if (!out.isEmpty()) rto = Math.min(MAX_RTO_MS, rto * 2);
+                armRetransmitTimer();
+            }
+        }
+        write(out);
+        if (failed != null) fail(failed, "No acknowledgement after " + MAX_TRANSMISSIONS + " attempts");
+    }
+
+    private void fillWindow(List<byte[]> out) {
+        long now = now();
+        boolean started = false;
+        while (inFlight.size() < window && !unsent.isEmpty()) {
+            Segment s = unsent.poll();
+            transmit(s, out, now);
+            inFlight.add(s);
+            started = true;
+        }
+        if (started && retransmitTimer == null) armRetransmitTimer();
+    }
+
+    private void transmit(Segment s, List<byte[]> out, long now) {
+        s.sentAtMs = now;
+        s.transmissions++;
+        segmentsSent++;
+        out.add(s.frame);
+    }
+
+    /** Runs the timer for the oldest segment still waiting for an ack. */
+    private void armRetransmitTimer() {
+        if (retransmitTimer != null) retransmitTimer.dispose();
+        retransmitTimer = null;
+        long oldest = Long.MAX_VALUE;
+        for (Segment s : inFlight) {
+            if (!s.sacked) oldest = Math.min(oldest, s.sentAtMs);
+        }
+        if (oldest == Long.MAX_VALUE) return;
+        long delay = Math.max(0, oldest + rto - now());
+        retransmitTimer = scheduler.scheduleDirect(this::onRetransmitTimeout, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void sampleRtt(long sample) {
+        if (srtt < 0) {
+            srtt = sample;
+            rttvar = sample / 2.0;
+        } else {
+            rttvar = 0.75 * rttvar + 0.25 * Math.abs(srtt - sample);
+            srtt = 0.875 * srtt + 0.125 * sample;
+        }
+        rto = Math.max(MIN_RTO_MS, Math.min(MAX_RTO_MS, (long) Math.ceil(srtt + 4 * rttvar)));
+    }
+
+    // --- Receiving half ---
+
+    private void onData(int seq, int flags, byte[] buffer, int offset, int length) {
+        List<byte[]> frames = new ArrayList<>(1);
+        boolean end = (flags & FLAG_END) != 0;
+        boolean ackNow;
+        synchronized (this) {
+            if (closed) return;
+            // A resent reset is behind expected by then, and handled as a duplicate
+            if ((flags & FLAG_RESET) != 0 && diff(seq, expected) >= 0) resync(seq);
+            int d = diff(seq, expected);
+            if (d < 0 || d > SACK_BITS) {
+                // Already delivered (our ack was lost), or past what we buffer
+                duplicatesReceived++;
+                ackNow = true;
+            } else if (d > 0) {
+                int slot = seq & (SACK_BITS - 1);
+                if (reorder[slot] == null) {
+                    reorder[slot] = segmentCopy(end, buffer, offset, length);
+                } else {
+                    duplicatesReceived++;
+                }
+                // Tell the sender about the hole straight away
+                ackNow = true;
+            } else {
+                accept(end, buffer, offset, length, frames);
+                int drained = 0;
+                byte[] held;
+                while ((held = reorder[expected & (SACK_BITS - 1)]) != null) {
+                    reorder[expected & (SACK_BITS - 1)] = null;
+                    accept(held[0] != 0, held, 1, held.length - 1, frames);
+                    drained++;
+                }
+                ackNow = drained > 0 || ++unackedInOrder >= ACK_EVERY;
+            }
+            if (!ackNow && ackTimer == null) {
+                ackTimer = scheduler.scheduleDirect(this::sendAck, ACK_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+        for (byte[] frame : frames) receiver.onFrame(frame, 0, frame.length);
+        if (ackNow) sendAck();
+    }
+
+    /** Gives up on everything the sender abandoned before {@code seq}. */
+    private void resync(int seq) {
+        for (int d = 1; d <= SACK_BITS; d++) {
+            int held = (expected + d) & 0xFFFF;
+            if (diff(held, seq) < 0) reorder[held & (SACK_BITS - 1)] = null;
+        }
+        expected = seq;
+        assemblyLength = 0;
+        unackedInOrder = 0;
+    }
+
+    private void accept(boolean end, byte[] buffer, int offset, int length, List<byte[]> frames) {
+        expected = (expected + 1) & 0xFFFF;
+        if (assemblyLength + length > maxFrameSize) {
+            // Oversized frame: drop it and resynchronise on its last segment
+            assemblyLength = -1;
+        }
+        if (assemblyLength >= 0) {
+            if (assemblyLength + length > assembly.length) {
+                assembly = Arrays.copyOf(assembly, Math.max(assembly.length * 2, assemblyLength + length));
+            }
+            System.arraycopy(buffer, offset, assembly, assemblyLength, length);
+            assemblyLength += length;
+        }
+        if (end) {
+            if (assemblyLength >= 0) {
+                frames.add(Arrays.copyOf(assembly, assemblyLength));
+                framesReceived++;
+            }
+            assemblyLength = 0;
+        }
+    }
+
+    private void sendAck() {
+        byte[] ack;
+        synchronized (this) {
+            if (ackTimer != null) ackTimer.dispose();
+            ackTimer = null;
+            if (closed) return;
+            unackedInOrder = 0;
+            int sack = 0;
+            for (int bit = 0; bit < SACK_BITS; bit++) {
+                if (reorder[(expected + 1 + bit) & (SACK_BITS - 1)] != null) sack |= 1 << bit;
+            }
+            ack = new byte[]{ACK_MARKER, (byte) ACK_BODY,
+                    (byte) (expected >>> 8), (byte) expected,
+                    (byte) (sack >>> 24), (byte) (sack >>> 16), (byte) (sack >>> 8), (byte) sack};
+        }
+        channel.write(ack).subscribe(() -> { }, t -> { });
+    }
+
+    // --- Helpers ---
+
+    private void write(List<byte[]> frames) {
+        // A failed write looks like a lost segment; the timer resends it
+        for (byte[] frame : frames) channel.write(frame).subscribe(() -> { }, t -> { });
+    }
+
+    private static void fail(List<Segment> segments, String reason) {
+        for (Segment s : segments) {
+            if (s.delivery != null) s.delivery.tryOnError(new DeliveryFailedException(reason));
+        }
+    }
+
+    static byte[] dataFrame(int seq, int flags, byte[] payload, int offset, int length) {
+        int body = 3 + length;
+        int prefix = body < 0x80 ? 1 : 2;
+        byte[] out = new byte[1 + prefix + body];
+        int pos = 0;
+        out[pos++] = DATA_MARKER;
+        if (prefix == 1) {
+            out[pos++] = (byte) body;
+        } else {
+            out[pos++] = (byte) (body | 0x80);
+            out[pos++] = (byte) (body >>> 7);
+        }
+        out[pos++] = (byte) (seq >>> 8);
+        out[pos++] = (byte) seq;
+        out[pos++] = (byte) flags;
+        System.arraycopy(payload, offset, out, pos, length);
+        return out;
+    }
+
+    private static byte[] segmentCopy(boolean end, byte[] buffer, int offset, int length) {
+        byte[] copy = new byte[1 + length];
+        copy[0] = (byte) (end ? 1 : 0);
+        System.arraycopy(buffer, offset, copy, 1, length);
+        return copy;
+    }
+
+    /** Signed distance from b to a in the 16-bit sequence space. */
+    static int diff(int a, int b) {
+        return (short) (a - b);
+    }
+
+    private long now() {
+        return scheduler.now(TimeUnit.MILLISECONDS);
+    }
+}
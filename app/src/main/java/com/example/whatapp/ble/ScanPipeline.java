@@ -0,0 +1,201 @@
+package com.example.whatapp.ble;
+
+import android.os.ParcelUuid;
+
+import com.example.whatapp.wire.MacAddress;
+import com.polidea.rxandroidble3.RxBleClient;
+import com.polidea.rxandroidble3.RxBleDevice;
+import com.polidea.rxandroidble3.scan.ScanFilter;
+import com.polidea.rxandroidble3.scan.ScanResult;
+import com.polidea.rxandroidble3.scan.ScanSettings;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+
+/**
+ * Bounded scan for boards advertising the UART service.
+ * <p>
+ * The radio only reports advertisements matching the service UUID. Results
+ * are deduplicated by MAC and their RSSI smoothed on a background scheduler,
+ * and the caller receives at most one {@link Snapshot} per UI interval rather
+ * than one callback per advertisement. The scan stops by itself after the
+ * window, or as soon as the target device is seen.
+ */
+public final class ScanPipeline {
+
+    public static final long DEFAULT_WINDOW_MS = 10_000;
+    public static final long DEFAULT_UI_INTERVAL_MS = 250;
+    // Weight of the newest reading in the smoothed RSSI
+    private static final double RSSI_SMOOTHING = 0.25;
+
+    /** One advertisement, reduced to what the pipeline needs. */
+    public static final class Sighting {
+        final long mac;
+        final String name;
+        final int rssi;
+        final RxBleDevice device;
+
+        public Sighting(long mac, String name, int rssi, RxBleDevice device) {
+            this.mac = mac;
+            this.name = name;
+            this.rssi = rssi;
+            this.device = device;
+        }
+
+        static Sighting of(ScanResult result) {
+            RxBleDevice device = result.getBleDevice();
+            return new Sighting(MacAddress.parse(device.getMacAddress()), device.getName(), result.getRssi(), device);
+        }
+    }
+
+    /** Aggregated state of one device at snapshot time. */
+    public static final class Peer {
+        public final long mac;
+        public final String name;
+        public final RxBleDevice device;
+        public final int rssi;
+        public final double smoothedRssi;
+        public final long lastSeenMs;
+        public final int sightings;
+
+        Peer(long mac, String name, RxBleDevice device, int rssi, double smoothedRssi,
+             long lastSeenMs, int sightings) {
+            this.mac = mac;
+            this.name = name;
+            this.device = device;
+            this.rssi = rssi;
+            this.smoothedRssi = smoothedRssi;
+            this.lastSeenMs = lastSeenMs;
+            this.sightings = sightings;
+        }
+
+        public String getDisplayName() {
+            return name != null ? name : MacAddress.format(mac);
+        }
+    }
+
+    /** Devices seen so far, strongest first. */
+    public static final class Snapshot {
+        public final List<Peer> peers;
+        public final boolean targetFound;
+
+        Snapshot(List<Peer> peers, boolean targetFound) {
+            this.peers = peers;
+            this.targetFound = targetFound;
+        }
+    }
+
+    private final RxBleClient client;
+    private final UUID serviceUuid;
+
+    public ScanPipeline(RxBleClient client, UUID serviceUuid) {
+        this.client = client;
+        this.serviceUuid = serviceUuid;
+    }
+
+    /**
+     * Scans for up to {@code windowMs}, or until {@code targetMac} is seen
+     * ({@link MacAddress#NONE} to scan the whole window). Snapshots arrive on the computation scheduler; the last one is
+     * emitted right before completion.
+     */
+    public Observable<Snapshot> scan(long windowMs, long targetMac) {
+        ScanSettings settings = new ScanSettings.Builder()
+                .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
+                .setCallbackType(ScanSettings.CALLBACK_TYPE_ALL_MATCHES)
+                .build();
+        ScanFilter filter = new ScanFilter.Builder()
+                .setServiceUuid(new ParcelUuid(serviceUuid))
+                .build();
+        Observable<Sighting> sightings = client.scanBleDevices(settings, filter)
+                .map(Sighting::of);
+        return aggregate(sightings, targetMac, windowMs, DEFAULT_UI_INTERVAL_MS, Schedulers.computation());
+    }
+
+    static Observable<Snapshot> aggregate(Observable<Sighting> sightings, long targetMac, long windowMs,
+                                          long uiIntervalMs, Scheduler scheduler) {
+        return Observable.defer(() -> {
+            Aggregator aggregator = new Aggregator(targetMac, scheduler);
+            return sightings
+                    // Everything after this runs off the thread delivering scan callbacks
+                    .observeOn(scheduler)
+                    .filter(aggregator::add)
+                    .takeUntil((Sighting s) -> aggregator.isTargetFound())
+                    .take(windowMs, TimeUnit.MILLISECONDS, scheduler)
+                    .throttleLatest(uiIntervalMs, TimeUnit.MILLISECONDS, scheduler, true)
+                    .map(s -> aggregator.snapshot());
+        });
+    }
+
+    private static final class Aggregator {
+        private static final class Entry {
+            final long mac;
+            String name;
+            RxBleDevice device;
+            int rssi;
+            double smoothedRssi;
+            long lastSeenMs;
+            int sightings;
+
+            Entry(long mac) {
+                this.mac = mac;
+            }
+        }
+
+        private final long targetMac;
+        private final Scheduler clock;
+        private final Map<Long, Entry> entries = new HashMap<>();
+        private boolean targetFound;
+
+        Aggregator(long targetMac, Scheduler clock) {
+            this.targetMac = targetMac;
+            this.clock = clock;
+        }
+
+        /** Records the sighting; returns false if nothing visible changed. */
+        synchronized boolean add(Sighting s) {
+            Entry e = entries.get(s.mac);
+            boolean changed;
+            if (e == null) {
+                e = new Entry(s.mac);
+                e.smoothedRssi = s.rssi;
+                entries.put(s.mac, e);
+                changed = true;
+            } else {
+                e.smoothedRssi += RSSI_SMOOTHING * (s.rssi - e.smoothedRssi);
+                changed = e.rssi != s.rssi || (s.name != null && !s.name.equals(e.name));
+            }
+            if (s.name != null) e.name = s.name;
+            e.device = s.device;
+            e.rssi = s.rssi;
+            e.lastSeenMs = clock.now(TimeUnit.MILLISECONDS);
+            e.sightings++;
+            if (targetMac != MacAddress.NONE && targetMac == s.mac) {
+                targetFound = true;
+                changed = true;
+            }
+            return changed;
+        }
+
+        synchronized boolean isTargetFound() {
+            return targetFound;
+        }
+
+        synchronized Snapshot snapshot() {
+            List<Peer> peers = new ArrayList<>(entries.size());
+            for (Entry e : entries.values()) {
+                peers.add(new Peer(e.mac, e.name, e.device, e.rssi, e.smoothedRssi, e.lastSeenMs, e.sightings));
+            }
+            Collections.sort(peers, (a, b) -> Double.compare(b.smoothedRssi, a.smoothedRssi));
+            return new Snapshot(Collections.unmodifiableList(peers), targetFound);
+        }
+    }
+}
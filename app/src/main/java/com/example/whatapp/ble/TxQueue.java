@@ -0,0 +1,275 @@
+package com.example.whatapp.ble;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.CompletableEmitter;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import io.reactivex.rxjava3.subjects.BehaviorSubject;
+import io.reactivex.rxjava3.subjects.Subject;
+
+/**
+ * The single owner of all writes on one connection.
+ * <p>
+ * Frames are written strictly in the order they were queued and never
+ * interleave on the characteristic. Small frames waiting behind an in-flight
+ * write are packed together into one ATT payload. This is safe because the
+ * board reassembles frames from the byte stream, not from packet boundaries.
+ * A frame larger than one payload is handed to {@link BleLink#writeFrame} on
+ * its own.
+ * <p>
+ * The queue is bounded in bytes. When it is full, {@link #send} fails with
+ * {@link QueueFullException} so the UI can hold back instead of piling up
+ * writes.
+ */
+public final class TxQueue {
+
+    public static final int DEFAULT_CAPACITY_BYTES = 8 * 1024;
+    // Weight of the newest sample in the drain-rate average
+    private static final double RATE_SMOOTHING = 0.3;
+
+    /** Raised by {@link #send} when accepting the frame would exceed the byte capacity. */
+    public static final class QueueFullException extends IllegalStateException {
+        QueueFullException(int pendingBytes, int capacity) {
+            super("TX queue full: " + pendingBytes + "/" + capacity + " bytes pending");
+        }
+    }
+
+    /** Point-in-time view of the queue, pushed on every change. */
+    public static final class Stats {
+        public final int pendingFrames;
+        public final int pendingBytes;
+        public final int capacityBytes;
+        public final long framesSent;
+        public final long bytesSent;
+        public final long writes;
+        public final long failures;
+        /** Smoothed bytes per second over completed writes. */
+        public final double drainRate;
+
+        Stats(int pendingFrames, int pendingBytes, int capacityBytes, long framesSent,
+              long bytesSent, long writes, long failures, double drainRate) {
+            this.pendingFrames = pendingFrames;
+            this.pendingBytes = pendingBytes;
+            this.capacityBytes = capacityBytes;
+            this.framesSent = framesSent;
+            this.bytesSent = bytesSent;
+            this.writes = writes;
+            this.failures = failures;
+            this.drainRate = drainRate;
+        }
+
+        /** True once three quarters of the capacity is in use. */
+        public boolean isSaturated() {
+            return pendingBytes * 4 >= capacityBytes * 3;
+        }
+    }
+
+    private static final class Pending {
+        final byte[] frame;
+        final CompletableEmitter emitter;
+
+        Pending(byte[] frame, CompletableEmitter emitter) {
+            this.frame = frame;
+            this.emitter = emitter;
+        }
+    }
+
+    private final BleLink link;
+    private final int capacityBytes;
+    private final Scheduler clock;
+
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private final AtomicInteger drainWip = new AtomicInteger();
+    private final Subject<Stats> stats = BehaviorSubject.<Stats>create().toSerialized();
+    private volatile Stats lastStats;
+
+    // Guarded by this
+    private int pendingBytes;
+    private boolean writing;
+    private boolean disposed;
+    private Disposable currentWrite;
+    private int writeGeneration;
+    private long framesSent;
+    private long bytesSent;
+    private long writes;
+    private long failures;
+    private double drainRate;
+
+    public TxQueue(BleLink link) {
+        this(link, DEFAULT_CAPACITY_BYTES, Schedulers.computation());
+    }
+
+    /**
+     * @param clock only used to time writes for the drain rate
+     */
+    public TxQueue(BleLink link, int capacityBytes, Scheduler clock) {
+        this.link = link;
+        this.capacityBytes = capacityBytes;
+        this.clock = clock;
+        publishStats();
+    }
+
+    public BleLink getLink() {
+        return link;
+    }
+
+    /**
+     * Queues a frame. The returned Completable subscribes lazily and completes once the
+     * last byte of the frame has been written; disposing it before the write starts
+     * removes the frame from the queue.
+     */
+    public Completable send(byte[] frame) {
+        return Completable.create(emitter -> {
+            Pending p = new Pending(frame, emitter);
+            synchronized (this) {
+                if (disposed) {
+                    emitter.onError(new IllegalStateException("TX queue closed"));
+                    return;
+                }
+                // A single oversized frame is still accepted into an empty queue
+                if (!pending.isEmpty() && pendingBytes + frame.length > capacityBytes) {
+                    emitter.onError(new QueueFullException(pendingBytes, capacityBytes));
+                    return;
+                }
+                pending.add(p);
+                pendingBytes += frame.length;
+            }
+            emitter.setCancellable(() -> cancel(p));
+            publishStats();
+            drain();
+        });
+    }
+
+    public Observable<Stats> stats() {
+        return stats;
+    }
+
+    public Stats getStats() {
+        return lastStats;
+    }
+
+    /** Fails every queued frame and stops accepting new ones. */
+    public void dispose() {
+        List<Pending> dropped;
+        Disposable inFlight;
+        synchronized (this) {
+            disposed = true;
+            dropped = new ArrayList<>(pending);
+            pending.clear();
+            pendingBytes = 0;
+            inFlight = currentWrite;
+            currentWrite = null;
+        }
+        if (inFlight != null) inFlight.dispose();
+        for (Pending p : dropped) p.emitter.onError(new IllegalStateException("TX queue closed"));
+        publishStats();
+    }
+
+    private void cancel(Pending p) {
+        boolean removed;
+        synchronized (this) {
+            removed = pending.remove(p);
+            if (removed) pendingBytes -= p.frame.length;
+        }
+        if (removed) publishStats();
+    }
+
+    private void drain() {
+        if (drainWip.getAndIncrement() != 0) return;
+        do {
+            startNextWrite();
+        } while (drainWip.decrementAndGet() != 0);
+    }
+
+    private void startNextWrite() {
+        final List<Pending> batch = new ArrayList<>();
+        final byte[] payload;
+        final boolean single;
+        final int generation;
+        synchronized (this) {
+            if (writing || disposed || pending.isEmpty()) return;
+            int max = link.getPayloadSize();
+            Pending head = pending.poll();
+            batch.add(head);
+            int total = head.frame.length;
+            if (total < max) {
+                // Coalesce whatever else fits into the same packet
+                while (!pending.isEmpty() && total + pending.peek().frame.length <= max) {
+                    Pending next = pending.poll();
+                    batch.add(next);
+                    total += next.frame.length;
+                }
+            }
+            pendingBytes -= total;
+            single = batch.size() == 1;
+            payload = single ? head.frame : concat(batch, total);
+            writing = true;
+            generation = ++writeGeneration;
+        }
+        publishStats();
+
+        final long startedAt = clock.now(TimeUnit.MILLISECONDS);
+        Completable write = payload.length > link.getPayloadSize()
+                ? link.writeFrame(payload)
+                : link.writeChunk(payload).ignoreElement();
+        Disposable d = write.subscribe(
+                () -> onWriteFinished(batch, payload.length, startedAt, null),
+                t -> onWriteFinished(batch, payload.length, startedAt, t));
+        synchronized (this) {
+            // Only track it if it is still the write in flight
+            if (writing && writeGeneration == generation) currentWrite = d;
+        }
+    }
+
+    private void onWriteFinished(List<Pending> batch, int bytes, long startedAt, Throwable error) {
+        long elapsed = Math.max(1, clock.now(TimeUnit.MILLISECONDS) - startedAt);
+        synchronized (this) {
+            writing = false;
+            currentWrite = null;
+            writes++;
+            if (error == null) {
+                framesSent += batch.size();
+                bytesSent += bytes;
+                double sample = bytes * 1000.0 / elapsed;
+                drainRate = drainRate == 0 ? sample
+                        : RATE_SMOOTHING * sample + (1 - RATE_SMOOTHING) * drainRate;
+            } else {
+                failures++;
+            }
+        }
+        for (Pending p : batch) {
+            if (error == null) p.emitter.onComplete();
+            else p.emitter.tryOnError(error);
+        }
+        publishStats();
+        drain();
+    }
+
+    private static byte[] concat(List<Pending> batch, int total) {
+        byte[] out = new byte[total];
+        int pos = 0;
+        for (Pending p : batch) {
+            System.arraycopy(p.frame, 0, out, pos, p.frame.length);
+            pos += p.frame.length;
+        }
+        return out;
+    }
+
+    private void publishStats() {
+        Stats s;
+        synchronized (this) {
+            s = new Stats(pending.size(), pendingBytes, capacityBytes, framesSent, bytesSent,
+                    writes, failures, drainRate);
+        }
+        lastStats = s;
+        stats.onNext(s);
+    }
+}
@@ -0,0 +1,399 @@
+package com.example.whatapp.data;
+
+import com.example.whatapp.ChatMessage;
+import com.example.whatapp.wire.BinaryCodec;
+import com.example.whatapp.wire.WireFormatException;
+import com.example.whatapp.wire.WireMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+
+/**
+ * Append-only, on-disk history of one conversation.
+ * <p>
+ * Messages go to a segment file as {@code [length][crc32][record]} and the
+ * start offset of every record goes to an index file of 8-byte entries, so
+ * position {@code n} is found with one index lookup no matter how long the
+ * chat is. The index is read through a memory map.
+ * <p>
+ * Writes reach the OS right away but are forced to disk in batches: after
+ * {@link #SYNC_BATCH} records or {@link #SYNC_DELAY_MS} after the first
+ * unsynced one, whichever comes first. On open, a torn or corrupt tail (from a
+ * crash mid-write) is cut off and the index is repaired from the segment, which
+ * is always written first.
+ * <p>
+ * All methods are thread-safe; callers should keep them off the main thread.
+ */
+public final class ChatLog implements MessageSource, Closeable {
+
+    static final int SYNC_BATCH = 32;
+    static final long SYNC_DELAY_MS = 500;
+    // Same limit as a frame on the wire, with room for the sender fields
+    static final int MAX_RECORD_BYTES = 32 * 1024;
+
+    private static final int HEADER_BYTES = 8;
+    private static final int INDEX_ENTRY_BYTES = 8;
+    private static final int RECORD_VERSION = 1;
+
+    private static final int FLAG_SENT = 1;
+    private static final int FLAG_GROUP = 2;
+    private static final int FLAG_PAYLOAD = 4;
+
+    private final RandomAccessFile segmentFile;
+    private final RandomAccessFile indexFile;
+    private final FileChannel segment;
+    private final FileChannel index;
+    private final Scheduler syncScheduler;
+
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(256);
+    private final DataOutputStream recordOut = new DataOutputStream(recordBuffer);
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    private final ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+
+    private int count;
+    private long segmentSize;
+    private long truncatedBytes;
+    private MappedByteBuffer indexMap;
+    private int mappedCount;
+    private int unsynced;
+    private Disposable pendingSync;
+    private boolean closed;
+
+    private ChatLog(File segmentPath, File indexPath, Scheduler syncScheduler) throws IOException {
+        this.segmentFile = new RandomAccessFile(segmentPath, "rw");
+        this.indexFile = new RandomAccessFile(indexPath, "rw");
+        this.segment = segmentFile.getChannel();
+        this.index = indexFile.getChannel();
+        this.syncScheduler = syncScheduler;
+        try {
+            recover();
+        } catch (IOException e) {
+            closeQuietly();
+            throw e;
+        }
+    }
+
+    public static ChatLog open(File dir, String conversation) throws IOException {
+        return open(dir, conversation, Schedulers.io());
+    }
+
+    public static ChatLog open(File dir, String conversation, Scheduler syncScheduler) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        String base = fileName(conversation);
+        return new ChatLog(new File(dir, base + ".log"), new File(dir, base + ".idx"), syncScheduler);
+    }
+
+    /** File-system safe name that still tells conversations apart when sanitizing collides. */
+    static String fileName(String conversation) {
+        StringBuilder sb = new StringBuilder(conversation.length() + 9);
+        for (int i = 0; i < conversation.length() && sb.length() < 48; i++) {
+            char c = conversation.charAt(i);
+            boolean safe = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_';
+            sb.append(safe ? c : '_');
+        }
+        return sb.append('-').append(Integer.toHexString(conversation.hashCode())).toString();
+    }
+
+    @Override
+    public synchronized int size() {
+        return count;
+    }
+
+    /** Bytes cut off the segment tail when the log was opened. */
+    public synchronized long getTruncatedBytes() {
+        return truncatedBytes;
+    }
+
+    /** Records written since the last fsync. */
+    synchronized int getUnsynced() {
+        return unsynced;
+    }
+
+    /** Appends a message and returns its position. */
+    public synchronized int append(ChatMessage message) throws IOException {
+        ensureOpen();
+        recordBuffer.reset();
+        writeRecord(message, recordOut);
+        int length = recordBuffer.size();
+        if (length > MAX_RECORD_BYTES) {
+            throw new IOException("Record too large: " + length + " bytes");
+        }
+        byte[] record = recordBuffer.toByteArray();
+        crc.reset();
+        crc.update(record, 0, length);
+
+        header.clear();
+        header.putInt(length).putInt((int) crc.getValue()).flip();
+        long offset = segmentSize;
+        writeFully(segment, header, offset);
+        writeFully(segment, ByteBuffer.wrap(record), offset + HEADER_BYTES);
+        segmentSize = offset + HEADER_BYTES + length;
+
+        // Segment first: a crash before this line leaves a record the index can be rebuilt from
+        indexEntry.clear();
+        indexEntry.putLong(offset).flip();
+        writeFully(index, indexEntry, (long) count * INDEX_ENTRY_BYTES);
+        int position = count++;
+
+        if (++unsynced >= SYNC_BATCH) {
+            sync();
+        } else if (pendingSync == null) {
+            pendingSync = syncScheduler.scheduleDirect(this::syncQuietly, SYNC_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+        return position;
+    }
+
+    /** Forces everything appended so far to disk. */
+    public synchronized void sync() throws IOException {
+        if (pendingSync != null) {
+            pendingSync.dispose();
+            pendingSync = null;
+        }
+        if (unsynced == 0 || closed) return;
+        segment.force(false);
+        index.force(false);
+        unsynced = 0;
+    }
+
+    public synchronized ChatMessage read(int position) throws IOException {
+        List<ChatMessage> one = read(position, 1);
+        return one.get(0);
+    }
+
+    /** Reads {@code count} messages starting at {@code from} with a single segment read. */
+    @Override
+    public synchronized List<ChatMessage> read(int from, int n) throws IOException {
+        ensureOpen();
+        if (from < 0 || n < 0 || from + n > count) {
+            throw new IndexOutOfBoundsException("from=" + from + " count=" + n + " size=" + count);
+        }
+        List<ChatMessage> messages = new ArrayList<>(n);
+        if (n == 0) return messages;
+
+        long start = offsetOf(from);
+        long end = from + n < count ? offsetOf(from + n) : segmentSize;
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+        readFully(segment, buffer, start);
+        byte[] bytes = buffer.array();
+
+        int pos = 0;
+        for (int i = 0; i < n; i++) {
+            int length = readInt(bytes, pos);
+            int expected = readInt(bytes, pos + 4);
+            if (length < 0 || pos + HEADER_BYTES + length > bytes.length
+                    || checksum(bytes, pos + HEADER_BYTES, length) != expected) {
+                throw new IOException("Corrupt record at position " + (from + i));
+            }
+            ChatMessage message = readRecord(bytes, pos + HEADER_BYTES, length);
+            // Same id every time the record is read, and never one of a new message
+            message.setId(-1L - (from + i));
+            messages.add(message);
+            pos += HEADER_BYTES + length;
+        }
+        return messages;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        try {
+            sync();
+        } finally {
+            closeQuietly();
+        }
+    }
+
+    private void syncQuietly() {
+        synchronized (this) {
+            pendingSync = null;
+            try {
+                sync();
+            } catch (IOException ignored) {
+                // Retried with the next batch or on close
+            }
+        }
+    }
+
+    private void closeQuietly() {
+        closed = true;
+        indexMap = null;
+        try {
+            segmentFile.close();
+        } catch (IOException ignored) {
+        }
+        try {
+            indexFile.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) throw new IOException("Chat log closed");
+    }
+
+    private long offsetOf(int position) throws IOException {
+        if (position >= mappedCount) {
+            indexMap = index.map(FileChannel.MapMode.READ_ONLY, 0, (long) count * INDEX_ENTRY_BYTES);
+            mappedCount = count;
+        }
+        return indexMap.getLong(position * INDEX_ENTRY_BYTES);
+    }
+
+    // Recovery
+
+    private void recover() throws IOException {
+        long fileSize = segment.size();
+        int indexed = (int) Math.min(index.size() / INDEX_ENTRY_BYTES, Integer.MAX_VALUE);
+
+        // Drop index entries whose records did not make it to disk intact
+        long validEnd = 0;
+        while (indexed > 0) {
+            long offset = readIndexEntry(indexed - 1);
+            long end = validRecordEnd(offset, fileSize);
+            if (end > 0 && (indexed == 1 || readIndexEntry(indexed - 2) < offset)) {
+                validEnd = end;
+                break;
+            }
+            indexed--;
+        }
+
+        // Re-index records that reached the segment after the last index write
+        count = indexed;
+        long offset = validEnd;
+        long end;
+        while ((end = validRecordEnd(offset, fileSize)) > 0) {
+            indexEntry.clear();
+            indexEntry.putLong(offset).flip();
+            writeFully(index, indexEntry, (long) count * INDEX_ENTRY_BYTES);
+            count++;
+            offset = end;
+        }
+
+        truncatedBytes = fileSize - offset;
+        if (truncatedBytes > 0) segment.truncate(offset);
+        index.truncate((long) count * INDEX_ENTRY_BYTES);
+        segmentSize = offset;
+        if (truncatedBytes > 0 || count != indexed) {
+            segment.force(false);
+            index.force(false);
+        }
+    }
+
+    private long readIndexEntry(int position) throws IOException {
+        indexEntry.clear();
+        readFully(index, indexEntry, (long) position * INDEX_ENTRY_BYTES);
+        return indexEntry.getLong(0);
+    }
+
+    /** End offset of the record at {@code offset}, or -1 if it is missing, torn or corrupt. */
+    private long validRecordEnd(long offset, long fileSize) throws IOException {
+        if (offset < 0 || offset + HEADER_BYTES > fileSize) return -1;
+        header.clear();
+        readFully(segment, header, offset);
+        int length = header.getInt(0);
+        if (length < 0 || length > MAX_RECORD_BYTES || offset + HEADER_BYTES + length > fileSize) return -1;
+        ByteBuffer record = ByteBuffer.allocate(length);
+        readFully(segment, record, offset + HEADER_BYTES);
+        if (checksum(record.array(), 0, length) != header.getInt(4)) return -1;
+        return offset + HEADER_BYTES + length;
+    }
+
+    // Record format
+
+    private static void writeRecord(ChatMessage m, DataOutputStream out) throws IOException {
+        WireMessage payload = m.getPayload();
+        int flags = (m.isSent() ? FLAG_SENT : 0)
+                | (m.isGroupMessage() ? FLAG_GROUP : 0)
+                | (payload != null ? FLAG_PAYLOAD : 0);
+        out.writeByte(RECORD_VERSION);
+        out.writeByte(flags);
+        writeString(out, m.getMessage());
+        writeString(out, m.getSenderName());
+        writeString(out, m.getSenderMac());
+        writeString(out, m.getGroupId());
+        if (payload != null) {
+            // Already has a compact, versioned encoding
+            out.write(BinaryCodec.INSTANCE.encode(payload));
+        }
+    }
+
+    private static ChatMessage readRecord(byte[] bytes, int offset, int length) throws IOException {
+        ByteArrayInputStream stream = new ByteArrayInputStream(bytes, offset, length);
+        DataInputStream in = new DataInputStream(stream);
+        int version = in.readUnsignedByte();
+        if (version != RECORD_VERSION) throw new IOException("Unknown record version " + version);
+        int flags = in.readUnsignedByte();
+        String message = readString(in);
+        String senderName = readString(in);
+        String senderMac = readString(in);
+        String groupId = readString(in);
+
+        ChatMessage chat = new ChatMessage(message, (flags & FLAG_SENT) != 0, senderName, senderMac,
+                (flags & FLAG_GROUP) != 0, groupId);
+        if ((flags & FLAG_PAYLOAD) != 0) {
+            int remaining = stream.available();
+            try {
+                chat.setPayload(BinaryCodec.INSTANCE.decode(bytes, offset + length - remaining, remaining));
+            } catch (WireFormatException e) {
+                throw new IOException("Corrupt payload", e);
+            }
+        }
+        return chat;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) out.writeUTF(s);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    // I/O helpers
+
+    private int checksum(byte[] bytes, int offset, int length) {
+        crc.reset();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static int readInt(byte[] b, int pos) {
+        return ((b[pos] & 0xFF) << 24) | ((b[pos + 1] & 0xFF) << 16) | ((b[pos + 2] & 0xFF) << 8) | (b[pos + 3] & 0xFF);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) throw new IOException("Unexpected end of file at " + position);
+            position += n;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.whatapp.data;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Open chat logs for the whole process, one per conversation, so the open
+ * chat and frames routed to other conversations share a single writer per
+ * log. Logs stay open; their batched syncs keep them durable.
+ */
+public final class ChatLogs {
+
+    private static final String DIR = "chats";
+    private static final Map<String, ChatLog> open = new HashMap<>();
+
+    private ChatLogs() { }
+
+    /** Opens or returns the log of {@code conversation}; call it off the main thread. */
+    public static synchronized ChatLog get(Context context, String conversation) throws IOException {
+        ChatLog log = open.get(conversation);
+        if (log == null) {
+            log = ChatLog.open(new File(context.getApplicationContext().getFilesDir(), DIR), conversation);
+            open.put(conversation, log);
+        }
+        return log;
+    }
+}
@@ -0,0 +1,427 @@
+package com.example.whatapp.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.example.whatapp.ChatsModel;
+import com.example.whatapp.wire.MacAddress;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+
+/**
+ * Contacts and groups shown on the home screen, cached for the whole process.
+ * <p>
+ * Names are indexed case-insensitively, so duplicate checks are a single hash
+ * lookup. Contacts and groups share one space of small int ids; a group keeps
+ * its members as contact ids and is also indexed by its wire {@code group_id},
+ * so routing a frame or resolving the boards of a group never parses names.
+ * <p>
+ * Every change is appended to a small log file as one record on the writer
+ * scheduler instead of rewriting the whole list; the log is compacted once
+ * removed entries outweigh live ones. The first open migrates the old
+ * {@code chat_list} JSON preference.
+ */
+public final class ContactStore {
+
+    static final String FILE_NAME = "contacts.log";
+    private static final String LEGACY_PREFS = "chats";
+    private static final String LEGACY_KEY = "chat_list";
+
+    // [id][name]
+    private static final byte OP_ADD = '+';
+    // [id]
+    private static final byte OP_REMOVE = '-';
+    // [id][mac]
+    private static final byte OP_DEVICE = 'd';
+    // [id][name][wire id][member count][member ids]
+    private static final byte OP_GROUP = 'g';
+    // Compact only past this many dead records, so small stores never rewrite
+    private static final int COMPACT_MIN_DEAD = 32;
+
+    private static ContactStore instance;
+
+    private final File file;
+    private final Scheduler writer;
+    // Home screen order
+    private final List<ChatsModel> entries = new ArrayList<>();
+    private final Map<String, ChatsModel> byName = new HashMap<>();
+    // Indexed by id; removed ids stay null
+    private final List<ChatsModel> byId = new ArrayList<>();
+    private final Map<String, Group> groupsByWireId = new HashMap<>();
+
+    // Writer scheduler only
+    private DataOutputStream out;
+    private int records;
+
+    private volatile IOException lastWriteError;
+
+    private interface Record {
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    public static synchronized ContactStore get(Context context) {
+        if (instance == null) {
+            Context app = context.getApplicationContext();
+            File file = new File(app.getFilesDir(), FILE_NAME);
+            boolean fresh = !file.exists();
+            instance = new ContactStore(file, Schedulers.single());
+            if (fresh) migrateLegacy(app, instance);
+        }
+        return instance;
+    }
+
+    ContactStore(File file, Scheduler writer) {
+        this.file = file;
+        this.writer = writer;
+        load();
+    }
+
+    private static void migrateLegacy(Context context, ContactStore store) {
+        SharedPreferences prefs = context.getSharedPreferences(LEGACY_PREFS, Context.MODE_PRIVATE);
+        String json = prefs.getString(LEGACY_KEY, "");
+        if (json.isEmpty()) return;
+        List<String> names = new ArrayList<>();
+        try {
+            JSONArray array = new JSONArray(json);
+            for (int i = 0; i < array.length(); i++) {
+                String name = array.getJSONObject(i).optString("name", "");
+                if (!name.isEmpty()) names.add(name);
+            }
+        } catch (JSONException e) {
+            // Keep whatever parsed; the old list is unreadable past this point anyway
+        }
+        store.migrate(names);
+        prefs.edit().remove(LEGACY_KEY).apply();
+    }
+
+    /**
+     * Imports the old flat list, where a group was stored as
+     * {@code "name (a, b, c)"}. Such an entry becomes a real group when all the
+     * names in brackets are contacts; otherwise it stays a contact.
+     */
+    synchronized void migrate(List<String> names) {
+        List<String> legacyGroups = new ArrayList<>();
+        for (String name : names) {
+            if (name.endsWith(")") && name.contains(" (")) legacyGroups.add(name);
+            else add(name);
+        }
+        for (String desc : legacyGroups) {
+            int open = desc.lastIndexOf(" (");
+            String[] memberNames = desc.substring(open + 2, desc.length() - 1).split(", ");
+            List<ChatsModel> members = new ArrayList<>(memberNames.length);
+            for (String memberName : memberNames) {
+                ChatsModel member = find(memberName);
+                if (member == null || member.isGroup()) {
+                    members = null;
+                    break;
+                }
+                members.add(member);
+            }
+            if (members == null || createGroup(desc.substring(0, open), members) == null) add(desc);
+        }
+    }
+
+    private static String key(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized boolean contains(String name) {
+        return byName.containsKey(key(name));
+    }
+
+    /** Contact or group by display name, ignoring case. */
+    public synchronized ChatsModel find(String name) {
+        return byName.get(key(name));
+    }
+
+    public synchronized ChatsModel get(int id) {
+        return id >= 0 && id < byId.size() ? byId.get(id) : null;
+    }
+
+    /** Group by the {@code group_id} carried in frames, or null. */
+    public synchronized Group findGroup(String wireId) {
+        return wireId == null ? null : groupsByWireId.get(wireId);
+    }
+
+    /** Snapshot in insertion order. */
+    public synchronized List<ChatsModel> getAll() {
+        return new ArrayList<>(entries);
+    }
+
+    /** Adds a contact; returns null if the name is blank or already taken. */
+    public synchronized ChatsModel add(String name) {
+        String trimmed = name.trim();
+        if (trimmed.isEmpty() || byName.containsKey(key(trimmed))) return null;
+        ChatsModel added = put(new ChatsModel(byId.size(), trimmed, null));
+        persist(o -> writeContact(o, added));
+        return added;
+    }
+
+    /** Adds every new name; the names already present are skipped. */
+    public synchronized int addAll(List<String> names) {
+        int added = 0;
+        for (String name : names) {
+            if (add(name) != null) added++;
+        }
+        return added;
+    }
+
+    /**
+     * Creates a group of existing contacts, using its name as the wire
+     * {@code group_id}. Returns its entry, or null if the name is taken.
+     */
+    public synchronized ChatsModel createGroup(String name, List<ChatsModel> members) {
+        String trimmed = name.trim();
+        if (trimmed.isEmpty() || byName.containsKey(key(trimmed)) || groupsByWireId.containsKey(trimmed)) {
+            return null;
+        }
+        int[] ids = new int[members.size()];
+        for (int i = 0; i < ids.length; i++) ids[i] = members.get(i).getId();
+        Group group = new Group(byId.size(), trimmed, trimmed, ids);
+        ChatsModel added = put(new ChatsModel(group.getId(), trimmed, group));
+        persist(o -> writeGroup(o, group));
+        return added;
+    }
+
+    public synchronized boolean remove(String name) {
+        ChatsModel removed = byName.get(key(name));
+        if (removed == null) return false;
+        drop(removed.getId());
+        persist(o -> {
+            o.writeByte(OP_REMOVE);
+            o.writeInt(removed.getId());
+        });
+        return true;
+    }
+
+    /** Remembers the board a contact is reached through. */
+    public synchronized boolean bindDevice(String name, long mac) {
+        ChatsModel contact = byName.get(key(name));
+        if (contact == null || contact.isGroup() || contact.getDeviceMac() == mac) return false;
+        contact.setDeviceMac(mac);
+        persist(o -> writeDevice(o, contact.getId(), mac));
+        return true;
+    }
+
+    /** Packed MACs of the members' boards; members never connected are skipped. */
+    public synchronized long[] memberDevices(Group group) {
+        int[] members = group.members();
+        long[] macs = new long[members.length];
+        int n = 0;
+        for (int id : members) {
+            ChatsModel contact = get(id);
+            if (contact != null && contact.getDeviceMac() != MacAddress.NONE) macs[n++] = contact.getDeviceMac();
+        }
+        return n == macs.length ? macs : Arrays.copyOf(macs, n);
+    }
+
+    /** The last error writing the log, or null; changes stay in memory regardless. */
+    public IOException getLastWriteError() {
+        return lastWriteError;
+    }
+
+    private ChatsModel put(ChatsModel entry) {
+        while (byId.size() <= entry.getId()) byId.add(null);
+        byId.set(entry.getId(), entry);
+        byName.put(key(entry.getName()), entry);
+        entries.add(entry);
+        if (entry.isGroup()) groupsByWireId.put(entry.getGroup().getWireId(), entry.getGroup());
+        return entry;
+    }
+
+    private void drop(int id) {
+        // Ids are never reused, so a removal also keeps its id taken
+        while (byId.size() <= id) byId.add(null);
+        ChatsModel entry = get(id);
+        if (entry == null) return;
+        byId.set(id, null);
+        byName.remove(key(entry.getName()));
+        entries.remove(entry);
+        if (entry.isGroup()) groupsByWireId.remove(entry.getGroup().getWireId());
+    }
+
+    // Persistence
+
+    private void load() {
+        if (!file.exists()) return;
+        byte[] bytes;
+        try {
+            bytes = readFile(file);
+        } catch (IOException e) {
+            lastWriteError = e;
+            return;
+        }
+        ByteArrayInputStream stream = new ByteArrayInputStream(bytes);
+        DataInputStream in = new DataInputStream(stream);
+        int valid = 0;
+        try {
+            while (stream.available() > 0) {
+                if (!readRecord(in)) break;
+                records++;
+                valid = bytes.length - stream.available();
+            }
+        } catch (IOException e) {
+            // Torn last record from a crash mid-append; dropped below
+        }
+        if (valid < bytes.length) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(valid);
+            } catch (IOException e) {
+                lastWriteError = e;
+            }
+        }
+    }
+
+    private boolean readRecord(DataInputStream in) throws IOException {
+        byte op = in.readByte();
+        switch (op) {
+            case OP_ADD: {
+                int id = in.readInt();
+                String name = in.readUTF();
+                if (get(id) == null) put(new ChatsModel(id, name, null));
+                return true;
+            }
+            case OP_REMOVE:
+                drop(in.readInt());
+                return true;
+            case OP_DEVICE: {
+                ChatsModel contact = get(in.readInt());
+                long mac = in.readLong();
+                if (contact != null) contact.setDeviceMac(mac);
+                return true;
+            }
+            case OP_GROUP: {
+                int id = in.readInt();
+                String name = in.readUTF();
+                String wireId = in.readUTF();
+                int[] members = new int[in.readInt()];
+                for (int i = 0; i < members.length; i++) members[i] = in.readInt();
+                if (get(id) == null) put(new ChatsModel(id, name, new Group(id, name, wireId, members)));
+                return true;
+            }
+            default:
+                return false;
+        }
+    }
+
+    private static void writeContact(DataOutputStream o, ChatsModel contact) throws IOException {
+        o.writeByte(OP_ADD);
+        o.writeInt(contact.getId());
+        o.writeUTF(contact.getName());
+    }
+
+    private static void writeDevice(DataOutputStream o, int id, long mac) throws IOException {
+        o.writeByte(OP_DEVICE);
+        o.writeInt(id);
+        o.writeLong(mac);
+    }
+
+    private static void writeGroup(DataOutputStream o, Group group) throws IOException {
+        o.writeByte(OP_GROUP);
+        o.writeInt(group.getId());
+        o.writeUTF(group.getName());
+        o.writeUTF(group.getWireId());
+        int[] members = group.members();
+        o.writeInt(members.length);
+        for (int id : members) o.writeInt(id);
+    }
+
+    private void persist(Record record) {
+        writer.scheduleDirect(() -> {
+            try {
+                if (out == null) out = new DataOutputStream(new FileOutputStream(file, true));
+                record.writeTo(out);
+                out.flush();
+                records++;
+                compactIfWasteful();
+            } catch (IOException e) {
+                lastWriteError = e;
+                closeOut();
+            }
+        });
+    }
+
+    private void compactIfWasteful() throws IOException {
+        List<ChatsModel> live;
+        synchronized (this) {
+            if (records - entries.size() < Math.max(COMPACT_MIN_DEAD, entries.size())) return;
+            live = new ArrayList<>(entries);
+        }
+        closeOut();
+        File tmp = new File(file.getPath() + ".tmp");
+        int written = 0;
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream tmpOut = new DataOutputStream(fos)) {
+            for (ChatsModel entry : live) {
+                if (entry.isGroup()) {
+                    writeGroup(tmpOut, entry.getGroup());
+                } else {
+                    writeContact(tmpOut, entry);
+                    if (entry.getDeviceMac() != MacAddress.NONE) {
+                        writeDevice(tmpOut, entry.getId(), entry.getDeviceMac());
+                        written++;
+                    }
+                }
+                written++;
+            }
+            int lastId = byIdSize() - 1;
+            if (lastId >= 0 && get(lastId) == null) {
+                // Keeps the highest id taken after the removed entries are gone
+                tmpOut.writeByte(OP_REMOVE);
+                tmpOut.writeInt(lastId);
+                written++;
+            }
+            tmpOut.flush();
+            fos.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) throw new IOException("Cannot replace " + file);
+        records = written;
+    }
+
+    private synchronized int byIdSize() {
+        return byId.size();
+    }
+
+    private void closeOut() {
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException ignored) {
+        }
+        out = null;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(bytes);
+        } catch (EOFException e) {
+            throw new IOException("File shrank while reading " + file, e);
+        }
+        return bytes;
+    }
+}
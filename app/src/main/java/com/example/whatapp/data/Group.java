@@ -0,0 +1,56 @@
+package com.example.whatapp.data;
+
+import java.util.Arrays;
+
+/**
+ * A group conversation: an interned numeric id, the {@code group_id} used for
+ * it on the wire, and its members as a sorted array of contact ids.
+ */
+public final class Group {
+
+    private final int id;
+    private final String name;
+    private final String wireId;
+    private final int[] members;
+
+    Group(int id, String name, String wireId, int[] members) {
+        this.id = id;
+        this.name = name;
+        this.wireId = wireId;
+        this.members = members.clone();
+        Arrays.sort(this.members);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getWireId() {
+        return wireId;
+    }
+
+    public int getMemberCount() {
+        return members.length;
+    }
+
+    public int getMember(int index) {
+        return members[index];
+    }
+
+    public boolean hasMember(int contactId) {
+        return Arrays.binarySearch(members, contactId) >= 0;
+    }
+
+    int[] members() {
+        return members;
+    }
+
+    @Override
+    public String toString() {
+        return "Group{" + id + " " + name + " " + Arrays.toString(members) + "}";
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.whatapp.data;
+
+import com.example.whatapp.ChatMessage;
+import com.example.whatapp.MessageFormatter;
+import com.example.whatapp.geo.GeoMath;
+import com.example.whatapp.geo.PointIndex;
+import com.example.whatapp.wire.WireMessage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Where the messages of a conversation were sent from, for "messages near
+ * here" on the map.
+ * <p>
+ * Positions come from the frame's location fields, or for messages stored as
+ * plain text from the OpenStreetMap link or the app's own {@code "Location: lat, lon"}
+ * line. Other numbers in the text, such as prices, are never read as a position.
+ * They go into a {@link PointIndex} keyed by position in the log, so a radius
+ * or box query visits the quadtree nodes around the area rather than the whole
+ * history.
+ * <p>
+ * Thread-safe. {@link #update} reads the log; keep it off the main thread.
+ */
+public final class MessageGeoIndex {
+
+    /** Messages read from the log at a time while indexing. */
+    static final int PAGE = 256;
+
+    private static final Pattern OSM_LINK = Pattern.compile("mlat=(-?\\d+(?:\\.\\d+)?)&mlon=(-?\\d+(?:\\.\\d+)?)");
+    // As MessageFormatter writes it: a line of its own, six decimals; fewer than four is not a position
+    private static final Pattern LOCATION_LINE = Pattern.compile("^" + Pattern.quote(MessageFormatter.LOCATION_PREFIX)
+            + "(-?\\d{1,2}\\.\\d{4,}), (-?\\d{1,3}\\.\\d{4,})", Pattern.MULTILINE);
+
+    /** A message found by a query. Immutable. */
+    public static final class Hit {
+        /** Position in the conversation's log. */
+        public final int position;
+        public final int latitudeE6;
+        public final int longitudeE6;
+        /** From the query's centre; 0 for box queries. */
+        public final double distanceM;
+
+        Hit(int position, int latitudeE6, int longitudeE6, double distanceM) {
+            this.position = position;
+            this.latitudeE6 = latitudeE6;
+            this.longitudeE6 = longitudeE6;
+            this.distanceM = distanceM;
+        }
+    }
+
+    private final MessageSource source;
+    private final PointIndex points = new PointIndex();
+    private int indexed;
+
+    public MessageGeoIndex(MessageSource source) {
+        this.source = source;
+    }
+
+    /**
+     * Indexes the messages appended since the last call.
+     *
+     * @return how many of them had a position
+     */
+    public synchronized int update() throws IOException {
+        int size = source.size();
+        int found = 0;
+        int[] position = new int[2];
+        for (int from = indexed; from < size; from += PAGE) {
+            List<ChatMessage> page = source.read(from, Math.min(PAGE, size - from));
+            for (int i = 0; i < page.size(); i++) {
+                if (locate(page.get(i), position)) {
+                    points.add(from + i, position[0], position[1]);
+                    found++;
+                }
+            }
+        }
+        indexed = size;
+        return found;
+    }
+
+    /** Messages sent within {@code radiusM} of a point, nearest first. */
+    public synchronized List<Hit> within(int latitudeE6, int longitudeE6, double radiusM) {
+        double dLat = radiusM / GeoMath.METRES_PER_E6;
+        double dLon = dLat / Math.max(1e-6, GeoMath.cosLatitude(latitudeE6));
+        List<Hit> hits = new ArrayList<>();
+        points.points((latitudeE6 + dLat) / 1e6, (longitudeE6 + dLon) / 1e6,
+                (latitudeE6 - dLat) / 1e6, (longitudeE6 - dLon) / 1e6, (id, x, y) -> {
+                    int lat = toE6(PointIndex.latitude(y));
+                    int lon = toE6(PointIndex.longitude(x));
+                    double d = GeoMath.distanceM(latitudeE6, longitudeE6, lat, lon);
+                    if (d <= radiusM) hits.add(new Hit((int) id, lat, lon, d));
+                });
+        Collections.sort(hits, (a, b) -> Double.compare(a.distanceM, b.distanceM));
+        return hits;
+    }
+
+    /** Messages sent inside a box, oldest first. */
+    public synchronized List<Hit> inBox(double north, double east, double south, double west) {
+        List<Hit> hits = new ArrayList<>();
+        points.points(north, east, south, west, (id, x, y) ->
+                hits.add(new Hit((int) id, toE6(PointIndex.latitude(y)), toE6(PointIndex.longitude(x)), 0)));
+        Collections.sort(hits, (a, b) -> Integer.compare(a.position, b.position));
+        return hits;
+    }
+
+    public synchronized int size() {
+        return points.size();
+    }
+
+    /**
+     * The index the queries run on, for drawing; it must not be read while
+     * {@link #update} runs.
+     */
+    public PointIndex getPoints() {
+        return points;
+    }
+
+    /** Fills {@code out} with the message's latitude and longitude in microdegrees. */
+    static boolean locate(ChatMessage message, int[] out) {
+        WireMessage payload = message.getPayload();
+        if (payload != null) {
+            if (!payload.hasLocation()) return false;
+            out[0] = payload.getLatitudeE6();
+            out[1] = payload.getLongitudeE6();
+            return true;
+        }
+        String text = message.getMessage();
+        if (text == null) return false;
+        Matcher m = OSM_LINK.matcher(text);
+        if (!m.find()) {
+            m = LOCATION_LINE.matcher(text);
+            if (!m.find()) return false;
+        }
+        double lat = Double.parseDouble(m.group(1));
+        double lon = Double.parseDouble(m.group(2));
+        if (Math.abs(lat) > 90 || Math.abs(lon) > 180) return false;
+        out[0] = toE6(lat);
+        out[1] = toE6(lon);
+        return true;
+    }
+
+    private static int toE6(double degrees) {
+        return (int) Math.round(degrees * WireMessage.MICRODEGREES);
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.whatapp.data;
+
+import com.example.whatapp.ChatMessage;
+
+import java.io.IOException;
+import java.util.List;
+
+/** Random-access store of a conversation's messages, oldest first. */
+public interface MessageSource {
+
+    int size();
+
+    List<ChatMessage> read(int from, int count) throws IOException;
+}
@@ -0,0 +1,297 @@
+package com.example.whatapp.data;
+
+import com.example.whatapp.ChatMessage;
+import com.example.whatapp.wire.WireMessage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.disposables.Disposable;
+
+/**
+ * Sliding window over a conversation's history for the chat list.
+ * <p>
+ * Messages are held in fixed pages of {@link #PAGE_SIZE}. Only pages near the
+ * viewport stay in memory: a missing page is read from the {@link MessageSource}
+ * when a row in it is requested, and pages farthest from the viewport are dropped
+ * once the estimated heap use passes the budget. Until the source is attached,
+ * appended messages are simply kept in memory; attaching inserts the stored
+ * history in front of them.
+ * <p>
+ * Not thread-safe: call it and receive {@link Listener} callbacks on the main
+ * scheduler. Reads run on the I/O scheduler.
+ */
+public final class MessageWindow {
+
+    public static final int PAGE_SIZE = 100;
+    // Should hold at least the visible pages and one either side
+    public static final long DEFAULT_BUDGET_BYTES = 4L * 1024 * 1024;
+
+    // Rough per-object costs on ART; only used to compare against the budget
+    private static final int MESSAGE_OVERHEAD_BYTES = 96;
+    private static final int PAYLOAD_OVERHEAD_BYTES = 80;
+    private static final int STRING_OVERHEAD_BYTES = 40;
+
+    /** Row changes, in adapter positions. */
+    public interface Listener {
+        void onInserted(int from, int count);
+
+        void onChanged(int from, int count);
+    }
+
+    /** The newest messages of a source, from the start of their page. */
+    public static final class Head {
+        final int from;
+        final List<ChatMessage> messages;
+
+        Head(int from, List<ChatMessage> messages) {
+            this.from = from;
+            this.messages = messages;
+        }
+    }
+
+    private static final class Page {
+        final List<ChatMessage> messages;
+        long bytes;
+
+        Page(List<ChatMessage> messages) {
+            this.messages = messages;
+            for (ChatMessage m : messages) bytes += estimateBytes(m);
+        }
+
+        void add(ChatMessage m) {
+            messages.add(m);
+            bytes += estimateBytes(m);
+        }
+    }
+
+    private final long budgetBytes;
+    private final Scheduler io;
+    private final Scheduler main;
+    private final Map<Integer, Page> pages = new HashMap<>();
+    // Pages being read, with the read to cancel
+    private final Map<Integer, Disposable> loading = new HashMap<>();
+    private final List<ChatMessage> early = new ArrayList<>();
+
+    private MessageSource source;
+    private Listener listener;
+    private int size;
+    private long heldBytes;
+    private int firstVisible;
+    private int lastVisible = -1;
+    private long pagesLoaded;
+    private long pagesEvicted;
+
+    public MessageWindow(long budgetBytes, Scheduler io, Scheduler main) {
+        this.budgetBytes = budgetBytes;
+        this.io = io;
+        this.main = main;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public static int pageStart(int position) {
+        return position - position % PAGE_SIZE;
+    }
+
+    /** Reads the page holding the newest messages; call it on the I/O thread before {@link #attach}. */
+    public static Head readHead(MessageSource source) throws IOException {
+        int size = source.size();
+        int from = size == 0 ? 0 : pageStart(size - 1);
+        return new Head(from, source.read(from, size - from));
+    }
+
+    /**
+     * Switches to paging from {@code source}. Its newest page shows at once;
+     * messages appended so far move behind the stored history.
+     */
+    public void attach(MessageSource source, Head head) {
+        if (this.source != null) throw new IllegalStateException("Already attached");
+        this.source = source;
+        int sourceSize = head.from + head.messages.size();
+        this.size = sourceSize;
+        if (!head.messages.isEmpty()) {
+            install(head.from / PAGE_SIZE, new ArrayList<>(head.messages));
+        }
+        List<ChatMessage> pending = new ArrayList<>(early);
+        early.clear();
+        for (ChatMessage m : pending) appendAttached(m);
+        if (listener != null && sourceSize > 0) listener.onInserted(0, sourceSize);
+        trim();
+    }
+
+    public boolean isAttached() {
+        return source != null;
+    }
+
+    public int size() {
+        return source != null ? size : early.size();
+    }
+
+    /** Estimated heap held by loaded pages. */
+    public long getHeldBytes() {
+        return heldBytes;
+    }
+
+    public int getLoadedPages() {
+        return pages.size();
+    }
+
+    public long getPagesLoaded() {
+        return pagesLoaded;
+    }
+
+    public long getPagesEvicted() {
+        return pagesEvicted;
+    }
+
+    /** Adds a message after the newest one. The caller persists it to the source. */
+    public void append(ChatMessage message) {
+        if (source == null) {
+            early.add(message);
+            return;
+        }
+        appendAttached(message);
+        trim();
+    }
+
+    /**
+     * The message at {@code position}, or null if its page is not in memory yet;
+     * the page is then loaded and {@link Listener#onChanged} reports the rows.
+     */
+    public ChatMessage get(int position) {
+        ChatMessage message = peek(position);
+        if (message == null && source != null) request(position / PAGE_SIZE);
+        return message;
+    }
+
+    /** Like {@link #get} but never triggers a load. */
+    public ChatMessage peek(int position) {
+        if (source == null) return early.get(position);
+        if (position < 0 || position >= size) throw new IndexOutOfBoundsException(position + " of " + size);
+        Page page = pages.get(position / PAGE_SIZE);
+        int offset = position % PAGE_SIZE;
+        return page != null && offset < page.messages.size() ? page.messages.get(offset) : null;
+    }
+
+    /**
+     * Tells the window which rows are on screen. The pages either side are read
+     * ahead, so scrolling up finds older messages already loaded.
+     */
+    public void setViewport(int first, int last) {
+        firstVisible = first;
+        lastVisible = last;
+        if (source == null || last < first) return;
+        int lastPage = (size - 1) / PAGE_SIZE;
+        for (int p = Math.max(0, first / PAGE_SIZE - 1); p <= Math.min(lastPage, last / PAGE_SIZE + 1); p++) {
+            if (!pages.containsKey(p)) request(p);
+        }
+        trim();
+    }
+
+    /** Cancels reads in flight; loaded pages stay. */
+    public void cancelLoads() {
+        for (Disposable d : loading.values()) d.dispose();
+        loading.clear();
+    }
+
+    private void appendAttached(ChatMessage message) {
+        int position = size++;
+        int pageIndex = position / PAGE_SIZE;
+        Page page = pages.get(pageIndex);
+        if (page != null && page.messages.size() == position % PAGE_SIZE) {
+            page.add(message);
+            heldBytes += estimateBytes(message);
+        } else if (page == null && position % PAGE_SIZE == 0 && !loading.containsKey(pageIndex)) {
+            List<ChatMessage> messages = new ArrayList<>(PAGE_SIZE);
+            messages.add(message);
+            install(pageIndex, messages);
+        }
+        // Otherwise the page is read from the source, which has the message by then
+    }
+
+    private void request(int pageIndex) {
+        if (loading.containsKey(pageIndex)) return;
+        Disposable placeholder = Disposable.empty();
+        loading.put(pageIndex, placeholder);
+        int from = pageIndex * PAGE_SIZE;
+        int count = Math.min(PAGE_SIZE, size - from);
+        MessageSource src = source;
+        Disposable d = Single.fromCallable(() -> src.read(from, count))
+                .subscribeOn(io)
+                .observeOn(main)
+                .subscribe(messages -> onLoaded(pageIndex, messages), t -> loading.remove(pageIndex));
+        // Still pending unless the read completed synchronously
+        if (loading.get(pageIndex) == placeholder) loading.put(pageIndex, d);
+    }
+
+    private void onLoaded(int pageIndex, List<ChatMessage> messages) {
+        loading.remove(pageIndex);
+        if (pages.containsKey(pageIndex)) return;
+        int from = pageIndex * PAGE_SIZE;
+        if (messages.size() < Math.min(PAGE_SIZE, size - from)) {
+            // Rows were appended while reading; read the page again
+            request(pageIndex);
+            return;
+        }
+        install(pageIndex, new ArrayList<>(messages));
+        pagesLoaded++;
+        if (listener != null) listener.onChanged(from, messages.size());
+        trim();
+    }
+
+    private void install(int pageIndex, List<ChatMessage> messages) {
+        Page page = new Page(messages);
+        pages.put(pageIndex, page);
+        heldBytes += page.bytes;
+    }
+
+    /** Drops the pages farthest from the viewport until the budget is met. */
+    private void trim() {
+        if (heldBytes <= budgetBytes) return;
+        int firstPinned;
+        int lastPinned;
+        if (lastVisible >= firstVisible) {
+            firstPinned = firstVisible / PAGE_SIZE;
+            lastPinned = lastVisible / PAGE_SIZE;
+        } else {
+            firstPinned = lastPinned = Math.max(0, size - 1) / PAGE_SIZE;
+        }
+        while (heldBytes > budgetBytes) {
+            int victim = -1;
+            int farthest = 0;
+            for (int p : pages.keySet()) {
+                int distance = p < firstPinned ? firstPinned - p : p - lastPinned;
+                if (distance > farthest) {
+                    farthest = distance;
+                    victim = p;
+                }
+            }
+            if (victim < 0) return;
+            heldBytes -= pages.remove(victim).bytes;
+            pagesEvicted++;
+        }
+    }
+
+    static long estimateBytes(ChatMessage m) {
+        long bytes = MESSAGE_OVERHEAD_BYTES + stringBytes(m.getMessage()) + stringBytes(m.getSenderName())
+                + stringBytes(m.getSenderMac()) + stringBytes(m.getGroupId());
+        WireMessage payload = m.getPayload();
+        if (payload != null) {
+            bytes += PAYLOAD_OVERHEAD_BYTES + stringBytes(payload.getType()) + stringBytes(payload.getGroupId())
+                    + stringBytes(payload.getText());
+        }
+        return bytes;
+    }
+
+    private static long stringBytes(String s) {
+        return s == null ? 0 : STRING_OVERHEAD_BYTES + 2L * s.length();
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.whatapp.geo;
+
+/**
+ * Distances on microdegree coordinates.
+ * <p>
+ * Uses the equirectangular approximation, which is well within GPS error over
+ * the few kilometres the boards cover and needs one cosine per call.
+ */
+public final class GeoMath {
+
+    /** Metres per microdegree of latitude. */
+    public static final double METRES_PER_E6 = 0.111_195;
+
+    private GeoMath() { }
+
+    public static double distanceM(int latE6a, int lonE6a, int latE6b, int lonE6b) {
+        double dLat = (double) latE6b - latE6a;
+        double dLon = ((double) lonE6b - lonE6a) * cosLatitude((latE6a + (long) latE6b) / 2);
+        return Math.sqrt(dLat * dLat + dLon * dLon) * METRES_PER_E6;
+    }
+
+    /** Scale of a microdegree of longitude relative to one of latitude. */
+    public static double cosLatitude(long latE6) {
+        return Math.cos(Math.toRadians(latE6 / 1e6));
+    }
+}
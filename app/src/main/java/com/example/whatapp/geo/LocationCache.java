@@ -0,0 +1,127 @@
+package com.example.whatapp.geo;
+
+import com.example.whatapp.wire.WireMessage;
+
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.rxjava3.core.Maybe;
+import io.reactivex.rxjava3.core.Scheduler;
+
+/**
+ * Last known position of this phone, so sending a location does not wait on
+ * a lookup every time.
+ * <p>
+ * {@link #get()} answers from the cached fix while it is younger than the
+ * maximum age, and otherwise runs the lookup; sends that arrive while a lookup
+ * is running share it. If the lookup fails or finds nothing, the cached fix is
+ * used however old it is, as its time travels with it.
+ */
+public final class LocationCache {
+
+    public static final long DEFAULT_MAX_AGE_MS = 60_000;
+
+    /** A position fix in the units frames carry. */
+    public static final class Fix {
+        public final int latitudeE6;
+        public final int longitudeE6;
+        /** Metres, or {@link WireMessage#NO_ACCURACY}. */
+        public final int accuracyM;
+        /** Epoch millis. */
+        public final long timeMs;
+
+        public Fix(int latitudeE6, int longitudeE6, int accuracyM, long timeMs) {
+            this.latitudeE6 = latitudeE6;
+            this.longitudeE6 = longitudeE6;
+            this.accuracyM = accuracyM;
+            this.timeMs = timeMs;
+        }
+
+        public static Fix of(double latitude, double longitude, float accuracyM, long timeMs) {
+            return new Fix((int) Math.round(latitude * WireMessage.MICRODEGREES),
+                    (int) Math.round(longitude * WireMessage.MICRODEGREES),
+                    accuracyM > 0 ? Math.round(accuracyM) : WireMessage.NO_ACCURACY, timeMs);
+        }
+
+        public WireMessage.Builder applyTo(WireMessage.Builder b) {
+            return b.locationE6(latitudeE6, longitudeE6).fix(accuracyM, timeMs);
+        }
+    }
+
+    /** Looks the position up; completes empty when there is none. */
+    public interface Lookup {
+        Maybe<Fix> lookup();
+    }
+
+    private final Lookup source;
+    private final Scheduler clock;
+    private volatile long maxAgeMs;
+
+    // Guarded by this
+    private Fix last;
+    private Maybe<Fix> inFlight;
+    private long hits;
+    private long lookups;
+
+    /** @param clock wall clock the fix times are compared with */
+    public LocationCache(Lookup source, Scheduler clock, long maxAgeMs) {
+        this.source = source;
+        this.clock = clock;
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    public void setMaxAgeMs(long maxAgeMs) {
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    public long getMaxAgeMs() {
+        return maxAgeMs;
+    }
+
+    public Maybe<Fix> get() {
+        return Maybe.defer(() -> {
+            synchronized (this) {
+                if (last != null && clock.now(TimeUnit.MILLISECONDS) - last.timeMs <= maxAgeMs) {
+                    hits++;
+                    return Maybe.just(last);
+                }
+                if (inFlight == null) {
+                    lookups++;
+                    inFlight = source.lookup()
+                            .doOnSuccess(this::offer)
+                            .onErrorComplete()
+                            .switchIfEmpty(Maybe.defer(this::fallback))
+                            .doFinally(this::lookupDone)
+                            .cache();
+                }
+                return inFlight;
+            }
+        });
+    }
+
+    /** Keeps {@code fix} if it is newer than the cached one, e.g. from a location listener. */
+    public synchronized void offer(Fix fix) {
+        if (last == null || fix.timeMs >= last.timeMs) last = fix;
+    }
+
+    /** The cached fix whatever its age, or null. */
+    public synchronized Fix peek() {
+        return last;
+    }
+
+    /** Sends answered from the cache. */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getLookups() {
+        return lookups;
+    }
+
+    private synchronized Maybe<Fix> fallback() {
+        return last != null ? Maybe.just(last) : Maybe.empty();
+    }
+
+    private synchronized void lookupDone() {
+        inFlight = null;
+    }
+}
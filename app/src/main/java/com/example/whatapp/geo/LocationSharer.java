@@ -0,0 +1,106 @@
+package com.example.whatapp.geo;
+
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.subjects.BehaviorSubject;
+import io.reactivex.rxjava3.subjects.Subject;
+
+/**
+ * Decides which fixes of a live location share go out, and how often the
+ * location provider needs to be asked.
+ * <p>
+ * A fix is sent once the phone has moved further than the larger of
+ * {@link #MIN_DISTANCE_M} and the fix's accuracy, but never sooner than
+ * {@link #MIN_INTERVAL_MS} after the previous one; a phone that stays put
+ * still sends every {@link #HEARTBEAT_MS} so peers know it is alive. The send
+ * rate therefore follows the speed, and the polling interval is chosen from the
+ * smoothed speed so that a fix is at hand about when the next one is due.
+ * Polling stays at {@link #MIN_POLL_MS} until two fixes give a first speed.
+ */
+public final class LocationSharer {
+
+    public static final double MIN_DISTANCE_M = 10;
+    public static final long MIN_INTERVAL_MS = 2_000;
+    public static final long HEARTBEAT_MS = 60_000;
+    public static final long MIN_POLL_MS = 1_000;
+    public static final long MAX_POLL_MS = 32_000;
+
+    // Weight of the newest sample in the smoothed speed
+    private static final double SPEED_WEIGHT = 0.5;
+
+    private final Subject<Long> pollIntervals = BehaviorSubject.createDefault(MIN_POLL_MS).toSerialized();
+
+    // Guarded by this
+    private LocationCache.Fix lastSent;
+    private LocationCache.Fix lastSeen;
+    private double speedMps;
+    // Whether speedMps comes from at least one pair of fixes
+    private boolean measured;
+    private long pollMs = MIN_POLL_MS;
+
+    /** @return true if {@code fix} should be sent */
+    public boolean offer(LocationCache.Fix fix) {
+        long poll;
+        boolean send;
+        synchronized (this) {
+            if (lastSeen != null && fix.timeMs > lastSeen.timeMs) {
+                double metres = distance(lastSeen, fix);
+                double speed = metres * 1000 / (fix.timeMs - lastSeen.timeMs);
+                speedMps = SPEED_WEIGHT * speed + (1 - SPEED_WEIGHT) * speedMps;
+                measured = true;
+            }
+            if (lastSeen == null || fix.timeMs >= lastSeen.timeMs) lastSeen = fix;
+            send = shouldSend(fix);
+            if (send) lastSent = fix;
+            poll = measured ? pollFor(speedMps) : MIN_POLL_MS;
+            if (poll == pollMs) poll = -1;
+            else pollMs = poll;
+        }
+        if (poll > 0) pollIntervals.onNext(poll);
+        return send;
+    }
+
+    private boolean shouldSend(LocationCache.Fix fix) {
+        if (lastSent == null) return true;
+        long elapsed = fix.timeMs - lastSent.timeMs;
+        if (elapsed >= HEARTBEAT_MS) return true;
+        if (elapsed < MIN_INTERVAL_MS) return false;
+        double threshold = Math.max(MIN_DISTANCE_M, fix.accuracyM > 0 ? fix.accuracyM : 0);
+        return distance(lastSent, fix) >= threshold;
+    }
+
+    /** Power-of-two seconds around the time to cover {@link #MIN_DISTANCE_M}, within the poll bounds. */
+    static long pollFor(double speedMps) {
+        if (speedMps <= 0) return MAX_POLL_MS;
+        double ms = MIN_DISTANCE_M / speedMps * 1000;
+        long poll = MIN_POLL_MS;
+        while (poll * 2 <= ms && poll < MAX_POLL_MS) poll *= 2;
+        return poll;
+    }
+
+    /** Polling interval for the location provider; emits the current one on subscribe and each change. */
+    public Observable<Long> pollIntervals() {
+        return pollIntervals;
+    }
+
+    public synchronized double getSpeedMps() {
+        return speedMps;
+    }
+
+    /** Starts over, e.g. when sharing is switched back on: the next fix goes out, and polling is fast again. */
+    public void reset() {
+        boolean changed;
+        synchronized (this) {
+            lastSent = null;
+            lastSeen = null;
+            speedMps = 0;
+            measured = false;
+            changed = pollMs != MIN_POLL_MS;
+            pollMs = MIN_POLL_MS;
+        }
+        if (changed) pollIntervals.onNext(MIN_POLL_MS);
+    }
+
+    private static double distance(LocationCache.Fix a, LocationCache.Fix b) {
+        return GeoMath.distanceM(a.latitudeE6, a.longitudeE6, b.latitudeE6, b.longitudeE6);
+    }
+}
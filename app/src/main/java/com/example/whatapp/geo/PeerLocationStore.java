@@ -0,0 +1,120 @@
+package com.example.whatapp.geo;
+
+import com.example.whatapp.wire.WireMessage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+import io.reactivex.rxjava3.subjects.Subject;
+
+/**
+ * Latest known position of each peer, fed by the chat's frame stream and read
+ * by the map.
+ * <p>
+ * One instance per process, so positions received while a chat was open are
+ * on the map when it is opened. Updates older than the one held for a peer
+ * are ignored, as relays may deliver them late, so each peer's {@link Trail}
+ * stays in time order.
+ */
+public final class PeerLocationStore {
+
+    /** Immutable. */
+    public static final class Peer {
+        public final long mac;
+        public final int latitudeE6;
+        public final int longitudeE6;
+        /** Metres, or {@link WireMessage#NO_ACCURACY}. */
+        public final int accuracyM;
+        /** When the peer fixed it, epoch millis; 0 if it did not say. */
+        public final long fixTimeMs;
+        /** When this phone received it. */
+        public final long receivedAtMs;
+
+        Peer(long mac, int latitudeE6, int longitudeE6, int accuracyM, long fixTimeMs, long receivedAtMs) {
+            this.mac = mac;
+            this.latitudeE6 = latitudeE6;
+            this.longitudeE6 = longitudeE6;
+            this.accuracyM = accuracyM;
+            this.fixTimeMs = fixTimeMs;
+            this.receivedAtMs = receivedAtMs;
+        }
+
+        public double getLatitude() {
+            return latitudeE6 / (double) WireMessage.MICRODEGREES;
+        }
+
+        public double getLongitude() {
+            return longitudeE6 / (double) WireMessage.MICRODEGREES;
+        }
+
+        /** Best guess at when the position was true. */
+        public long getTimeMs() {
+            return fixTimeMs != 0 ? fixTimeMs : receivedAtMs;
+        }
+    }
+
+    private static PeerLocationStore instance;
+
+    private final Map<Long, Peer> peers = new HashMap<>();
+    private final Map<Long, Trail> trails = new HashMap<>();
+    private final Subject<Peer> updates = PublishSubject.<Peer>create().toSerialized();
+
+    public static synchronized PeerLocationStore get() {
+        if (instance == null) instance = new PeerLocationStore();
+        return instance;
+    }
+
+    /**
+     * Records the position in {@code message}, which must have a location.
+     *
+     * @return the peer's new entry, or null if the update was older than the one held
+     */
+    public Peer update(long mac, WireMessage message, long nowMs) {
+        Peer peer = new Peer(mac, message.getLatitudeE6(), message.getLongitudeE6(), message.getAccuracyM(),
+                message.getFixTimeMs(), nowMs);
+        synchronized (this) {
+            Peer previous = peers.get(mac);
+            if (previous != null && peer.fixTimeMs != 0 && peer.fixTimeMs < previous.fixTimeMs) return null;
+            peers.put(mac, peer);
+            Trail trail = trails.get(mac);
+            if (trail == null) {
+                trail = new Trail();
+                trails.put(mac, trail);
+            }
+            trail.add(peer.latitudeE6, peer.longitudeE6, peer.getTimeMs());
+        }
+        updates.onNext(peer);
+        return peer;
+    }
+
+    public synchronized Peer get(long mac) {
+        return peers.get(mac);
+    }
+
+    public synchronized List<Peer> snapshot() {
+        return new ArrayList<>(peers.values());
+    }
+
+    /** Every position received from the peer, or null if none was. */
+    public synchronized Trail getTrail(long mac) {
+        return trails.get(mac);
+    }
+
+    public synchronized List<Trail> trails() {
+        return new ArrayList<>(trails.values());
+    }
+
+    /** Each accepted update, on the thread that recorded it. */
+    public Observable<Peer> updates() {
+        return updates;
+    }
+
+    public synchronized void clear() {
+        peers.clear();
+        trails.clear();
+    }
+}
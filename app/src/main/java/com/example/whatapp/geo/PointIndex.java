@@ -0,0 +1,303 @@
+package com.example.whatapp.geo;
+
+import java.util.Arrays;
+
+/**
+ * Points on the map in a quadtree over Web Mercator coordinates, each node
+ * keeping the count and summed position of the points under it.
+ * <p>
+ * Clustering for a zoom level is a cut through the tree: a node whose cell is
+ * about {@link #CLUSTER_PX} pixels across at that zoom is reported as one
+ * cluster at its points' centroid, and nodes outside the viewport are never
+ * entered, so a frame costs about the clusters in view, not the points
+ * indexed. Points and nodes live in parallel primitive arrays.
+ * <p>
+ * Not thread-safe; build it on one thread, then hand it over.
+ */
+public final class PointIndex {
+
+    /** Depth of the finest cell; the world is {@code 1 << DEPTH} units across. */
+    public static final int DEPTH = 30;
+    /** Approximate width of a cluster cell on screen. */
+    public static final int CLUSTER_PX = 64;
+    static final int LEAF_CAPACITY = 16;
+
+    private static final int WORLD = 1 << DEPTH;
+    private static final double MAX_LATITUDE = 85.05112878;
+    // log2 of the 256 px tile over CLUSTER_PX
+    private static final int CLUSTER_DEPTH_OFFSET = 2;
+    private static final int INTERNAL = -2;
+    private static final int EMPTY = -1;
+
+    public interface ClusterSink {
+        /**
+         * @param x  centroid, in {@link #x} units
+         * @param y  centroid, in {@link #y} units
+         * @param id one point of the cluster; the only one if {@code count} is 1
+         */
+        void cluster(int count, int x, int y, long id);
+    }
+
+    public interface PointSink {
+        void point(long id, int x, int y);
+    }
+
+    private int size;
+    private int[] pointX = new int[64];
+    private int[] pointY = new int[64];
+    private long[] pointId = new long[64];
+    // Next point in the same leaf, or EMPTY
+    private int[] pointNext = new int[64];
+
+    // Node 0 is the root; child index 0 means no child
+    private int nodes;
+    private int[] child = new int[4 * 16];
+    private int[] count = new int[16];
+    private long[] sumX = new long[16];
+    private long[] sumY = new long[16];
+    private int[] anyPoint = new int[16];
+    // First point of a leaf, EMPTY, or INTERNAL
+    private int[] head = new int[16];
+
+    // Points of one leaf grouped by cell during a query
+    private final int[] groupCellX = new int[LEAF_CAPACITY];
+    private final int[] groupCellY = new int[LEAF_CAPACITY];
+    private final int[] groupCount = new int[LEAF_CAPACITY];
+    private final long[] groupSumX = new long[LEAF_CAPACITY];
+    private final long[] groupSumY = new long[LEAF_CAPACITY];
+    private final int[] groupPoint = new int[LEAF_CAPACITY];
+
+    public PointIndex() {
+        newNode();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void add(long id, int latitudeE6, int longitudeE6) {
+        int x = x(longitudeE6);
+        int y = y(latitudeE6);
+        int p = size++;
+        if (p == pointX.length) {
+            int n = p * 2;
+            pointX = Arrays.copyOf(pointX, n);
+            pointY = Arrays.copyOf(pointY, n);
+            pointId = Arrays.copyOf(pointId, n);
+            pointNext = Arrays.copyOf(pointNext, n);
+        }
+        pointX[p] = x;
+        pointY[p] = y;
+        pointId[p] = id;
+
+        int node = 0;
+        for (int depth = 0; ; depth++) {
+            addTo(node, p);
+            if (head[node] != INTERNAL) {
+                if (count[node] > LEAF_CAPACITY && depth < DEPTH) split(node, depth);
+                return;
+            }
+            node = childFor(node, quadrant(x, y, depth));
+        }
+    }
+
+    /**
+     * Reports the clusters in a viewport. Longitudes may wrap: a west edge east
+     * of the east edge spans the antimeridian.
+     *
+     * @param zoom map zoom level, 256 px tiles
+     */
+    public void clusters(double north, double east, double south, double west, double zoom, ClusterSink sink) {
+        if (size == 0) return;
+        int depth = depthForZoom(zoom);
+        int top = y(toE6(north));
+        int bottom = y(toE6(south));
+        int left = x(toE6(west));
+        int right = x(toE6(east));
+        if (west <= east || east - west >= 360) {
+            visit(0, 0, 0, 0, Math.min(left, right), top, Math.max(left, right), bottom, depth, sink);
+        } else {
+            visit(0, 0, 0, 0, left, top, WORLD - 1, bottom, depth, sink);
+            visit(0, 0, 0, 0, 0, top, right, bottom, depth, sink);
+        }
+    }
+
+    /**
+     * Reports every point in a box, entering only the nodes that overlap it.
+     * Longitudes may wrap as in {@link #clusters}.
+     */
+    public void points(double north, double east, double south, double west, PointSink sink) {
+        if (size == 0) return;
+        int top = y(toE6(north));
+        int bottom = y(toE6(south));
+        int left = x(toE6(west));
+        int right = x(toE6(east));
+        if (west <= east || east - west >= 360) {
+            collect(0, 0, 0, 0, Math.min(left, right), top, Math.max(left, right), bottom, sink);
+        } else {
+            collect(0, 0, 0, 0, left, top, WORLD - 1, bottom, sink);
+            collect(0, 0, 0, 0, 0, top, right, bottom, sink);
+        }
+    }
+
+    /** Tree depth whose cells are about {@link #CLUSTER_PX} wide at {@code zoom}. */
+    public static int depthForZoom(double zoom) {
+        long depth = Math.round(zoom) + CLUSTER_DEPTH_OFFSET;
+        return (int) Math.max(0, Math.min(DEPTH, depth));
+    }
+
+    private void visit(int node, int depth, int x0, int y0, int minX, int minY, int maxX, int maxY,
+                       int clusterDepth, ClusterSink sink) {
+        int last = (WORLD >>> depth) - 1;
+        if (count[node] == 0 || x0 > maxX || x0 + last < minX || y0 > maxY || y0 + last < minY) return;
+        if (depth >= clusterDepth) {
+            sink.cluster(count[node], (int) (sumX[node] / count[node]), (int) (sumY[node] / count[node]),
+                    pointId[anyPoint[node]]);
+        } else if (head[node] != INTERNAL) {
+            clusterLeaf(node, minX, minY, maxX, maxY, clusterDepth, sink);
+        } else {
+            int half = WORLD >>> (depth + 1);
+            for (int q = 0; q < 4; q++) {
+                int c = child[4 * node + q];
+                if (c == 0) continue;
+                visit(c, depth + 1, x0 + ((q & 1) != 0 ? half : 0), y0 + ((q & 2) != 0 ? half : 0),
+                        minX, minY, maxX, maxY, clusterDepth, sink);
+            }
+        }
+    }
+
+    private void collect(int node, int depth, int x0, int y0, int minX, int minY, int maxX, int maxY,
+                         PointSink sink) {
+        int last = (WORLD >>> depth) - 1;
+        if (count[node] == 0 || x0 > maxX || x0 + last < minX || y0 > maxY || y0 + last < minY) return;
+        if (head[node] != INTERNAL) {
+            for (int p = head[node]; p != EMPTY; p = pointNext[p]) {
+                int x = pointX[p];
+                int y = pointY[p];
+                if (x >= minX && x <= maxX && y >= minY && y <= maxY) sink.point(pointId[p], x, y);
+            }
+            return;
+        }
+        int half = WORLD >>> (depth + 1);
+        for (int q = 0; q < 4; q++) {
+            int c = child[4 * node + q];
+            if (c == 0) continue;
+            collect(c, depth + 1, x0 + ((q & 1) != 0 ? half : 0), y0 + ((q & 2) != 0 ? half : 0),
+                    minX, minY, maxX, maxY, sink);
+        }
+    }
+
+    /** A leaf above the cluster depth may span several cells; groups its points by cell. */
+    private void clusterLeaf(int node, int minX, int minY, int maxX, int maxY, int clusterDepth, ClusterSink sink) {
+        int shift = DEPTH - clusterDepth;
+        int groups = 0;
+        for (int p = head[node]; p != EMPTY; p = pointNext[p]) {
+            int x = pointX[p];
+            int y = pointY[p];
+            if (x < minX || x > maxX || y < minY || y > maxY) continue;
+            int cx = x >>> shift;
+            int cy = y >>> shift;
+            int g = 0;
+            while (g < groups && (groupCellX[g] != cx || groupCellY[g] != cy)) g++;
+            if (g == groups) {
+                groups++;
+                groupCellX[g] = cx;
+                groupCellY[g] = cy;
+                groupCount[g] = 0;
+                groupSumX[g] = 0;
+                groupSumY[g] = 0;
+                groupPoint[g] = p;
+            }
+            groupCount[g]++;
+            groupSumX[g] += x;
+            groupSumY[g] += y;
+        }
+        for (int g = 0; g < groups; g++) {
+            sink.cluster(groupCount[g], (int) (groupSumX[g] / groupCount[g]), (int) (groupSumY[g] / groupCount[g]),
+                    pointId[groupPoint[g]]);
+        }
+    }
+
+    private void split(int node, int depth) {
+        int p = head[node];
+        head[node] = INTERNAL;
+        while (p != EMPTY) {
+            int next = pointNext[p];
+            addTo(childFor(node, quadrant(pointX[p], pointY[p], depth)), p);
+            p = next;
+        }
+        if (depth + 1 >= DEPTH) return;
+        // Points that all fell in one quadrant need another level
+        for (int q = 0; q < 4; q++) {
+            int c = child[4 * node + q];
+            if (c != 0 && count[c] > LEAF_CAPACITY) split(c, depth + 1);
+        }
+    }
+
+    /** Counts {@code p} under {@code node}, and links it in if the node is a leaf. */
+    private void addTo(int node, int p) {
+        if (count[node]++ == 0) anyPoint[node] = p;
+        sumX[node] += pointX[p];
+        sumY[node] += pointY[p];
+        if (head[node] != INTERNAL) {
+            pointNext[p] = head[node];
+            head[node] = p;
+        }
+    }
+
+    private int childFor(int node, int q) {
+        int c = child[4 * node + q];
+        if (c == 0) {
+            c = newNode();
+            child[4 * node + q] = c;
+        }
+        return c;
+    }
+
+    private int newNode() {
+        int n = nodes++;
+        if (n == count.length) {
+            int cap = n * 2;
+            child = Arrays.copyOf(child, 4 * cap);
+            count = Arrays.copyOf(count, cap);
+            sumX = Arrays.copyOf(sumX, cap);
+            sumY = Arrays.copyOf(sumY, cap);
+            anyPoint = Arrays.copyOf(anyPoint, cap);
+            head = Arrays.copyOf(head, cap);
+        }
+        head[n] = EMPTY;
+        return n;
+    }
+
+    private static int quadrant(int x, int y, int depth) {
+        int shift = DEPTH - 1 - depth;
+        return ((x >>> shift) & 1) | (((y >>> shift) & 1) << 1);
+    }
+
+    private static int toE6(double degrees) {
+        return (int) Math.round(Math.max(-180, Math.min(180, degrees)) * 1e6);
+    }
+
+    /** Web Mercator x of a longitude, west to east across {@code [0, 1 << DEPTH)}. */
+    public static int x(int longitudeE6) {
+        double x = (longitudeE6 / 1e6 + 180) / 360 * WORLD;
+        return (int) Math.max(0, Math.min(WORLD - 1, x));
+    }
+
+    /** Web Mercator y of a latitude, north to south across {@code [0, 1 << DEPTH)}. */
+    public static int y(int latitudeE6) {
+        double lat = Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitudeE6 / 1e6));
+        double sin = Math.sin(Math.toRadians(lat));
+        double y = (0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI)) * WORLD;
+        return (int) Math.max(0, Math.min(WORLD - 1, y));
+    }
+
+    public static double longitude(int x) {
+        return (x + 0.5) / WORLD * 360 - 180;
+    }
+
+    public static double latitude(int y) {
+        double n = Math.PI * (1 - 2 * (y + 0.5) / WORLD);
+        return Math.toDegrees(Math.atan(Math.sinh(n)));
+    }
+}
@@ -0,0 +1,222 @@
+package com.example.whatapp.geo;
+
+import java.util.Arrays;
+
+/**
+ * Time-ordered positions of one peer, kept in primitive columns and drawn
+ * simplified to the zoom.
+ * <p>
+ * Each point gets a Douglas&ndash;Peucker importance: the distance, in Web
+ * Mercator units, below which simplification would drop it. Drawing keeps the
+ * points whose importance is at least the size of a pixel at the zoom, so a
+ * trail of tens of thousands of points draws as a few hundred vertices.
+ * <p>
+ * Importance is computed per chunk of {@link #CHUNK} points whose ends are
+ * always kept. A full chunk is ranked once, as its last point arrives; only
+ * the open chunk at the end is re-ranked, lazily, when a draw follows an
+ * append. Past {@link #MAX_POINTS} the oldest chunk is dropped. Thread-safe.
+ */
+public final class Trail {
+
+    public static final int CHUNK = 1024;
+    public static final int MAX_POINTS = 64 * CHUNK;
+    /** Largest deviation, in pixels, simplification may introduce. */
+    public static final float DEFAULT_TOLERANCE_PX = 1;
+
+    private static final float ALWAYS = Float.POSITIVE_INFINITY;
+
+    /** Receives the simplified line, in {@link PointIndex} coordinates. */
+    public interface VertexSink {
+        /** @param moveTo whether the vertex starts a new run rather than continuing the line */
+        void vertex(int x, int y, boolean moveTo);
+    }
+
+    private int[] xs = new int[64];
+    private int[] ys = new int[64];
+    private long[] times = new long[64];
+    private float[] importance = new float[64];
+    private int size;
+    // First point of the open chunk; every point before it is ranked for good
+    private int sealed;
+    private boolean tailRanked = true;
+
+    // Bounding box of each sealed chunk, to skip those outside the viewport
+    private final int[] chunkMinX = new int[MAX_POINTS / CHUNK];
+    private final int[] chunkMinY = new int[MAX_POINTS / CHUNK];
+    private final int[] chunkMaxX = new int[MAX_POINTS / CHUNK];
+    private final int[] chunkMaxY = new int[MAX_POINTS / CHUNK];
+
+    // Douglas-Peucker ranges still to split, and their parents' importance
+    private final int[] stackFrom = new int[CHUNK + 1];
+    private final int[] stackTo = new int[CHUNK + 1];
+    private final float[] stackLimit = new float[CHUNK + 1];
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long getTimeMs(int i) {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException("point " + i);
+        return times[i];
+    }
+
+    /** Appends a position; callers add them in time order. */
+    public synchronized void add(int latitudeE6, int longitudeE6, long timeMs) {
+        if (size == MAX_POINTS) dropOldestChunk();
+        if (size == xs.length) {
+            int n = Math.min(MAX_POINTS, size * 2);
+            xs = Arrays.copyOf(xs, n);
+            ys = Arrays.copyOf(ys, n);
+            times = Arrays.copyOf(times, n);
+            importance = Arrays.copyOf(importance, n);
+        }
+        xs[size] = PointIndex.x(longitudeE6);
+        ys[size] = PointIndex.y(latitudeE6);
+        times[size] = timeMs;
+        size++;
+        if (size - 1 == sealed + CHUNK) {
+            rank(sealed, sealed + CHUNK);
+            bound(sealed / CHUNK, sealed, sealed + CHUNK);
+            sealed += CHUNK;
+        }
+        tailRanked = false;
+    }
+
+    /**
+     * Reports the trail's line inside a viewport, simplified for {@code zoom}.
+     * A viewport across the antimeridian is not clipped east to west.
+     *
+     * @param zoom        map zoom level, 256 px tiles
+     * @param tolerancePx largest deviation from the full line, in pixels
+     * @return the number of vertices reported
+     */
+    public synchronized int simplify(double north, double east, double south, double west, double zoom,
+                                     float tolerancePx, VertexSink sink) {
+        if (size < 2) return 0;
+        if (!tailRanked) {
+            rank(sealed, size - 1);
+            tailRanked = true;
+        }
+        float tolerance = (float) (tolerancePx * Math.pow(2, PointIndex.DEPTH - 8 - zoom));
+        int minY = PointIndex.y(toE6(north));
+        int maxY = PointIndex.y(toE6(south));
+        boolean wraps = west > east;
+        int minX = wraps ? 0 : PointIndex.x(toE6(west));
+        int maxX = wraps ? Integer.MAX_VALUE : PointIndex.x(toE6(east));
+
+        int reported = 0;
+        int prev = 0;
+        boolean prevReported = false;
+        for (int i = 1; i < size; i++) {
+            if (i % CHUNK == 1 && i + CHUNK - 1 <= sealed) {
+                int c = i / CHUNK;
+                if (chunkMinX[c] > maxX || chunkMaxX[c] < minX || chunkMinY[c] > maxY || chunkMaxY[c] < minY) {
+                    // Every segment up to the chunk's end lies in its box
+                    prev = i + CHUNK - 1;
+                    prevReported = false;
+                    i = prev;
+                    continue;
+                }
+            }
+            if (importance[i] < tolerance) continue;
+            if (Math.max(xs[prev], xs[i]) >= minX && Math.min(xs[prev], xs[i]) <= maxX
+                    && Math.max(ys[prev], ys[i]) >= minY && Math.min(ys[prev], ys[i]) <= maxY) {
+                if (!prevReported) {
+                    sink.vertex(xs[prev], ys[prev], true);
+                    reported++;
+                }
+                sink.vertex(xs[i], ys[i], false);
+                reported++;
+                prevReported = true;
+            } else {
+                prevReported = false;
+            }
+            prev = i;
+        }
+        return reported;
+    }
+
+    /** Ranks the points of {@code [from, to]} by Douglas-Peucker, keeping both ends. */
+    private void rank(int from, int to) {
+        importance[from] = ALWAYS;
+        importance[to] = ALWAYS;
+        int top = 0;
+        stackFrom[top] = from;
+        stackTo[top] = to;
+        stackLimit[top++] = ALWAYS;
+        while (top > 0) {
+            top--;
+            int a = stackFrom[top];
+            int b = stackTo[top];
+            float limit = stackLimit[top];
+            if (b - a < 2) continue;
+            int split = a + 1;
+            double farthest = -1;
+            for (int i = a + 1; i < b; i++) {
+                double d = distanceSq(i, a, b);
+                if (d > farthest) {
+                    farthest = d;
+                    split = i;
+                }
+            }
+            // No deeper than its parent, so a coarser zoom never keeps a point a finer one drops
+            float rank = Math.min((float) Math.sqrt(farthest), limit);
+            importance[split] = rank;
+            stackFrom[top] = a;
+            stackTo[top] = split;
+            stackLimit[top++] = rank;
+            stackFrom[top] = split;
+            stackTo[top] = b;
+            stackLimit[top++] = rank;
+        }
+    }
+
+    /** Squared distance from point {@code p} to the segment from {@code a} to {@code b}. */
+    private double distanceSq(int p, int a, int b) {
+        double dx = (double) xs[b] - xs[a];
+        double dy = (double) ys[b] - ys[a];
+        double px = (double) xs[p] - xs[a];
+        double py = (double) ys[p] - ys[a];
+        double len = dx * dx + dy * dy;
+        double t = len == 0 ? 0 : Math.max(0, Math.min(1, (px * dx + py * dy) / len));
+        double ex = px - t * dx;
+        double ey = py - t * dy;
+        return ex * ex + ey * ey;
+    }
+
+    private void bound(int chunk, int from, int to) {
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (int i = from; i <= to; i++) {
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        chunkMinX[chunk] = minX;
+        chunkMinY[chunk] = minY;
+        chunkMaxX[chunk] = maxX;
+        chunkMaxY[chunk] = maxY;
+    }
+
+    private void dropOldestChunk() {
+        int kept = size - CHUNK;
+        System.arraycopy(xs, CHUNK, xs, 0, kept);
+        System.arraycopy(ys, CHUNK, ys, 0, kept);
+        System.arraycopy(times, CHUNK, times, 0, kept);
+        System.arraycopy(importance, CHUNK, importance, 0, kept);
+        int chunks = sealed / CHUNK - 1;
+        System.arraycopy(chunkMinX, 1, chunkMinX, 0, chunks);
+        System.arraycopy(chunkMinY, 1, chunkMinY, 0, chunks);
+        System.arraycopy(chunkMaxX, 1, chunkMaxX, 0, chunks);
+        System.arraycopy(chunkMaxY, 1, chunkMaxY, 0, chunks);
+        size = kept;
+        sealed -= CHUNK;
+    }
+
+    private static int toE6(double degrees) {
+        return (int) Math.round(Math.max(-180, Math.min(180, degrees)) * 1e6);
+    }
+}
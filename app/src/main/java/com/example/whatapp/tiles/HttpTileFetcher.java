@@ -0,0 +1,58 @@
+package com.example.whatapp.tiles;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Fetches tiles from a slippy-map server with a URL template such as
+ * {@code https://tile.openstreetmap.org/{z}/{x}/{y}.png}.
+ */
+public final class HttpTileFetcher implements TileFetcher {
+
+    static final int TIMEOUT_MS = 15_000;
+    // Well above any raster tile; guards against a server sending something else
+    static final int MAX_TILE_BYTES = 1 << 20;
+
+    private final String template;
+    private final String userAgent;
+
+    public HttpTileFetcher(String template, String userAgent) {
+        this.template = template;
+        this.userAgent = userAgent;
+    }
+
+    String urlFor(int zoom, int x, int y) {
+        return template.replace("{z}", Integer.toString(zoom))
+                .replace("{x}", Integer.toString(x))
+                .replace("{y}", Integer.toString(y));
+    }
+
+    @Override
+    public byte[] fetch(int zoom, int x, int y) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(urlFor(zoom, x, y)).openConnection();
+        try {
+            connection.setConnectTimeout(TIMEOUT_MS);
+            connection.setReadTimeout(TIMEOUT_MS);
+            if (userAgent != null) connection.setRequestProperty("User-Agent", userAgent);
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + status + " for " + zoom + "/" + x + "/" + y);
+            }
+            try (InputStream in = connection.getInputStream()) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(
+                        Math.min(MAX_TILE_BYTES, Math.max(1024, connection.getContentLength())));
+                byte[] buffer = new byte[8192];
+                for (int n; (n = in.read(buffer)) != -1; ) {
+                    out.write(buffer, 0, n);
+                    if (out.size() > MAX_TILE_BYTES) throw new IOException("tile over " + MAX_TILE_BYTES + " bytes");
+                }
+                return out.toByteArray();
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
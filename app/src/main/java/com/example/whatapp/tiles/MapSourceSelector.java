@@ -0,0 +1,54 @@
+package com.example.whatapp.tiles;
+
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Scheduler;
+
+/**
+ * Picks where map tiles come from as connectivity changes: the online raster
+ * source when there is a network, an offline vector map when there is not and
+ * one is installed, and otherwise whatever raster tiles are cached.
+ * <p>
+ * Losing the network switches at once. Coming back waits until the network has
+ * held for {@link #ONLINE_SETTLE_MS}, since each switch rebuilds the tile
+ * provider and a flapping link would otherwise thrash it.
+ */
+public final class MapSourceSelector {
+
+    public static final long ONLINE_SETTLE_MS = 5_000;
+
+    public enum Source {
+        ONLINE_RASTER,
+        OFFLINE_VECTOR,
+        CACHED_RASTER
+    }
+
+    private MapSourceSelector() { }
+
+    public static Source choose(boolean online, boolean hasOfflineMap) {
+        if (online) return Source.ONLINE_RASTER;
+        return hasOfflineMap ? Source.OFFLINE_VECTOR : Source.CACHED_RASTER;
+    }
+
+    /**
+     * @param online        connectivity, starting with the current state
+     * @param hasOfflineMap whether a vector map file is installed
+     * @param scheduler     times the settle delay
+     */
+    public static Observable<Source> sources(Observable<Boolean> online, boolean hasOfflineMap, Scheduler scheduler) {
+        return Observable.defer(() -> {
+            // The first state applies at once, whichever it is
+            boolean[] first = {true};
+            return online.distinctUntilChanged()
+                    .switchMap(up -> {
+                        boolean now = first[0] || !up;
+                        first[0] = false;
+                        return now ? Observable.just(up)
+                                : Observable.just(up).delay(ONLINE_SETTLE_MS, TimeUnit.MILLISECONDS, scheduler);
+                    })
+                    .map(up -> choose(up, hasOfflineMap))
+                    .distinctUntilChanged();
+        });
+    }
+}
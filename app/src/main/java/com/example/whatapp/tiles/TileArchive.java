@@ -0,0 +1,418 @@
+package com.example.whatapp.tiles;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The app's own map tile store: one file per tile under a directory, capped at
+ * a total size.
+ * <p>
+ * Tiles inside a pinned region (a named {@link TilePlan}, typically one the
+ * user downloaded) are never evicted and count against the cap first; every
+ * other tile was cached while browsing and is evicted least recently used
+ * first to make room. {@link #getSizeBytes} reports only pinned bytes, so a
+ * prefetch budget is not used up by tiles that would be evicted anyway.
+ * <p>
+ * The index lives in memory. On open it is rebuilt from the tile files, in the
+ * order {@link #flush} last saved; files it does not know are evicted first.
+ * All methods are thread-safe and do file I/O, so keep them off the main thread.
+ */
+public final class TileArchive implements TileStore {
+
+    private static final String REGIONS_FILE = "regions.bin";
+    private static final String ORDER_FILE = "lru.bin";
+    private static final String SUFFIX = ".tile";
+    private static final int REGIONS_MAGIC = 0x54415231;
+    private static final int ORDER_MAGIC = 0x54414c31;
+
+    /** Counters since open, and the current size. Immutable. */
+    public static final class Stats {
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+        public final long evictedBytes;
+        public final int tiles;
+        public final long bytes;
+        public final int pinnedTiles;
+        public final long pinnedBytes;
+        public final long maxBytes;
+
+        Stats(long hits, long misses, long evictions, long evictedBytes, int tiles, long bytes,
+              int pinnedTiles, long pinnedBytes, long maxBytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.evictedBytes = evictedBytes;
+            this.tiles = tiles;
+            this.bytes = bytes;
+            this.pinnedTiles = pinnedTiles;
+            this.pinnedBytes = pinnedBytes;
+            this.maxBytes = maxBytes;
+        }
+
+        public double getHitRatio() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return "TileArchive.Stats{hits=" + hits + ", misses=" + misses + ", evictions=" + evictions
+                    + ", tiles=" + tiles + ", bytes=" + bytes + ", pinned=" + pinnedBytes + "/" + maxBytes + "}";
+        }
+    }
+
+    private final File dir;
+    private final long maxBytes;
+
+    // Browsed tiles by key to size, least recently used first
+    private final LinkedHashMap<Long, Integer> browsed = new LinkedHashMap<>(1024, 0.75f, true);
+    private final Map<Long, Integer> pinned = new HashMap<>();
+    private final Map<String, TilePlan> regions = new LinkedHashMap<>();
+    private long browsedBytes;
+    private long pinnedBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long evictedBytes;
+    private int tmpCounter;
+
+    private TileArchive(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /** Opens the archive in {@code dir}, creating it if needed; scans every tile file. */
+    public static TileArchive open(File dir, long maxBytes) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("mkdirs " + dir);
+        TileArchive archive = new TileArchive(dir, maxBytes);
+        archive.load();
+        return archive;
+    }
+
+    @Override
+    public synchronized boolean contains(int zoom, int x, int y) {
+        long key = key(zoom, x, y);
+        return pinned.containsKey(key) || browsed.containsKey(key);
+    }
+
+    /**
+     * Reads a tile, counting a hit or a miss; a browsed tile becomes the most
+     * recently used.
+     *
+     * @return the tile's bytes, or null if the archive does not have it
+     */
+    public byte[] get(int zoom, int x, int y) {
+        long key = key(zoom, x, y);
+        synchronized (this) {
+            if (!pinned.containsKey(key) && browsed.get(key) == null) {
+                misses++;
+                return null;
+            }
+        }
+        byte[] tile = read(file(zoom, x, y));
+        synchronized (this) {
+            // Evicted between the lookup and the read
+            if (tile == null) misses++;
+            else hits++;
+        }
+        return tile;
+    }
+
+    /**
+     * Stores a tile, evicting browsed tiles as needed.
+     *
+     * @throws IOException if it does not fit beside the pinned tiles, or on a write error
+     */
+    @Override
+    public void put(int zoom, int x, int y, byte[] tile) throws IOException {
+        File target = file(zoom, x, y);
+        File tmp;
+        synchronized (this) {
+            tmp = new File(dir, "put" + (tmpCounter++) + ".tmp");
+        }
+        File parent = target.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) throw new IOException("mkdirs " + parent);
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(tile);
+        }
+        long key = key(zoom, x, y);
+        synchronized (this) {
+            Integer old = pinned.remove(key);
+            if (old != null) pinnedBytes -= old;
+            old = browsed.remove(key);
+            if (old != null) browsedBytes -= old;
+            boolean pin = isPinned(zoom, x, y);
+            long room = maxBytes - pinnedBytes - tile.length;
+            Iterator<Map.Entry<Long, Integer>> eldest = browsed.entrySet().iterator();
+            while (browsedBytes > room && eldest.hasNext()) {
+                Map.Entry<Long, Integer> e = eldest.next();
+                eldest.remove();
+                browsedBytes -= e.getValue();
+                evictions++;
+                evictedBytes += e.getValue();
+                file(e.getKey()).delete();
+            }
+            if (browsedBytes > room) {
+                // The tile it would have replaced is already out of the index
+                tmp.delete();
+                target.delete();
+                throw new IOException("Tile archive full: " + pinnedBytes + " of " + maxBytes + " bytes pinned");
+            }
+            if (!tmp.renameTo(target)) {
+                tmp.delete();
+                throw new IOException("rename " + tmp);
+            }
+            if (pin) {
+                pinned.put(key, tile.length);
+                pinnedBytes += tile.length;
+            } else {
+                browsed.put(key, tile.length);
+                browsedBytes += tile.length;
+            }
+        }
+    }
+
+    /** Bytes in pinned regions; browsed tiles give way to new tiles and are not counted. */
+    @Override
+    public synchronized long getSizeBytes() {
+        return pinnedBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Pins {@code plan} under {@code name}, replacing a region of that name.
+     * Its stored tiles stop being evictable, and so do tiles stored in it later.
+     */
+    public synchronized void pin(String name, TilePlan plan) throws IOException {
+        TilePlan old = regions.put(name, plan);
+        if (old != null) unpinned(old);
+        int[] tile = new int[3];
+        Iterator<Map.Entry<Long, Integer>> it = browsed.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, Integer> e = it.next();
+            unpack(e.getKey(), tile);
+            if (plan.contains(tile[0], tile[1], tile[2])) {
+                it.remove();
+                browsedBytes -= e.getValue();
+                pinned.put(e.getKey(), e.getValue());
+                pinnedBytes += e.getValue();
+            }
+        }
+        saveRegions();
+    }
+
+    /** Unpins a region; its tiles stay but become evictable, before any browsed tile. */
+    public synchronized void unpin(String name) throws IOException {
+        TilePlan plan = regions.remove(name);
+        if (plan == null) return;
+        unpinned(plan);
+        saveRegions();
+    }
+
+    /** Pinned regions by name, in the order they were pinned. */
+    public synchronized Map<String, TilePlan> getRegions() {
+        return new LinkedHashMap<>(regions);
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(hits, misses, evictions, evictedBytes, pinned.size() + browsed.size(),
+                pinnedBytes + browsedBytes, pinned.size(), pinnedBytes, maxBytes);
+    }
+
+    /** Saves the recency order so it survives a restart; call it when the map goes away. */
+    public void flush() throws IOException {
+        long[] order;
+        synchronized (this) {
+            order = new long[browsed.size()];
+            int i = 0;
+            for (long key : browsed.keySet()) order[i++] = key;
+        }
+        File tmp = new File(dir, ORDER_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(ORDER_MAGIC);
+            out.writeInt(order.length);
+            for (long key : order) out.writeLong(key);
+        }
+        if (!tmp.renameTo(new File(dir, ORDER_FILE))) throw new IOException("rename " + tmp);
+    }
+
+    /** Moves the region's tiles that no other region covers to the eviction end. */
+    private void unpinned(TilePlan plan) {
+        int[] tile = new int[3];
+        List<Map.Entry<Long, Integer>> freed = new ArrayList<>();
+        Iterator<Map.Entry<Long, Integer>> it = pinned.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, Integer> e = it.next();
+            unpack(e.getKey(), tile);
+            if (plan.contains(tile[0], tile[1], tile[2]) && !isPinned(tile[0], tile[1], tile[2])) {
+                it.remove();
+                pinnedBytes -= e.getValue();
+                freed.add(e);
+            }
+        }
+        if (freed.isEmpty()) return;
+        // An access-ordered map only appends, so rebuild it with the freed tiles first
+        LinkedHashMap<Long, Integer> rest = new LinkedHashMap<>(browsed);
+        browsed.clear();
+        for (Map.Entry<Long, Integer> e : freed) browsed.put(e.getKey(), e.getValue());
+        browsed.putAll(rest);
+        for (Map.Entry<Long, Integer> e : freed) browsedBytes += e.getValue();
+    }
+
+    private boolean isPinned(int zoom, int x, int y) {
+        for (TilePlan plan : regions.values()) {
+            if (plan.contains(zoom, x, y)) return true;
+        }
+        return false;
+    }
+
+    private void load() throws IOException {
+        loadRegions();
+        Map<Long, Integer> found = new HashMap<>();
+        File[] zooms = dir.listFiles(File::isDirectory);
+        int[] tile = new int[3];
+        if (zooms != null) {
+            for (File z : zooms) {
+                File[] columns = z.listFiles(File::isDirectory);
+                if (columns == null) continue;
+                for (File x : columns) {
+                    File[] rows = x.listFiles();
+                    if (rows == null) continue;
+                    for (File y : rows) {
+                        String name = y.getName();
+                        if (!name.endsWith(SUFFIX)) continue;
+                        try {
+                            tile[0] = Integer.parseInt(z.getName());
+                            tile[1] = Integer.parseInt(x.getName());
+                            tile[2] = Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+                        } catch (NumberFormatException e) {
+                            continue;
+                        }
+                        found.put(key(tile[0], tile[1], tile[2]), (int) y.length());
+                    }
+                }
+            }
+        }
+        File[] leftovers = dir.listFiles((d, name) -> name.endsWith(".tmp"));
+        if (leftovers != null) for (File f : leftovers) f.delete();
+
+        // Tiles missing from the saved order are the eldest, then the saved order
+        long[] order = loadOrder();
+        Map<Long, Integer> ordered = new LinkedHashMap<>();
+        for (long key : order) {
+            Integer size = found.remove(key);
+            if (size != null) ordered.put(key, size);
+        }
+        Map<Long, Integer> all = new LinkedHashMap<>(found);
+        all.putAll(ordered);
+        for (Map.Entry<Long, Integer> e : all.entrySet()) {
+            unpack(e.getKey(), tile);
+            if (isPinned(tile[0], tile[1], tile[2])) {
+                pinned.put(e.getKey(), e.getValue());
+                pinnedBytes += e.getValue();
+            } else {
+                browsed.put(e.getKey(), e.getValue());
+                browsedBytes += e.getValue();
+            }
+        }
+    }
+
+    private long[] loadOrder() {
+        File f = new File(dir, ORDER_FILE);
+        if (!f.exists()) return new long[0];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            if (in.readInt() != ORDER_MAGIC) return new long[0];
+            int n = in.readInt();
+            if (n < 0 || n > f.length() / 8) return new long[0];
+            long[] order = new long[n];
+            for (int i = 0; i < n; i++) order[i] = in.readLong();
+            return order;
+        } catch (IOException e) {
+            // Only the recency order is lost
+            return new long[0];
+        }
+    }
+
+    private void loadRegions() throws IOException {
+        File f = new File(dir, REGIONS_FILE);
+        if (!f.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            if (in.readInt() != REGIONS_MAGIC) throw new IOException("Not a region file: " + f);
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String name = in.readUTF();
+                regions.put(name, TilePlan.of(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(),
+                        in.readInt(), in.readInt()));
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Bad region in " + f, e);
+        }
+    }
+
+    private void saveRegions() throws IOException {
+        File tmp = new File(dir, REGIONS_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(REGIONS_MAGIC);
+            out.writeInt(regions.size());
+            for (Map.Entry<String, TilePlan> e : regions.entrySet()) {
+                TilePlan plan = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeDouble(plan.north);
+                out.writeDouble(plan.east);
+                out.writeDouble(plan.south);
+                out.writeDouble(plan.west);
+                out.writeInt(plan.minZoom);
+                out.writeInt(plan.maxZoom);
+            }
+        }
+        if (!tmp.renameTo(new File(dir, REGIONS_FILE))) throw new IOException("rename " + tmp);
+    }
+
+    private static byte[] read(File f) {
+        try (RandomAccessFile in = new RandomAccessFile(f, "r")) {
+            byte[] tile = new byte[(int) in.length()];
+            in.readFully(tile);
+            return tile;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private File file(int zoom, int x, int y) {
+        return new File(dir, zoom + File.separator + x + File.separator + y + SUFFIX);
+    }
+
+    private File file(long key) {
+        int[] tile = new int[3];
+        unpack(key, tile);
+        return file(tile[0], tile[1], tile[2]);
+    }
+
+    // Zoom in the top bits, then x and y in 29 bits each (enough up to zoom 29)
+    static long key(int zoom, int x, int y) {
+        return ((long) zoom << 58) | ((long) x << 29) | y;
+    }
+
+    private static void unpack(long key, int[] out) {
+        out[0] = (int) (key >>> 58);
+        out[1] = (int) (key >>> 29) & 0x1FFFFFFF;
+        out[2] = (int) key & 0x1FFFFFFF;
+    }
+}
@@ -0,0 +1,10 @@
+package com.example.whatapp.tiles;
+
+import java.io.IOException;
+
+/** Downloads one tile. Implementations must be thread-safe. */
+public interface TileFetcher {
+
+    /** @throws IOException if the tile could not be fetched; the prefetcher retries it */
+    byte[] fetch(int zoom, int x, int y) throws IOException;
+}
@@ -0,0 +1,124 @@
+package com.example.whatapp.tiles;
+
+import com.example.whatapp.geo.PointIndex;
+
+import java.util.Locale;
+
+/**
+ * The map tiles covering a bounding box over a range of zoom levels, in a
+ * fixed order so a download can be resumed by position.
+ * <p>
+ * Tiles are numbered zoom by zoom, column by column, so neighbouring tiles
+ * are fetched close together. Immutable.
+ */
+public final class TilePlan {
+
+    /** Larger plans are refused; zoom in or lower the maximum zoom. */
+    public static final int MAX_TILES = 1 << 20;
+    public static final int MAX_ZOOM = 22;
+
+    public final double north;
+    public final double east;
+    public final double south;
+    public final double west;
+    public final int minZoom;
+    public final int maxZoom;
+
+    private final int[] firstX;
+    private final int[] firstY;
+    private final int[] rows;
+    // Number of the first tile of each zoom, plus the total at the end
+    private final int[] offsets;
+
+    private TilePlan(double north, double east, double south, double west, int minZoom, int maxZoom) {
+        this.north = north;
+        this.east = east;
+        this.south = south;
+        this.west = west;
+        this.minZoom = minZoom;
+        this.maxZoom = maxZoom;
+        int levels = maxZoom - minZoom + 1;
+        firstX = new int[levels];
+        firstY = new int[levels];
+        rows = new int[levels];
+        offsets = new int[levels + 1];
+        int left = PointIndex.x(toE6(Math.min(west, east)));
+        int right = PointIndex.x(toE6(Math.max(west, east)));
+        int top = PointIndex.y(toE6(Math.max(north, south)));
+        int bottom = PointIndex.y(toE6(Math.min(north, south)));
+        long total = 0;
+        for (int i = 0; i < levels; i++) {
+            int shift = PointIndex.DEPTH - (minZoom + i);
+            firstX[i] = left >>> shift;
+            firstY[i] = top >>> shift;
+            rows[i] = (bottom >>> shift) - firstY[i] + 1;
+            total += (long) ((right >>> shift) - firstX[i] + 1) * rows[i];
+            if (total > MAX_TILES) {
+                throw new IllegalArgumentException(String.format(Locale.US,
+                        "More than %d tiles up to zoom %d", MAX_TILES, minZoom + i));
+            }
+            offsets[i + 1] = (int) total;
+        }
+    }
+
+    /** @throws IllegalArgumentException if the zooms are out of range or the plan is over {@link #MAX_TILES} */
+    public static TilePlan of(double north, double east, double south, double west, int minZoom, int maxZoom) {
+        if (minZoom < 0 || maxZoom > MAX_ZOOM || minZoom > maxZoom) {
+            throw new IllegalArgumentException("zoom " + minZoom + ".." + maxZoom);
+        }
+        return new TilePlan(north, east, south, west, minZoom, maxZoom);
+    }
+
+    public int getTileCount() {
+        return offsets[offsets.length - 1];
+    }
+
+    /** Fills {@code out} with the zoom, x and y of tile number {@code ordinal}. */
+    public void tileAt(int ordinal, int[] out) {
+        if (ordinal < 0 || ordinal >= getTileCount()) throw new IndexOutOfBoundsException("tile " + ordinal);
+        int level = 0;
+        while (ordinal >= offsets[level + 1]) level++;
+        int i = ordinal - offsets[level];
+        out[0] = minZoom + level;
+        out[1] = firstX[level] + i / rows[level];
+        out[2] = firstY[level] + i % rows[level];
+    }
+
+    /** Whether the plan includes tile {@code x}, {@code y} at {@code zoom}. */
+    public boolean contains(int zoom, int x, int y) {
+        if (zoom < minZoom || zoom > maxZoom) return false;
+        int level = zoom - minZoom;
+        int columns = (offsets[level + 1] - offsets[level]) / rows[level];
+        return x >= firstX[level] && x < firstX[level] + columns
+                && y >= firstY[level] && y < firstY[level] + rows[level];
+    }
+
+    private static int toE6(double degrees) {
+        return (int) Math.round(Math.max(-180, Math.min(180, degrees)) * 1e6);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof TilePlan)) return false;
+        TilePlan p = (TilePlan) o;
+        return Double.compare(north, p.north) == 0 && Double.compare(east, p.east) == 0
+                && Double.compare(south, p.south) == 0 && Double.compare(west, p.west) == 0
+                && minZoom == p.minZoom && maxZoom == p.maxZoom;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = Double.hashCode(north);
+        h = 31 * h + Double.hashCode(east);
+        h = 31 * h + Double.hashCode(south);
+        h = 31 * h + Double.hashCode(west);
+        return 31 * (31 * h + minZoom) + maxZoom;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "TilePlan{%.4f,%.4f..%.4f,%.4f z%d-%d, %d tiles}",
+                north, west, south, east, minZoom, maxZoom, getTileCount());
+    }
+}
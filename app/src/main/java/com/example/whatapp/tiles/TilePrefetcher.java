@@ -0,0 +1,331 @@
+package com.example.whatapp.tiles;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.Maybe;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.core.Single;
+
+/**
+ * Downloads the tiles of a {@link TilePlan} for offline use.
+ * <p>
+ * {@link #estimate} counts the tiles, those already stored and the bytes left
+ * to fetch before anything is downloaded. {@link #run} fetches up to
+ * {@code parallelism} tiles at once, skips tiles the store already has and
+ * stops before the store grows past the budget.
+ * <p>
+ * Progress is saved to a file every {@link #SAVE_EVERY} tiles and when a run
+ * stops. It records the position below which every tile is done; a later run
+ * of the same plan starts there, and tiles that finished out of order beyond
+ * it are skipped as stored. Losing the file only costs those store lookups.
+ */
+public final class TilePrefetcher {
+
+    public static final long DEFAULT_BUDGET_BYTES = 256L << 20;
+    /** The OSM tile usage policy allows two connections per client. */
+    public static final int DEFAULT_PARALLELISM = 2;
+    /** Size of a typical OSM raster tile, used until a run has measured some. */
+    public static final int DEFAULT_TILE_BYTES = 20_000;
+    static final int ATTEMPTS = 3;
+    static final long RETRY_DELAY_MS = 200;
+    static final int SAVE_EVERY = 32;
+
+    private static final int MAGIC = 0x54504631;
+
+    public enum State {
+        RUNNING,
+        DONE,
+        /** Stopped because the next tile would take the store past the budget. */
+        OVER_BUDGET,
+        /** Cancelled; run the plan again to continue. */
+        PAUSED
+    }
+
+    /** Immutable. */
+    public static final class Estimate {
+        public final TilePlan plan;
+        public final int tiles;
+        public final int stored;
+        /** Tiles still to fetch times the average tile size. */
+        public final long bytesToFetch;
+        public final long storeBytes;
+        public final long budgetBytes;
+
+        Estimate(TilePlan plan, int stored, long bytesToFetch, long storeBytes, long budgetBytes) {
+            this.plan = plan;
+            this.tiles = plan.getTileCount();
+            this.stored = stored;
+            this.bytesToFetch = bytesToFetch;
+            this.storeBytes = storeBytes;
+            this.budgetBytes = budgetBytes;
+        }
+
+        public boolean isWithinBudget() {
+            return storeBytes + bytesToFetch <= budgetBytes;
+        }
+    }
+
+    /** Immutable. */
+    public static final class Progress {
+        public final TilePlan plan;
+        public final State state;
+        /** Tiles below this position are all done. */
+        public final int position;
+        public final int completed;
+        public final int fetched;
+        public final int skipped;
+        public final int failed;
+        public final long bytes;
+
+        Progress(TilePlan plan, State state, int position, int completed, int fetched, int skipped, int failed,
+                 long bytes) {
+            this.plan = plan;
+            this.state = state;
+            this.position = position;
+            this.completed = completed;
+            this.fetched = fetched;
+            this.skipped = skipped;
+            this.failed = failed;
+            this.bytes = bytes;
+        }
+
+        public float getFraction() {
+            int total = plan.getTileCount();
+            return total == 0 ? 1 : completed / (float) total;
+        }
+    }
+
+    private final TileFetcher fetcher;
+    private final TileStore store;
+    private final File progressFile;
+    private final long budgetBytes;
+    private final int parallelism;
+    private final Scheduler scheduler;
+
+    private volatile int averageTileBytes = DEFAULT_TILE_BYTES;
+
+    /** @param scheduler where fetches and store writes run, e.g. {@code Schedulers.io()} */
+    public TilePrefetcher(TileFetcher fetcher, TileStore store, File progressFile, long budgetBytes,
+                          int parallelism, Scheduler scheduler) {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism " + parallelism);
+        this.fetcher = fetcher;
+        this.store = store;
+        this.progressFile = progressFile;
+        this.budgetBytes = budgetBytes;
+        this.parallelism = parallelism;
+        this.scheduler = scheduler;
+    }
+
+    public Single<Estimate> estimate(TilePlan plan) {
+        return Single.fromCallable(() -> {
+            int[] tile = new int[3];
+            int stored = 0;
+            for (int i = 0; i < plan.getTileCount(); i++) {
+                plan.tileAt(i, tile);
+                if (store.contains(tile[0], tile[1], tile[2])) stored++;
+            }
+            long toFetch = (long) (plan.getTileCount() - stored) * averageTileBytes;
+            return new Estimate(plan, stored, toFetch, store.getSizeBytes(), budgetBytes);
+        }).subscribeOn(scheduler);
+    }
+
+    /**
+     * Fetches the plan's missing tiles, resuming a saved run of the same plan.
+     * Emits progress after each tile and completes with {@link State#DONE} or
+     * {@link State#OVER_BUDGET}; disposing pauses the run. Fetch failures are
+     * retried and then counted, store failures end the run with the error.
+     */
+    public Observable<Progress> run(TilePlan plan) {
+        return Flowable.defer(() -> {
+            Job job = new Job(plan, load(), store.getSizeBytes());
+            return Flowable.range(job.position, plan.getTileCount() - job.position)
+                    .flatMapMaybe(ordinal -> Maybe.fromCallable(() -> job.fetch(ordinal)).subscribeOn(scheduler),
+                            false, parallelism)
+                    .takeUntil(p -> p.state != State.RUNNING)
+                    .concatWith(Maybe.fromCallable(job::finish))
+                    .doOnCancel(job::pause)
+                    .doOnError(t -> job.pause());
+        }).toObservable();
+    }
+
+    /**
+     * The run that was interrupted, if any; reads the progress file, so keep it
+     * off the main thread.
+     *
+     * @return its last saved progress, or null
+     */
+    public Progress loadPending() {
+        return load();
+    }
+
+    /** Forgets the interrupted run; tiles it stored stay. */
+    public void discardPending() {
+        progressFile.delete();
+    }
+
+    public int getAverageTileBytes() {
+        return averageTileBytes;
+    }
+
+    private Progress load() {
+        if (!progressFile.exists()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(progressFile)))) {
+            if (in.readInt() != MAGIC) return null;
+            TilePlan plan = TilePlan.of(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(),
+                    in.readInt(), in.readInt());
+            int position = in.readInt();
+            int fetched = in.readInt();
+            int skipped = in.readInt();
+            int failed = in.readInt();
+            long bytes = in.readLong();
+            if (position < 0 || position > plan.getTileCount()) return null;
+            return new Progress(plan, State.PAUSED, position, position, fetched, skipped, failed, bytes);
+        } catch (IOException | IllegalArgumentException e) {
+            // Unreadable progress is a fresh start; stored tiles are still skipped
+            return null;
+        }
+    }
+
+    private void save(Progress progress) throws IOException {
+        File parent = progressFile.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) throw new IOException("mkdirs " + parent);
+        File tmp = new File(progressFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            TilePlan plan = progress.plan;
+            out.writeInt(MAGIC);
+            out.writeDouble(plan.north);
+            out.writeDouble(plan.east);
+            out.writeDouble(plan.south);
+            out.writeDouble(plan.west);
+            out.writeInt(plan.minZoom);
+            out.writeInt(plan.maxZoom);
+            out.writeInt(progress.position);
+            out.writeInt(progress.fetched);
+            out.writeInt(progress.skipped);
+            out.writeInt(progress.failed);
+            out.writeLong(progress.bytes);
+        }
+        if (!tmp.renameTo(progressFile)) throw new IOException("rename " + tmp);
+    }
+
+    private byte[] fetchWithRetries(int[] tile) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return fetcher.fetch(tile[0], tile[1], tile[2]);
+            } catch (IOException e) {
+                if (attempt == ATTEMPTS) return null;
+            }
+            try {
+                Thread.sleep(RETRY_DELAY_MS * attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    /** One run of a plan; fetches call in from several threads. */
+    private final class Job {
+        final TilePlan plan;
+        // Store size at the start, which already counts what earlier runs of this plan stored
+        final long baseline;
+        final long resumedBytes;
+        final BitSet done = new BitSet();
+        // Guarded by this
+        State state = State.RUNNING;
+        int position;
+        int completed;
+        int fetched;
+        int skipped;
+        int failed;
+        // Includes tiles still being written
+        long bytes;
+        int unsaved;
+
+        Job(TilePlan plan, Progress saved, long baseline) {
+            this.plan = plan;
+            this.baseline = baseline;
+            if (saved != null && saved.plan.equals(plan)) {
+                position = completed = saved.position;
+                fetched = saved.fetched;
+                skipped = saved.skipped;
+                failed = saved.failed;
+                bytes = saved.bytes;
+            }
+            resumedBytes = bytes;
+        }
+
+        /** @return progress, or null if the run stopped meanwhile */
+        Progress fetch(int ordinal) throws IOException {
+            int[] tile = new int[3];
+            plan.tileAt(ordinal, tile);
+            boolean stored = store.contains(tile[0], tile[1], tile[2]);
+            byte[] data = stored ? null : fetchWithRetries(tile);
+            synchronized (this) {
+                if (state != State.RUNNING) return null;
+                if (data != null) {
+                    if (baseline + bytes - resumedBytes + data.length > budgetBytes) {
+                        state = State.OVER_BUDGET;
+                        measure();
+                        saveOrThrow();
+                        return snapshot();
+                    }
+                    bytes += data.length;
+                }
+            }
+            if (data != null) store.put(tile[0], tile[1], tile[2], data);
+            synchronized (this) {
+                if (state != State.RUNNING) return null;
+                if (stored) skipped++;
+                else if (data == null) failed++;
+                else fetched++;
+                completed++;
+                done.set(ordinal);
+                while (done.get(position)) position++;
+                if (++unsaved >= SAVE_EVERY) saveOrThrow();
+                return snapshot();
+            }
+        }
+
+        synchronized Progress finish() {
+            if (state != State.RUNNING) return null;
+            state = State.DONE;
+            measure();
+            progressFile.delete();
+            return snapshot();
+        }
+
+        synchronized void pause() {
+            if (state != State.RUNNING) return;
+            state = State.PAUSED;
+            try {
+                save(snapshot());
+            } catch (IOException e) {
+                // The next run starts over and skips what is stored
+            }
+        }
+
+        private void measure() {
+            if (fetched > 0) averageTileBytes = (int) Math.max(1, bytes / fetched);
+        }
+
+        private void saveOrThrow() throws IOException {
+            unsaved = 0;
+            save(snapshot());
+        }
+
+        private Progress snapshot() {
+            return new Progress(plan, state, position, completed, fetched, skipped, failed, bytes);
+        }
+    }
+}
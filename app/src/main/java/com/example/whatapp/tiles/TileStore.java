@@ -0,0 +1,14 @@
+package com.example.whatapp.tiles;
+
+import java.io.IOException;
+
+/** Where downloaded tiles are kept. Implementations must be thread-safe. */
+public interface TileStore {
+
+    boolean contains(int zoom, int x, int y);
+
+    void put(int zoom, int x, int y, byte[] tile) throws IOException;
+
+    /** Bytes used, counted against the prefetch budget. */
+    long getSizeBytes();
+}
@@ -1,6 +1,5 @@
 package com.example.whatapp.ui.home;
 
-import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.text.Editable;
 import android.text.TextWatcher;
@@ -21,11 +20,9 @@ import com.example.whatapp.ChatFragment;
 import com.example.whatapp.ChatsModel;
 import com.example.whatapp.R;
 import com.example.whatapp.RecyclerViewAdapter;
+import com.example.whatapp.data.ContactStore;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
 import java.util.ArrayList;
 import java.util.List;
 
@@ -34,6 +31,7 @@ public class HomeFragment extends Fragment implements RecyclerViewAdapter.ChatsF
     private RecyclerView mRecyclerView;
     private FloatingActionButton fab;
     private RecyclerViewAdapter adapter;
+    private ContactStore contacts;
 
     public HomeFragment() { }
 
@@ -49,8 +47,8 @@ public class HomeFragment extends Fragment implements RecyclerViewAdapter.ChatsF
 
         fab = view.findViewById(R.id.fab);
 
-        List<ChatsModel> chatList = loadChatsFromPrefs();
-        adapter = new RecyclerViewAdapter(getContext(), chatList, this);
+        contacts = ContactStore.get(requireContext());
+        adapter = new RecyclerViewAdapter(getContext(), contacts.getAll(), this);
         mRecyclerView.setAdapter(adapter);
 
         fab.setOnClickListener(v -> showFabOptionsDialog());
@@ -98,19 +96,19 @@ public class HomeFragment extends Fragment implements RecyclerViewAdapter.ChatsF
             String name = nameInput.getText().toString().trim();
             if (name.isEmpty()) return;
 
-            for (ChatsModel c : adapter.getAllChats()) {
-                if (c.getName().equalsIgnoreCase(name)) return;
-            }
+            ChatsModel newUser = contacts.add(name);
+            if (newUser == null) return;
 
-            ChatsModel newUser = new ChatsModel(name);
             adapter.addChat(newUser);
-            saveChatsToPrefs(adapter.getAllChats());
             dialog.dismiss();
         });
     }
 
     private void showCreateGroupDialog() {
-        List<ChatsModel> allUsers = loadChatsFromPrefs();
+        List<ChatsModel> allUsers = new ArrayList<>();
+        for (ChatsModel entry : contacts.getAll()) {
+            if (!entry.isGroup()) allUsers.add(entry);
+        }
         String[] userNames = new String[allUsers.size()];
         boolean[] checkedItems = new boolean[allUsers.size()];
 
@@ -124,14 +122,14 @@ public class HomeFragment extends Fragment implements RecyclerViewAdapter.ChatsF
         builder.setMultiChoiceItems(userNames, checkedItems, (dialog, which, isChecked) -> checkedItems[which] = isChecked);
 
         builder.setPositiveButton("Create Group", (dialog, which) -> {
-            List<String> selectedNames = new ArrayList<>();
+            List<ChatsModel> selected = new ArrayList<>();
             for (int i = 0; i < checkedItems.length; i++) {
                 if (checkedItems[i]) {
-                    selectedNames.add(userNames[i]);
+                    selected.add(allUsers.get(i));
                 }
             }
 
-            if (selectedNames.isEmpty()) return;
+            if (selected.isEmpty()) return;
 
             // Ask for group name
             AlertDialog.Builder groupNameDialog = new AlertDialog.Builder(requireContext());
@@ -144,12 +142,11 @@ public class HomeFragment extends Fragment implements RecyclerViewAdapter.ChatsF
                 String groupName = input.getText().toString().trim();
                 if (groupName.isEmpty()) return;
 
-                // Save group as ChatsModel with concatenated names
-                String groupDesc = groupName + " (" + String.join(", ", selectedNames) + ")";
-                ChatsModel group = new ChatsModel(groupDesc);
+                // Members are kept as contact ids, not in the name
+                ChatsModel group = contacts.createGroup(groupName, selected);
+                if (group == null) return;
 
                 adapter.addChat(group);
-                saveChatsToPrefs(adapter.getAllChats());
             });
 
             groupNameDialog.setNegativeButton("Cancel", null);
@@ -160,44 +157,6 @@ public class HomeFragment extends Fragment implements RecyclerViewAdapter.ChatsF
         builder.show();
     }
 
-    private void saveChatsToPrefs(List<ChatsModel> chats) {
-        SharedPreferences prefs = requireContext().getSharedPreferences("chats", getContext().MODE_PRIVATE);
-        SharedPreferences.Editor editor = prefs.edit();
-
-        JSONArray jsonArray = new JSONArray();
-        try {
-            for (ChatsModel chat : chats) {
-                JSONObject obj = new JSONObject();
-                obj.put("name", chat.getName());
-                jsonArray.put(obj);
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
-        editor.putString("chat_list", jsonArray.toString());
-        editor.apply();
-    }
-
-    private List<ChatsModel> loadChatsFromPrefs() {
-        List<ChatsModel> chats = new ArrayList<>();
-        SharedPreferences prefs = requireContext().getSharedPreferences("chats", getContext().MODE_PRIVATE);
-        String jsonString = prefs.getString("chat_list", "");
-
-        if (!jsonString.isEmpty()) {
-            try {
-                JSONArray jsonArray = new JSONArray(jsonString);
-                for (int i = 0; i < jsonArray.length(); i++) {
-                    JSONObject obj = jsonArray.getJSONObject(i);
-                    chats.add(new ChatsModel(obj.getString("name")));
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
-        return chats;
-    }
-
     @Override
     public void openChatFragment(String name) {
         Log.d("HomeFragment", "Opening chat for: " + name);
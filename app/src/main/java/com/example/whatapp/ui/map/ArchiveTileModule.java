@@ -0,0 +1,77 @@
+package com.example.whatapp.ui.map;
+
+import android.graphics.drawable.Drawable;
+
+import com.example.whatapp.tiles.TileArchive;
+
+import org.osmdroid.config.Configuration;
+import org.osmdroid.tileprovider.modules.MapTileModuleProviderBase;
+import org.osmdroid.tileprovider.tilesource.BitmapTileSourceBase;
+import org.osmdroid.tileprovider.tilesource.ITileSource;
+import org.osmdroid.util.MapTileIndex;
+
+import java.io.ByteArrayInputStream;
+
+/**
+ * Serves raster tiles from the {@link TileArchive}, ahead of the downloader,
+ * on osmdroid's file-system threads. Every lookup counts as a hit or a miss.
+ */
+final class ArchiveTileModule extends MapTileModuleProviderBase {
+
+    private final TileArchive archive;
+    private volatile ITileSource source;
+
+    ArchiveTileModule(TileArchive archive, ITileSource source) {
+        super(Configuration.getInstance().getTileFileSystemThreads(),
+                Configuration.getInstance().getTileFileSystemMaxQueueSize());
+        this.archive = archive;
+        this.source = source;
+    }
+
+    @Override
+    public boolean getUsesDataConnection() {
+        return false;
+    }
+
+    @Override
+    public int getMinimumZoomLevel() {
+        return source.getMinimumZoomLevel();
+    }
+
+    @Override
+    public int getMaximumZoomLevel() {
+        return source.getMaximumZoomLevel();
+    }
+
+    @Override
+    protected String getName() {
+        return "Tile archive";
+    }
+
+    @Override
+    protected String getThreadGroupName() {
+        return "tilearchive";
+    }
+
+    @Override
+    public TileLoader getTileLoader() {
+        return new TileLoader() {
+            @Override
+            public Drawable loadTile(long index) throws CantContinueException {
+                byte[] tile = archive.get(MapTileIndex.getZoom(index), MapTileIndex.getX(index),
+                        MapTileIndex.getY(index));
+                if (tile == null) return null;
+                try {
+                    return source.getDrawable(new ByteArrayInputStream(tile));
+                } catch (BitmapTileSourceBase.LowMemoryException e) {
+                    throw new CantContinueException(e);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void setTileSource(ITileSource source) {
+        this.source = source;
+    }
+}
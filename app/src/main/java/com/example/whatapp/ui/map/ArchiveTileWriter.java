@@ -0,0 +1,72 @@
+package com.example.whatapp.ui.map;
+
+import android.graphics.drawable.Drawable;
+import android.util.Log;
+
+import com.example.whatapp.tiles.TileArchive;
+
+import org.osmdroid.tileprovider.modules.IFilesystemCache;
+import org.osmdroid.tileprovider.tilesource.ITileSource;
+import org.osmdroid.util.MapTileIndex;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Lets osmdroid's downloader save browsed tiles into the {@link TileArchive}.
+ * Archived tiles do not expire; a full archive just leaves the tile unsaved.
+ */
+final class ArchiveTileWriter implements IFilesystemCache {
+
+    private static final String TAG = "ArchiveTileWriter";
+
+    private final TileArchive archive;
+
+    ArchiveTileWriter(TileArchive archive) {
+        this.archive = archive;
+    }
+
+    @Override
+    public boolean saveFile(ITileSource source, long index, InputStream stream, Long expirationTime) {
+        try {
+            ByteArrayOutputStream tile = new ByteArrayOutputStream(32 * 1024);
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = stream.read(buffer)) != -1) tile.write(buffer, 0, n);
+            archive.put(MapTileIndex.getZoom(index), MapTileIndex.getX(index), MapTileIndex.getY(index),
+                    tile.toByteArray());
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "tile not archived: " + e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public boolean exists(ITileSource source, long index) {
+        return archive.contains(MapTileIndex.getZoom(index), MapTileIndex.getX(index), MapTileIndex.getY(index));
+    }
+
+    @Override
+    public void onDetach() {
+        // The archive outlives any one provider
+    }
+
+    @Override
+    public boolean remove(ITileSource source, long index) {
+        return false;
+    }
+
+    @Override
+    public Long getExpirationTimestamp(ITileSource source, long index) {
+        return null;
+    }
+
+    @Override
+    public Drawable loadTile(ITileSource source, long index) throws Exception {
+        byte[] tile = archive.get(MapTileIndex.getZoom(index), MapTileIndex.getX(index), MapTileIndex.getY(index));
+        return tile != null ? source.getDrawable(new ByteArrayInputStream(tile)) : null;
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.whatapp.ui.map;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Point;
+
+import com.example.whatapp.geo.PointIndex;
+
+import org.osmdroid.util.BoundingBox;
+import org.osmdroid.util.GeoPoint;
+import org.osmdroid.views.MapView;
+import org.osmdroid.views.Projection;
+import org.osmdroid.views.overlay.Overlay;
+
+/**
+ * Draws every point of a {@link PointIndex} as dots and counted circles,
+ * clustered for the current zoom. Only clusters inside the viewport are
+ * visited, and drawing allocates nothing per cluster beyond the count label.
+ */
+final class ClusterOverlay extends Overlay implements PointIndex.ClusterSink {
+
+    private static final int COLOR = 0xFF1E88E5;
+
+    private final float density;
+    private final Paint fill = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint ring = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint label = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final GeoPoint geo = new GeoPoint(0.0, 0.0);
+    private final Point pixel = new Point();
+
+    private PointIndex index;
+    // Set for the duration of draw
+    private Canvas canvas;
+    private Projection projection;
+
+    ClusterOverlay(float density) {
+        this.density = density;
+        fill.setColor(COLOR);
+        ring.setColor(Color.WHITE);
+        ring.setStyle(Paint.Style.STROKE);
+        ring.setStrokeWidth(2 * density);
+        label.setColor(Color.WHITE);
+        label.setTextAlign(Paint.Align.CENTER);
+        label.setTextSize(12 * density);
+        label.setFakeBoldText(true);
+    }
+
+    /** Main thread only; the index must not change afterwards. */
+    void setIndex(PointIndex index) {
+        this.index = index;
+    }
+
+    PointIndex getIndex() {
+        return index;
+    }
+
+    @Override
+    public void draw(Canvas c, MapView mapView, boolean shadow) {
+        if (shadow || index == null || index.size() == 0) return;
+        canvas = c;
+        projection = mapView.getProjection();
+        BoundingBox box = projection.getBoundingBox();
+        index.clusters(box.getLatNorth(), box.getLonEast(), box.getLatSouth(), box.getLonWest(),
+                projection.getZoomLevel(), this);
+        canvas = null;
+        projection = null;
+    }
+
+    @Override
+    public void cluster(int count, int x, int y, long id) {
+        geo.setCoords(PointIndex.latitude(y), PointIndex.longitude(x));
+        projection.toPixels(geo, pixel);
+        // Grows with the digits of the count
+        float radius = count == 1 ? 6 * density : (12 + 3 * (int) Math.log10(count)) * density;
+        canvas.drawCircle(pixel.x, pixel.y, radius, fill);
+        canvas.drawCircle(pixel.x, pixel.y, radius, ring);
+        if (count > 1) {
+            String text = count < 1000 ? Integer.toString(count) : count / 1000 + "k";
+            canvas.drawText(text, pixel.x, pixel.y - (label.ascent() + label.descent()) / 2, label);
+        }
+    }
+}
@@ -4,43 +4,102 @@ import android.Manifest;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
 import android.net.NetworkInfo;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.LayoutInflater;
-import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 import androidx.fragment.app.Fragment;
 
 
+import com.example.whatapp.ChatFragment;
+import com.example.whatapp.ChatMessage;
 import com.example.whatapp.R;
+import com.example.whatapp.data.ChatLog;
+import com.example.whatapp.data.ChatLogs;
+import com.example.whatapp.data.MessageGeoIndex;
+import com.example.whatapp.geo.PeerLocationStore;
+import com.example.whatapp.tiles.HttpTileFetcher;
+import com.example.whatapp.tiles.MapSourceSelector;
+import com.example.whatapp.tiles.TileArchive;
+import com.example.whatapp.tiles.TilePlan;
+import com.example.whatapp.tiles.TilePrefetcher;
+import com.example.whatapp.wire.MacAddress;
+import com.example.whatapp.wire.WireMessage;
 
 import org.osmdroid.config.Configuration;
-import org.osmdroid.tileprovider.cachemanager.CacheManager;
+import org.osmdroid.tileprovider.MapTileProviderArray;
+import org.osmdroid.tileprovider.modules.MapTileDownloader;
+import org.osmdroid.tileprovider.modules.MapTileModuleProviderBase;
+import org.osmdroid.tileprovider.modules.NetworkAvailabliltyCheck;
 import org.osmdroid.tileprovider.tilesource.TileSourceFactory;
+import org.osmdroid.tileprovider.util.SimpleRegisterReceiver;
 import org.osmdroid.util.BoundingBox;
 import org.osmdroid.util.GeoPoint;
+import org.osmdroid.events.MapEventsReceiver;
 import org.osmdroid.views.MapView;
+import org.osmdroid.views.overlay.MapEventsOverlay;
 import org.osmdroid.views.overlay.Marker;
 import org.osmdroid.views.overlay.mylocation.GpsMyLocationProvider;
 import org.osmdroid.views.overlay.mylocation.MyLocationNewOverlay;
 
+import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.rxjava3.android.schedulers.AndroidSchedulers;
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
 
 public class MapFragment extends Fragment {
 
+    private static final String TAG = "MapFragment";
     private static final int REQUEST_PERMISSIONS_REQUEST_CODE = 1;
+    private static final double NEAR_RADIUS_M = 2_000;
+    private static final int NEAR_MAX_SHOWN = 50;
+    private static final int PREFETCH_MIN_ZOOM = 12;
+    private static final int PREFETCH_MAX_ZOOM = 19;
+    private static final String PREFETCH_FILE = "tile-prefetch.bin";
+    private static final long PROGRESS_INTERVAL_MS = 250;
     private MapView mapView;
     private MyLocationNewOverlay myLocationOverlay;
     private Marker receivedMarker;
+    // One marker per peer sharing its location, moved as updates arrive
+    private final Map<Long, Marker> peerMarkers = new HashMap<>();
+    private Disposable peerUpdates;
+    // Every location received in the conversation the map was opened from
+    private ClusterOverlay conversationPoints;
+    private Disposable conversationLoad;
+    private String conversation;
+    private MessageGeoIndex messages;
+    private Disposable nearbyLoad;
+    private Button downloadButton;
+    // Opening the archive scans it, so both are ready off the main thread
+    private Single<TileArchive> archive;
+    private Single<TilePrefetcher> prefetcher;
+    private Disposable prefetch;
+    private Disposable prefetchPrompt;
+    private Disposable mapSource;
+    private Disposable areasPrompt;
 
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater,
@@ -53,8 +112,13 @@ public class MapFragment extends Fragment {
         Configuration.getInstance().setUserAgentValue(requireContext().getPackageName());
         mapView = rootView.findViewById(R.id.mapView);
 
-        // Always use the online MAPNIK source
+        // Online MAPNIK until connectivity says otherwise
         mapView.setTileSource(TileSourceFactory.MAPNIK);
+        Context appContext = requireContext().getApplicationContext();
+        archive = Single.fromCallable(() -> TileArchives.get(appContext))
+                .subscribeOn(Schedulers.io())
+                .cache();
+        followConnectivity();
         mapView.setMultiTouchControls(true);
         mapView.getController().setZoom(15.0);
 
@@ -64,6 +128,10 @@ public class MapFragment extends Fragment {
         myLocationOverlay.enableMyLocation();
         myLocationOverlay.enableFollowLocation();
         mapView.getOverlays().add(myLocationOverlay);
+        // Peers' trails, redrawn with their markers as updates arrive
+        mapView.getOverlays().add(new TrailOverlay(getResources().getDisplayMetrics().density));
+        conversationPoints = new ClusterOverlay(getResources().getDisplayMetrics().density);
+        mapView.getOverlays().add(conversationPoints);
 
         requestPermissionsIfNecessary(new String[]{
                 Manifest.permission.ACCESS_FINE_LOCATION,
@@ -71,34 +139,53 @@ public class MapFragment extends Fragment {
                 Manifest.permission.READ_EXTERNAL_STORAGE
         });
 
-        // Download button prefetches currently visible tiles for offline
-        Button btnDownloadTiles = rootView.findViewById(R.id.btn_download_tiles);
-        btnDownloadTiles.setOnClickListener(v -> {
-            if (isNetworkAvailable()) {
+        // Download button prefetches currently visible tiles for offline, and pauses a running download
+        // Downloaded areas are pinned in the archive, so browsing never evicts them
+        HttpTileFetcher fetcher = new HttpTileFetcher(TileSourceFactory.MAPNIK.getBaseUrl() + "{z}/{x}/{y}.png",
+                Configuration.getInstance().getUserAgentValue());
+        File progressFile = new File(appContext.getFilesDir(), PREFETCH_FILE);
+        prefetcher = archive.map(a -> new TilePrefetcher(fetcher, a, progressFile, a.getMaxBytes(),
+                        TilePrefetcher.DEFAULT_PARALLELISM, Schedulers.io()))
+                .cache();
+        downloadButton = rootView.findViewById(R.id.btn_download_tiles);
+        downloadButton.setOnClickListener(v -> {
+            if (prefetch != null) {
+                prefetch.dispose();
+                prefetch = null;
+                downloadButton.setText("Resume Tiles");
+            } else if (isNetworkAvailable()) {
                 prefetchTilesForCurrentView();
             } else {
                 Toast.makeText(requireContext(), "No internet connection. Cannot download tiles.", Toast.LENGTH_SHORT).show();
             }
         });
+        downloadButton.setOnLongClickListener(v -> {
+            showOfflineAreas();
+            return true;
+        });
 
-        // handle manual taps (optional)
-        mapView.setOnTouchListener((v, event) -> {
-            if (event.getAction() == MotionEvent.ACTION_DOWN) {
-                GeoPoint tapped = (GeoPoint) mapView.getProjection()
-                        .fromPixels((int) event.getX(), (int) event.getY());
-                if (tapped != null) {
-                    // displayLocationInfo(tapped);
-                }
+        // Long press lists the conversation's messages sent near that point
+        mapView.getOverlays().add(0, new MapEventsOverlay(new MapEventsReceiver() {
+            @Override public boolean singleTapConfirmedHelper(GeoPoint p) {
+                return false;
+            }
+
+            @Override public boolean longPressHelper(GeoPoint p) {
+                if (messages == null) return false;
+                showMessagesNear(p);
                 return true;
             }
-            return false;
-        });
+        }));
 
         // incoming location args from ChatFragment
         Bundle args = getArguments();
+        if (args != null && args.getString("conversation") != null) {
+            conversation = args.getString("conversation");
+            loadConversationPoints(conversation);
+        }
         if (args != null && args.containsKey("lat") && args.containsKey("lon")) {
-            float lat = args.getFloat("lat");
-            float lon = args.getFloat("lon");
+            double lat = args.getDouble("lat");
+            double lon = args.getDouble("lon");
             GeoPoint fromChat = new GeoPoint(lat, lon);
             showReceivedLocationMarker(fromChat);
         } else {
@@ -106,10 +193,166 @@ public class MapFragment extends Fragment {
             mapView.getController().setCenter(defaultPoint);
             addDefaultMarker(defaultPoint, "Eiffel Tower");
         }
+        showPeers();
 
         return rootView;
     }
 
+    private void loadConversationPoints(String conversation) {
+        Context appContext = requireContext().getApplicationContext();
+        // Chat logs are read on Schedulers.single(), like the chat does
+        conversationLoad = Single.fromCallable(() -> {
+                    MessageGeoIndex index = new MessageGeoIndex(ChatLogs.get(appContext, conversation));
+                    index.update();
+                    return index;
+                })
+                .subscribeOn(Schedulers.single())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(index -> {
+                    messages = index;
+                    conversationPoints.setIndex(index.getPoints());
+                    mapView.invalidate();
+                }, t -> Log.e(TAG, "conversation locations", t));
+    }
+
+    private void showMessagesNear(GeoPoint point) {
+        List<MessageGeoIndex.Hit> hits = messages.within((int) Math.round(point.getLatitude() * 1e6),
+                (int) Math.round(point.getLongitude() * 1e6), NEAR_RADIUS_M);
+        if (hits.isEmpty()) {
+            Toast.makeText(requireContext(), "No messages within 2 km", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        List<MessageGeoIndex.Hit> shown = hits.subList(0, Math.min(NEAR_MAX_SHOWN, hits.size()));
+        Context appContext = requireContext().getApplicationContext();
+        String name = conversation;
+        if (nearbyLoad != null) nearbyLoad.dispose();
+        nearbyLoad = Single.fromCallable(() -> {
+                    ChatLog log = ChatLogs.get(appContext, name);
+                    String[] rows = new String[shown.size()];
+                    for (int i = 0; i < rows.length; i++) {
+                        MessageGeoIndex.Hit hit = shown.get(i);
+                        ChatMessage message = log.read(hit.position);
+                        WireMessage payload = message.getPayload();
+                        String text = payload != null && payload.getText() != null ? payload.getText()
+                                : message.getMessage();
+                        if (text == null) text = "";
+                        int newline = text.indexOf('\n');
+                        if (newline >= 0) text = text.substring(0, newline);
+                        String distance = hit.distanceM < 1000
+                                ? String.format(Locale.US, "%d m", (int) hit.distanceM)
+                                : String.format(Locale.US, "%.1f km", hit.distanceM / 1000);
+                        rows[i] = distance + " \u00b7 " + (message.isSent() ? "Me" : message.getSenderName())
+                                + ": " + text;
+                    }
+                    return rows;
+                })
+                .subscribeOn(Schedulers.single())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(rows -> new AlertDialog.Builder(requireContext())
+                        .setTitle(String.format(Locale.US, "%d messages within 2 km", hits.size()))
+                        .setItems(rows, (d, which) -> openChatAt(shown.get(which).position))
+                        .setNegativeButton("Close", null)
+                        .show(), t -> Log.e(TAG, "messages near", t));
+    }
+
+    /**
+     * Goes back to the chat the map was opened from, which is still in the back
+     * stack with its boards connected, and has it scroll to a message.
+     */
+    private void openChatAt(int position) {
+        Bundle result = new Bundle();
+        result.putInt(ChatFragment.KEY_POSITION, position);
+        // The chat lives in the activity's fragment manager, outside the navigation host
+        requireActivity().getSupportFragmentManager()
+                .setFragmentResult(ChatFragment.showMessageRequest(conversation), result);
+        requireActivity().getOnBackPressedDispatcher().onBackPressed();
+    }
+
+    private void showPeers() {
+        PeerLocationStore store = PeerLocationStore.get();
+        peerUpdates = store.updates()
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(this::showPeer, t -> Log.e(TAG, "peer updates", t));
+        for (PeerLocationStore.Peer peer : store.snapshot()) showPeer(peer);
+    }
+
+    private void showPeer(PeerLocationStore.Peer peer) {
+        Marker marker = peerMarkers.get(peer.mac);
+        if (marker == null) {
+            marker = new Marker(mapView);
+            marker.setAnchor(Marker.ANCHOR_CENTER, Marker.ANCHOR_BOTTOM);
+            marker.setTitle(MacAddress.format(peer.mac));
+            peerMarkers.put(peer.mac, marker);
+            mapView.getOverlays().add(marker);
+        } else if (((PeerLocationStore.Peer) marker.getRelatedObject()).receivedAtMs > peer.receivedAtMs) {
+            // Queued before the snapshot that already showed a newer position
+            return;
+        }
+        marker.setRelatedObject(peer);
+        marker.setPosition(new GeoPoint(peer.getLatitude(), peer.getLongitude()));
+        String time = new SimpleDateFormat("HH:mm:ss", Locale.getDefault()).format(new Date(peer.getTimeMs()));
+        marker.setSnippet(peer.accuracyM != WireMessage.NO_ACCURACY
+                ? "\u00b1" + peer.accuracyM + " m at " + time
+                : "At " + time);
+        mapView.invalidate();
+    }
+
+    private void followConnectivity() {
+        Context appContext = requireContext().getApplicationContext();
+        mapSource = archive.flatMapObservable(tiles -> Single.fromCallable(() -> OfflineVectorMaps.findMapFiles(appContext))
+                        .subscribeOn(Schedulers.io())
+                        .flatMapObservable(files -> MapSourceSelector.sources(connectivity(appContext),
+                                        files.length > 0, Schedulers.computation())
+                                .observeOn(AndroidSchedulers.mainThread())
+                                .doOnNext(source -> applySource(source, files, tiles))))
+                .subscribe(source -> Log.i(TAG, "map source " + source), t -> Log.e(TAG, "map source", t));
+    }
+
+    private void applySource(MapSourceSelector.Source source, File[] mapFiles, TileArchive tiles) {
+        Context appContext = requireContext().getApplicationContext();
+        // setTileProvider detaches the previous provider, releasing its files and threads
+        if (source == MapSourceSelector.Source.OFFLINE_VECTOR) {
+            mapView.setTileProvider(OfflineVectorMaps.createProvider(appContext, mapFiles));
+        } else {
+            // Archived tiles first, then the network, saving what it fetches into the archive
+            MapTileProviderArray raster = new MapTileProviderArray(TileSourceFactory.MAPNIK,
+                    new SimpleRegisterReceiver(appContext), new MapTileModuleProviderBase[]{
+                    new ArchiveTileModule(tiles, TileSourceFactory.MAPNIK),
+                    new MapTileDownloader(TileSourceFactory.MAPNIK, new ArchiveTileWriter(tiles),
+                            new NetworkAvailabliltyCheck(appContext))
+            });
+            raster.setUseDataConnection(source == MapSourceSelector.Source.ONLINE_RASTER);
+            mapView.setTileProvider(raster);
+        }
+        mapView.invalidate();
+    }
+
+    /** Whether there is a validated network, starting with the current state. */
+    private static Observable<Boolean> connectivity(Context context) {
+        return Observable.create(emitter -> {
+            ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            if (cm == null) {
+                emitter.onNext(false);
+                return;
+            }
+            ConnectivityManager.NetworkCallback callback = new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onCapabilitiesChanged(@NonNull Network network, @NonNull NetworkCapabilities caps) {
+                    emitter.onNext(caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED));
+                }
+
+                @Override
+                public void onLost(@NonNull Network network) {
+                    emitter.onNext(false);
+                }
+            };
+            NetworkCapabilities caps = cm.getNetworkCapabilities(cm.getActiveNetwork());
+            emitter.onNext(caps != null && caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED));
+            cm.registerDefaultNetworkCallback(callback);
+            emitter.setCancellable(() -> cm.unregisterNetworkCallback(callback));
+        });
+    }
+
     private boolean isNetworkAvailable() {
         ConnectivityManager cm = (ConnectivityManager) requireContext().getSystemService(Context.CONNECTIVITY_SERVICE);
         if (cm != null) {
@@ -121,34 +364,128 @@ public class MapFragment extends Fragment {
 
     private void prefetchTilesForCurrentView() {
         BoundingBox bbox = mapView.getBoundingBox();
-        int minZoom = 12, maxZoom = 19;
-
-        CacheManager cacheManager = new CacheManager(mapView);
-        Toast.makeText(requireContext(), "Downloading tiles...", Toast.LENGTH_SHORT).show();
-        cacheManager.downloadAreaAsync(
-                requireContext(),
-                bbox,
-                minZoom,
-                maxZoom,
-                new CacheManager.CacheManagerCallback() {
-                    @Override
-                    public void downloadStarted() {
-                        Toast.makeText(requireContext(), "Tile download started!", Toast.LENGTH_SHORT).show();
-                    }
-                    @Override
-                    public void onTaskComplete() {
-                        Toast.makeText(requireContext(), "Tiles downloaded for offline use!", Toast.LENGTH_LONG).show();
-                    }
-                    @Override
-                    public void onTaskFailed(int errors) {
-                        Toast.makeText(requireContext(), "Some tiles failed to download: " + errors, Toast.LENGTH_SHORT).show();
+        TilePlan area;
+        try {
+            area = TilePlan.of(bbox.getLatNorth(), bbox.getLonEast(), bbox.getLatSouth(), bbox.getLonWest(),
+                    PREFETCH_MIN_ZOOM, PREFETCH_MAX_ZOOM);
+        } catch (IllegalArgumentException e) {
+            Toast.makeText(requireContext(), "Area too large, zoom in to download", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (prefetchPrompt != null) prefetchPrompt.dispose();
+        boolean[] resuming = new boolean[1];
+        // An interrupted download is offered first; counting stored tiles reads the cache, off the main thread
+        prefetchPrompt = prefetcher.flatMap(p -> Single.fromCallable(() -> {
+                            TilePrefetcher.Progress pending = p.loadPending();
+                            resuming[0] = pending != null;
+                            return pending != null ? pending.plan : area;
+                        })
+                        .subscribeOn(Schedulers.io())
+                        .flatMap(p::estimate))
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(estimate -> confirmPrefetch(estimate, area, resuming[0]),
+                        t -> Log.e(TAG, "tile estimate", t));
+    }
+
+    /** @param area the visible area, offered instead if an interrupted download is discarded */
+    private void confirmPrefetch(TilePrefetcher.Estimate estimate, TilePlan area, boolean resuming) {
+        String message = String.format(Locale.US, "%d tiles at zoom %d-%d, %d already saved.\n"
+                        + "About %.1f MB to download; offline areas use %.1f of %d MB.",
+                estimate.tiles, estimate.plan.minZoom, estimate.plan.maxZoom, estimate.stored,
+                estimate.bytesToFetch / 1e6, estimate.storeBytes / 1e6, estimate.budgetBytes >> 20);
+        if (!estimate.isWithinBudget()) message += "\nThe download stops when the limit is reached.";
+        AlertDialog.Builder dialog = new AlertDialog.Builder(requireContext())
+                .setTitle(resuming ? "Resume tile download" : "Download tiles")
+                .setMessage(message);
+        if (resuming) {
+            // The area was pinned when its download started
+            dialog.setPositiveButton("Resume", (d, w) -> startPrefetch(estimate.plan, null));
+            dialog.setNegativeButton("Discard", (d, w) -> {
+                if (prefetchPrompt != null) prefetchPrompt.dispose();
+                prefetchPrompt = prefetcher.flatMap(p -> Completable.fromAction(p::discardPending)
+                                .andThen(p.estimate(area))
+                                .subscribeOn(Schedulers.io()))
+                        .observeOn(AndroidSchedulers.mainThread())
+                        .subscribe(next -> confirmPrefetch(next, area, false),
+                                t -> Log.e(TAG, "discard download", t));
+            });
+        } else {
+            EditText name = new EditText(requireContext());
+            name.setHint("Area name");
+            name.setText(new SimpleDateFormat("'Area' d MMM HH:mm", Locale.getDefault()).format(new Date()));
+            dialog.setView(name);
+            dialog.setPositiveButton("Download", (d, w) -> startPrefetch(estimate.plan, name.getText().toString()));
+            dialog.setNegativeButton("Cancel", null);
+        }
+        dialog.show();
+    }
+
+    /** @param region name to pin the area under, or null if it is pinned already */
+    private void startPrefetch(TilePlan plan, String region) {
+        if (prefetch != null) return;
+        downloadButton.setText("Pause 0%");
+        TilePrefetcher.Progress[] last = new TilePrefetcher.Progress[1];
+        Completable pin = region == null || region.trim().isEmpty() ? Completable.complete()
+                : archive.flatMapCompletable(a -> Completable.fromAction(() -> a.pin(region.trim(), plan))
+                        .subscribeOn(Schedulers.io()));
+        prefetch = pin.andThen(prefetcher)
+                .flatMapObservable(p -> p.run(plan))
+                .throttleLatest(PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS, true)
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(p -> {
+                    last[0] = p;
+                    downloadButton.setText(String.format(Locale.US, "Pause %d%%", Math.round(p.getFraction() * 100)));
+                }, t -> {
+                    prefetch = null;
+                    downloadButton.setText("Resume Tiles");
+                    Log.e(TAG, "tile download", t);
+                    Toast.makeText(requireContext(), "Tile download stopped: " + t.getMessage(),
+                            Toast.LENGTH_LONG).show();
+                }, () -> {
+                    prefetch = null;
+                    TilePrefetcher.Progress p = last[0];
+                    boolean overBudget = p != null && p.state == TilePrefetcher.State.OVER_BUDGET;
+                    downloadButton.setText(overBudget ? "Resume Tiles" : "Download Tiles");
+                    if (p == null) return;
+                    Toast.makeText(requireContext(), String.format(Locale.US, overBudget
+                                    ? "Storage limit reached: %d tiles saved, %d failed"
+                                    : "Tiles saved for offline use: %d new, %d failed",
+                            p.fetched, p.failed), Toast.LENGTH_LONG).show();
+                    mapView.invalidate();
+                });
+    }
+
+    private void showOfflineAreas() {
+        if (areasPrompt != null) areasPrompt.dispose();
+        areasPrompt = archive.observeOn(AndroidSchedulers.mainThread())
+                .subscribe(tiles -> {
+                    // Regions and counters are held in memory
+                    Map<String, TilePlan> regions = tiles.getRegions();
+                    TileArchive.Stats stats = tiles.getStats();
+                    Log.i(TAG, stats.toString());
+                    String[] names = regions.keySet().toArray(new String[0]);
+                    AlertDialog.Builder dialog = new AlertDialog.Builder(requireContext())
+                            .setTitle(String.format(Locale.US, "Offline areas: %.1f of %d MB",
+                                    stats.pinnedBytes / 1e6, stats.maxBytes >> 20))
+                            .setNegativeButton("Close", null);
+                    if (names.length == 0) {
+                        dialog.setMessage("Areas you download stay here until you remove them.");
+                    } else {
+                        dialog.setItems(names, (d, which) -> confirmUnpin(tiles, names[which]));
                     }
-                    @Override
-                    public void updateProgress(int progress, int currentZoomLevel, int zoomMin, int zoomMax) {}
-                    @Override
-                    public void setPossibleTilesInArea(int total) {}
-                }
-        );
+                    dialog.show();
+                }, t -> Log.e(TAG, "tile archive", t));
+    }
+
+    private void confirmUnpin(TileArchive tiles, String region) {
+        new AlertDialog.Builder(requireContext())
+                .setTitle(region)
+                .setMessage("Remove this area from offline use? Its tiles are cleared as space is needed.")
+                .setPositiveButton("Remove", (d, w) -> Completable.fromAction(() -> tiles.unpin(region))
+                        .subscribeOn(Schedulers.io())
+                        .subscribe(() -> { }, t -> Log.e(TAG, "unpin " + region, t)))
+                .setNegativeButton("Cancel", null)
+                .show();
     }
 
     private void requestPermissionsIfNecessary(String[] permissions) {
@@ -205,6 +542,26 @@ public class MapFragment extends Fragment {
         if (myLocationOverlay != null) myLocationOverlay.disableMyLocation();
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (peerUpdates != null) peerUpdates.dispose();
+        if (conversationLoad != null) conversationLoad.dispose();
+        if (nearbyLoad != null) nearbyLoad.dispose();
+        // Saves the download's position for the next visit
+        if (prefetch != null) prefetch.dispose();
+        prefetch = null;
+        if (prefetchPrompt != null) prefetchPrompt.dispose();
+        if (mapSource != null) mapSource.dispose();
+        if (areasPrompt != null) areasPrompt.dispose();
+        archive.flatMapCompletable(tiles -> Completable.fromAction(() -> {
+                    tiles.flush();
+                    Log.i(TAG, tiles.getStats().toString());
+                }).subscribeOn(Schedulers.io()))
+                .subscribe(() -> { }, t -> Log.e(TAG, "tile archive flush", t));
+        peerMarkers.clear();
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
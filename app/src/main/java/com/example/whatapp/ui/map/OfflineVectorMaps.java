@@ -0,0 +1,75 @@
+package com.example.whatapp.ui.map;
+
+import android.app.ActivityManager;
+import android.app.Application;
+import android.content.Context;
+
+import org.osmdroid.config.Configuration;
+import org.osmdroid.mapsforge.MapsForgeTileProvider;
+import org.osmdroid.mapsforge.MapsForgeTileSource;
+import org.osmdroid.tileprovider.modules.SqlTileWriter;
+import org.osmdroid.tileprovider.util.SimpleRegisterReceiver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renders the map from mapsforge {@code .map} files the user copied into the
+ * app's {@code maps} folder, for use without a network.
+ * <p>
+ * Tiles are rendered on osmdroid's file-system worker threads and kept in two
+ * caches: decoded bitmaps in the provider's memory cache, sized from the heap,
+ * and rendered PNGs in osmdroid's SQLite tile cache, so a tile is rendered once
+ * per area and zoom rather than on every pan.
+ */
+final class OfflineVectorMaps {
+
+    static final String DIR = "maps";
+    static final String EXTENSION = ".map";
+    // Share of the heap for rendered tiles; a 256 px ARGB tile is 256 KB
+    private static final int MEMORY_SHARE = 8;
+    private static final int TILE_BYTES = 256 * 256 * 4;
+
+    private static boolean initialized;
+
+    private OfflineVectorMaps() { }
+
+    /** Installed map files, from external storage and then internal; call off the main thread. */
+    static File[] findMapFiles(Context context) {
+        List<File> found = new ArrayList<>();
+        for (File dir : new File[]{context.getExternalFilesDir(DIR), new File(context.getFilesDir(), DIR)}) {
+            File[] files = dir != null ? dir.listFiles() : null;
+            if (files == null) continue;
+            for (File f : files) {
+                if (f.isFile() && f.getName().endsWith(EXTENSION)) found.add(f);
+            }
+        }
+        return found.toArray(new File[0]);
+    }
+
+    /**
+     * A provider rendering {@code mapFiles}. The map view takes ownership: it
+     * detaches the provider, closing the files, when it switches away or goes.
+     */
+    static MapsForgeTileProvider createProvider(Context context, File[] mapFiles) {
+        Context app = context.getApplicationContext();
+        synchronized (OfflineVectorMaps.class) {
+            if (!initialized) {
+                MapsForgeTileSource.createInstance((Application) app);
+                initialized = true;
+            }
+        }
+        Configuration config = Configuration.getInstance();
+        // Rendering is CPU bound; leave a core for the UI
+        config.setTileFileSystemThreads((short) Math.max(2, Math.min(4,
+                Runtime.getRuntime().availableProcessors() - 1)));
+        ActivityManager am = (ActivityManager) app.getSystemService(Context.ACTIVITY_SERVICE);
+        int heapMb = am != null ? am.getMemoryClass() : 64;
+        config.setCacheMapTileCount((short) Math.max(config.getCacheMapTileCount(),
+                (long) heapMb * 1024 * 1024 / MEMORY_SHARE / TILE_BYTES));
+
+        MapsForgeTileSource source = MapsForgeTileSource.createFromFiles(mapFiles);
+        return new MapsForgeTileProvider(new SimpleRegisterReceiver(app), source, new SqlTileWriter());
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.whatapp.ui.map;
+
+import android.content.Context;
+
+import com.example.whatapp.tiles.TileArchive;
+import com.example.whatapp.tiles.TilePrefetcher;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The raster tile archive for the whole process, shared by every map view and
+ * the tile download. Kept in files rather than the cache directory, so the
+ * system does not clear downloaded regions.
+ */
+final class TileArchives {
+
+    private static final String DIR = "tiles";
+    static final long MAX_BYTES = TilePrefetcher.DEFAULT_BUDGET_BYTES;
+
+    private static TileArchive archive;
+
+    private TileArchives() { }
+
+    /** Opens or returns the archive; the first call scans it, so keep it off the main thread. */
+    static synchronized TileArchive get(Context context) throws IOException {
+        if (archive == null) {
+            archive = TileArchive.open(new File(context.getApplicationContext().getFilesDir(), DIR), MAX_BYTES);
+        }
+        return archive;
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.whatapp.ui.map;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Point;
+
+import com.example.whatapp.geo.PeerLocationStore;
+import com.example.whatapp.geo.PointIndex;
+import com.example.whatapp.geo.Trail;
+
+import org.osmdroid.util.BoundingBox;
+import org.osmdroid.util.GeoPoint;
+import org.osmdroid.views.MapView;
+import org.osmdroid.views.Projection;
+import org.osmdroid.views.overlay.Overlay;
+
+/**
+ * Draws each peer's {@link Trail} as a line, simplified for the zoom and
+ * clipped to the viewport, so a frame projects only the vertices it shows.
+ */
+final class TrailOverlay extends Overlay implements Trail.VertexSink {
+
+    private static final int COLOR = 0xCCE53935;
+
+    private final Paint line = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Path path = new Path();
+    private final GeoPoint geo = new GeoPoint(0.0, 0.0);
+    private final Point pixel = new Point();
+
+    // Set for the duration of draw
+    private Projection projection;
+
+    TrailOverlay(float density) {
+        line.setColor(COLOR);
+        line.setStyle(Paint.Style.STROKE);
+        line.setStrokeWidth(3 * density);
+        line.setStrokeJoin(Paint.Join.ROUND);
+        line.setStrokeCap(Paint.Cap.ROUND);
+    }
+
+    @Override
+    public void draw(Canvas c, MapView mapView, boolean shadow) {
+        if (shadow) return;
+        projection = mapView.getProjection();
+        BoundingBox box = projection.getBoundingBox();
+        for (Trail trail : PeerLocationStore.get().trails()) {
+            path.rewind();
+            int vertices = trail.simplify(box.getLatNorth(), box.getLonEast(), box.getLatSouth(), box.getLonWest(),
+                    projection.getZoomLevel(), Trail.DEFAULT_TOLERANCE_PX, this);
+            if (vertices > 1) c.drawPath(path, line);
+        }
+        projection = null;
+    }
+
+    @Override
+    public void vertex(int x, int y, boolean moveTo) {
+        geo.setCoords(PointIndex.latitude(y), PointIndex.longitude(x));
+        projection.toPixels(geo, pixel);
+        if (moveTo) path.moveTo(pixel.x, pixel.y);
+        else path.lineTo(pixel.x, pixel.y);
+    }
+}
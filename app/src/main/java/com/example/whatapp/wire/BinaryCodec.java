@@ -0,0 +1,347 @@
+package com.example.whatapp.wire;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary frame format, version 1.
+ * <pre>
+ * frame    = MARKER(0xB1) varint(bodyLength) body
+ * body     = type flags [sender] [group] [text] [location] [id] [hops] [fix]
+ * type     = 1 byte, see TYPE_* codes; TYPE_CUSTOM is followed by varint length + UTF-8 name
+ * flags    = 1 byte, FLAG_* bits saying which optional fields follow, in this order
+ * sender   = 6 bytes, MAC big-endian
+ * group    = varint length + UTF-8
+ * text     = varint length + UTF-8
+ * location = int32 latitude, int32 longitude, microdegrees, big-endian
+ * id       = int32 message id, big-endian
+ * hops     = 1 byte hop limit
+ * fix      = uint16 accuracy in metres (0xFFFF unknown), uint32 fix time in epoch seconds (0 unknown)
+ * </pre>
+ * New optional fields are only ever appended after the existing ones, and
+ * decoders ignore bytes they do not understand at the end of the body.
+ * <p>
+ * Encoding writes straight into the caller's array without intermediate
+ * buffers; decoding allocates only the strings it returns.
+ */
+public final class BinaryCodec implements WireCodec {
+
+    public static final String NAME = "bin1";
+    public static final byte MARKER = (byte) 0xB1;
+    public static final BinaryCodec INSTANCE = new BinaryCodec();
+
+    static final int TYPE_NONE = 0;
+    static final int TYPE_MESSAGE = 1;
+    static final int TYPE_GROUP_CREATE = 2;
+    static final int TYPE_GROUP_JOIN = 3;
+    static final int TYPE_GROUP_INVITE = 4;
+    static final int TYPE_CAPS = 5;
+    static final int TYPE_LOCATION = 6;
+    static final int TYPE_CUSTOM = 0x7F;
+
+    static final int FLAG_SENDER = 1;
+    static final int FLAG_GROUP = 1 << 1;
+    static final int FLAG_TEXT = 1 << 2;
+    static final int FLAG_LOCATION = 1 << 3;
+    static final int FLAG_ID = 1 << 4;
+    static final int FLAG_HOPS = 1 << 5;
+    static final int FLAG_FIX = 1 << 6;
+
+    private BinaryCodec() { }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(WireMessage message) {
+        byte[] out = new byte[encodedLength(message)];
+        encode(message, out, 0);
+        return out;
+    }
+
+    /** Exact size of the encoded frame, including marker and length prefix. */
+    public int encodedLength(WireMessage m) {
+        int body = bodyLength(m);
+        return 1 + varintLength(body) + body;
+    }
+
+    /**
+     * Encodes into {@code out} starting at {@code offset}.
+     *
+     * @return number of bytes written
+     */
+    public int encode(WireMessage m, byte[] out, int offset) {
+        int body = bodyLength(m);
+        int pos = offset;
+        out[pos++] = MARKER;
+        pos = writeVarint(body, out, pos);
+
+        int typeCode = typeCode(m.getType());
+        out[pos++] = (byte) typeCode;
+        if (typeCode == TYPE_CUSTOM) pos = writeString(m.getType(), out, pos);
+        out[pos++] = (byte) flags(m);
+
+        if (m.getSenderMac() != MacAddress.NONE) {
+            long mac = m.getSenderMac();
+            for (int shift = 40; shift >= 0; shift -= 8) out[pos++] = (byte) (mac >>> shift);
+        }
+        if (m.getGroupId() != null) pos = writeString(m.getGroupId(), out, pos);
+        if (m.getText() != null) pos = writeString(m.getText(), out, pos);
+        if (m.hasLocation()) {
+            pos = writeInt(m.getLatitudeE6(), out, pos);
+            pos = writeInt(m.getLongitudeE6(), out, pos);
+        }
+        if (m.getMsgId() != WireMessage.NO_ID) pos = writeInt(m.getMsgId(), out, pos);
+        if (m.getHopLimit() != WireMessage.NO_HOP_LIMIT) out[pos++] = (byte) m.getHopLimit();
+        if (m.hasFix()) {
+            int accuracy = m.getAccuracyM() != WireMessage.NO_ACCURACY ? m.getAccuracyM() : 0xFFFF;
+            out[pos++] = (byte) (accuracy >>> 8);
+            out[pos++] = (byte) accuracy;
+            pos = writeInt((int) (m.getFixTimeMs() / 1000), out, pos);
+        }
+        return pos - offset;
+    }
+
+    @Override
+    public WireMessage decode(byte[] buffer, int offset, int length) {
+        int end = offset + length;
+        try {
+            int pos = offset;
+            if (buffer[pos++] != MARKER) throw new WireFormatException("not a bin1 frame");
+            long bodyLength = readVarint(buffer, pos, end);
+            pos = skipVarint(buffer, pos);
+            if (pos + bodyLength > end) throw new WireFormatException("truncated body");
+            end = (int) (pos + bodyLength);
+
+            WireMessage.Builder b = WireMessage.builder();
+            check(pos + 2, end);
+            int typeCode = buffer[pos++] & 0xFF;
+            if (typeCode == TYPE_CUSTOM) {
+                int len = (int) readVarint(buffer, pos, end);
+                pos = skipVarint(buffer, pos);
+                b.type(readString(buffer, pos, len, end));
+                pos += len;
+            } else {
+                b.type(typeName(typeCode));
+            }
+            check(pos + 1, end);
+            int flags = buffer[pos++] & 0xFF;
+
+            if ((flags & FLAG_SENDER) != 0) {
+                check(pos + 6, end);
+                long mac = 0;
+                for (int i = 0; i < 6; i++) mac = (mac << 8) | (buffer[pos++] & 0xFF);
+                b.senderMac(mac);
+            }
+            if ((flags & FLAG_GROUP) != 0) {
+                int len = (int) readVarint(buffer, pos, end);
+                pos = skipVarint(buffer, pos);
+                b.groupId(readString(buffer, pos, len, end));
+                pos += len;
+            }
+            if ((flags & FLAG_TEXT) != 0) {
+                int len = (int) readVarint(buffer, pos, end);
+                pos = skipVarint(buffer, pos);
+                b.text(readString(buffer, pos, len, end));
+                pos += len;
+            }
+            if ((flags & FLAG_LOCATION) != 0) {
+                check(pos + 8, end);
+                b.locationE6(readInt(buffer, pos), readInt(buffer, pos + 4));
+                pos += 8;
+            }
+            if ((flags & FLAG_ID) != 0) {
+                check(pos + 4, end);
+                b.msgId(readInt(buffer, pos));
+                pos += 4;
+            }
+            if ((flags & FLAG_HOPS) != 0) {
+                check(pos + 1, end);
+                b.hopLimit(buffer[pos] & 0xFF);
+                pos++;
+            }
+            if ((flags & FLAG_FIX) != 0) {
+                check(pos + 6, end);
+                int accuracy = (buffer[pos] & 0xFF) << 8 | (buffer[pos + 1] & 0xFF);
+                long seconds = readInt(buffer, pos + 2) & 0xFFFFFFFFL;
+                b.fix(accuracy == 0xFFFF ? WireMessage.NO_ACCURACY : accuracy, seconds * 1000);
+            }
+            return b.build();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new WireFormatException("truncated frame", e);
+        }
+    }
+
+    private static int bodyLength(WireMessage m) {
+        int n = 2; // type + flags
+        if (typeCode(m.getType()) == TYPE_CUSTOM) n += stringLength(m.getType());
+        if (m.getSenderMac() != MacAddress.NONE) n += 6;
+        if (m.getGroupId() != null) n += stringLength(m.getGroupId());
+        if (m.getText() != null) n += stringLength(m.getText());
+        if (m.hasLocation()) n += 8;
+        if (m.getMsgId() != WireMessage.NO_ID) n += 4;
+        if (m.getHopLimit() != WireMessage.NO_HOP_LIMIT) n += 1;
+        if (m.hasFix()) n += 6;
+        return n;
+    }
+
+    private static int flags(WireMessage m) {
+        int flags = 0;
+        if (m.getSenderMac() != MacAddress.NONE) flags |= FLAG_SENDER;
+        if (m.getGroupId() != null) flags |= FLAG_GROUP;
+        if (m.getText() != null) flags |= FLAG_TEXT;
+        if (m.hasLocation()) flags |= FLAG_LOCATION;
+        if (m.getMsgId() != WireMessage.NO_ID) flags |= FLAG_ID;
+        if (m.getHopLimit() != WireMessage.NO_HOP_LIMIT) flags |= FLAG_HOPS;
+        if (m.hasFix()) flags |= FLAG_FIX;
+        return flags;
+    }
+
+    static int typeCode(String type) {
+        if (type == null) return TYPE_NONE;
+        switch (type) {
+            case WireMessage.TYPE_MESSAGE: return TYPE_MESSAGE;
+            case WireMessage.TYPE_GROUP_CREATE: return TYPE_GROUP_CREATE;
+            case WireMessage.TYPE_GROUP_JOIN: return TYPE_GROUP_JOIN;
+            case WireMessage.TYPE_GROUP_INVITE: return TYPE_GROUP_INVITE;
+            case WireMessage.TYPE_CAPS: return TYPE_CAPS;
+            case WireMessage.TYPE_LOCATION: return TYPE_LOCATION;
+            default: return TYPE_CUSTOM;
+        }
+    }
+
+    static String typeName(int code) {
+        switch (code) {
+            case TYPE_NONE: return null;
+            case TYPE_MESSAGE: return WireMessage.TYPE_MESSAGE;
+            case TYPE_GROUP_CREATE: return WireMessage.TYPE_GROUP_CREATE;
+            case TYPE_GROUP_JOIN: return WireMessage.TYPE_GROUP_JOIN;
+            case TYPE_GROUP_INVITE: return WireMessage.TYPE_GROUP_INVITE;
+            case TYPE_CAPS: return WireMessage.TYPE_CAPS;
+            case TYPE_LOCATION: return WireMessage.TYPE_LOCATION;
+            default: throw new WireFormatException("unknown type code " + code);
+        }
+    }
+
+    // --- primitives, shared with other binary frame formats ---
+
+    static int varintLength(int value) {
+        int n = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            n++;
+        }
+        return n;
+    }
+
+    static int writeVarint(int value, byte[] out, int pos) {
+        while ((value & ~0x7F) != 0) {
+            out[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte) value;
+        return pos;
+    }
+
+    static long readVarint(byte[] in, int pos, int end) {
+        long value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            check(pos + 1, end);
+            int b = in[pos++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value > Integer.MAX_VALUE) break;
+                return value;
+            }
+        }
+        throw new WireFormatException("malformed varint");
+    }
+
+    /** Position just after the varint starting at {@code pos}; call after {@link #readVarint}. */
+    static int skipVarint(byte[] in, int pos) {
+        while ((in[pos] & 0x80) != 0) pos++;
+        return pos + 1;
+    }
+
+    static int writeInt(int value, byte[] out, int pos) {
+        out[pos] = (byte) (value >>> 24);
+        out[pos + 1] = (byte) (value >>> 16);
+        out[pos + 2] = (byte) (value >>> 8);
+        out[pos + 3] = (byte) value;
+        return pos + 4;
+    }
+
+    static int readInt(byte[] in, int pos) {
+        return (in[pos] & 0xFF) << 24 | (in[pos + 1] & 0xFF) << 16
+                | (in[pos + 2] & 0xFF) << 8 | (in[pos + 3] & 0xFF);
+    }
+
+    /** Varint length prefix plus UTF-8 bytes. */
+    static int stringLength(String s) {
+        int n = utf8Length(s);
+        return varintLength(n) + n;
+    }
+
+    static int writeString(String s, byte[] out, int pos) {
+        pos = writeVarint(utf8Length(s), out, pos);
+        return writeUtf8(s, out, pos);
+    }
+
+    static String readString(byte[] in, int pos, int length, int end) {
+        checkLength(pos, length, end);
+        return new String(in, pos, length, StandardCharsets.UTF_8);
+    }
+
+    static int utf8Length(String s) {
+        int n = 0;
+        for (int i = 0, len = s.length(); i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) n++;
+            else if (c < 0x800) n += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < len
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                n += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) n++;
+            else n += 3;
+        }
+        return n;
+    }
+
+    static int writeUtf8(String s, byte[] out, int pos) {
+        for (int i = 0, len = s.length(); i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                out[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                out[pos++] = (byte) (0xC0 | (c >> 6));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                out[pos++] = (byte) (0xF0 | (cp >> 18));
+                out[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                out[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate, replaced like String.getBytes does
+                out[pos++] = '?';
+            } else {
+                out[pos++] = (byte) (0xE0 | (c >> 12));
+                out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return pos;
+    }
+
+    static void check(int needed, int end) {
+        if (needed > end) throw new WireFormatException("truncated frame");
+    }
+
+    /** Like {@link #check} for a length read off the wire, which {@code pos + length} could overflow. */
+    static void checkLength(int pos, long length, int end) {
+        if (length < 0 || length > end - pos) throw new WireFormatException("truncated frame");
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.whatapp.wire;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate envelope around the frames of another codec, primed with a preset
+ * dictionary of the strings our frames are made of.
+ * <pre>
+ * frame = MARKER(0xC1) varint(bodyLength) varint(innerLength) deflate(inner frame)
+ * </pre>
+ * The deflate stream is raw, without zlib header or checksum; the link layer
+ * already checks integrity. The inner frame is whatever the wrapped codec
+ * produced, so the receiver picks its decoder from the first inflated byte.
+ * A frame that would not get smaller is sent as the plain inner frame, which
+ * makes the marker the compressed flag.
+ * <p>
+ * Short frames hardly compress on their own; the dictionary gives deflate the
+ * keys, type names and URL prefixes to refer back to from the first byte.
+ * Deflaters and inflaters are kept per thread and reset between frames.
+ */
+public final class DeflateCodec implements WireCodec {
+
+    public static final String NAME = "dfl1";
+    public static final byte MARKER = (byte) 0xC1;
+    /** One instance per wrapped codec, so frames can still be shared by codec identity. */
+    public static final DeflateCodec BINARY = new DeflateCodec(BinaryCodec.INSTANCE);
+    public static final DeflateCodec JSON = new DeflateCodec(JsonCodec.INSTANCE);
+
+    /** Larger frames are sent plain, which also bounds what a decoder will inflate. */
+    static final int MAX_INNER_LENGTH = 4096;
+
+    // Deflate matches nearer strings with shorter codes, so the most common come last.
+    // Changing it breaks decoding of frames from peers on the old dictionary: bump NAME.
+    static final byte[] DICTIONARY = (""
+            + "System: Device joined Group created Invitation sent battery_report "
+            + "where are you? on my way, reached the checkpoint, moving to ok thanks yes no help "
+            + "\"type\":\"group_invite\",\"type\":\"group_create\",\"type\":\"group_join\",\"type\":\"caps\","
+            + "\"hop_limit\":3,\"msg_id\":,\"latitude\":12.,\"longitude\":77."
+            + "\nLocation: https://www.openstreetmap.org/?mlat=&mlon="
+            + "{\"type\":\"msg\",\"sender_mac\":\"\",\"group_id\":\"\",\"message\":\"")
+            .getBytes(StandardCharsets.US_ASCII);
+
+    private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+        @Override protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_COMPRESSION, true);
+        }
+    };
+    private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+        @Override protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    private final WireCodec inner;
+
+    private DeflateCodec(WireCodec inner) {
+        this.inner = inner;
+    }
+
+    /** The compressing variant of a negotiated codec. */
+    public static DeflateCodec wrapping(WireCodec codec) {
+        if (codec == BinaryCodec.INSTANCE) return BINARY;
+        if (codec == JsonCodec.INSTANCE) return JSON;
+        if (codec instanceof DeflateCodec) return (DeflateCodec) codec;
+        throw new IllegalArgumentException("no compressed variant of " + codec.name());
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    public WireCodec getInner() {
+        return inner;
+    }
+
+    @Override
+    public byte[] encode(WireMessage message) {
+        return compress(inner.encode(message));
+    }
+
+    /** Either frame format is accepted, as the sender falls back to plain frames. */
+    @Override
+    public WireMessage decode(byte[] buffer, int offset, int length) {
+        return WireCodecs.decode(buffer, offset, length);
+    }
+
+    /** The enveloped frame, or {@code frame} itself if that is not smaller. */
+    public static byte[] compress(byte[] frame) {
+        if (frame.length > MAX_INNER_LENGTH) return frame;
+        int lengthBytes = BinaryCodec.varintLength(frame.length);
+        // Worth it only if the whole envelope, header included, beats the plain frame
+        int budget = frame.length - 1 - 1 - lengthBytes - 1;
+        if (budget <= 0) return frame;
+
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(frame);
+        deflater.finish();
+        byte[] scratch = new byte[budget + 1];
+        int deflated = deflater.deflate(scratch);
+        if (!deflater.finished() || deflated > budget) return frame;
+
+        int body = lengthBytes + deflated;
+        byte[] out = new byte[1 + BinaryCodec.varintLength(body) + body];
+        if (out.length >= frame.length) return frame;
+        int pos = 0;
+        out[pos++] = MARKER;
+        pos = BinaryCodec.writeVarint(body, out, pos);
+        pos = BinaryCodec.writeVarint(frame.length, out, pos);
+        System.arraycopy(scratch, 0, out, pos, deflated);
+        return out;
+    }
+
+    /** Inflates an enveloped frame back to the inner frame. */
+    public static byte[] inflate(byte[] buffer, int offset, int length) {
+        int end = offset + length;
+        try {
+            int pos = offset;
+            if (buffer[pos++] != MARKER) throw new WireFormatException("not a dfl1 frame");
+            long bodyLength = BinaryCodec.readVarint(buffer, pos, end);
+            pos = BinaryCodec.skipVarint(buffer, pos);
+            if (pos + bodyLength > end) throw new WireFormatException("truncated body");
+            end = (int) (pos + bodyLength);
+            long innerLength = BinaryCodec.readVarint(buffer, pos, end);
+            pos = BinaryCodec.skipVarint(buffer, pos);
+            if (innerLength == 0 || innerLength > MAX_INNER_LENGTH) {
+                throw new WireFormatException("inner frame of " + innerLength + " bytes");
+            }
+
+            Inflater inflater = INFLATER.get();
+            inflater.reset();
+            inflater.setDictionary(DICTIONARY);
+            inflater.setInput(buffer, pos, end - pos);
+            byte[] frame = new byte[(int) innerLength];
+            int n = inflater.inflate(frame);
+            if (n != frame.length || !inflater.finished()) {
+                throw new WireFormatException("inflated " + n + " of " + innerLength + " bytes");
+            }
+            if (frame[0] == MARKER) throw new WireFormatException("nested dfl1 frame");
+            return frame;
+        } catch (DataFormatException e) {
+            throw new WireFormatException("corrupt deflate stream", e);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new WireFormatException("truncated frame", e);
+        }
+    }
+}
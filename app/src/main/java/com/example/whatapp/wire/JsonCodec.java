@@ -0,0 +1,471 @@
+package com.example.whatapp.wire;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The JSON text frames the boards have always spoken.
+ * <pre>
+ * {"type":"msg","sender_mac":"AA:BB:CC:DD:EE:FF","group_id":"g1",
+ *  "message":"hi","latitude":12.345678,"longitude":76.543210,
+ *  "accuracy":12,"fix_time":1760790000,"msg_id":3735928559,"hop_limit":3}
+ * </pre>
+ * Decoding is a single pass over the UTF-8 bytes. Keys are matched in place
+ * without building strings, coordinates are parsed straight to microdegrees,
+ * and unknown keys are skipped with their values, including nested objects.
+ * Numbers and quoted numbers are both accepted, as older firmware sends either.
+ */
+public final class JsonCodec implements WireCodec {
+
+    public static final String NAME = "json";
+    public static final JsonCodec INSTANCE = new JsonCodec();
+
+    static final String KEY_TYPE = "type";
+    static final String KEY_SENDER_MAC = "sender_mac";
+    static final String KEY_GROUP_ID = "group_id";
+    static final String KEY_MESSAGE = "message";
+    static final String KEY_LATITUDE = "latitude";
+    static final String KEY_LONGITUDE = "longitude";
+    static final String KEY_ACCURACY = "accuracy";
+    static final String KEY_FIX_TIME = "fix_time";
+    static final String KEY_MSG_ID = "msg_id";
+    static final String KEY_HOP_LIMIT = "hop_limit";
+
+    private static final byte[][] KEYS = {
+            ascii(KEY_TYPE), ascii(KEY_SENDER_MAC), ascii(KEY_GROUP_ID),
+            ascii(KEY_MESSAGE), ascii(KEY_LATITUDE), ascii(KEY_LONGITUDE),
+            ascii(KEY_MSG_ID), ascii(KEY_HOP_LIMIT), ascii(KEY_ACCURACY), ascii(KEY_FIX_TIME)
+    };
+    private static final int K_TYPE = 0;
+    private static final int K_SENDER_MAC = 1;
+    private static final int K_GROUP_ID = 2;
+    private static final int K_MESSAGE = 3;
+    private static final int K_LATITUDE = 4;
+    private static final int K_LONGITUDE = 5;
+    private static final int K_MSG_ID = 6;
+    private static final int K_HOP_LIMIT = 7;
+    private static final int K_ACCURACY = 8;
+    private static final int K_FIX_TIME = 9;
+
+    private JsonCodec() { }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(WireMessage message) {
+        return toJson(message).getBytes(StandardCharsets.UTF_8);
+    }
+
+    public String toJson(WireMessage m) {
+        StringBuilder sb = new StringBuilder(96);
+        sb.append('{');
+        boolean first = true;
+        if (m.getType() != null) first = appendString(sb, KEY_TYPE, m.getType(), first);
+        if (m.getSenderMac() != MacAddress.NONE) {
+            first = appendString(sb, KEY_SENDER_MAC, MacAddress.format(m.getSenderMac()), first);
+        }
+        if (m.getGroupId() != null) first = appendString(sb, KEY_GROUP_ID, m.getGroupId(), first);
+        if (m.getText() != null) first = appendString(sb, KEY_MESSAGE, m.getText(), first);
+        if (m.hasLocation()) {
+            first = appendKey(sb, KEY_LATITUDE, first);
+            appendE6(sb, m.getLatitudeE6());
+            appendKey(sb, KEY_LONGITUDE, first);
+            appendE6(sb, m.getLongitudeE6());
+        }
+        if (m.getAccuracyM() != WireMessage.NO_ACCURACY) {
+            first = appendKey(sb, KEY_ACCURACY, first);
+            sb.append(m.getAccuracyM());
+        }
+        if (m.getFixTimeMs() != 0) {
+            first = appendKey(sb, KEY_FIX_TIME, first);
+            sb.append(m.getFixTimeMs() / 1000);
+        }
+        if (m.getMsgId() != WireMessage.NO_ID) {
+            first = appendKey(sb, KEY_MSG_ID, first);
+            sb.append(Integer.toUnsignedString(m.getMsgId()));
+        }
+        if (m.getHopLimit() != WireMessage.NO_HOP_LIMIT) {
+            appendKey(sb, KEY_HOP_LIMIT, first);
+            sb.append(m.getHopLimit());
+        }
+        return sb.append('}').toString();
+    }
+
+    public WireMessage decode(String json) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        return decode(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public WireMessage decode(byte[] buffer, int offset, int length) {
+        return new Parser(buffer, offset, offset + length).parse();
+    }
+
+    // --- encoding helpers ---
+
+    private static boolean appendKey(StringBuilder sb, String key, boolean first) {
+        if (!first) sb.append(',');
+        sb.append('"').append(key).append("\":");
+        return false;
+    }
+
+    private static boolean appendString(StringBuilder sb, String key, String value, boolean first) {
+        appendKey(sb, key, first);
+        sb.append('"');
+        for (int i = 0, n = value.length(); i < n; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append("\\u00").append(Character.forDigit(c >> 4, 16))
+                                .append(Character.forDigit(c & 0xF, 16));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+        return false;
+    }
+
+    /** Writes microdegrees as a plain decimal with six fraction digits. */
+    public static void appendE6(StringBuilder sb, int e6) {
+        long v = e6;
+        if (v < 0) {
+            sb.append('-');
+            v = -v;
+        }
+        sb.append(v / WireMessage.MICRODEGREES).append('.');
+        long frac = v % WireMessage.MICRODEGREES;
+        for (long d = WireMessage.MICRODEGREES / 10; d > frac && d > 1; d /= 10) sb.append('0');
+        sb.append(frac);
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // --- single pass decoder ---
+
+    private static final class Parser {
+        private final byte[] in;
+        private final int end;
+        private int pos;
+
+        Parser(byte[] in, int start, int end) {
+            this.in = in;
+            this.pos = start;
+            this.end = end;
+        }
+
+        WireMessage parse() {
+            WireMessage.Builder b = WireMessage.builder();
+            long lat = Long.MIN_VALUE;
+            long lon = Long.MIN_VALUE;
+            int accuracy = WireMessage.NO_ACCURACY;
+            long fixTime = 0;
+
+            skipWhitespace();
+            expect('{');
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return b.build();
+            }
+            while (true) {
+                skipWhitespace();
+                int key = readKey();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                switch (key) {
+                    case K_TYPE:
+                        b.type(readScalar());
+                        break;
+                    case K_SENDER_MAC:
+                        b.senderMac(MacAddress.parse(readScalar()));
+                        break;
+                    case K_GROUP_ID:
+                        b.groupId(readScalar());
+                        break;
+                    case K_MESSAGE:
+                        b.text(readScalar());
+                        break;
+                    case K_LATITUDE:
+                        lat = readCoordinate();
+                        break;
+                    case K_LONGITUDE:
+                        lon = readCoordinate();
+                        break;
+                    case K_MSG_ID:
+                        b.msgId((int) readInteger(0xFFFFFFFFL));
+                        break;
+                    case K_HOP_LIMIT:
+                        b.hopLimit((int) readInteger(0xFF));
+                        break;
+                    case K_ACCURACY:
+                        accuracy = readAccuracy();
+                        break;
+                    case K_FIX_TIME:
+                        fixTime = readInteger(0xFFFFFFFFL) * 1000;
+                        break;
+                    default:
+                        skipValue();
+                }
+                skipWhitespace();
+                byte c = next();
+                if (c == '}') break;
+                if (c != ',') throw error("expected ',' or '}'");
+            }
+            if (lat != Long.MIN_VALUE && lon != Long.MIN_VALUE) {
+                b.locationE6((int) lat, (int) lon);
+            }
+            b.fix(accuracy, fixTime);
+            return b.build();
+        }
+
+        /** Reads a quoted key and returns its K_* index, or -1 if it is not one we use. */
+        private int readKey() {
+            expect('"');
+            int start = pos;
+            boolean escaped = false;
+            while (true) {
+                byte c = next();
+                if (c == '\\') {
+                    escaped = true;
+                    pos++;
+                } else if (c == '"') {
+                    break;
+                }
+            }
+            if (escaped) return -1;
+            int len = pos - 1 - start;
+            for (int k = 0; k < KEYS.length; k++) {
+                byte[] key = KEYS[k];
+                if (key.length != len) continue;
+                int i = 0;
+                while (i < len && in[start + i] == key[i]) i++;
+                if (i == len) return k;
+            }
+            return -1;
+        }
+
+        /** String value, or the raw text of a number/literal; null for JSON null. */
+        private String readScalar() {
+            byte c = peek();
+            if (c == '"') return readString();
+            if (c == '{' || c == '[') throw error("expected scalar");
+            int start = pos;
+            while (pos < end && !isDelimiter(in[pos])) pos++;
+            if (pos == start) throw error("expected value");
+            if (pos - start == 4 && in[start] == 'n' && in[start + 1] == 'u'
+                    && in[start + 2] == 'l' && in[start + 3] == 'l') {
+                return null;
+            }
+            return new String(in, start, pos - start, StandardCharsets.US_ASCII);
+        }
+
+        private String readString() {
+            expect('"');
+            int start = pos;
+            // Fast path: no escapes, decode the slice directly
+            while (pos < end) {
+                byte c = in[pos];
+                if (c == '"') {
+                    String s = new String(in, start, pos - start, StandardCharsets.UTF_8);
+                    pos++;
+                    return s;
+                }
+                if (c == '\\') break;
+                pos++;
+            }
+            pos = start;
+            return readEscapedString();
+        }
+
+        private String readEscapedString() {
+            StringBuilder sb = new StringBuilder();
+            int runStart = pos;
+            while (true) {
+                byte c = next();
+                if (c == '"') {
+                    flush(sb, runStart, pos - 1);
+                    return sb.toString();
+                }
+                if (c != '\\') continue;
+                flush(sb, runStart, pos - 1);
+                byte e = next();
+                switch (e) {
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u':
+                        if (pos + 4 > end) throw error("truncated escape");
+                        int cp = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int d = Character.digit(in[pos++], 16);
+                            if (d < 0) throw error("bad unicode escape");
+                            cp = (cp << 4) | d;
+                        }
+                        sb.append((char) cp);
+                        break;
+                    default:
+                        sb.append((char) e);
+                }
+                runStart = pos;
+            }
+        }
+
+        private void flush(StringBuilder sb, int from, int to) {
+            if (to > from) sb.append(new String(in, from, to - from, StandardCharsets.UTF_8));
+        }
+
+        /** Unsigned integer up to {@code max}, quoted or not. */
+        private long readInteger(long max) {
+            String text = readScalar();
+            if (text == null) throw error("expected integer");
+            try {
+                long value = Long.parseLong(text);
+                if (value < 0 || value > max) throw error("integer out of range");
+                return value;
+            } catch (NumberFormatException e) {
+                throw error("bad integer " + text);
+            }
+        }
+
+        /** Metres, rounded; platforms report fractions. */
+        private int readAccuracy() {
+            String text = readScalar();
+            if (text == null) return WireMessage.NO_ACCURACY;
+            try {
+                double metres = Double.parseDouble(text);
+                if (!(metres >= 0)) throw error("bad accuracy " + text);
+                return (int) Math.min(Math.round(metres), WireMessage.MAX_ACCURACY_M);
+            } catch (NumberFormatException e) {
+                throw error("bad accuracy " + text);
+            }
+        }
+
+        /** Coordinate as microdegrees, Long.MIN_VALUE for null. */
+        private long readCoordinate() {
+            boolean quoted = peek() == '"';
+            if (quoted) pos++;
+            int start = pos;
+            while (pos < end && !isDelimiter(in[pos]) && in[pos] != '"') pos++;
+            int stop = pos;
+            if (quoted) expect('"');
+            if (stop - start == 4 && in[start] == 'n') return Long.MIN_VALUE;
+            return parseE6(start, stop);
+        }
+
+        private long parseE6(int start, int stop) {
+            int i = start;
+            boolean negative = false;
+            if (i < stop && (in[i] == '-' || in[i] == '+')) negative = in[i++] == '-';
+            long whole = 0;
+            long frac = 0;
+            int fracDigits = 0;
+            boolean roundUp = false;
+            boolean sawDigit = false;
+            for (; i < stop && in[i] >= '0' && in[i] <= '9'; i++) {
+                whole = whole * 10 + (in[i] - '0');
+                sawDigit = true;
+                if (whole > 1000) throw error("coordinate out of range");
+            }
+            if (i < stop && in[i] == '.') {
+                for (i++; i < stop && in[i] >= '0' && in[i] <= '9'; i++) {
+                    sawDigit = true;
+                    if (fracDigits < 6) {
+                        frac = frac * 10 + (in[i] - '0');
+                        fracDigits++;
+                    } else if (fracDigits == 6) {
+                        roundUp = in[i] >= '5';
+                        fracDigits++;
+                    }
+                }
+            }
+            if (!sawDigit) throw error("bad coordinate");
+            if (i < stop) {
+                // Exponent or other unusual form; let the JDK handle it
+                String text = new String(in, start, stop - start, StandardCharsets.US_ASCII);
+                try {
+                    return Math.round(Double.parseDouble(text) * WireMessage.MICRODEGREES);
+                } catch (NumberFormatException e) {
+                    throw error("bad coordinate " + text);
+                }
+            }
+            for (int d = Math.min(fracDigits, 6); d < 6; d++) frac *= 10;
+            long e6 = whole * WireMessage.MICRODEGREES + frac + (roundUp ? 1 : 0);
+            return negative ? -e6 : e6;
+        }
+
+        private void skipValue() {
+            byte c = peek();
+            if (c == '"') {
+                skipString();
+            } else if (c == '{' || c == '[') {
+                int depth = 0;
+                do {
+                    byte b = peek();
+                    if (b == '"') {
+                        skipString();
+                        continue;
+                    }
+                    pos++;
+                    if (b == '{' || b == '[') depth++;
+                    else if (b == '}' || b == ']') depth--;
+                } while (depth > 0);
+            } else {
+                while (pos < end && !isDelimiter(in[pos])) pos++;
+            }
+        }
+
+        private void skipString() {
+            expect('"');
+            while (true) {
+                byte c = next();
+                if (c == '\\') pos++;
+                else if (c == '"') return;
+            }
+        }
+
+        private void skipWhitespace() {
+            while (pos < end) {
+                byte c = in[pos];
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t') return;
+                pos++;
+            }
+        }
+
+        private static boolean isDelimiter(byte c) {
+            return c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t';
+        }
+
+        private byte peek() {
+            if (pos >= end) throw error("unexpected end of frame");
+            return in[pos];
+        }
+
+        private byte next() {
+            if (pos >= end) throw error("unexpected end of frame");
+            return in[pos++];
+        }
+
+        private void expect(char c) {
+            if (next() != c) throw error("expected '" + c + "'");
+        }
+
+        private WireFormatException error(String what) {
+            return new WireFormatException(what + " at offset " + pos);
+        }
+    }
+}
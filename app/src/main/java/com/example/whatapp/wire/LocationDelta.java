@@ -0,0 +1,236 @@
+package com.example.whatapp.wire;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Live position updates, each coded against the sender's previous one.
+ * <pre>
+ * frame    = MARKER(0xE1) varint(bodyLength) body
+ * body     = flags seq [sender] position [accuracy] [time]
+ * flags    = 1 byte, FLAG_* bits
+ * seq      = 1 byte, one more than the sender's previous update
+ * sender   = 6 bytes, MAC big-endian
+ * position = key: int32 latitude, int32 longitude
+ *            delta: zigzag varint latitude change, zigzag varint longitude change, microdegrees
+ * accuracy = varint metres
+ * time     = key: uint32 epoch seconds; delta: varint seconds since the previous update
+ * </pre>
+ * Walking pace gives deltas of one or two bytes per axis, so an update is
+ * around ten bytes and fits one packet at the default MTU.
+ * <p>
+ * A delta only applies on top of the update numbered {@code seq - 1}. A
+ * receiver that missed that one drops deltas until the next key update, which
+ * the encoder sends every {@link #KEY_INTERVAL} updates, after a jump too large
+ * for a delta and after {@link Encoder#reset}. Both ends keep their state per
+ * link; decoded updates are ordinary {@link WireMessage#TYPE_LOCATION}
+ * messages with absolute coordinates.
+ */
+public final class LocationDelta {
+
+    public static final String NAME = "loc1";
+    public static final byte MARKER = (byte) 0xE1;
+    public static final int KEY_INTERVAL = 16;
+
+    static final int FLAG_KEY = 1;
+    static final int FLAG_SENDER = 1 << 1;
+    static final int FLAG_ACCURACY = 1 << 2;
+    static final int FLAG_TIME = 1 << 3;
+
+    // About a degree; beyond that a key update is hardly larger
+    static final int MAX_DELTA_E6 = 1 << 20;
+    private static final int MAX_SENDERS = 256;
+
+    private LocationDelta() { }
+
+    /** Sender side of one link. */
+    public static final class Encoder {
+        private boolean primed;
+        private int seq;
+        private long sender;
+        private int latitudeE6;
+        private int longitudeE6;
+        private long timeS;
+        private int sinceKey;
+
+        /** @param update a message with a location; its type is implied */
+        public synchronized byte[] encode(WireMessage update) {
+            if (!update.hasLocation()) throw new IllegalArgumentException("update without location");
+            long dLat = (long) update.getLatitudeE6() - latitudeE6;
+            long dLon = (long) update.getLongitudeE6() - longitudeE6;
+            long time = update.getFixTimeMs() / 1000;
+            boolean key = !primed
+                    || sinceKey >= KEY_INTERVAL - 1
+                    || update.getSenderMac() != sender
+                    || (time != 0) != (timeS != 0)
+                    || time < timeS
+                    || Math.abs(dLat) > MAX_DELTA_E6
+                    || Math.abs(dLon) > MAX_DELTA_E6;
+
+            int flags = key ? FLAG_KEY : 0;
+            int body = 2;
+            if (update.getSenderMac() != MacAddress.NONE) {
+                flags |= FLAG_SENDER;
+                body += 6;
+            }
+            int zLat = zigzag((int) dLat);
+            int zLon = zigzag((int) dLon);
+            body += key ? 8 : BinaryCodec.varintLength(zLat) + BinaryCodec.varintLength(zLon);
+            if (update.getAccuracyM() != WireMessage.NO_ACCURACY) {
+                flags |= FLAG_ACCURACY;
+                body += BinaryCodec.varintLength(update.getAccuracyM());
+            }
+            int dt = (int) (time - timeS);
+            if (time != 0) {
+                flags |= FLAG_TIME;
+                body += key ? 4 : BinaryCodec.varintLength(dt);
+            }
+
+            seq = (seq + 1) & 0xFF;
+            byte[] out = new byte[1 + BinaryCodec.varintLength(body) + body];
+            int pos = 0;
+            out[pos++] = MARKER;
+            pos = BinaryCodec.writeVarint(body, out, pos);
+            out[pos++] = (byte) flags;
+            out[pos++] = (byte) seq;
+            if ((flags & FLAG_SENDER) != 0) {
+                for (int shift = 40; shift >= 0; shift -= 8) out[pos++] = (byte) (update.getSenderMac() >>> shift);
+            }
+            if (key) {
+                pos = BinaryCodec.writeInt(update.getLatitudeE6(), out, pos);
+                pos = BinaryCodec.writeInt(update.getLongitudeE6(), out, pos);
+            } else {
+                pos = BinaryCodec.writeVarint(zLat, out, pos);
+                pos = BinaryCodec.writeVarint(zLon, out, pos);
+            }
+            if ((flags & FLAG_ACCURACY) != 0) pos = BinaryCodec.writeVarint(update.getAccuracyM(), out, pos);
+            if (time != 0) {
+                if (key) BinaryCodec.writeInt((int) time, out, pos);
+                else BinaryCodec.writeVarint(dt, out, pos);
+            }
+
+            primed = true;
+            sinceKey = key ? 0 : sinceKey + 1;
+            sender = update.getSenderMac();
+            latitudeE6 = update.getLatitudeE6();
+            longitudeE6 = update.getLongitudeE6();
+            timeS = time;
+            return out;
+        }
+
+        /** Makes the next update a key update, e.g. after a write may have been lost. */
+        public synchronized void reset() {
+            primed = false;
+        }
+    }
+
+    /** Receiver side of one link; tracks every sender heard on it. */
+    public static final class Decoder {
+        private static final class Track {
+            int seq;
+            int latitudeE6;
+            int longitudeE6;
+            long timeS;
+        }
+
+        private final Map<Long, Track> tracks = new HashMap<>();
+        private long unresolved;
+
+        /**
+         * @return the update, or null for a delta whose base was missed
+         * @throws WireFormatException if the frame is malformed
+         */
+        public synchronized WireMessage decode(byte[] buffer, int offset, int length) {
+            int end = offset + length;
+            try {
+                int pos = offset;
+                if (buffer[pos++] != MARKER) throw new WireFormatException("not a loc1 frame");
+                long bodyLength = BinaryCodec.readVarint(buffer, pos, end);
+                pos = BinaryCodec.skipVarint(buffer, pos);
+                if (pos + bodyLength > end) throw new WireFormatException("truncated body");
+                end = (int) (pos + bodyLength);
+
+                BinaryCodec.check(pos + 2, end);
+                int flags = buffer[pos++] & 0xFF;
+                int seq = buffer[pos++] & 0xFF;
+                boolean key = (flags & FLAG_KEY) != 0;
+                long sender = MacAddress.NONE;
+                if ((flags & FLAG_SENDER) != 0) {
+                    BinaryCodec.check(pos + 6, end);
+                    sender = 0;
+                    for (int i = 0; i < 6; i++) sender = (sender << 8) | (buffer[pos++] & 0xFF);
+                }
+                int lat;
+                int lon;
+                if (key) {
+                    BinaryCodec.check(pos + 8, end);
+                    lat = BinaryCodec.readInt(buffer, pos);
+                    lon = BinaryCodec.readInt(buffer, pos + 4);
+                    pos += 8;
+                } else {
+                    lat = unzigzag((int) BinaryCodec.readVarint(buffer, pos, end));
+                    pos = BinaryCodec.skipVarint(buffer, pos);
+                    lon = unzigzag((int) BinaryCodec.readVarint(buffer, pos, end));
+                    pos = BinaryCodec.skipVarint(buffer, pos);
+                }
+                int accuracy = WireMessage.NO_ACCURACY;
+                if ((flags & FLAG_ACCURACY) != 0) {
+                    accuracy = (int) BinaryCodec.readVarint(buffer, pos, end);
+                    pos = BinaryCodec.skipVarint(buffer, pos);
+                }
+                long time = 0;
+                if ((flags & FLAG_TIME) != 0) {
+                    if (key) {
+                        BinaryCodec.check(pos + 4, end);
+                        time = BinaryCodec.readInt(buffer, pos) & 0xFFFFFFFFL;
+                    } else {
+                        time = BinaryCodec.readVarint(buffer, pos, end);
+                    }
+                }
+
+                Track track = tracks.get(sender);
+                if (key) {
+                    if (track == null) {
+                        if (tracks.size() >= MAX_SENDERS) tracks.clear();
+                        track = new Track();
+                        tracks.put(sender, track);
+                    }
+                    track.latitudeE6 = lat;
+                    track.longitudeE6 = lon;
+                    track.timeS = time;
+                } else {
+                    if (track == null || seq != ((track.seq + 1) & 0xFF) || (time != 0 && track.timeS == 0)) {
+                        unresolved++;
+                        return null;
+                    }
+                    if (track.timeS + time > 0xFFFFFFFFL) throw new WireFormatException("fix time out of range");
+                    track.latitudeE6 += lat;
+                    track.longitudeE6 += lon;
+                    if (time != 0) track.timeS += time;
+                }
+                track.seq = seq;
+                return WireMessage.builder()
+                        .type(WireMessage.TYPE_LOCATION)
+                        .senderMac(sender)
+                        .locationE6(track.latitudeE6, track.longitudeE6)
+                        .fix(accuracy, (flags & FLAG_TIME) != 0 ? track.timeS * 1000 : 0)
+                        .build();
+            } catch (ArrayIndexOutOfBoundsException e) {
+                throw new WireFormatException("truncated frame", e);
+            }
+        }
+
+        /** Deltas dropped because the update before them was missed. */
+        public synchronized long getUnresolved() {
+            return unresolved;
+        }
+    }
+
+    static int zigzag(int v) {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    static int unzigzag(int v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+}
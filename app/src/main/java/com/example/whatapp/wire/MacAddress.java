@@ -0,0 +1,47 @@
+package com.example.whatapp.wire;
+
+/**
+ * Bluetooth MAC addresses packed into the low 48 bits of a long.
+ */
+public final class MacAddress {
+
+    /** Marker for "no address"; never a valid 48-bit value. */
+    public static final long NONE = -1L;
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private MacAddress() { }
+
+    /**
+     * Parses {@code AA:BB:CC:DD:EE:FF} (':' or '-' separated, any case).
+     *
+     * @return the packed address, or {@link #NONE} if the text is not a MAC
+     */
+    public static long parse(CharSequence text) {
+        if (text == null || text.length() != 17) return NONE;
+        long value = 0;
+        for (int i = 0; i < 17; i++) {
+            char c = text.charAt(i);
+            if (i % 3 == 2) {
+                if (c != ':' && c != '-') return NONE;
+                continue;
+            }
+            int digit = Character.digit(c, 16);
+            if (digit < 0) return NONE;
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    public static String format(long mac) {
+        if (mac == NONE) return null;
+        char[] out = new char[17];
+        for (int octet = 0; octet < 6; octet++) {
+            int b = (int) (mac >>> (40 - octet * 8)) & 0xFF;
+            out[octet * 3] = HEX[b >>> 4];
+            out[octet * 3 + 1] = HEX[b & 0x0F];
+            if (octet < 5) out[octet * 3 + 2] = ':';
+        }
+        return new String(out);
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.whatapp.wire;
+
+/**
+ * Encodes {@link WireMessage}s to complete frames and back.
+ * <p>
+ * Frames are self-delimiting on the stream: JSON frames start with '{' and
+ * are delimited by brace depth, every other frame starts with a marker byte
+ * in 0x80-0xFF followed by a varint body length. See
+ * {@link com.example.whatapp.ble.FrameAssembler}.
+ */
+public interface WireCodec {
+
+    /** Name used in the capability handshake. */
+    String name();
+
+    byte[] encode(WireMessage message);
+
+    /**
+     * @throws WireFormatException if the bytes are not a well-formed frame for this codec
+     */
+    WireMessage decode(byte[] buffer, int offset, int length);
+}
@@ -0,0 +1,29 @@
+package com.example.whatapp.wire;
+
+/**
+ * Picks the decoder for a received frame from its first byte, so frames in
+ * any format can be read regardless of what was negotiated for sending.
+ * {@link DeflateCodec} envelopes are inflated and their inner frame decoded.
+ */
+public final class WireCodecs {
+
+    private WireCodecs() { }
+
+    public static WireCodec forName(String name) {
+        if (BinaryCodec.NAME.equals(name)) return BinaryCodec.INSTANCE;
+        if (JsonCodec.NAME.equals(name)) return JsonCodec.INSTANCE;
+        return null;
+    }
+
+    public static WireMessage decode(byte[] buffer, int offset, int length) {
+        if (length <= 0) throw new WireFormatException("empty frame");
+        byte first = buffer[offset];
+        if (first == '{') return JsonCodec.INSTANCE.decode(buffer, offset, length);
+        if (first == BinaryCodec.MARKER) return BinaryCodec.INSTANCE.decode(buffer, offset, length);
+        if (first == DeflateCodec.MARKER) {
+            byte[] frame = DeflateCodec.inflate(buffer, offset, length);
+            return decode(frame, 0, frame.length);
+        }
+        throw new WireFormatException("unknown frame marker 0x" + Integer.toHexString(first & 0xFF));
+    }
+}
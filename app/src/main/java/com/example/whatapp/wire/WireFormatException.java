@@ -0,0 +1,13 @@
+package com.example.whatapp.wire;
+
+/** Thrown when a received frame cannot be decoded. */
+public class WireFormatException extends IllegalArgumentException {
+
+    public WireFormatException(String message) {
+        super(message);
+    }
+
+    public WireFormatException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,275 @@
+package com.example.whatapp.wire;
+
+/**
+ * One chat frame as exchanged with the boards, independent of the wire codec.
+ * <p>
+ * Immutable. Coordinates are fixed-point microdegrees so that both codecs
+ * round-trip them exactly.
+ */
+public final class WireMessage {
+
+    public static final String TYPE_MESSAGE = "msg";
+    public static final String TYPE_GROUP_CREATE = "group_create";
+    public static final String TYPE_GROUP_JOIN = "group_join";
+    public static final String TYPE_GROUP_INVITE = "group_invite";
+    /** Capability handshake; {@link #getText()} carries the comma separated codec list. */
+    public static final String TYPE_CAPS = "caps";
+    /** Live position update; see {@link LocationDelta}. */
+    public static final String TYPE_LOCATION = "loc";
+
+    public static final int MICRODEGREES = 1_000_000;
+    /** {@link #getMsgId()} of a frame that carries no id. */
+    public static final int NO_ID = 0;
+    /** {@link #getHopLimit()} of a frame that carries no hop limit. */
+    public static final int NO_HOP_LIMIT = -1;
+    /** {@link #getAccuracyM()} when the fix carries no accuracy. */
+    public static final int NO_ACCURACY = -1;
+    /** Largest accuracy that can be sent; worse fixes are sent as this. */
+    public static final int MAX_ACCURACY_M = 0xFFFE;
+
+    private final String type;
+    private final long senderMac;
+    private final String groupId;
+    private final String text;
+    private final boolean hasLocation;
+    private final int latitudeE6;
+    private final int longitudeE6;
+    private final int msgId;
+    private final int hopLimit;
+    private final int accuracyM;
+    private final long fixTimeS;
+
+    private WireMessage(Builder b) {
+        this.type = b.type;
+        this.senderMac = b.senderMac;
+        this.groupId = b.groupId;
+        this.text = b.text;
+        this.hasLocation = b.hasLocation;
+        this.latitudeE6 = b.latitudeE6;
+        this.longitudeE6 = b.longitudeE6;
+        this.msgId = b.msgId;
+        this.hopLimit = b.hopLimit;
+        this.accuracyM = b.accuracyM;
+        this.fixTimeS = b.fixTimeS;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public Builder toBuilder() {
+        Builder b = new Builder();
+        b.type = type;
+        b.senderMac = senderMac;
+        b.groupId = groupId;
+        b.text = text;
+        b.hasLocation = hasLocation;
+        b.latitudeE6 = latitudeE6;
+        b.longitudeE6 = longitudeE6;
+        b.msgId = msgId;
+        b.hopLimit = hopLimit;
+        b.accuracyM = accuracyM;
+        b.fixTimeS = fixTimeS;
+        return b;
+    }
+
+    /** Frame type, or null for a plain message from firmware that sends none. */
+    public String getType() {
+        return type;
+    }
+
+    /** Packed sender MAC, {@link MacAddress#NONE} when absent. */
+    public long getSenderMac() {
+        return senderMac;
+    }
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public boolean hasLocation() {
+        return hasLocation;
+    }
+
+    public int getLatitudeE6() {
+        return latitudeE6;
+    }
+
+    public int getLongitudeE6() {
+        return longitudeE6;
+    }
+
+    /** Random id the originator picked, used to drop copies that arrive twice; {@link #NO_ID} when absent. */
+    public int getMsgId() {
+        return msgId;
+    }
+
+    /** Relays left before the frame stops being forwarded; {@link #NO_HOP_LIMIT} when absent. */
+    public int getHopLimit() {
+        return hopLimit;
+    }
+
+    /** True if the location carries its accuracy or the time it was fixed. */
+    public boolean hasFix() {
+        return accuracyM != NO_ACCURACY || fixTimeS != 0;
+    }
+
+    /** Horizontal accuracy of the location in metres, {@link #NO_ACCURACY} when unknown. */
+    public int getAccuracyM() {
+        return accuracyM;
+    }
+
+    /** When the location was fixed, epoch millis at whole seconds; 0 when unknown. */
+    public long getFixTimeMs() {
+        return fixTimeS * 1000;
+    }
+
+    public double getLatitude() {
+        return latitudeE6 / (double) MICRODEGREES;
+    }
+
+    public double getLongitude() {
+        return longitudeE6 / (double) MICRODEGREES;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof WireMessage)) return false;
+        WireMessage m = (WireMessage) o;
+        return senderMac == m.senderMac
+                && hasLocation == m.hasLocation
+                && latitudeE6 == m.latitudeE6
+                && longitudeE6 == m.longitudeE6
+                && msgId == m.msgId
+                && hopLimit == m.hopLimit
+                && accuracyM == m.accuracyM
+                && fixTimeS == m.fixTimeS
+                && eq(type, m.type)
+                && eq(groupId, m.groupId)
+                && eq(text, m.text);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = type != null ? type.hashCode() : 0;
+        h = 31 * h + (int) (senderMac ^ (senderMac >>> 32));
+        h = 31 * h + (groupId != null ? groupId.hashCode() : 0);
+        h = 31 * h + (text != null ? text.hashCode() : 0);
+        h = 31 * h + (hasLocation ? 1 : 0);
+        h = 31 * h + latitudeE6;
+        h = 31 * h + longitudeE6;
+        h = 31 * h + msgId;
+        h = 31 * h + hopLimit;
+        h = 31 * h + accuracyM;
+        h = 31 * h + (int) (fixTimeS ^ (fixTimeS >>> 32));
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return "WireMessage{type=" + type + ", sender=" + MacAddress.format(senderMac)
+                + ", group=" + groupId + ", text=" + text
+                + (hasLocation ? ", lat=" + getLatitude() + ", lon=" + getLongitude() : "")
+                + (accuracyM != NO_ACCURACY ? ", acc=" + accuracyM + "m" : "")
+                + (fixTimeS != 0 ? ", fixed=" + fixTimeS : "")
+                + (msgId != NO_ID ? ", id=" + Integer.toHexString(msgId) : "")
+                + (hopLimit != NO_HOP_LIMIT ? ", hops=" + hopLimit : "") + "}";
+    }
+
+    private static boolean eq(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    public static final class Builder {
+        private String type;
+        private long senderMac = MacAddress.NONE;
+        private String groupId;
+        private String text;
+        private boolean hasLocation;
+        private int latitudeE6;
+        private int longitudeE6;
+        private int msgId = NO_ID;
+        private int hopLimit = NO_HOP_LIMIT;
+        private int accuracyM = NO_ACCURACY;
+        private long fixTimeS;
+
+        private Builder() { }
+
+        public Builder type(String type) {
+            this.type = type;
+            return this;
+        }
+
+        public Builder senderMac(long senderMac) {
+            this.senderMac = senderMac;
+            return this;
+        }
+
+        public Builder groupId(String groupId) {
+            this.groupId = groupId;
+            return this;
+        }
+
+        public Builder text(String text) {
+            this.text = text;
+            return this;
+        }
+
+        public Builder locationE6(int latitudeE6, int longitudeE6) {
+            this.hasLocation = true;
+            this.latitudeE6 = latitudeE6;
+            this.longitudeE6 = longitudeE6;
+            return this;
+        }
+
+        public Builder location(double latitude, double longitude) {
+            return locationE6((int) Math.round(latitude * MICRODEGREES),
+                    (int) Math.round(longitude * MICRODEGREES));
+        }
+
+        /**
+         * Accuracy and time of the location fix.
+         *
+         * @param accuracyM metres, capped at {@link #MAX_ACCURACY_M}, or {@link #NO_ACCURACY}
+         * @param timeMs    epoch millis, truncated to whole seconds; 0 if unknown
+         */
+        public Builder fix(int accuracyM, long timeMs) {
+            if (timeMs < 0 || timeMs / 1000 > 0xFFFFFFFFL) throw new IllegalArgumentException("fix time " + timeMs);
+            this.accuracyM = accuracyM < 0 ? NO_ACCURACY : Math.min(accuracyM, MAX_ACCURACY_M);
+            this.fixTimeS = timeMs / 1000;
+            return this;
+        }
+
+        public Builder clearLocation() {
+            this.hasLocation = false;
+            this.latitudeE6 = 0;
+            this.longitudeE6 = 0;
+            this.accuracyM = NO_ACCURACY;
+            this.fixTimeS = 0;
+            return this;
+        }
+
+        public Builder msgId(int msgId) {
+            this.msgId = msgId;
+            return this;
+        }
+
+        /** 0 to 255, or {@link #NO_HOP_LIMIT}. */
+        public Builder hopLimit(int hopLimit) {
+            if (hopLimit != NO_HOP_LIMIT && (hopLimit < 0 || hopLimit > 0xFF)) {
+                throw new IllegalArgumentException("hop limit " + hopLimit);
+            }
+            this.hopLimit = hopLimit;
+            return this;
+        }
+
+        public WireMessage build() {
+            return new WireMessage(this);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.whatapp;
+
+import com.example.whatapp.wire.JsonCodec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cost of producing bubble text for 10k received messages: the previous
+ * per-bind regex extraction over the raw JSON against
+ * {@link MessageFormatter} over fields decoded once at ingest.
+ * <p>
+ * Not a unit test; run {@code main} from the IDE on the host JVM.
+ */
+public final class MessageBindBenchmark {
+
+    private static final int MESSAGES = 10_000;
+    private static final int ROUNDS = 5;
+
+    private MessageBindBenchmark() { }
+
+    public static void main(String[] args) {
+        List<String> raw = new ArrayList<>(MESSAGES);
+        for (int i = 0; i < MESSAGES; i++) {
+            raw.add("{\"type\":\"msg\",\"sender_mac\":\"A4:CF:12:9B:00:" + String.format("%02X", i & 0xFF)
+                    + "\",\"group_id\":\"g" + (i % 7) + "\",\"message\":\"status update number " + i
+                    + "\",\"latitude\":12." + (100000 + i) + ",\"longitude\":77." + (200000 + i) + "}");
+        }
+
+        long ingestStart = System.nanoTime();
+        List<ChatMessage> parsed = new ArrayList<>(MESSAGES);
+        for (String json : raw) {
+            parsed.add(new ChatMessage(JsonCodec.INSTANCE.decode(json), false, "Device", "DEVICE"));
+        }
+        double ingestMs = (System.nanoTime() - ingestStart) / 1e6;
+
+        List<ChatMessage> legacy = new ArrayList<>(MESSAGES);
+        for (String json : raw) legacy.add(new ChatMessage(json, false, "Device", "DEVICE", false, ""));
+
+        double before = Double.MAX_VALUE;
+        double after = Double.MAX_VALUE;
+        long sink = 0;
+        for (int r = 0; r < ROUNDS; r++) {
+            long t0 = System.nanoTime();
+            for (ChatMessage m : legacy) sink += legacyFormat(m.getMessage(), m).length();
+            long t1 = System.nanoTime();
+            for (ChatMessage m : parsed) sink += MessageFormatter.format(m).length();
+            long t2 = System.nanoTime();
+            before = Math.min(before, (t1 - t0) / 1e6);
+            after = Math.min(after, (t2 - t1) / 1e6);
+        }
+        System.out.printf("bind %d messages: regex %.1f ms, parse-once %.1f ms (%.1fx); one-time ingest %.1f ms%n",
+                MESSAGES, before, after, before / after, ingestMs);
+        if (sink == 0) System.out.println();
+    }
+
+    /** ChatAdapter.formatMessage as it was before parse-once, kept only as a baseline. */
+    private static String legacyFormat(String originalText, ChatMessage chat) {
+        StringBuilder formatted = new StringBuilder();
+        String senderMac = extractValue(originalText, "sender_mac");
+        String message = extractValue(originalText, "message");
+        String latitude = extractValue(originalText, "latitude");
+        String longitude = extractValue(originalText, "longitude");
+        String groupId = extractValue(originalText, "group_id");
+        String type = extractValue(originalText, "type");
+        if (senderMac != null && !senderMac.equals("SELF")) {
+            formatted.append("From: ").append(chat.getSenderName()).append("\n");
+        }
+        if (groupId != null && !groupId.isEmpty()) {
+            formatted.append("To: Group ").append(groupId).append("\n");
+        } else {
+            formatted.append("To: All\n");
+        }
+        if (latitude != null && longitude != null) {
+            formatted.append("Location: ").append(latitude).append(", ").append(longitude).append("\n");
+        }
+        if (message != null && !message.isEmpty()) {
+            formatted.append("Message: ").append(message);
+        } else if (type != null) {
+            formatted.append("System: ").append(type);
+        }
+        return formatted.toString();
+    }
+
+    private static String extractValue(String json, String key) {
+        Pattern pattern = Pattern.compile("\"" + key + "\":\"?([^\",}]+)\"?,?");
+        Matcher matcher = pattern.matcher(json);
+        if (matcher.find()) {
+            return matcher.group(1).replace("\"", "");
+        }
+        return null;
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.whatapp;
+
+import com.example.whatapp.wire.JsonCodec;
+import com.example.whatapp.wire.WireMessage;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MessageFormatterTest {
+
+    private static ChatMessage received(String json) {
+        return new ChatMessage(JsonCodec.INSTANCE.decode(json), false, "Device", "A4:CF:12:9B:00:7E");
+    }
+
+    @Test
+    public void formatsReceivedFrameFromDecodedFields() {
+        ChatMessage chat = received("{\"sender_mac\":\"A4:CF:12:9B:00:7E\",\"group_id\":\"g1\","
+                + "\"message\":\"hello\",\"latitude\":12.5,\"longitude\":-7.25}");
+        assertEquals("From: Device\nTo: Group g1\nLocation: 12.500000, -7.250000\nMessage: hello",
+                MessageFormatter.format(chat));
+        assertEquals("hello", chat.getMessage());
+        assertTrue(chat.isGroupMessage());
+    }
+
+    @Test
+    public void systemFramesWithoutText() {
+        assertEquals("To: All\nSystem: Device joined",
+                MessageFormatter.format(received("{\"type\":\"group_join\"}")));
+        assertEquals("To: All\nSystem: battery_low",
+                MessageFormatter.format(received("{\"type\":\"battery_low\",\"group_id\":\"\"}")));
+    }
+
+    @Test
+    public void localTextIsShownAsIs() {
+        ChatMessage sent = new ChatMessage("TX: hi", true, "Me", "SELF", false, "");
+        assertEquals("TX: hi", MessageFormatter.format(sent));
+        assertNull(sent.getPayload());
+    }
+
+    @Test
+    public void quotesAndBracesInTextSurvive() {
+        WireMessage payload = WireMessage.builder().text("a \"b\", {c}").build();
+        ChatMessage chat = new ChatMessage(payload, false, "Device", "DEVICE");
+        assertEquals("To: All\nMessage: a \"b\", {c}", MessageFormatter.format(chat));
+    }
+
+    @Test
+    public void locationShowsAccuracyAndLinksOnlyForPlainText() {
+        WireMessage payload = WireMessage.builder().locationE6(12_971_599, -7_250_000).fix(8, 0).build();
+        assertEquals("To: All\nLocation: 12.971599, -7.250000 (\u00b18 m)\n",
+                MessageFormatter.format(new ChatMessage(payload, false, "Device", "DEVICE")));
+        assertEquals("https://www.openstreetmap.org/?mlat=12.971599&mlon=-7.250000",
+                MessageFormatter.osmLink(payload));
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.whatapp.ble;
+
+import com.example.whatapp.wire.BinaryCodec;
+import com.example.whatapp.wire.DeflateCodec;
+import com.example.whatapp.wire.JsonCodec;
+import com.example.whatapp.wire.WireMessage;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class CodecNegotiatorTest {
+
+    private static WireMessage caps(String codecs) {
+        return WireMessage.builder().type(WireMessage.TYPE_CAPS).text(codecs).build();
+    }
+
+    @Test
+    public void helloIsJsonListingPreferredCodecsFirst() {
+        String hello = new String(new CodecNegotiator().helloFrame(), StandardCharsets.UTF_8);
+        assertEquals("{\"type\":\"caps\",\"message\":\"bin1,json,rel1,dfl1,loc1\"}", hello);
+    }
+
+    @Test
+    public void picksBinaryWhenBoardSupportsIt() {
+        CodecNegotiator negotiator = new CodecNegotiator();
+        assertSame(JsonCodec.INSTANCE, negotiator.getCodec());
+        assertTrue(negotiator.handle(caps("json, bin1")));
+        assertSame(BinaryCodec.INSTANCE, negotiator.getCodec());
+        assertTrue(negotiator.isNegotiated());
+    }
+
+    @Test
+    public void staysOnJsonForOlderBoards() {
+        CodecNegotiator negotiator = new CodecNegotiator();
+        assertTrue(negotiator.handle(caps("json")));
+        assertSame(JsonCodec.INSTANCE, negotiator.getCodec());
+        assertFalse(negotiator.handle(WireMessage.builder().text("hi").build()));
+        assertFalse(negotiator.isReliable());
+    }
+
+    @Test
+    public void reliableTransportIsOfferedAsAFeature() {
+        CodecNegotiator negotiator = new CodecNegotiator();
+        assertTrue(negotiator.handle(caps("bin1, rel1")));
+        assertTrue(negotiator.isReliable());
+        assertSame(BinaryCodec.INSTANCE, negotiator.getCodec());
+        negotiator.reset();
+        assertFalse(negotiator.isReliable());
+    }
+
+    @Test
+    public void compressionWrapsTheNegotiatedCodec() {
+        CodecNegotiator negotiator = new CodecNegotiator();
+        assertTrue(negotiator.handle(caps("bin1,dfl1")));
+        assertTrue(negotiator.isCompressed());
+        assertSame(DeflateCodec.BINARY, negotiator.getCodec());
+        negotiator.reset();
+        assertTrue(negotiator.handle(caps("json,dfl1")));
+        assertSame(DeflateCodec.JSON, negotiator.getCodec());
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.whatapp.ble;
+
+import com.example.whatapp.wire.BinaryCodec;
+import com.example.whatapp.wire.MacAddress;
+import com.example.whatapp.wire.WireMessage;
+import com.polidea.rxandroidble3.RxBleConnection;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.observers.TestObserver;
+import io.reactivex.rxjava3.schedulers.TestScheduler;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+
+import static org.junit.Assert.*;
+
+public class ConnectionPoolTest {
+
+    private static final UUID RX = UUID.fromString("6e400003-b5a3-f393-e0a9-e50e24dcca9e");
+    private static final UUID TX = UUID.fromString("6e400002-b5a3-f393-e0a9-e50e24dcca9e");
+    private static final long A = MacAddress.parse("AA:00:00:00:00:01");
+    private static final long B = MacAddress.parse("AA:00:00:00:00:02");
+    private static final long C = MacAddress.parse("AA:00:00:00:00:03");
+
+    private final TestScheduler scheduler = new TestScheduler();
+    private final ConnectionPool pool = new ConnectionPool(RX, TX, 2);
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Connects a simulated board that stays up until the returned subject fails. */
+    private PublishSubject<Object> connect(long mac, FakeRxBleConnection fake) {
+        PublishSubject<Object> link = PublishSubject.create();
+        Observable<RxBleConnection> connection = Observable
+                .just(fake.asConnection())
+                .concatWith(link.ignoreElements().toObservable());
+        TestObserver<ConnectionPool.Member> ready = pool.connect(mac, connection).test();
+        scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+        ready.assertValueCount(1);
+        return link;
+    }
+
+    @Test
+    public void inboundFramesAreTaggedWithTheirBoard() {
+        FakeRxBleConnection a = new FakeRxBleConnection(scheduler, 185, 5);
+        FakeRxBleConnection b = new FakeRxBleConnection(scheduler, 185, 5);
+        connect(A, a);
+        connect(B, b);
+        TestObserver<ConnectionPool.Inbound> inbound = pool.inbound().test();
+
+        a.notifications.onNext(bytes("{\"type\":\"message\",\"message\":\"from a\"}"));
+        b.notifications.onNext(bytes("{\"type\":\"caps\",\"message\":\"bin1\"}{\"type\":\"message\","));
+        b.notifications.onNext(bytes("\"message\":\"from b\"}"));
+
+        inbound.assertValueCount(2);
+        assertEquals(A, inbound.values().get(0).mac);
+        assertEquals("from a", inbound.values().get(0).message.getText());
+        assertEquals(B, inbound.values().get(1).mac);
+        assertEquals("from b", inbound.values().get(1).message.getText());
+        // Handshakes are per board
+        assertSame(BinaryCodec.INSTANCE, pool.get(B).getCodec());
+        assertNotSame(BinaryCodec.INSTANCE, pool.get(A).getCodec());
+    }
+
+    @Test
+    public void sendsRunInParallelWithOneQueuePerBoard() {
+        FakeRxBleConnection a = new FakeRxBleConnection(scheduler, 185, 50);
+        FakeRxBleConnection b = new FakeRxBleConnection(scheduler, 185, 50);
+        connect(A, a);
+        connect(B, b);
+        int writesA = a.writes.size();
+        int writesB = b.writes.size();
+
+        TestObserver<Void> sent = pool.sendAll(codec -> bytes("{\"message\":\"hello\"}")).test();
+        sent.assertNotComplete();
+        scheduler.advanceTimeBy(50, TimeUnit.MILLISECONDS);
+        // Both boards finished within one write latency
+        sent.assertComplete();
+        assertEquals(writesA + 1, a.writes.size());
+        assertEquals(writesB + 1, b.writes.size());
+        assertEquals(a.writes.get(writesA).startedAtMs, b.writes.get(writesB).startedAtMs);
+    }
+
+    @Test
+    public void subsetSendReportsBoardsThatAreNotConnected() {
+        FakeRxBleConnection a = new FakeRxBleConnection(scheduler, 185, 5);
+        connect(A, a);
+        int before = a.writes.size();
+
+        TestObserver<Void> sent = pool.send(new long[]{A, C},
+                codec -> codec.encode(WireMessage.builder().text("x").build())).test();
+        scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+
+        sent.assertError(IllegalStateException.class);
+        assertEquals("connected board still got it", before + 1, a.writes.size());
+    }
+
+    @Test
+    public void droppedLinkLeavesThePoolAndFreesItsSlot() {
+        connect(A, new FakeRxBleConnection(scheduler, 185, 5));
+        PublishSubject<Object> linkB = connect(B, new FakeRxBleConnection(scheduler, 185, 5));
+        TestObserver<ConnectionPool.Event> events = pool.events().test();
+
+        pool.connect(C, Observable.never()).test().assertError(ConnectionPool.PoolFullException.class);
+
+        linkB.onError(new IllegalStateException("GATT 8"));
+        assertFalse(pool.isConnected(B));
+        assertArrayEquals(new long[]{A}, pool.connected());
+        events.assertValueCount(1);
+        assertEquals(B, events.values().get(0).mac);
+        assertFalse(events.values().get(0).connected);
+        assertNotNull(events.values().get(0).error);
+
+        connect(C, new FakeRxBleConnection(scheduler, 185, 5));
+        assertArrayEquals(new long[]{A, C}, pool.connected());
+    }
+
+    @Test
+    public void disconnectReleasesTheConnection() {
+        PublishSubject<Object> linkA = connect(A, new FakeRxBleConnection(scheduler, 185, 5));
+        assertTrue(linkA.hasObservers());
+        pool.disconnectAll();
+        assertFalse(linkA.hasObservers());
+        assertEquals(0, pool.size());
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.whatapp.ble;
+
+import android.bluetooth.BluetoothGatt;
+
+import com.example.whatapp.wire.MacAddress;
+import com.polidea.rxandroidble3.RxBleConnection;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.observers.TestObserver;
+import io.reactivex.rxjava3.schedulers.TestScheduler;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+
+import static org.junit.Assert.*;
+
+public class ConnectionSupervisorTest {
+
+    private static final UUID RX = UUID.fromString("6e400003-b5a3-f393-e0a9-e50e24dcca9e");
+    private static final UUID TX = UUID.fromString("6e400002-b5a3-f393-e0a9-e50e24dcca9e");
+    private static final long A = MacAddress.parse("AA:00:00:00:00:01");
+
+    private final TestScheduler scheduler = new TestScheduler();
+    private final ConnectionPool pool = new ConnectionPool(RX, TX, 4);
+    private final ConnectionSupervisor supervisor = new ConnectionSupervisor(pool, scheduler, new Random(7));
+
+    /** Simulated board: each attempt either fails or yields a link that stays up until dropped. */
+    private final class Board implements ConnectionSupervisor.Connector {
+        final FakeRxBleConnection fake = new FakeRxBleConnection(scheduler, 185, 5);
+        final List<Boolean> attempts = new ArrayList<>();
+        PublishSubject<Object> link;
+        int failNext;
+
+        @Override public Observable<RxBleConnection> establish(boolean autoConnect) {
+            attempts.add(autoConnect);
+            if (failNext > 0) {
+                failNext--;
+                return Observable.error(new IllegalStateException("GATT 133"));
+            }
+            link = PublishSubject.create();
+            return Observable.just(fake.asConnection()).concatWith(link.ignoreElements().toObservable());
+        }
+
+        void drop() {
+            link.onError(new IllegalStateException("GATT 8"));
+        }
+    }
+
+    private void advance(long ms) {
+        scheduler.advanceTimeBy(ms, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void dropIsReconnectedStraightAwayAndTimed() {
+        Board board = new Board();
+        supervisor.supervise(A, board);
+        advance(100);
+        assertTrue(pool.isConnected(A));
+
+        board.drop();
+        assertFalse(pool.isConnected(A));
+        advance(20);
+        assertTrue(pool.isConnected(A));
+        assertEquals(2, board.attempts.size());
+        assertFalse("fast path is a direct connect", board.attempts.get(1));
+
+        ConnectionSupervisor.Metrics metrics = supervisor.getMetrics(A);
+        assertEquals(1, metrics.reconnects);
+        assertTrue(metrics.lastReconnectMs > 0 && metrics.lastReconnectMs <= 20);
+    }
+
+    @Test
+    public void failuresBackOffWithJitterThenFallBackToAutoConnect() {
+        Board board = new Board();
+        board.failNext = 5;
+        TestObserver<ConnectionSupervisor.Retry> retries = supervisor.retries().test();
+        supervisor.supervise(A, board);
+        advance(5 * ConnectionSupervisor.MAX_BACKOFF_MS);
+
+        assertTrue(pool.isConnected(A));
+        assertEquals(6, board.attempts.size());
+        assertEquals(5, retries.values().size());
+        long previousCap = 0;
+        for (int i = 0; i < 5; i++) {
+            long cap = ConnectionSupervisor.INITIAL_BACKOFF_MS << i;
+            long delay = retries.values().get(i).delayMs;
+            assertTrue("delay " + delay, delay >= cap / 2 && delay <= cap);
+            assertTrue(cap > previousCap);
+            previousCap = cap;
+        }
+        for (int i = 0; i < board.attempts.size(); i++) {
+            assertEquals("attempt " + i, i >= ConnectionSupervisor.DIRECT_ATTEMPTS, board.attempts.get(i));
+        }
+        assertEquals(5, supervisor.getMetrics(A).failedAttempts);
+    }
+
+    @Test
+    public void backoffIsCapped() {
+        for (int attempt = 0; attempt < 40; attempt++) {
+            assertTrue(supervisor.backoff(attempt) <= ConnectionSupervisor.MAX_BACKOFF_MS);
+        }
+    }
+
+    @Test
+    public void priorityFollowsTrafficAndIsTimed() {
+        Board board = new Board();
+        supervisor.supervise(A, board);
+        advance(100);
+        board.fake.priorityRequests.clear();
+
+        board.fake.notifications.onNext("{\"message\":\"burst\"}".getBytes(StandardCharsets.UTF_8));
+        advance(1);
+        assertEquals(BluetoothGatt.CONNECTION_PRIORITY_HIGH, (int) board.fake.priorityRequests.get(0));
+
+        advance(ConnectionSupervisor.BUSY_HOLD_MS);
+        assertEquals(BluetoothGatt.CONNECTION_PRIORITY_BALANCED, (int) board.fake.priorityRequests.get(1));
+
+        advance(ConnectionSupervisor.LOW_POWER_AFTER_MS);
+        assertEquals(BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER, (int) board.fake.priorityRequests.get(2));
+        assertEquals(3, board.fake.priorityRequests.size());
+
+        long[] time = supervisor.getMetrics(A).timeInPriorityMs;
+        assertEquals(ConnectionSupervisor.BUSY_HOLD_MS, time[BluetoothGatt.CONNECTION_PRIORITY_HIGH]);
+        assertTrue(time[BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER] > 0);
+    }
+
+    @Test
+    public void stopDisconnectsAndDoesNotReconnect() {
+        Board board = new Board();
+        supervisor.supervise(A, board);
+        advance(100);
+        supervisor.stop(A);
+        advance(ConnectionSupervisor.MAX_BACKOFF_MS);
+        assertFalse(pool.isConnected(A));
+        assertFalse(board.link.hasObservers());
+        assertEquals(1, board.attempts.size());
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.whatapp.ble;
+
+import com.example.whatapp.wire.MacAddress;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DeviceRegistryTest {
+
+    private static final long TTL = 30_000;
+    private static final long A = MacAddress.parse("AA:00:00:00:00:01");
+    private static final long B = MacAddress.parse("AA:00:00:00:00:02");
+    private static final long C = MacAddress.parse("AA:00:00:00:00:03");
+
+    private final DeviceRegistry registry = new DeviceRegistry(TTL);
+
+    private void seen(long mac, String name, int rssi, long at) {
+        registry.seen(mac, name, null, rssi, rssi, at);
+    }
+
+    @Test
+    public void keyedByMacAndKeepsLatestNonNullName() {
+        seen(A, "board-a", -70, 1_000);
+        seen(A, null, -60, 2_000);
+        assertEquals(1, registry.size());
+        DeviceRegistry.Device d = registry.get(A);
+        assertEquals("board-a", d.getDisplayName());
+        assertEquals(-60, d.rssi);
+        assertEquals(2_000, d.lastSeenMs);
+
+        seen(B, null, -50, 2_000);
+        assertEquals("AA:00:00:00:00:02", registry.get(B).getDisplayName());
+    }
+
+    @Test
+    public void olderSightingDoesNotOverwriteNewer() {
+        seen(A, "a", -40, 5_000);
+        seen(A, "a", -90, 4_000);
+        assertEquals(-40, registry.get(A).rssi);
+    }
+
+    @Test
+    public void snapshotIsSortedByRssiOrRecency() {
+        seen(A, "a", -80, 3_000);
+        seen(B, "b", -40, 1_000);
+        seen(C, "c", -60, 2_000);
+
+        List<DeviceRegistry.Device> byRssi = registry.snapshot(DeviceRegistry.Order.RSSI);
+        assertEquals(B, byRssi.get(0).mac);
+        assertEquals(C, byRssi.get(1).mac);
+        assertEquals(A, byRssi.get(2).mac);
+
+        List<DeviceRegistry.Device> byRecent = registry.snapshot(DeviceRegistry.Order.RECENT);
+        assertEquals(A, byRecent.get(0).mac);
+        assertEquals(B, byRecent.get(2).mac);
+    }
+
+    @Test
+    public void staleDevicesAreEvictedUnlessConnected() {
+        seen(A, "a", -70, 0);
+        seen(B, "b", -70, 0);
+        seen(C, "c", -70, 20_000);
+        assertTrue(registry.setState(B, DeviceRegistry.State.CONNECTED));
+
+        assertEquals(0, registry.evictStale(TTL));
+        assertEquals(1, registry.evictStale(TTL + 1));
+        assertNull(registry.get(A));
+        assertNotNull(registry.get(B));
+        assertNotNull(registry.get(C));
+
+        registry.setState(B, DeviceRegistry.State.DISCOVERED);
+        assertEquals(1, registry.evictStale(TTL + 1));
+        assertNull(registry.get(B));
+    }
+
+    @Test
+    public void stateSurvivesNewSightings() {
+        seen(A, "a", -70, 0);
+        registry.setState(A, DeviceRegistry.State.CONNECTING);
+        seen(A, "a", -65, 100);
+        assertEquals(DeviceRegistry.State.CONNECTING, registry.get(A).state);
+        assertFalse(registry.setState(B, DeviceRegistry.State.CONNECTED));
+    }
+}
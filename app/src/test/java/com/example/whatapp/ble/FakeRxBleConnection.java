@@ -0,0 +1,172 @@
+package com.example.whatapp.ble;
+
+import com.polidea.rxandroidble3.LongWriteOperationBuilder;
+import com.polidea.rxandroidble3.RxBleConnection;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.schedulers.TestScheduler;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+
+/**
+ * Scripted stand-in for {@link RxBleConnection} on the host JVM.
+ * <p>
+ * Only the calls the BLE layer makes are implemented; everything else throws.
+ * Each write completes after {@code writeLatencyMs} of virtual time on the
+ * supplied {@link TestScheduler}, and is recorded with its start time so tests
+ * can check ordering and pacing.
+ */
+final class FakeRxBleConnection {
+
+    static final class Write {
+        final UUID uuid;
+        final byte[] bytes;
+        final long startedAtMs;
+
+        Write(UUID uuid, byte[] bytes, long startedAtMs) {
+            this.uuid = uuid;
+            this.bytes = bytes;
+            this.startedAtMs = startedAtMs;
+        }
+    }
+
+    final List<Write> writes = Collections.synchronizedList(new ArrayList<>());
+    final PublishSubject<byte[]> notifications = PublishSubject.create();
+    final List<Integer> priorityRequests = Collections.synchronizedList(new ArrayList<>());
+
+    private final TestScheduler scheduler;
+    private final int grantedMtu;
+    private final long writeLatencyMs;
+    private int failNextWrites;
+    private int inFlight;
+    private int maxInFlight;
+
+    FakeRxBleConnection(TestScheduler scheduler, int grantedMtu, long writeLatencyMs) {
+        this.scheduler = scheduler;
+        this.grantedMtu = grantedMtu;
+        this.writeLatencyMs = writeLatencyMs;
+    }
+
+    void failNextWrites(int count) {
+        failNextWrites = count;
+    }
+
+    /** Highest number of writes that were outstanding at the same time. */
+    int maxConcurrentWrites() {
+        return maxInFlight;
+    }
+
+    /** All written bytes concatenated in write order. */
+    byte[] writtenStream() {
+        int total = 0;
+        synchronized (writes) {
+            for (Write w : writes) total += w.bytes.length;
+            byte[] out = new byte[total];
+            int pos = 0;
+            for (Write w : writes) {
+                System.arraycopy(w.bytes, 0, out, pos, w.bytes.length);
+                pos += w.bytes.length;
+            }
+            return out;
+        }
+    }
+
+    RxBleConnection asConnection() {
+        return (RxBleConnection) Proxy.newProxyInstance(
+                RxBleConnection.class.getClassLoader(),
+                new Class<?>[]{RxBleConnection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "requestMtu":
+                            return Single.just(Math.min((Integer) args[0], grantedMtu));
+                        case "getMtu":
+                            return grantedMtu;
+                        case "getCharacteristic":
+                            // No GATT objects on the JVM; BleLink falls back to UUID writes
+                            return Single.error(new UnsupportedOperationException("no GATT on JVM"));
+                        case "writeCharacteristic":
+                            return write((UUID) args[0], (byte[]) args[1]);
+                        case "createNewLongWriteBuilder":
+                            return longWriteBuilder();
+                        case "setupNotification":
+                            return Observable.just(notifications.hide());
+                        case "requestConnectionPriority":
+                            priorityRequests.add((Integer) args[0]);
+                            return Completable.complete();
+                        case "toString":
+                            return "FakeRxBleConnection";
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private Single<byte[]> write(UUID uuid, byte[] bytes) {
+        return Single.defer(() -> {
+            synchronized (this) {
+                inFlight++;
+                maxInFlight = Math.max(maxInFlight, inFlight);
+            }
+            writes.add(new Write(uuid, bytes.clone(), scheduler.now(TimeUnit.MILLISECONDS)));
+            boolean fail;
+            synchronized (this) {
+                fail = failNextWrites > 0;
+                if (fail) failNextWrites--;
+            }
+            Single<byte[]> result = fail
+                    ? Single.<byte[]>error(new IllegalStateException("GATT_ERROR"))
+                    : Single.just(bytes);
+            return result.delay(writeLatencyMs, TimeUnit.MILLISECONDS, scheduler, true)
+                    .doOnEvent((value, error) -> {
+                        synchronized (this) {
+                            inFlight--;
+                        }
+                    });
+        });
+    }
+
+    private LongWriteOperationBuilder longWriteBuilder() {
+        final UUID[] uuid = new UUID[1];
+        final byte[][] bytes = new byte[1][];
+        final int[] batch = {grantedMtu - 3};
+        return (LongWriteOperationBuilder) Proxy.newProxyInstance(
+                LongWriteOperationBuilder.class.getClassLoader(),
+                new Class<?>[]{LongWriteOperationBuilder.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "setCharacteristicUuid":
+                            uuid[0] = (UUID) args[0];
+                            return proxy;
+                        case "setBytes":
+                            bytes[0] = (byte[]) args[0];
+                            return proxy;
+                        case "setMaxBatchSize":
+                            batch[0] = (Integer) args[0];
+                            return proxy;
+                        case "build":
+                            List<byte[]> parts = new ArrayList<>();
+                            for (int i = 0; i < bytes[0].length; i += batch[0]) {
+                                parts.add(Arrays.copyOfRange(bytes[0], i,
+                                        Math.min(bytes[0].length, i + batch[0])));
+                            }
+                            return Observable.fromIterable(parts)
+                                    .concatMapSingle(part -> write(uuid[0], part));
+                        default:
+                            return proxy;
+                    }
+                });
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.whatapp.ble;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Throughput comparison between {@link FrameAssembler} and the previous
+ * "append, decode everything, count braces" loop from ChatFragment.
+ * <p>
+ * Not a unit test; run {@code main} from the IDE on the host JVM.
+ */
+public final class FrameAssemblerBenchmark {
+
+    private static final int[] NOTIFICATION_SIZES = {20, 60, 125, 244, 500};
+    private static final int[] FRAME_SIZES = {128, 1024, 8192};
+    private static final int ROUNDS = 5;
+
+    private FrameAssemblerBenchmark() { }
+
+    public static void main(String[] args) {
+        System.out.println("frameBytes notifBytes  assembler(MB/s)  legacy(MB/s)");
+        for (int frameSize : FRAME_SIZES) {
+            byte[] stream = buildStream(frameSize, 256 * 1024);
+            for (int notif : NOTIFICATION_SIZES) {
+                byte[][] chunks = slice(stream, notif);
+                double fast = best(() -> runAssembler(chunks), stream.length);
+                double legacy = best(() -> runLegacy(chunks), stream.length);
+                System.out.printf("%10d %10d %16.1f %13.1f%n", frameSize, notif, fast, legacy);
+            }
+        }
+    }
+
+    private static byte[] buildStream(int frameSize, int total) {
+        StringBuilder body = new StringBuilder();
+        while (body.length() < frameSize - 80) body.append("text with {braces} and \\\"quotes\\\" ");
+        String frame = "{\"sender_mac\":\"AA:BB:CC:DD:EE:FF\",\"group_id\":\"g1\",\"message\":\""
+                + body + "\"}";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] one = frame.getBytes(StandardCharsets.UTF_8);
+        while (out.size() < total) out.write(one, 0, one.length);
+        return out.toByteArray();
+    }
+
+    private static byte[][] slice(byte[] stream, int size) {
+        byte[][] chunks = new byte[(stream.length + size - 1) / size][];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = Arrays.copyOfRange(stream, i * size, Math.min(stream.length, (i + 1) * size));
+        }
+        return chunks;
+    }
+
+    private static long runAssembler(byte[][] chunks) {
+        FrameAssembler assembler = new FrameAssembler(64 * 1024);
+        final long[] frames = new long[1];
+        FrameAssembler.FrameSink sink = (buffer, offset, length) -> frames[0]++;
+        for (byte[] chunk : chunks) assembler.feed(chunk, 0, chunk.length, sink);
+        return frames[0];
+    }
+
+    /** The pre-assembler approach, kept here only as a baseline. */
+    private static long runLegacy(byte[][] chunks) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        long frames = 0;
+        for (byte[] chunk : chunks) {
+            buffer.write(chunk, 0, chunk.length);
+            String current = new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+            int braces = 0;
+            for (char c : current.toCharArray()) {
+                if (c == '{') braces++;
+                else if (c == '}') braces--;
+            }
+            if (braces == 0 && current.trim().endsWith("}")) {
+                frames++;
+                buffer.reset();
+            }
+        }
+        return frames;
+    }
+
+    private interface Run {
+        long run();
+    }
+
+    private static double best(Run run, int bytes) {
+        long sink = 0;
+        double bestMbPerSec = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            sink += run.run();
+            long elapsed = System.nanoTime() - start;
+            bestMbPerSec = Math.max(bestMbPerSec, bytes / (elapsed / 1e9) / (1024 * 1024));
+        }
+        if (sink < 0) System.out.println(sink);
+        return bestMbPerSec;
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.whatapp.ble;
+
+import com.example.whatapp.wire.BinaryCodec;
+import com.example.whatapp.wire.WireCodecs;
+import com.example.whatapp.wire.WireMessage;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameAssemblerTest {
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Feeds data in slices of {@code chunk} bytes and returns every frame emitted. */
+    private static List<String> feedChunked(FrameAssembler assembler, byte[] data, int chunk) {
+        List<String> frames = new ArrayList<>();
+        for (int i = 0; i < data.length; i += chunk) {
+            byte[] slice = Arrays.copyOfRange(data, i, Math.min(data.length, i + chunk));
+            frames.addAll(assembler.feed(slice));
+        }
+        return frames;
+    }
+
+    @Test
+    public void singleFrameInOneNotification() {
+        FrameAssembler assembler = new FrameAssembler();
+        List<String> frames = assembler.feed(utf8("{\"message\":\"hi\"}"));
+        assertEquals(Arrays.asList("{\"message\":\"hi\"}"), frames);
+        assertFalse(assembler.hasPartialFrame());
+    }
+
+    @Test
+    public void frameSplitAcrossNotifications() {
+        String json = "{\"sender_mac\":\"AA:BB:CC:DD:EE:FF\",\"message\":\"hello there\",\"latitude\":12.5}";
+        for (int chunk = 1; chunk <= 20; chunk++) {
+            List<String> frames = feedChunked(new FrameAssembler(), utf8(json), chunk);
+            assertEquals("chunk=" + chunk, Arrays.asList(json), frames);
+        }
+    }
+
+    @Test
+    public void severalFramesInOneNotification() {
+        FrameAssembler assembler = new FrameAssembler();
+        List<String> frames = assembler.feed(utf8("{\"a\":1}{\"b\":2}\n{\"c\":{\"d\":3}}"));
+        assertEquals(Arrays.asList("{\"a\":1}", "{\"b\":2}", "{\"c\":{\"d\":3}}"), frames);
+    }
+
+    @Test
+    public void bracesInsideStringsDoNotEndFrame() {
+        String json = "{\"message\":\"smile :} or {not\",\"type\":\"chat\"}";
+        assertEquals(Arrays.asList(json), feedChunked(new FrameAssembler(), utf8(json), 3));
+    }
+
+    @Test
+    public void escapedQuotesAreHonoured() {
+        String json = "{\"message\":\"she said \\\"}\\\" then \\\\\",\"x\":1}";
+        assertEquals(Arrays.asList(json), feedChunked(new FrameAssembler(), utf8(json), 2));
+    }
+
+    @Test
+    public void multiByteSequenceSplitBetweenNotifications() {
+        String json = "{\"message\":\"caf\u00e9 \u2603 \ud83d\ude00\"}";
+        byte[] data = utf8(json);
+        for (int chunk = 1; chunk <= 7; chunk++) {
+            assertEquals("chunk=" + chunk, Arrays.asList(json), feedChunked(new FrameAssembler(), data, chunk));
+        }
+    }
+
+    @Test
+    public void noiseBetweenFramesIsSkipped() {
+        FrameAssembler assembler = new FrameAssembler();
+        List<String> frames = assembler.feed(utf8("OK\r\n{\"a\":1} > {\"b\":2}"));
+        assertEquals(Arrays.asList("{\"a\":1}", "{\"b\":2}"), frames);
+        assertEquals(3, assembler.getBytesSkipped());
+    }
+
+    @Test
+    public void highBytesThatAreNotMarkersAreNoise() {
+        FrameAssembler assembler = new FrameAssembler();
+        // "é", a stray 0xFF and a continuation byte: none may start a length-prefixed frame
+        byte[] noise = {(byte) 0xC3, (byte) 0xA9, (byte) 0xFF, (byte) 0x85};
+        byte[] json = utf8("{\"a\":1}");
+        byte[] data = Arrays.copyOf(noise, noise.length + json.length);
+        System.arraycopy(json, 0, data, noise.length, json.length);
+        assertEquals(Arrays.asList("{\"a\":1}"), assembler.feed(data));
+        assertEquals(4, assembler.getBytesSkipped());
+        assertFalse(assembler.hasPartialFrame());
+    }
+
+    @Test
+    public void partialChunkReturnsSharedEmptyList() {
+        FrameAssembler assembler = new FrameAssembler();
+        List<String> first = assembler.feed(utf8("{\"a\":"));
+        List<String> second = assembler.feed(utf8("\"b"));
+        assertTrue(first.isEmpty());
+        assertSame(first, second);
+        assertTrue(assembler.hasPartialFrame());
+    }
+
+    @Test
+    public void oversizedFrameIsDroppedAndStreamResyncs() {
+        FrameAssembler assembler = new FrameAssembler(16);
+        List<String> frames = new ArrayList<>();
+        frames.addAll(assembler.feed(utf8("{\"message\":\"0123")));
+        frames.addAll(assembler.feed(utf8("456789abcdef\"}")));
+        frames.addAll(assembler.feed(utf8("{\"ok\":1}")));
+        assertEquals(Arrays.asList("{\"ok\":1}"), frames);
+        assertEquals(1, assembler.getFramesDropped());
+    }
+
+    @Test
+    public void sinkReceivesSliceWithoutCopyForContainedFrame() {
+        FrameAssembler assembler = new FrameAssembler();
+        final byte[] notification = utf8("  {\"a\":1}");
+        final int[] seen = new int[3];
+        assembler.feed(notification, 0, notification.length, (buffer, offset, length) -> {
+            seen[0] = buffer == notification ? 1 : 0;
+            seen[1] = offset;
+            seen[2] = length;
+        });
+        assertArrayEquals(new int[]{1, 2, 7}, seen);
+    }
+
+    @Test
+    public void resetDiscardsPartialFrame() {
+        FrameAssembler assembler = new FrameAssembler();
+        assembler.feed(utf8("{\"message\":\"half"));
+        assembler.reset();
+        assertEquals(Arrays.asList("{\"b\":2}"), assembler.feed(utf8("{\"b\":2}")));
+    }
+
+    @Test
+    public void binaryFramesAreCutByLengthPrefix() {
+        WireMessage m = WireMessage.builder().text("{not json}").location(1.5, 2.5).build();
+        byte[] binary = BinaryCodec.INSTANCE.encode(m);
+        byte[] json = utf8("{\"message\":\"after\"}");
+        byte[] stream = new byte[binary.length * 2 + json.length];
+        System.arraycopy(binary, 0, stream, 0, binary.length);
+        System.arraycopy(json, 0, stream, binary.length, json.length);
+        System.arraycopy(binary, 0, stream, binary.length + json.length, binary.length);
+
+        for (int chunk = 1; chunk <= stream.length; chunk++) {
+            final List<WireMessage> decoded = new ArrayList<>();
+            FrameAssembler assembler = new FrameAssembler();
+            for (int i = 0; i < stream.length; i += chunk) {
+                byte[] slice = Arrays.copyOfRange(stream, i, Math.min(stream.length, i + chunk));
+                assembler.feed(slice, 0, slice.length,
+                        (buffer, offset, length) -> decoded.add(WireCodecs.decode(buffer, offset, length)));
+            }
+            assertEquals("chunk=" + chunk, 3, decoded.size());
+            assertEquals(m, decoded.get(0));
+            assertEquals("after", decoded.get(1).getText());
+            assertEquals(m, decoded.get(2));
+        }
+    }
+
+    @Test
+    public void oversizedBinaryFrameIsSkippedWithoutScanningItsBody() {
+        FrameAssembler assembler = new FrameAssembler(8);
+        // Marker, length 10, and a body that looks like JSON
+        byte[] big = new byte[12];
+        big[0] = BinaryCodec.MARKER;
+        big[1] = 10;
+        System.arraycopy(utf8("{\"a\":1}{}"), 0, big, 2, 9);
+        assertTrue(assembler.feed(big).isEmpty());
+        assertEquals(Arrays.asList("{\"ok\":1}"), assembler.feed(utf8("{\"ok\":1}")));
+        assertEquals(1, assembler.getFramesDropped());
+    }
+}
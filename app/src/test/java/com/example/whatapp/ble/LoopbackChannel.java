@@ -0,0 +1,82 @@
+package com.example.whatapp.ble;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.rxjava3.core.Completable;
+import io.reactivex.rxjava3.schedulers.TestScheduler;
+
+/**
+ * One direction of a simulated BLE link between two {@link ReliableTransport}s
+ * on the host JVM.
+ * <p>
+ * Writes leave one at a time, {@code writeIntervalMs} apart, and reach the peer
+ * {@code latencyMs} after leaving unless they are lost. Loss is random with the
+ * given probability, forced for specific write indices, or total while the
+ * link is {@link #stalled}. All timing is in
+ * virtual time on the supplied {@link TestScheduler}.
+ */
+final class LoopbackChannel implements ReliableTransport.Channel {
+
+    private final TestScheduler scheduler;
+    private final Random random;
+    private final double loss;
+    private final long latencyMs;
+    private final long writeIntervalMs;
+    private final int payloadSize;
+    private final Set<Integer> forcedDrops = new HashSet<>();
+
+    private ReliableTransport peer;
+    private long nextFreeMs;
+    int writes;
+    int dropped;
+    long bytesWritten;
+    /** Loses every write while set, as when the peer is out of range. */
+    boolean stalled;
+
+    LoopbackChannel(TestScheduler scheduler, Random random, double loss, long latencyMs, long writeIntervalMs,
+                    int payloadSize) {
+        this.scheduler = scheduler;
+        this.random = random;
+        this.loss = loss;
+        this.latencyMs = latencyMs;
+        this.writeIntervalMs = writeIntervalMs;
+        this.payloadSize = payloadSize;
+    }
+
+    void connect(ReliableTransport peer) {
+        this.peer = peer;
+    }
+
+    /** Loses the writes with these indices, counted from 0. */
+    void drop(Integer... writeIndices) {
+        for (Integer i : writeIndices) forcedDrops.add(i);
+    }
+
+    @Override
+    public int payloadSize() {
+        return payloadSize;
+    }
+
+    @Override
+    public Completable write(byte[] frame) {
+        return Completable.defer(() -> {
+            long now = scheduler.now(TimeUnit.MILLISECONDS);
+            long departure = Math.max(now, nextFreeMs);
+            nextFreeMs = departure + writeIntervalMs;
+            int index = writes++;
+            bytesWritten += frame.length;
+            boolean lost = forcedDrops.remove(index) || stalled || random.nextDouble() < loss;
+            if (lost) {
+                dropped++;
+            } else {
+                byte[] copy = frame.clone();
+                scheduler.scheduleDirect(() -> peer.onFrame(copy, 0, copy.length),
+                        departure + latencyMs - now, TimeUnit.MILLISECONDS);
+            }
+            return Completable.timer(departure - now, TimeUnit.MILLISECONDS, scheduler);
+        });
+    }
+}
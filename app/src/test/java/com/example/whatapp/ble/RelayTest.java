@@ -0,0 +1,181 @@
+package com.example.whatapp.ble;
+
+import com.example.whatapp.wire.JsonCodec;
+import com.example.whatapp.wire.MacAddress;
+import com.example.whatapp.wire.WireMessage;
+import com.polidea.rxandroidble3.RxBleConnection;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.schedulers.TestScheduler;
+
+import static org.junit.Assert.*;
+
+public class RelayTest {
+
+    private static final UUID RX = UUID.fromString("6e400003-b5a3-f393-e0a9-e50e24dcca9e");
+    private static final UUID TX = UUID.fromString("6e400002-b5a3-f393-e0a9-e50e24dcca9e");
+    private static final long A = MacAddress.parse("AA:00:00:00:00:01");
+    private static final long B = MacAddress.parse("AA:00:00:00:00:02");
+    private static final long C = MacAddress.parse("AA:00:00:00:00:03");
+
+    private final TestScheduler scheduler = new TestScheduler();
+    private final ConnectionPool pool = new ConnectionPool(RX, TX, 4);
+    private final Relay relay = new Relay(pool, 64, scheduler, new Random(3));
+    private final FakeRxBleConnection a = new FakeRxBleConnection(scheduler, 185, 5);
+    private final FakeRxBleConnection b = new FakeRxBleConnection(scheduler, 185, 5);
+    private final FakeRxBleConnection c = new FakeRxBleConnection(scheduler, 185, 5);
+    private final List<ConnectionPool.Inbound> delivered = new ArrayList<>();
+
+    @Before
+    public void connectBoards() {
+        connect(A, a);
+        connect(B, b);
+        connect(C, c);
+        pool.inbound().filter(relay::offer).subscribe(delivered::add);
+        a.writes.clear();
+        b.writes.clear();
+        c.writes.clear();
+    }
+
+    private void connect(long mac, FakeRxBleConnection fake) {
+        pool.connect(mac, Observable.just(fake.asConnection())
+                .concatWith(Observable.<RxBleConnection>never())).test();
+        advance(100);
+    }
+
+    private void advance(long ms) {
+        scheduler.advanceTimeBy(ms, TimeUnit.MILLISECONDS);
+    }
+
+    private static void notify(FakeRxBleConnection board, WireMessage message) {
+        board.notifications.onNext(JsonCodec.INSTANCE.encode(message));
+    }
+
+    private static List<WireMessage> received(FakeRxBleConnection board) {
+        List<WireMessage> out = new ArrayList<>();
+        for (FakeRxBleConnection.Write w : board.writes) {
+            out.add(JsonCodec.INSTANCE.decode(new String(w.bytes, StandardCharsets.UTF_8)));
+        }
+        return out;
+    }
+
+    @Test
+    public void newFramesGoToTheOtherBoardsWithOneHopLess() {
+        relay.setEnabled(true);
+        notify(a, WireMessage.builder().text("over the ridge").msgId(42).hopLimit(2).build());
+        advance(100);
+
+        assertEquals(1, delivered.size());
+        assertTrue(a.writes.isEmpty());
+        WireMessage expected = WireMessage.builder().text("over the ridge").msgId(42).hopLimit(1).build();
+        assertEquals(expected, received(b).get(0));
+        assertEquals(expected, received(c).get(0));
+        Relay.Stats stats = relay.getStats();
+        assertEquals(1, stats.relayed);
+        assertEquals(2, stats.forwards);
+        assertEquals(100, stats.enabledMs);
+        assertEquals(10.0, stats.getThroughput(), 1e-9);
+    }
+
+    @Test
+    public void copiesArrivingFromSeveralBoardsAreDeliveredAndRelayedOnce() {
+        relay.setEnabled(true);
+        WireMessage m = WireMessage.builder().text("storm").msgId(7).hopLimit(3).build();
+        notify(a, m);
+        notify(b, m.toBuilder().hopLimit(2).build());
+        notify(c, m);
+        advance(100);
+
+        assertEquals(1, delivered.size());
+        assertEquals(1, received(b).size());
+        assertEquals(1, received(c).size());
+        Relay.Stats stats = relay.getStats();
+        assertEquals(3, stats.received);
+        assertEquals(2, stats.duplicates);
+        assertEquals(2 / 3.0, stats.getCacheHitRate(), 1e-9);
+    }
+
+    @Test
+    public void exhaustedHopLimitIsDeliveredButNotForwarded() {
+        relay.setEnabled(true);
+        notify(a, WireMessage.builder().text("last hop").msgId(9).hopLimit(0).build());
+        advance(100);
+
+        assertEquals(1, delivered.size());
+        assertTrue(b.writes.isEmpty());
+        assertEquals(1, relay.getStats().hopLimited);
+    }
+
+    @Test
+    public void legacyFramesGetAContentIdSoEchoesAreSuppressed() {
+        relay.setEnabled(true);
+        WireMessage legacy = WireMessage.builder().text("no id").build();
+        notify(a, legacy);
+        advance(100);
+        WireMessage relayed = received(b).get(0);
+        assertEquals(Relay.contentId(legacy), relayed.getMsgId());
+        assertEquals(Relay.DEFAULT_HOP_LIMIT - 1, relayed.getHopLimit());
+
+        // Another relay's copy is dropped; the same text again is delivered but not forwarded again
+        notify(b, relayed);
+        notify(c, legacy);
+        advance(100);
+        assertEquals(2, delivered.size());
+        assertEquals(1, received(b).size());
+        assertEquals(1, relay.getStats().relayed);
+    }
+
+    @Test
+    public void repeatedLegacyTextIsNeverDroppedWithRelayOff() {
+        WireMessage ok = WireMessage.builder().text("ok").build();
+        notify(a, ok);
+        notify(a, ok);
+        advance(100);
+
+        assertEquals(2, delivered.size());
+        assertEquals(0, relay.getStats().duplicates);
+        assertTrue(b.writes.isEmpty() && c.writes.isEmpty());
+    }
+
+    @Test
+    public void offByDefaultButStillDeduplicates() {
+        WireMessage m = WireMessage.builder().text("hi").msgId(5).build();
+        notify(a, m);
+        notify(b, m);
+        advance(100);
+
+        assertEquals(1, delivered.size());
+        assertTrue(b.writes.isEmpty() && c.writes.isEmpty());
+        assertEquals(0, relay.getStats().relayed);
+    }
+
+    @Test
+    public void echoOfOwnStampedFrameIsDropped() {
+        WireMessage out = relay.stamp(WireMessage.builder().text("mine").build());
+        assertNotEquals(WireMessage.NO_ID, out.getMsgId());
+        assertEquals(Relay.DEFAULT_HOP_LIMIT, out.getHopLimit());
+        notify(a, out);
+        assertTrue(delivered.isEmpty());
+    }
+
+    @Test
+    public void cacheRemembersAtLeastOneGeneration() {
+        DuplicateCache cache = new DuplicateCache(4);
+        for (int id = 1; id <= 4; id++) assertTrue(cache.add(id));
+        assertFalse(cache.add(1));
+        for (int id = 5; id <= 7; id++) assertTrue(cache.add(id));
+        assertFalse("still in the previous generation", cache.add(4));
+        assertTrue(cache.add(8));
+        assertTrue("forgotten after two rotations", cache.add(1));
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.whatapp.ble;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.rxjava3.schedulers.TestScheduler;
+
+/**
+ * Goodput of {@link ReliableTransport} over a {@link LoopbackChannel} for
+ * several windows and loss rates, in virtual time. Window 1 is the old
+ * stop-and-wait behaviour.
+ * <p>
+ * Not a unit test; run {@code main} from the IDE on the host JVM.
+ */
+public final class ReliableTransportBenchmark {
+
+    private static final int[] WINDOWS = {1, 4, 8, 16, 32};
+    private static final double[] LOSS = {0, 0.01, 0.05, 0.1, 0.2};
+    // 7.5 ms connection interval with a couple of packets per event
+    private static final long WRITE_INTERVAL_MS = 4;
+    private static final long LATENCY_MS = 30;
+    private static final int PAYLOAD = 244;
+    private static final int FRAMES = 500;
+    private static final int FRAME_SIZE = 180;
+
+    private ReliableTransportBenchmark() { }
+
+    public static void main(String[] args) {
+        System.out.print("window");
+        for (double loss : LOSS) System.out.printf("  loss %4.0f%%", loss * 100);
+        System.out.println("   (goodput KB/s)");
+        for (int window : WINDOWS) {
+            System.out.printf("%6d", window);
+            for (double loss : LOSS) System.out.printf("  %10.1f", goodput(window, loss));
+            System.out.println();
+        }
+    }
+
+    private static double goodput(int window, double loss) {
+        TestScheduler scheduler = new TestScheduler();
+        Random random = new Random(1);
+        LoopbackChannel toBoard = new LoopbackChannel(scheduler, random, loss, LATENCY_MS, WRITE_INTERVAL_MS, PAYLOAD);
+        LoopbackChannel toPhone = new LoopbackChannel(scheduler, random, loss, LATENCY_MS, WRITE_INTERVAL_MS, PAYLOAD);
+        long[] received = new long[1];
+        ReliableTransport phone = new ReliableTransport(toBoard, (b, off, len) -> { }, window, scheduler);
+        ReliableTransport board = new ReliableTransport(toPhone, (b, off, len) -> received[0] += len, window, scheduler);
+        toBoard.connect(board);
+        toPhone.connect(phone);
+
+        for (int i = 0; i < FRAMES; i++) phone.send(new byte[FRAME_SIZE]).subscribe(() -> { }, t -> { });
+        long elapsed = 0;
+        while (received[0] < (long) FRAMES * FRAME_SIZE && elapsed < 3_600_000) {
+            scheduler.advanceTimeBy(10, TimeUnit.MILLISECONDS);
+            elapsed += 10;
+        }
+        return received[0] / 1024.0 / (elapsed / 1000.0);
+    }
+}
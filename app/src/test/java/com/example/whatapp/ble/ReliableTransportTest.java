@@ -0,0 +1,166 @@
+package com.example.whatapp.ble;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.rxjava3.observers.TestObserver;
+import io.reactivex.rxjava3.schedulers.TestScheduler;
+
+import static org.junit.Assert.*;
+
+public class ReliableTransportTest {
+
+    // MTU 23: 20 byte writes, 14 bytes of frame per segment
+    private static final int PAYLOAD = 20;
+
+    private final TestScheduler scheduler = new TestScheduler();
+    private final List<byte[]> boardReceived = new ArrayList<>();
+    private final List<byte[]> phoneReceived = new ArrayList<>();
+    private LoopbackChannel toBoard;
+    private LoopbackChannel toPhone;
+    private ReliableTransport phone;
+    private ReliableTransport board;
+
+    private void link(int window, double loss, long latencyMs) {
+        Random random = new Random(42);
+        toBoard = new LoopbackChannel(scheduler, random, loss, latencyMs, 4, PAYLOAD);
+        toPhone = new LoopbackChannel(scheduler, random, loss, latencyMs, 4, PAYLOAD);
+        phone = new ReliableTransport(toBoard,
+                (b, off, len) -> phoneReceived.add(Arrays.copyOfRange(b, off, off + len)), window, scheduler);
+        board = new ReliableTransport(toPhone,
+                (b, off, len) -> boardReceived.add(Arrays.copyOfRange(b, off, off + len)), window, scheduler);
+        toBoard.connect(board);
+        toPhone.connect(phone);
+    }
+
+    private static byte[] frame(int i, int length) {
+        byte[] f = new byte[length];
+        for (int j = 0; j < length; j++) f[j] = (byte) (i * 31 + j);
+        return f;
+    }
+
+    private void advance(long ms) {
+        scheduler.advanceTimeBy(ms, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void deliversEveryFrameOnceAndInOrderDespiteLoss() {
+        link(8, 0.1, 30);
+        List<byte[]> sent = new ArrayList<>();
+        List<TestObserver<Void>> deliveries = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            byte[] f = frame(i, 1 + (i * 37) % 200);
+            sent.add(f);
+            deliveries.add(phone.send(f).test());
+        }
+        advance(120_000);
+
+        assertEquals(sent.size(), boardReceived.size());
+        for (int i = 0; i < sent.size(); i++) {
+            assertArrayEquals("frame " + i, sent.get(i), boardReceived.get(i));
+            deliveries.get(i).assertComplete();
+        }
+        assertTrue(phone.getStats().retransmissions > 0);
+        assertEquals(sent.size(), phone.getStats().framesDelivered);
+    }
+
+    @Test
+    public void windowKeepsTheLinkBusy() {
+        long stopAndWait = timeToDeliver(1, 40);
+        long windowed = timeToDeliver(8, 40);
+        assertTrue(stopAndWait + " vs " + windowed, windowed * 4 < stopAndWait);
+    }
+
+    private long timeToDeliver(int window, int frames) {
+        scheduler.advanceTimeBy(1, TimeUnit.HOURS);
+        boardReceived.clear();
+        link(window, 0, 40);
+        long start = scheduler.now(TimeUnit.MILLISECONDS);
+        boolean[] done = new boolean[1];
+        for (int i = 0; i < frames - 1; i++) phone.send(frame(i, 14)).test();
+        phone.send(frame(frames - 1, 14)).subscribe(() -> done[0] = true);
+        while (!done[0]) advance(1);
+        assertEquals(frames, boardReceived.size());
+        return scheduler.now(TimeUnit.MILLISECONDS) - start;
+    }
+
+    @Test
+    public void selectiveAckResendsOnlyTheHole() {
+        link(8, 0, 30);
+        // Write 1 is the second segment of the frame
+        toBoard.drop(1);
+        TestObserver<Void> delivery = phone.send(frame(0, 14 * 6)).test();
+        advance(5_000);
+
+        delivery.assertComplete();
+        assertEquals(1, boardReceived.size());
+        assertEquals(7, phone.getStats().segmentsSent);
+        assertEquals(1, phone.getStats().retransmissions);
+    }
+
+    @Test
+    public void lostAckIsRecoveredByTimeoutWithoutDuplicateDelivery() {
+        link(4, 0, 30);
+        // The pair of segments is acked once, and that ack is lost
+        toPhone.drop(0);
+        TestObserver<Void> delivery = phone.send(frame(0, 28)).test();
+        advance(ReliableTransport.INITIAL_RTO_MS);
+        delivery.assertNotComplete();
+        advance(5_000);
+
+        delivery.assertComplete();
+        assertEquals(1, boardReceived.size());
+        assertTrue(board.getStats().duplicatesReceived > 0);
+    }
+
+    @Test
+    public void deliveryFailsWhenThePeerStopsAnswering() {
+        link(4, 1.0, 30);
+        TestObserver<Void> delivery = phone.send(frame(0, 10)).test();
+        advance(10 * ReliableTransport.MAX_RTO_MS * ReliableTransport.MAX_TRANSMISSIONS);
+
+        delivery.assertError(ReliableTransport.DeliveryFailedException.class);
+        assertEquals(ReliableTransport.MAX_TRANSMISSIONS, phone.getStats().segmentsSent);
+        // The next frame gets attempts of its own
+        phone.send(frame(1, 10)).test().assertNoErrors();
+    }
+
+    @Test
+    public void staysUsableAfterAStall() {
+        link(4, 0, 30);
+        // Only the first of three segments arrives before the board goes out of range
+        toBoard.drop(1, 2);
+        TestObserver<Void> lost = phone.send(frame(0, 14 * 3)).test();
+        toBoard.stalled = true;
+        toPhone.stalled = true;
+        advance(10 * ReliableTransport.MAX_RTO_MS * ReliableTransport.MAX_TRANSMISSIONS);
+        lost.assertError(ReliableTransport.DeliveryFailedException.class);
+        assertEquals(ReliableTransport.INITIAL_RTO_MS, phone.getStats().rtoMs);
+
+        toBoard.stalled = false;
+        toPhone.stalled = false;
+        TestObserver<Void> sent = phone.send(frame(1, 14 * 2)).test();
+        TestObserver<Void> received = board.send(frame(2, 20)).test();
+        advance(2000);
+
+        sent.assertComplete();
+        received.assertComplete();
+        // The half frame from before the stall is dropped, not glued to the next one
+        assertEquals(1, boardReceived.size());
+        assertArrayEquals(frame(1, 14 * 2), boardReceived.get(0));
+        assertEquals(1, phoneReceived.size());
+        assertArrayEquals(frame(2, 20), phoneReceived.get(0));
+    }
+
+    @Test
+    public void sequenceNumbersCompareAcrossWrap() {
+        assertEquals(1, ReliableTransport.diff(0, 0xFFFF));
+        assertEquals(-1, ReliableTransport.diff(0xFFFF, 0));
+        assertEquals(ReliableTransport.SACK_BITS, ReliableTransport.diff(10, 10 - ReliableTransport.SACK_BITS & 0xFFFF));
+    }
+}
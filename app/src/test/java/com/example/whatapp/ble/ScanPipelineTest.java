@@ -0,0 +1,87 @@
+package com.example.whatapp.ble;
+
+import com.example.whatapp.wire.MacAddress;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.rxjava3.observers.TestObserver;
+import io.reactivex.rxjava3.schedulers.TestScheduler;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+
+import static org.junit.Assert.*;
+
+public class ScanPipelineTest {
+
+    private static final long WINDOW = 10_000;
+    private static final long UI = 250;
+
+    private final TestScheduler scheduler = new TestScheduler();
+    private final PublishSubject<ScanPipeline.Sighting> radio = PublishSubject.create();
+
+    private TestObserver<ScanPipeline.Snapshot> scan(String target) {
+        return ScanPipeline.aggregate(radio, MacAddress.parse(target), WINDOW, UI, scheduler).test();
+    }
+
+    private void advert(String mac, int rssi) {
+        radio.onNext(new ScanPipeline.Sighting(MacAddress.parse(mac), "board", rssi, null));
+        scheduler.triggerActions();
+    }
+
+    @Test
+    public void burstsAreBatchedIntoCappedUpdates() {
+        TestObserver<ScanPipeline.Snapshot> updates = scan(null);
+        // 1000 adverts from 10 boards within one second
+        for (int i = 0; i < 1000; i++) {
+            advert("AA:00:00:00:00:0" + (i % 10), -50 - (i % 7));
+            if (i % 250 == 249) scheduler.advanceTimeBy(UI, TimeUnit.MILLISECONDS);
+        }
+        assertTrue("updates " + updates.values().size(), updates.values().size() <= 1000 / 250 + 2);
+        ScanPipeline.Snapshot last = updates.values().get(updates.values().size() - 1);
+        assertEquals(10, last.peers.size());
+    }
+
+    @Test
+    public void devicesAreDedupedAndRssiSmoothedStrongestFirst() {
+        TestObserver<ScanPipeline.Snapshot> updates = scan(null);
+        advert("AA:00:00:00:00:01", -80);
+        advert("AA:00:00:00:00:02", -60);
+        advert("AA:00:00:00:00:01", -40);
+        scheduler.advanceTimeBy(WINDOW, TimeUnit.MILLISECONDS);
+
+        updates.assertComplete();
+        ScanPipeline.Snapshot last = updates.values().get(updates.values().size() - 1);
+        assertEquals(2, last.peers.size());
+        ScanPipeline.Peer weak = last.peers.get(1);
+        assertEquals(MacAddress.parse("AA:00:00:00:00:01"), weak.mac);
+        assertEquals(-40, weak.rssi);
+        assertEquals(-70.0, weak.smoothedRssi, 0.001);
+        assertEquals(2, weak.sightings);
+    }
+
+    @Test
+    public void stopsAfterTheWindow() {
+        TestObserver<ScanPipeline.Snapshot> updates = scan(null);
+        advert("AA:00:00:00:00:01", -70);
+        scheduler.advanceTimeBy(WINDOW - 1, TimeUnit.MILLISECONDS);
+        updates.assertNotComplete();
+        assertTrue(radio.hasObservers());
+        scheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+        updates.assertComplete();
+        assertFalse("radio released", radio.hasObservers());
+    }
+
+    @Test
+    public void stopsAsSoonAsTargetIsSeen() {
+        TestObserver<ScanPipeline.Snapshot> updates = scan("aa:00:00:00:00:09");
+        advert("AA:00:00:00:00:01", -70);
+        advert("AA:00:00:00:00:09", -75);
+        scheduler.triggerActions();
+        updates.assertComplete();
+        assertFalse(radio.hasObservers());
+        ScanPipeline.Snapshot last = updates.values().get(updates.values().size() - 1);
+        assertTrue(last.targetFound);
+        assertEquals(2, last.peers.size());
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.whatapp.ble;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.rxjava3.observers.TestObserver;
+import io.reactivex.rxjava3.schedulers.TestScheduler;
+
+import static org.junit.Assert.*;
+
+public class TxQueueTest {
+
+    private static final UUID RX = UUID.fromString("6e400003-b5a3-f393-e0a9-e50e24dcca9e");
+
+    private TestScheduler scheduler;
+    private FakeRxBleConnection fake;
+    private TxQueue queue;
+
+    @Before
+    public void setUp() {
+        scheduler = new TestScheduler();
+        // MTU 23 -> 20 byte payloads, 10 ms per write
+        fake = new FakeRxBleConnection(scheduler, 23, 10);
+        BleLink link = new BleLink(fake.asConnection(), RX);
+        link.negotiateMtu().test().assertValue(23);
+        queue = new TxQueue(link, 64, scheduler);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void framesAreWrittenInOrderWithoutOverlap() {
+        TestObserver<Void> a = queue.send(bytes("{\"m\":\"first frame\"}")).test();
+        TestObserver<Void> b = queue.send(bytes("{\"m\":\"second one!\"}")).test();
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+
+        a.assertComplete();
+        b.assertComplete();
+        assertEquals(1, fake.maxConcurrentWrites());
+        assertArrayEquals(bytes("{\"m\":\"first frame\"}{\"m\":\"second one!\"}"), fake.writtenStream());
+        // Each write waits for the previous one to finish
+        for (int i = 1; i < fake.writes.size(); i++) {
+            assertTrue(fake.writes.get(i).startedAtMs >= fake.writes.get(i - 1).startedAtMs + 10);
+        }
+    }
+
+    @Test
+    public void largeFramesAreNotInterleavedWithLaterFrames() {
+        byte[] big = new byte[70];
+        Arrays.fill(big, (byte) 'x');
+        queue.send(big).test();
+        queue.send(bytes("{\"m\":1}")).test();
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+
+        byte[] expected = new byte[77];
+        System.arraycopy(big, 0, expected, 0, 70);
+        System.arraycopy(bytes("{\"m\":1}"), 0, expected, 70, 7);
+        assertArrayEquals(expected, fake.writtenStream());
+        // 70 bytes as 4 long-write batches, then the small frame
+        assertEquals(5, fake.writes.size());
+    }
+
+    @Test
+    public void pendingSmallFramesAreCoalesced() {
+        // The first write is in flight, the next three wait and share one packet
+        queue.send(bytes("{\"a\":1}")).test();
+        queue.send(bytes("{\"b\":2}")).test();
+        queue.send(bytes("{\"c\":3}")).test();
+        queue.send(bytes("{\"d\":4}")).test();
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+
+        assertEquals(3, fake.writes.size());
+        assertArrayEquals(bytes("{\"a\":1}"), fake.writes.get(0).bytes);
+        assertArrayEquals(bytes("{\"b\":2}{\"c\":3}"), fake.writes.get(1).bytes);
+        assertArrayEquals(bytes("{\"d\":4}"), fake.writes.get(2).bytes);
+        assertEquals(4, queue.getStats().framesSent);
+    }
+
+    @Test
+    public void fullQueueRejectsNewFrames() {
+        queue.send(new byte[40]).test();
+        queue.send(new byte[40]).test();
+        queue.send(new byte[20]).test();
+        TestObserver<Void> rejected = queue.send(new byte[30]).test();
+
+        rejected.assertError(TxQueue.QueueFullException.class);
+        assertTrue(queue.getStats().isSaturated());
+    }
+
+    @Test
+    public void statsReportDepthAndDrainRate() {
+        queue.send(new byte[20]).test();
+        queue.send(new byte[20]).test();
+        assertEquals(1, queue.getStats().pendingFrames);
+        assertEquals(20, queue.getStats().pendingBytes);
+
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        TxQueue.Stats stats = queue.getStats();
+        assertEquals(0, stats.pendingFrames);
+        assertEquals(40, stats.bytesSent);
+        // 20 bytes per 10 ms
+        assertEquals(2000.0, stats.drainRate, 1.0);
+    }
+
+    @Test
+    public void failedWriteFailsItsFramesAndQueueKeepsDraining() {
+        fake.failNextWrites(1);
+        TestObserver<Void> a = queue.send(bytes("{\"a\":1}")).test();
+        TestObserver<Void> b = queue.send(bytes("{\"b\":2}")).test();
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+
+        a.assertError(IllegalStateException.class);
+        b.assertComplete();
+        assertEquals(1, queue.getStats().failures);
+    }
+
+    @Test
+    public void cancelledFrameIsNeverWritten() {
+        queue.send(bytes("{\"a\":1}")).test();
+        TestObserver<Void> b = queue.send(bytes("{\"b\":2}")).test();
+        b.dispose();
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+
+        assertArrayEquals(bytes("{\"a\":1}"), fake.writtenStream());
+    }
+
+    @Test
+    public void disposeFailsPendingFrames() {
+        queue.send(bytes("{\"a\":1}")).test();
+        TestObserver<Void> b = queue.send(bytes("{\"b\":2}")).test();
+        queue.dispose();
+
+        b.assertError(IllegalStateException.class);
+        queue.send(bytes("{\"c\":3}")).test().assertError(IllegalStateException.class);
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.whatapp.data;
+
+import com.example.whatapp.ChatMessage;
+import com.example.whatapp.wire.MacAddress;
+import com.example.whatapp.wire.WireMessage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.rxjava3.schedulers.TestScheduler;
+
+import static org.junit.Assert.*;
+
+public class ChatLogTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private final TestScheduler scheduler = new TestScheduler();
+
+    private ChatLog open() throws IOException {
+        return ChatLog.open(folder.getRoot(), "Board #1", scheduler);
+    }
+
+    private static ChatMessage text(int i) {
+        return new ChatMessage("TX: message " + i, true, "Me", "SELF", false, "");
+    }
+
+    private File file(String ext) {
+        return new File(folder.getRoot(), ChatLog.fileName("Board #1") + ext);
+    }
+
+    @Test
+    public void appendsAndReadsByPosition() throws IOException {
+        try (ChatLog log = open()) {
+            for (int i = 0; i < 100; i++) assertEquals(i, log.append(text(i)));
+            assertEquals(100, log.size());
+            assertEquals("TX: message 42", log.read(42).getMessage());
+            List<ChatMessage> page = log.read(90, 10);
+            assertEquals(10, page.size());
+            assertEquals("TX: message 90", page.get(0).getMessage());
+            assertEquals("TX: message 99", page.get(9).getMessage());
+            assertTrue(page.get(9).isSent());
+        }
+    }
+
+    @Test
+    public void decodedPayloadSurvivesReopen() throws IOException {
+        WireMessage payload = WireMessage.builder()
+                .type(WireMessage.TYPE_MESSAGE)
+                .senderMac(MacAddress.parse("A4:CF:12:9B:00:7E"))
+                .groupId("g1")
+                .text("caf\u00e9 at the gate")
+                .location(12.971599, 77.594566)
+                .build();
+        try (ChatLog log = open()) {
+            log.append(new ChatMessage(payload, false, "Device", "A4:CF:12:9B:00:7E"));
+            log.append(new ChatMessage("plain", false, null, "DEVICE", false, null));
+        }
+        try (ChatLog log = open()) {
+            assertEquals(2, log.size());
+            ChatMessage first = log.read(0);
+            assertEquals(payload, first.getPayload());
+            assertEquals("Device", first.getSenderName());
+            assertTrue(first.isGroupMessage());
+            ChatMessage second = log.read(1);
+            assertNull(second.getPayload());
+            assertNull(second.getSenderName());
+            assertNull(second.getGroupId());
+            assertEquals(0, log.getTruncatedBytes());
+        }
+    }
+
+    @Test
+    public void tornTailRecordIsTruncated() throws IOException {
+        try (ChatLog log = open()) {
+            for (int i = 0; i < 5; i++) log.append(text(i));
+        }
+        long intact = file(".log").length();
+        try (RandomAccessFile raf = new RandomAccessFile(file(".log"), "rw")) {
+            raf.setLength(intact - 3);
+        }
+        try (ChatLog log = open()) {
+            assertEquals(4, log.size());
+            assertTrue(log.getTruncatedBytes() > 0);
+            assertEquals("TX: message 3", log.read(3).getMessage());
+            assertEquals(4, log.append(text(99)));
+            assertEquals("TX: message 99", log.read(4).getMessage());
+        }
+        try (ChatLog log = open()) {
+            assertEquals(5, log.size());
+            assertEquals(0, log.getTruncatedBytes());
+        }
+    }
+
+    @Test
+    public void corruptTailIsDroppedByChecksum() throws IOException {
+        try (ChatLog log = open()) {
+            for (int i = 0; i < 3; i++) log.append(text(i));
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file(".log"), "rw")) {
+            raf.seek(raf.length() - 1);
+            raf.write('#');
+        }
+        try (ChatLog log = open()) {
+            assertEquals(2, log.size());
+            assertEquals("TX: message 1", log.read(1).getMessage());
+        }
+    }
+
+    @Test
+    public void indexIsRebuiltFromSegment() throws IOException {
+        try (ChatLog log = open()) {
+            for (int i = 0; i < 10; i++) log.append(text(i));
+        }
+        // Crash after the segment write but before the index caught up
+        try (RandomAccessFile raf = new RandomAccessFile(file(".idx"), "rw")) {
+            raf.setLength(4 * 8 + 5);
+        }
+        try (ChatLog log = open()) {
+            assertEquals(10, log.size());
+            assertEquals("TX: message 9", log.read(9).getMessage());
+        }
+        assertEquals(10 * 8, file(".idx").length());
+    }
+
+    @Test
+    public void syncIsBatched() throws IOException {
+        try (ChatLog log = open()) {
+            log.append(text(0));
+            log.append(text(1));
+            assertEquals(2, log.getUnsynced());
+            scheduler.advanceTimeBy(ChatLog.SYNC_DELAY_MS, TimeUnit.MILLISECONDS);
+            assertEquals(0, log.getUnsynced());
+
+            for (int i = 0; i < ChatLog.SYNC_BATCH - 1; i++) log.append(text(i));
+            assertEquals(ChatLog.SYNC_BATCH - 1, log.getUnsynced());
+            log.append(text(0));
+            assertEquals(0, log.getUnsynced());
+        }
+    }
+
+    @Test
+    public void conversationsAreKeptApart() throws IOException {
+        try (ChatLog a = ChatLog.open(folder.getRoot(), "a/b", scheduler);
+             ChatLog b = ChatLog.open(folder.getRoot(), "a_b", scheduler)) {
+            a.append(text(1));
+            assertEquals(0, b.size());
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void readPastEndIsRejected() throws IOException {
+        try (ChatLog log = open()) {
+            log.append(text(0));
+            log.read(1);
+        }
+    }
+}
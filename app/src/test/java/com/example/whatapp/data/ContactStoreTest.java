@@ -0,0 +1,143 @@
+package com.example.whatapp.data;
+
+import com.example.whatapp.ChatsModel;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import io.reactivex.rxjava3.schedulers.Schedulers;
+
+import static org.junit.Assert.*;
+
+public class ContactStoreTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file() {
+        return new File(folder.getRoot(), ContactStore.FILE_NAME);
+    }
+
+    private ContactStore open() {
+        return new ContactStore(file(), Schedulers.trampoline());
+    }
+
+    @Test
+    public void duplicatesAreRejectedIgnoringCase() {
+        ContactStore store = open();
+        assertNotNull(store.add("Alice"));
+        assertNull(store.add("alice "));
+        assertNull(store.add("   "));
+        assertTrue(store.contains("ALICE"));
+        assertEquals("Alice", store.find("aLiCe").getName());
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void changesSurviveReopenInOrder() {
+        ContactStore store = open();
+        store.addAll(Arrays.asList("Alice", "Bob", "Carol", "bob"));
+        assertTrue(store.remove("alice"));
+        assertNotNull(store.add("Dave"));
+
+        ContactStore reopened = open();
+        assertEquals(3, reopened.size());
+        assertEquals("Bob", reopened.getAll().get(0).getName());
+        assertEquals("Dave", reopened.getAll().get(2).getName());
+        assertFalse(reopened.contains("Alice"));
+    }
+
+    @Test
+    public void onlyTheChangeIsWritten() {
+        ContactStore store = open();
+        for (int i = 0; i < 50; i++) store.add("contact " + i);
+        long before = file().length();
+        store.add("one more");
+        // op byte, id, UTF length, name
+        assertEquals(before + 1 + 4 + 2 + "one more".length(), file().length());
+    }
+
+    @Test
+    public void tornTailIsDropped() throws IOException {
+        ContactStore store = open();
+        store.add("Alice");
+        store.add("Bob");
+        try (RandomAccessFile raf = new RandomAccessFile(file(), "rw")) {
+            raf.setLength(raf.length() - 2);
+        }
+        ContactStore reopened = open();
+        assertEquals(1, reopened.size());
+        assertNotNull(reopened.add("Bob"));
+        assertEquals(2, open().size());
+    }
+
+    @Test
+    public void logIsCompactedOnceMostlyDead() {
+        ContactStore store = open();
+        for (int i = 0; i < 40; i++) {
+            store.add("temp " + i);
+            store.remove("temp " + i);
+        }
+        store.add("keeper");
+        assertTrue("compacted to " + file().length(), file().length() < 200);
+        ContactStore reopened = open();
+        assertEquals(1, reopened.size());
+        assertTrue(reopened.contains("keeper"));
+    }
+
+    @Test
+    public void groupsResolveByWireIdAndMembership() {
+        ContactStore store = open();
+        ChatsModel alice = store.add("Alice");
+        ChatsModel bob = store.add("Bob");
+        ChatsModel carol = store.add("Carol");
+        store.bindDevice("alice", 0xA4CF129B0001L);
+        store.bindDevice("Carol", 0xA4CF129B0003L);
+
+        ChatsModel entry = store.createGroup("rescue", Arrays.asList(carol, alice));
+        assertTrue(entry.isGroup());
+        assertNull(store.createGroup("Rescue", Arrays.asList(bob)));
+
+        Group group = store.findGroup("rescue");
+        assertSame(entry.getGroup(), group);
+        assertTrue(group.hasMember(alice.getId()));
+        assertFalse(group.hasMember(bob.getId()));
+        assertArrayEquals(new long[]{0xA4CF129B0001L, 0xA4CF129B0003L}, store.memberDevices(group));
+
+        ContactStore reopened = open();
+        Group back = reopened.findGroup("rescue");
+        assertEquals(group.getId(), back.getId());
+        assertEquals(2, back.getMemberCount());
+        assertEquals(2, reopened.memberDevices(back).length);
+    }
+
+    @Test
+    public void idsAreNotReusedAfterCompaction() {
+        ContactStore store = open();
+        ChatsModel alice = store.add("Alice");
+        for (int i = 0; i < 40; i++) {
+            store.add("temp " + i);
+            store.remove("temp " + i);
+        }
+        ContactStore reopened = open();
+        ChatsModel next = reopened.add("Zed");
+        assertTrue(next.getId() > alice.getId() + 40);
+    }
+
+    @Test
+    public void legacyGroupStringsBecomeGroups() {
+        ContactStore store = open();
+        store.migrate(Arrays.asList("Alice", "Bob", "ops (Alice, Bob)", "Dan (work)"));
+        Group ops = store.findGroup("ops");
+        assertNotNull(ops);
+        assertEquals(2, ops.getMemberCount());
+        assertTrue(ops.hasMember(store.find("bob").getId()));
+        // Not all bracketed names are contacts, so it stays a contact
+        assertFalse(store.find("Dan (work)").isGroup());
+    }
+}
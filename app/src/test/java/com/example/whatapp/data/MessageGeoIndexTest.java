@@ -0,0 +1,112 @@
+package com.example.whatapp.data;
+
+import com.example.whatapp.ChatMessage;
+import com.example.whatapp.geo.GeoMath;
+import com.example.whatapp.wire.WireMessage;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MessageGeoIndexTest {
+
+    private static final int LAT = 12_971_599;
+    private static final int LON = 77_594_563;
+
+    private static final class ListSource implements MessageSource {
+        final List<ChatMessage> messages = new ArrayList<>();
+
+        @Override public int size() {
+            return messages.size();
+        }
+
+        @Override public List<ChatMessage> read(int from, int count) {
+            return new ArrayList<>(messages.subList(from, from + count));
+        }
+    }
+
+    private static ChatMessage located(int latE6, int lonE6) {
+        return new ChatMessage(WireMessage.builder().text("here").locationE6(latE6, lonE6).build(),
+                false, "Device", "DEVICE");
+    }
+
+    private static ChatMessage text(String text) {
+        return new ChatMessage(text, false, "Device", "DEVICE", false, "");
+    }
+
+    @Test
+    public void findsPositionsInFramesAndInText() {
+        ChatMessage frame = located(LAT, LON);
+        int[] at = new int[2];
+        assertTrue(MessageGeoIndex.locate(frame, at));
+        assertArrayEquals(new int[]{LAT, LON}, at);
+
+        assertTrue(MessageGeoIndex.locate(text("On my way\nLocation: https://www.openstreetmap.org/"
+                + "?mlat=-33.8688&mlon=151.2093"), at));
+        assertArrayEquals(new int[]{-33_868_800, 151_209_300}, at);
+        assertTrue(MessageGeoIndex.locate(text("TX: Meet here\nLocation: 48.858300, 2.294400 (\u00b18 m)"), at));
+        assertArrayEquals(new int[]{48_858_300, 2_294_400}, at);
+
+        assertFalse(MessageGeoIndex.locate(text("no position"), at));
+        assertFalse(MessageGeoIndex.locate(text("costs 12.50, 13.75"), at));
+        assertFalse(MessageGeoIndex.locate(text("Meet at 48.8583, 2.2944"), at));
+        assertFalse(MessageGeoIndex.locate(new ChatMessage(WireMessage.builder().text("hi").build(),
+                false, "Device", "DEVICE"), at));
+        assertFalse(MessageGeoIndex.locate(text("Location: 95.000000, 10.000000"), at));
+    }
+
+    @Test
+    public void radiusQueryMatchesAScanNearestFirst() throws Exception {
+        ListSource source = new ListSource();
+        Random random = new Random(7);
+        // Positions within about 20 km of the centre, with plain messages between
+        for (int i = 0; i < 5_000; i++) {
+            if (i % 3 == 0) source.messages.add(text("message " + i));
+            else source.messages.add(located(LAT + random.nextInt(360_000) - 180_000,
+                    LON + random.nextInt(360_000) - 180_000));
+        }
+        MessageGeoIndex index = new MessageGeoIndex(source);
+        assertEquals(3_333, index.update());
+
+        List<MessageGeoIndex.Hit> hits = index.within(LAT, LON, 2_000);
+        int[] at = new int[2];
+        int expected = 0;
+        for (int i = 0; i < source.messages.size(); i++) {
+            if (MessageGeoIndex.locate(source.messages.get(i), at)
+                    && GeoMath.distanceM(LAT, LON, at[0], at[1]) <= 2_000) {
+                expected++;
+            }
+        }
+        assertTrue(expected > 10);
+        assertEquals(expected, hits.size());
+        for (int i = 1; i < hits.size(); i++) assertTrue(hits.get(i - 1).distanceM <= hits.get(i).distanceM);
+        MessageGeoIndex.Hit nearest = hits.get(0);
+        assertTrue(MessageGeoIndex.locate(source.messages.get(nearest.position), at));
+        assertEquals(at[0], nearest.latitudeE6, 1);
+        assertEquals(at[1], nearest.longitudeE6, 1);
+    }
+
+    @Test
+    public void updateIndexesOnlyNewMessagesAndBoxQueriesAreInLogOrder() throws Exception {
+        ListSource source = new ListSource();
+        source.messages.add(located(LAT, LON));
+        source.messages.add(text("hello"));
+        MessageGeoIndex index = new MessageGeoIndex(source);
+        assertEquals(1, index.update());
+        assertEquals(0, index.update());
+
+        source.messages.add(located(LAT + 1_000, LON + 1_000));
+        source.messages.add(located(LAT + 500_000, LON));
+        assertEquals(2, index.update());
+        assertEquals(3, index.size());
+
+        List<MessageGeoIndex.Hit> box = index.inBox(13.0, 77.6, 12.9, 77.5);
+        assertEquals(2, box.size());
+        assertEquals(0, box.get(0).position);
+        assertEquals(2, box.get(1).position);
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.whatapp.data;
+
+import com.example.whatapp.ChatMessage;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import io.reactivex.rxjava3.schedulers.TestScheduler;
+
+import static org.junit.Assert.*;
+
+public class MessageWindowTest {
+
+    /** In-memory source that counts the rows it hands out. */
+    private static final class ListSource implements MessageSource {
+        final List<ChatMessage> messages = new ArrayList<>();
+        int rowsRead;
+
+        ListSource(int n) {
+            for (int i = 0; i < n; i++) messages.add(text(i));
+        }
+
+        @Override public int size() {
+            return messages.size();
+        }
+
+        @Override public List<ChatMessage> read(int from, int count) {
+            rowsRead += count;
+            return new ArrayList<>(messages.subList(from, from + count));
+        }
+    }
+
+    private static final class Events implements MessageWindow.Listener {
+        final List<String> log = new ArrayList<>();
+
+        @Override public void onInserted(int from, int count) {
+            log.add("inserted " + from + "+" + count);
+        }
+
+        @Override public void onChanged(int from, int count) {
+            log.add("changed " + from + "+" + count);
+        }
+    }
+
+    private static ChatMessage text(int i) {
+        return new ChatMessage("message " + i, false, "Device", "DEVICE", false, "");
+    }
+
+    private static MessageWindow attach(ListSource source, long budget, Scheduler io) throws IOException {
+        MessageWindow window = new MessageWindow(budget, io, Schedulers.trampoline());
+        window.attach(source, MessageWindow.readHead(source));
+        return window;
+    }
+
+    @Test
+    public void opensWithOnlyTheNewestPage() throws IOException {
+        ListSource source = new ListSource(100_000);
+        MessageWindow window = attach(source, MessageWindow.DEFAULT_BUDGET_BYTES, Schedulers.trampoline());
+        assertEquals(100_000, window.size());
+        assertEquals(MessageWindow.PAGE_SIZE, source.rowsRead);
+        assertEquals("message 99999", window.peek(99_999).getMessage());
+        assertNull(window.peek(0));
+    }
+
+    @Test
+    public void missingPageLoadsOnDemandAndReportsRows() throws IOException {
+        ListSource source = new ListSource(1_000);
+        TestScheduler io = new TestScheduler();
+        MessageWindow window = attach(source, MessageWindow.DEFAULT_BUDGET_BYTES, io);
+        Events events = new Events();
+        window.setListener(events);
+
+        assertNull(window.get(250));
+        assertNull(window.get(251));
+        io.triggerActions();
+        assertEquals(Collections.singletonList("changed 200+100"), events.log);
+        assertEquals("message 250", window.get(250).getMessage());
+        assertEquals(2 * MessageWindow.PAGE_SIZE, source.rowsRead);
+    }
+
+    @Test
+    public void scrollingUpReadsAheadAndStaysWithinBudget() throws IOException {
+        ListSource source = new ListSource(20_000);
+        long pageBytes = 0;
+        for (int i = 0; i < MessageWindow.PAGE_SIZE; i++) pageBytes += MessageWindow.estimateBytes(text(i));
+        long budget = 6 * pageBytes;
+        MessageWindow window = attach(source, budget, Schedulers.trampoline());
+
+        for (int first = 19_990; first >= 0; first -= 10) {
+            window.setViewport(first, first + 9);
+            assertNotNull(window.get(first));
+            assertNotNull("page above is read ahead", window.peek(Math.max(0, first - 50)));
+            assertTrue(window.getHeldBytes() <= budget);
+        }
+        assertTrue(window.getLoadedPages() <= 6);
+        assertTrue(window.getPagesEvicted() > 100);
+    }
+
+    @Test
+    public void messagesAppendedBeforeAttachFollowHistory() throws IOException {
+        MessageWindow window = new MessageWindow(MessageWindow.DEFAULT_BUDGET_BYTES,
+                Schedulers.trampoline(), Schedulers.trampoline());
+        Events events = new Events();
+        window.setListener(events);
+        window.append(text(-1));
+        assertEquals(1, window.size());
+        assertEquals("message -1", window.get(0).getMessage());
+
+        ListSource source = new ListSource(150);
+        window.attach(source, MessageWindow.readHead(source));
+        assertEquals(151, window.size());
+        assertEquals(Collections.singletonList("inserted 0+150"), events.log);
+        assertEquals("message 149", window.get(149).getMessage());
+        assertEquals("message -1", window.get(150).getMessage());
+    }
+
+    @Test
+    public void appendsFillTheTailPageAndStartNewOnes() throws IOException {
+        ListSource source = new ListSource(MessageWindow.PAGE_SIZE - 1);
+        MessageWindow window = attach(source, MessageWindow.DEFAULT_BUDGET_BYTES, Schedulers.trampoline());
+        for (int i = 0; i < 3; i++) {
+            ChatMessage m = text(1000 + i);
+            source.messages.add(m);
+            window.append(m);
+        }
+        int before = source.rowsRead;
+        assertEquals("message 1000", window.get(MessageWindow.PAGE_SIZE - 1).getMessage());
+        assertEquals("message 1002", window.get(MessageWindow.PAGE_SIZE + 1).getMessage());
+        assertEquals(before, source.rowsRead);
+        assertEquals(2, window.getLoadedPages());
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.whatapp.geo;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.rxjava3.observers.TestObserver;
+import io.reactivex.rxjava3.schedulers.TestScheduler;
+import io.reactivex.rxjava3.subjects.MaybeSubject;
+
+import static org.junit.Assert.*;
+
+public class LocationCacheTest {
+
+    private final TestScheduler clock = new TestScheduler();
+    private MaybeSubject<LocationCache.Fix> pending;
+    private int lookups;
+    private final LocationCache cache = new LocationCache(() -> {
+        lookups++;
+        pending = MaybeSubject.create();
+        return pending;
+    }, clock, 30_000);
+
+    private LocationCache.Fix fixNow(int latE6) {
+        return new LocationCache.Fix(latE6, 0, 10, clock.now(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void recentFixIsReusedWithoutALookup() {
+        clock.advanceTimeBy(1, TimeUnit.HOURS);
+        TestObserver<LocationCache.Fix> first = cache.get().test();
+        LocationCache.Fix fix = fixNow(1);
+        pending.onSuccess(fix);
+        first.assertValue(fix);
+
+        clock.advanceTimeBy(29, TimeUnit.SECONDS);
+        cache.get().test().assertValue(fix);
+        assertEquals(1, lookups);
+        assertEquals(1, cache.getHits());
+
+        clock.advanceTimeBy(2, TimeUnit.SECONDS);
+        cache.get().test().assertEmpty();
+        assertEquals(2, lookups);
+    }
+
+    @Test
+    public void concurrentSendsShareOneLookup() {
+        TestObserver<LocationCache.Fix> a = cache.get().test();
+        TestObserver<LocationCache.Fix> b = cache.get().test();
+        assertEquals(1, lookups);
+        LocationCache.Fix fix = fixNow(2);
+        pending.onSuccess(fix);
+        a.assertValue(fix);
+        b.assertValue(fix);
+    }
+
+    @Test
+    public void failedLookupFallsBackToTheStaleFix() {
+        LocationCache.Fix old = fixNow(3);
+        cache.offer(old);
+        clock.advanceTimeBy(5, TimeUnit.MINUTES);
+
+        TestObserver<LocationCache.Fix> failed = cache.get().test();
+        pending.onError(new IllegalStateException("no provider"));
+        failed.assertValue(old);
+
+        TestObserver<LocationCache.Fix> empty = cache.get().test();
+        pending.onComplete();
+        empty.assertValue(old);
+        assertEquals(2, lookups);
+    }
+
+    @Test
+    public void olderFixesDoNotReplaceNewerOnes() {
+        LocationCache.Fix older = fixNow(4);
+        clock.advanceTimeBy(1, TimeUnit.SECONDS);
+        LocationCache.Fix newer = fixNow(5);
+        cache.offer(newer);
+        cache.offer(older);
+        assertSame(newer, cache.peek());
+        assertEquals(12, LocationCache.Fix.of(0, 0, 11.6f, 0).accuracyM);
+    }
+}
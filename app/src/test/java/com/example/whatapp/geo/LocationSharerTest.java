@@ -0,0 +1,79 @@
+package com.example.whatapp.geo;
+
+import org.junit.Test;
+
+import io.reactivex.rxjava3.observers.TestObserver;
+
+import static org.junit.Assert.*;
+
+public class LocationSharerTest {
+
+    // About 1.1 m of latitude
+    private static final int METRE_E6 = 9;
+
+    private final LocationSharer sharer = new LocationSharer();
+
+    private static LocationCache.Fix at(double northM, long timeMs) {
+        return new LocationCache.Fix((int) Math.round(northM * METRE_E6), 0, 5, timeMs);
+    }
+
+    @Test
+    public void standingStillSendsOnlyHeartbeats() {
+        int sent = 0;
+        for (long t = 0; t <= 3 * LocationSharer.HEARTBEAT_MS; t += 1_000) {
+            if (sharer.offer(at(0, t))) sent++;
+        }
+        assertEquals(4, sent);
+    }
+
+    @Test
+    public void movingSendsEveryTenMetresButNotFasterThanTheMinimumInterval() {
+        int sent = 0;
+        // Walking at 1.5 m/s for a minute
+        for (long t = 0; t < 60_000; t += 1_000) {
+            if (sharer.offer(at(t * 1.5 / 1000, t))) sent++;
+        }
+        assertTrue("sent " + sent, sent >= 7 && sent <= 10);
+
+        LocationSharer driving = new LocationSharer();
+        sent = 0;
+        for (long t = 0; t < 60_000; t += 1_000) {
+            if (driving.offer(at(t * 25.0 / 1000, t))) sent++;
+        }
+        assertEquals(30, sent);
+    }
+
+    @Test
+    public void inaccurateFixesNeedALargerMove() {
+        assertTrue(sharer.offer(new LocationCache.Fix(0, 0, 50, 0)));
+        assertFalse(sharer.offer(new LocationCache.Fix(30 * METRE_E6, 0, 50, 10_000)));
+        assertTrue(sharer.offer(new LocationCache.Fix(60 * METRE_E6, 0, 50, 20_000)));
+    }
+
+    @Test
+    public void pollIntervalFollowsSpeed() {
+        TestObserver<Long> polls = sharer.pollIntervals().test();
+        for (long t = 0; t <= 10_000; t += 1_000) sharer.offer(at(t * 10.0 / 1000, t));
+        assertEquals(LocationSharer.MIN_POLL_MS, polls.values().get(polls.values().size() - 1).longValue());
+        for (long t = 11_000; t <= 30_000; t += 1_000) sharer.offer(at(100, t));
+        assertEquals(LocationSharer.MAX_POLL_MS, polls.values().get(polls.values().size() - 1).longValue());
+
+        assertEquals(8_000, LocationSharer.pollFor(1.2));
+        assertEquals(LocationSharer.MAX_POLL_MS, LocationSharer.pollFor(0.01));
+    }
+
+    @Test
+    public void resetPollsFastUntilTheSpeedIsKnownAgain() {
+        TestObserver<Long> polls = sharer.pollIntervals().test();
+        for (long t = 0; t <= 20_000; t += 1_000) sharer.offer(at(0, t));
+        assertEquals(LocationSharer.MAX_POLL_MS, polls.values().get(polls.values().size() - 1).longValue());
+
+        sharer.reset();
+        assertEquals(LocationSharer.MIN_POLL_MS, polls.values().get(polls.values().size() - 1).longValue());
+        // A single fix says nothing about the speed
+        sharer.offer(at(0, 100_000));
+        assertEquals(LocationSharer.MIN_POLL_MS, polls.values().get(polls.values().size() - 1).longValue());
+        sharer.offer(at(0, 101_000));
+        assertEquals(LocationSharer.MAX_POLL_MS, polls.values().get(polls.values().size() - 1).longValue());
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.whatapp.geo;
+
+import java.util.Random;
+
+/**
+ * Per-frame cost of clustering a viewport with {@link PointIndex}, against a
+ * linear scan of every point, as a map pans across a city at several zooms.
+ * <p>
+ * Not a unit test; run {@code main} from the IDE on the host JVM.
+ */
+public final class PointIndexBenchmark {
+
+    private static final int[] SIZES = {1_000, 10_000, 100_000};
+    private static final int[] ZOOMS = {10, 13, 16, 19};
+    private static final int FRAMES = 2_000;
+    private static final int ROUNDS = 5;
+
+    private PointIndexBenchmark() { }
+
+    public static void main(String[] args) {
+        System.out.println("points  zoom   in view  clusters  index (us/frame)  scan (us/frame)");
+        for (int n : SIZES) {
+            Random random = new Random(n);
+            int[] lat = new int[n];
+            int[] lon = new int[n];
+            PointIndex index = new PointIndex();
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                // Half within a few kilometres, the rest across the region
+                int spread = i % 2 == 0 ? 20_000 : 1_000_000;
+                lat[i] = 12_971_600 + random.nextInt(2 * spread) - spread;
+                lon[i] = 77_594_600 + random.nextInt(2 * spread) - spread;
+                index.add(i, lat[i], lon[i]);
+            }
+            double buildMs = (System.nanoTime() - start) / 1e6;
+            for (int zoom : ZOOMS) {
+                // A 1080 px wide view, panned a little each frame
+                double span = 1080 / (256 * Math.pow(2, zoom)) * 360;
+                Counter counter = new Counter();
+                long[] inView = new long[1];
+                double indexed = best(() -> {
+                    for (int f = 0; f < FRAMES; f++) {
+                        double west = 77.5946 - span / 2 + (f % 100) * span / 200;
+                        index.clusters(12.9716 + span / 2, west + span, 12.9716 - span / 2, west, zoom, counter);
+                    }
+                });
+                double scanned = best(() -> {
+                    for (int f = 0; f < FRAMES; f++) {
+                        double west = 77.5946 - span / 2 + (f % 100) * span / 200;
+                        inView[0] += scan(lat, lon, 12.9716 + span / 2, west + span, 12.9716 - span / 2, west);
+                    }
+                });
+                System.out.printf("%6d %5d %9d %9d %17.1f %16.1f%n", n, zoom,
+                        inView[0] / (FRAMES * ROUNDS), counter.clusters / (FRAMES * ROUNDS), indexed, scanned);
+            }
+            System.out.printf("%6d built in %.1f ms%n", n, buildMs);
+        }
+    }
+
+    private static final class Counter implements PointIndex.ClusterSink {
+        long clusters;
+
+        @Override
+        public void cluster(int count, int x, int y, long id) {
+            clusters++;
+        }
+    }
+
+    /** What drawing every point in view would cost before clustering. */
+    private static int scan(int[] lat, int[] lon, double north, double east, double south, double west) {
+        int n = 0;
+        for (int i = 0; i < lat.length; i++) {
+            double la = lat[i] / 1e6;
+            double lo = lon[i] / 1e6;
+            if (la <= north && la >= south && lo >= west && lo <= east) n++;
+        }
+        return n;
+    }
+
+    private static double best(Runnable frames) {
+        double best = Double.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            frames.run();
+            best = Math.min(best, (System.nanoTime() - start) / 1e3 / FRAMES);
+        }
+        return best;
+    }
+}
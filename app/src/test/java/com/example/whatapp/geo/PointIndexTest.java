@@ -0,0 +1,109 @@
+package com.example.whatapp.geo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class PointIndexTest {
+
+    private static final class Collected implements PointIndex.ClusterSink {
+        final List<long[]> clusters = new ArrayList<>();
+        int points;
+
+        @Override
+        public void cluster(int count, int x, int y, long id) {
+            clusters.add(new long[]{count, x, y, id});
+            points += count;
+        }
+    }
+
+    private static Collected query(PointIndex index, double north, double east, double south, double west,
+                                   double zoom) {
+        Collected c = new Collected();
+        index.clusters(north, east, south, west, zoom, c);
+        return c;
+    }
+
+    /** Points scattered over a few kilometres around a town. */
+    private static PointIndex town(int n, long seed) {
+        Random random = new Random(seed);
+        PointIndex index = new PointIndex();
+        for (int i = 0; i < n; i++) {
+            index.add(i, 12_971_600 + random.nextInt(40_000) - 20_000, 77_594_600 + random.nextInt(40_000) - 20_000);
+        }
+        return index;
+    }
+
+    @Test
+    public void everyPointIsInExactlyOneClusterAtEveryZoom() {
+        PointIndex index = town(5_000, 1);
+        int previous = 0;
+        for (int zoom = 0; zoom <= 20; zoom++) {
+            Collected c = query(index, 85, 180, -85, -180, zoom);
+            assertEquals("zoom " + zoom, 5_000, c.points);
+            assertTrue(c.clusters.size() >= previous);
+            previous = c.clusters.size();
+        }
+        assertEquals(1, query(index, 85, 180, -85, -180, 3).clusters.size());
+        assertTrue(previous > 4_000);
+    }
+
+    @Test
+    public void onlyTheViewportIsReported() {
+        PointIndex index = new PointIndex();
+        index.add(1, 12_971_600, 77_594_600);
+        index.add(2, 12_972_000, 77_595_000);
+        index.add(3, 48_858_300, 2_294_400);
+
+        Collected c = query(index, 12.98, 77.60, 12.96, 77.59, 19);
+        assertEquals(2, c.clusters.size());
+        Set<Long> ids = new HashSet<>();
+        for (long[] cluster : c.clusters) {
+            assertEquals(1, cluster[0]);
+            ids.add(cluster[3]);
+        }
+        assertEquals(new HashSet<>(Arrays.asList(1L, 2L)), ids);
+
+        c = query(index, 12.98, 77.60, 12.96, 77.59, 10);
+        assertEquals(1, c.clusters.size());
+        assertEquals(2, c.clusters.get(0)[0]);
+        assertEquals(12.9718, PointIndex.latitude((int) c.clusters.get(0)[2]), 1e-4);
+    }
+
+    @Test
+    public void viewportsAcrossTheAntimeridianWrap() {
+        PointIndex index = new PointIndex();
+        index.add(1, -17_000_000, 179_500_000);
+        index.add(2, -17_000_000, -179_500_000);
+        index.add(3, -17_000_000, 0);
+        assertEquals(2, query(index, -16, -179, -18, 179, 12).points);
+    }
+
+    @Test
+    public void identicalPointsDoNotSplitForever() {
+        PointIndex index = new PointIndex();
+        for (int i = 0; i < 1_000; i++) index.add(i, 0, 0);
+        Collected c = query(index, 1, 1, -1, -1, 22);
+        assertEquals(1, c.clusters.size());
+        assertEquals(1_000, c.clusters.get(0)[0]);
+    }
+
+    @Test
+    public void projectionRoundTrips() {
+        for (int latE6 : new int[]{-85_000_000, -33_868_800, 0, 12_971_600, 60_000_000}) {
+            assertEquals(latE6 / 1e6, PointIndex.latitude(PointIndex.y(latE6)), 1e-6);
+        }
+        for (int lonE6 : new int[]{-180_000_000, -500_000, 77_594_600, 179_999_999}) {
+            assertEquals(lonE6 / 1e6, PointIndex.longitude(PointIndex.x(lonE6)), 1e-6);
+        }
+        assertEquals(2, PointIndex.depthForZoom(0));
+        assertEquals(PointIndex.DEPTH, PointIndex.depthForZoom(40));
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.whatapp.geo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TrailTest {
+
+    // Whole world, so nothing is clipped
+    private static final double N = 85, E = 180, S = -85, W = -180;
+
+    /** A walk around Bengaluru at about 3 m/s, a fix every 2 s: drifting, turning at corners, with GPS jitter. */
+    private static Trail walk(int points, long seed) {
+        Random random = new Random(seed);
+        Trail trail = new Trail();
+        double lat = 12.97, lon = 77.59, heading = 0;
+        for (int i = 0; i < points; i++) {
+            heading += random.nextInt(100) == 0 ? Math.PI / 2 * (random.nextBoolean() ? 1 : -1)
+                    : random.nextGaussian() * 0.02;
+            lat += Math.cos(heading) * 3e-5;
+            lon += Math.sin(heading) * 3e-5;
+            trail.add((int) Math.round((lat + random.nextGaussian() * 2e-6) * 1e6),
+                    (int) Math.round((lon + random.nextGaussian() * 2e-6) * 1e6), i * 2_000L);
+        }
+        return trail;
+    }
+
+    private static List<int[]> vertices(Trail trail, double n, double e, double s, double w, double zoom) {
+        List<int[]> out = new ArrayList<>();
+        trail.simplify(n, e, s, w, zoom, Trail.DEFAULT_TOLERANCE_PX,
+                (x, y, moveTo) -> out.add(new int[]{x, y, moveTo ? 1 : 0}));
+        return out;
+    }
+
+    @Test
+    public void straightLineKeepsOnlyItsEnds() {
+        Trail trail = new Trail();
+        for (int i = 0; i <= 3000; i++) trail.add(12_000_000, 77_000_000 + i * 10, i);
+        List<int[]> line = vertices(trail, N, E, S, W, 18);
+        // The ends, plus the ends of the chunks in between
+        assertEquals(2 + 3000 / Trail.CHUNK, line.size());
+        assertEquals(1, line.get(0)[2]);
+        assertEquals(PointIndex.x(77_000_000), line.get(0)[0]);
+        assertEquals(PointIndex.x(77_030_000), line.get(line.size() - 1)[0]);
+    }
+
+    @Test
+    public void simplifiedLineStaysWithinTheTolerance() {
+        Trail trail = walk(5_000, 1);
+        Trail copy = walk(5_000, 1);
+        for (double zoom : new double[]{12, 15, 18}) {
+            List<int[]> line = vertices(trail, N, E, S, W, zoom);
+            assertTrue(line.size() < trail.size());
+            double tolerance = Trail.DEFAULT_TOLERANCE_PX * Math.pow(2, PointIndex.DEPTH - 8 - zoom);
+            // Every original point is near the simplified line
+            List<int[]> all = new ArrayList<>();
+            copy.simplify(N, E, S, W, 40, 0, (x, y, moveTo) -> all.add(new int[]{x, y}));
+            assertEquals(trail.size(), all.size());
+            for (int[] p : all) {
+                double best = Double.MAX_VALUE;
+                for (int i = 1; i < line.size(); i++) {
+                    best = Math.min(best, distance(p, line.get(i - 1), line.get(i)));
+                }
+                assertTrue("zoom " + zoom, best <= tolerance * 1.001 + 1);
+            }
+        }
+    }
+
+    @Test
+    public void hoursOfUpdatesDrawAsAFewHundredVertices() {
+        Trail trail = walk(30_000, 2);
+        assertTrue(vertices(trail, N, E, S, W, 13).size() < 500);
+        // Zoomed in, chunks outside the viewport are skipped and the rest clipped
+        List<int[]> whole = vertices(trail, N, E, S, W, 18);
+        double lat = 12.97, lon = 77.59;
+        List<int[]> view = vertices(trail, lat + 0.002, lon + 0.003, lat - 0.002, lon - 0.003, 18);
+        assertTrue(view.size() < whole.size());
+        assertTrue(view.size() < 600);
+    }
+
+    @Test
+    public void dropsTheOldestChunkPastTheLimit() {
+        Trail trail = walk(Trail.MAX_POINTS + 10, 3);
+        assertEquals(Trail.MAX_POINTS - Trail.CHUNK + 10, trail.size());
+        assertEquals(Trail.CHUNK * 2_000L, trail.getTimeMs(0));
+        assertFalse(vertices(trail, N, E, S, W, 15).isEmpty());
+    }
+
+    private static double distance(int[] p, int[] a, int[] b) {
+        double dx = (double) b[0] - a[0], dy = (double) b[1] - a[1];
+        double px = (double) p[0] - a[0], py = (double) p[1] - a[1];
+        double len = dx * dx + dy * dy;
+        double t = len == 0 ? 0 : Math.max(0, Math.min(1, (px * dx + py * dy) / len));
+        return Math.hypot(px - t * dx, py - t * dy);
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.whatapp.tiles;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.rxjava3.observers.TestObserver;
+import io.reactivex.rxjava3.schedulers.TestScheduler;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+
+import static com.example.whatapp.tiles.MapSourceSelector.Source.CACHED_RASTER;
+import static com.example.whatapp.tiles.MapSourceSelector.Source.OFFLINE_VECTOR;
+import static com.example.whatapp.tiles.MapSourceSelector.Source.ONLINE_RASTER;
+
+public class MapSourceSelectorTest {
+
+    private final TestScheduler clock = new TestScheduler();
+    private final PublishSubject<Boolean> online = PublishSubject.create();
+
+    @Test
+    public void goesOfflineAtOnceAndBackOnlineOnceTheNetworkHolds() {
+        TestObserver<MapSourceSelector.Source> sources =
+                MapSourceSelector.sources(online, true, clock).test();
+        online.onNext(true);
+        sources.assertValuesOnly(ONLINE_RASTER);
+
+        online.onNext(false);
+        sources.assertValuesOnly(ONLINE_RASTER, OFFLINE_VECTOR);
+
+        // A link that flaps never makes it back online
+        for (int i = 0; i < 5; i++) {
+            online.onNext(true);
+            clock.advanceTimeBy(MapSourceSelector.ONLINE_SETTLE_MS / 2, TimeUnit.MILLISECONDS);
+            online.onNext(false);
+        }
+        sources.assertValuesOnly(ONLINE_RASTER, OFFLINE_VECTOR);
+
+        online.onNext(true);
+        clock.advanceTimeBy(MapSourceSelector.ONLINE_SETTLE_MS, TimeUnit.MILLISECONDS);
+        sources.assertValuesOnly(ONLINE_RASTER, OFFLINE_VECTOR, ONLINE_RASTER);
+    }
+
+    @Test
+    public void withoutAnOfflineMapTheCacheIsUsed() {
+        TestObserver<MapSourceSelector.Source> sources =
+                MapSourceSelector.sources(online, false, clock).test();
+        online.onNext(false);
+        online.onNext(false);
+        sources.assertValuesOnly(CACHED_RASTER);
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.whatapp.tiles;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class TileArchiveTest {
+
+    private static final int TILE_BYTES = 100;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    // Central Bengaluru at zoom 16, a few tiles each way
+    private final TilePlan region = TilePlan.of(12.98, 77.60, 12.96, 77.58, 16, 16);
+
+    private static byte[] tile(int fill) {
+        byte[] tile = new byte[TILE_BYTES];
+        Arrays.fill(tile, (byte) fill);
+        return tile;
+    }
+
+    private File dir() {
+        return new File(folder.getRoot(), "tiles");
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedTileToStayUnderTheCap() throws IOException {
+        TileArchive archive = TileArchive.open(dir(), 3 * TILE_BYTES);
+        archive.put(10, 1, 1, tile(1));
+        archive.put(10, 1, 2, tile(2));
+        archive.put(10, 1, 3, tile(3));
+        assertArrayEquals(tile(1), archive.get(10, 1, 1));
+
+        archive.put(10, 1, 4, tile(4));
+        assertFalse(archive.contains(10, 1, 2));
+        assertNull(archive.get(10, 1, 2));
+        assertTrue(archive.contains(10, 1, 1));
+        assertFalse(new File(dir(), "10/1/2.tile").exists());
+
+        TileArchive.Stats stats = archive.getStats();
+        assertEquals(1, stats.hits);
+        assertEquals(1, stats.misses);
+        assertEquals(1, stats.evictions);
+        assertEquals(TILE_BYTES, stats.evictedBytes);
+        assertEquals(3, stats.tiles);
+        assertEquals(3 * TILE_BYTES, stats.bytes);
+        // Browsed tiles do not count against a prefetch budget
+        assertEquals(0, archive.getSizeBytes());
+    }
+
+    @Test
+    public void pinnedRegionsAreNeverEvicted() throws IOException {
+        assertTrue(region.getTileCount() > 5);
+        TileArchive archive = TileArchive.open(dir(), 4 * TILE_BYTES);
+        int[] t = new int[3];
+        region.tileAt(0, t);
+        archive.put(t[0], t[1], t[2], tile(1));
+        archive.put(10, 1, 1, tile(2));
+        archive.pin("Bengaluru", region);
+        region.tileAt(1, t);
+        archive.put(t[0], t[1], t[2], tile(3));
+        assertEquals(2 * TILE_BYTES, archive.getSizeBytes());
+
+        // Browsing more than the cap only ever evicts browsed tiles
+        for (int y = 2; y < 10; y++) archive.put(10, 1, y, tile(y));
+        for (int i = 0; i < 2; i++) {
+            region.tileAt(i, t);
+            assertNotNull(archive.get(t[0], t[1], t[2]));
+        }
+        assertEquals(2, archive.getStats().pinnedTiles);
+        assertEquals(4, archive.getStats().tiles);
+
+        // Pinned tiles can fill the archive, but not overflow it
+        region.tileAt(2, t);
+        archive.put(t[0], t[1], t[2], tile(4));
+        region.tileAt(3, t);
+        archive.put(t[0], t[1], t[2], tile(5));
+        region.tileAt(4, t);
+        try {
+            archive.put(t[0], t[1], t[2], tile(6));
+            fail();
+        } catch (IOException expected) {
+        }
+        assertFalse(archive.contains(t[0], t[1], t[2]));
+
+        // Unpinned tiles are evicted ahead of browsed ones
+        archive.unpin("Bengaluru");
+        assertEquals(0, archive.getSizeBytes());
+        archive.put(10, 2, 1, tile(7));
+        int kept = 0;
+        for (int i = 0; i < 4; i++) {
+            region.tileAt(i, t);
+            if (archive.contains(t[0], t[1], t[2])) kept++;
+        }
+        assertEquals(3, kept);
+    }
+
+    @Test
+    public void reopensWithRegionsSizesAndRecency() throws IOException {
+        TileArchive archive = TileArchive.open(dir(), 3 * TILE_BYTES);
+        archive.pin("Bengaluru", region);
+        int[] t = new int[3];
+        region.tileAt(0, t);
+        archive.put(t[0], t[1], t[2], tile(1));
+        archive.put(10, 1, 1, tile(2));
+        archive.put(10, 1, 2, tile(3));
+        archive.get(10, 1, 1);
+        archive.flush();
+
+        TileArchive reopened = TileArchive.open(dir(), 3 * TILE_BYTES);
+        assertEquals(region, reopened.getRegions().get("Bengaluru"));
+        assertEquals(TILE_BYTES, reopened.getSizeBytes());
+        assertEquals(3 * TILE_BYTES, reopened.getStats().bytes);
+        reopened.put(10, 1, 3, tile(4));
+        assertTrue(reopened.contains(10, 1, 1));
+        assertFalse(reopened.contains(10, 1, 2));
+        assertArrayEquals(tile(1), reopened.get(t[0], t[1], t[2]));
+    }
+}
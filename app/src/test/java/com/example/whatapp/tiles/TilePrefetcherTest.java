@@ -0,0 +1,240 @@
+package com.example.whatapp.tiles;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+
+import static org.junit.Assert.*;
+
+public class TilePrefetcherTest {
+
+    private static final int TILE_BYTES = 1_000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /** Stand-in for a tile server: every tile is TILE_BYTES, except those listed as missing. */
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final Map<String, Boolean> missing = new ConcurrentHashMap<>();
+    // When set, the first requests wait until this many are in flight together
+    private volatile CountDownLatch together;
+    // Requests for tiles from this ordinal on wait for release
+    private volatile int holdFrom = Integer.MAX_VALUE;
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger held = new AtomicInteger();
+    private final Map<String, Integer> ordinals = new ConcurrentHashMap<>();
+
+    private static final class MemoryStore implements TileStore {
+        final ConcurrentHashMap<String, byte[]> tiles = new ConcurrentHashMap<>();
+        final AtomicInteger bytes = new AtomicInteger();
+
+        @Override public boolean contains(int zoom, int x, int y) {
+            return tiles.containsKey(zoom + "/" + x + "/" + y);
+        }
+
+        @Override public void put(int zoom, int x, int y, byte[] tile) {
+            if (tiles.put(zoom + "/" + x + "/" + y, tile) == null) bytes.addAndGet(tile.length);
+        }
+
+        @Override public long getSizeBytes() {
+            return bytes.get();
+        }
+    }
+
+    private final MemoryStore store = new MemoryStore();
+    private HttpTileFetcher fetcher;
+    private File progressFile;
+
+    // Central Bengaluru, about 2 km across
+    private final TilePlan plan = TilePlan.of(12.98, 77.60, 12.96, 77.58, 12, 17);
+
+    @Before
+    public void startServer() throws IOException {
+        for (int i = 0; i < plan.getTileCount(); i++) ordinals.put(path(i), i);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            int now = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(now, Math::max);
+            try {
+                String path = exchange.getRequestURI().getPath();
+                CountDownLatch group = together;
+                if (group != null) {
+                    group.countDown();
+                    await(group);
+                }
+                if (ordinals.get(path) >= holdFrom) {
+                    held.incrementAndGet();
+                    await(release);
+                }
+                // No longer in flight once the client can read the response and ask for the next tile
+                inFlight.decrementAndGet();
+                if (missing.containsKey(path)) {
+                    exchange.sendResponseHeaders(404, -1);
+                } else {
+                    exchange.sendResponseHeaders(200, TILE_BYTES);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(new byte[TILE_BYTES]);
+                    }
+                }
+            } finally {
+                exchange.close();
+            }
+        });
+        server.setExecutor(Executors.newFixedThreadPool(8));
+        server.start();
+        fetcher = new HttpTileFetcher("http://127.0.0.1:" + server.getAddress().getPort() + "/{z}/{x}/{y}.png",
+                "test");
+        progressFile = new File(folder.getRoot(), "prefetch.bin");
+    }
+
+    @After
+    public void stopServer() {
+        release.countDown();
+        server.stop(0);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private TilePrefetcher prefetcher(long budget, int parallelism) {
+        return new TilePrefetcher(fetcher, store, progressFile, budget, parallelism, Schedulers.io());
+    }
+
+    private String path(int ordinal) {
+        int[] tile = new int[3];
+        plan.tileAt(ordinal, tile);
+        return "/" + tile[0] + "/" + tile[1] + "/" + tile[2] + ".png";
+    }
+
+    private void storeTile(int ordinal) {
+        int[] tile = new int[3];
+        plan.tileAt(ordinal, tile);
+        store.put(tile[0], tile[1], tile[2], new byte[TILE_BYTES]);
+    }
+
+    @Test
+    public void planCountsEveryTileOnce() {
+        int[] tile = new int[3];
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < plan.getTileCount(); i++) {
+            plan.tileAt(i, tile);
+            assertTrue(seen.add(tile[0] + "/" + tile[1] + "/" + tile[2]));
+        }
+        plan.tileAt(0, tile);
+        assertArrayEquals(new int[]{12, 2930, 1899}, tile);
+        assertTrue(plan.getTileCount() > 50);
+        try {
+            TilePlan.of(60, 30, 30, 0, 12, 19);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void estimateCountsStoredTilesBeforeFetchingAnything() {
+        storeTile(0);
+        storeTile(5);
+        TilePrefetcher.Estimate e = prefetcher(TilePrefetcher.DEFAULT_BUDGET_BYTES, 2).estimate(plan).blockingGet();
+        assertEquals(plan.getTileCount(), e.tiles);
+        assertEquals(2, e.stored);
+        assertEquals((long) (e.tiles - 2) * TilePrefetcher.DEFAULT_TILE_BYTES, e.bytesToFetch);
+        assertTrue(e.isWithinBudget());
+        assertEquals(0, requests.get());
+    }
+
+    @Test
+    public void fetchesMissingTilesWithBoundedParallelism() {
+        storeTile(3);
+        missing.put(path(0), true);
+        together = new CountDownLatch(3);
+        TilePrefetcher prefetcher = prefetcher(TilePrefetcher.DEFAULT_BUDGET_BYTES, 3);
+        List<TilePrefetcher.Progress> progress = prefetcher.run(plan).toList().blockingGet();
+
+        TilePrefetcher.Progress last = progress.get(progress.size() - 1);
+        assertEquals(TilePrefetcher.State.DONE, last.state);
+        assertEquals(plan.getTileCount(), last.completed);
+        assertEquals(1, last.skipped);
+        assertEquals(1, last.failed);
+        assertEquals(plan.getTileCount() - 2, last.fetched);
+        assertEquals(plan.getTileCount() - 1, store.tiles.size());
+        assertEquals(plan.getTileCount() - 2 + TilePrefetcher.ATTEMPTS, requests.get());
+        // The first three requests only return once all three are in flight
+        assertEquals(3, maxInFlight.get());
+        assertFalse(progressFile.exists());
+        assertEquals(TILE_BYTES, prefetcher.getAverageTileBytes());
+    }
+
+    @Test
+    public void interruptedRunResumesWhereItStopped() throws Exception {
+        // Tiles 0-39 are served; 40 and 41 are still in flight when the run is stopped
+        holdFrom = 40;
+        TilePrefetcher first = prefetcher(TilePrefetcher.DEFAULT_BUDGET_BYTES, 2);
+        AtomicInteger seen = new AtomicInteger();
+        CountDownLatch served = new CountDownLatch(1);
+        Disposable run = first.run(plan).subscribe(p -> {
+            if (seen.incrementAndGet() == 40) served.countDown();
+        });
+        assertTrue(served.await(10, TimeUnit.SECONDS));
+        while (held.get() < 2) Thread.sleep(1);
+        run.dispose();
+        release.countDown();
+
+        TilePrefetcher.Progress pending = prefetcher(TilePrefetcher.DEFAULT_BUDGET_BYTES, 2).loadPending();
+        assertNotNull(pending);
+        assertEquals(plan, pending.plan);
+        assertEquals(40, pending.position);
+        assertEquals(42, requests.get());
+
+        List<TilePrefetcher.Progress> rest = prefetcher(TilePrefetcher.DEFAULT_BUDGET_BYTES, 2)
+                .run(plan).toList().blockingGet();
+        TilePrefetcher.Progress last = rest.get(rest.size() - 1);
+        assertEquals(TilePrefetcher.State.DONE, last.state);
+        assertEquals(plan.getTileCount(), store.tiles.size());
+        // Nothing before the saved position is asked for again; only the two
+        // tiles in flight when the first run stopped are fetched twice
+        assertEquals(41, rest.get(0).completed);
+        assertEquals(plan.getTileCount() + 2, requests.get());
+    }
+
+    @Test
+    public void stopsBeforeTheBudgetIsExceeded() {
+        storeTile(0);
+        long budget = TILE_BYTES * 10L + 500;
+        List<TilePrefetcher.Progress> progress = prefetcher(budget, 2).run(plan).toList().blockingGet();
+        TilePrefetcher.Progress last = progress.get(progress.size() - 1);
+        assertEquals(TilePrefetcher.State.OVER_BUDGET, last.state);
+        assertTrue(store.getSizeBytes() <= budget);
+        assertEquals(10, store.tiles.size());
+        assertTrue(progressFile.exists());
+    }
+}
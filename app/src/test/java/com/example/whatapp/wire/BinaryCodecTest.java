@@ -0,0 +1,154 @@
+package com.example.whatapp.wire;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class BinaryCodecTest {
+
+    private static final long MAC = MacAddress.parse("A4:CF:12:9B:00:7E");
+
+    private static WireMessage roundTrip(WireMessage m) {
+        byte[] frame = BinaryCodec.INSTANCE.encode(m);
+        assertEquals(BinaryCodec.INSTANCE.encodedLength(m), frame.length);
+        return BinaryCodec.INSTANCE.decode(frame, 0, frame.length);
+    }
+
+    @Test
+    public void fullMessageRoundTrips() {
+        WireMessage m = WireMessage.builder()
+                .type(WireMessage.TYPE_MESSAGE)
+                .senderMac(MAC)
+                .groupId("field-team")
+                .text("Meet at the north gate")
+                .location(12.971599, 77.594566)
+                .build();
+        assertEquals(m, roundTrip(m));
+    }
+
+    @Test
+    public void optionalFieldsMayBeAbsent() {
+        WireMessage empty = WireMessage.builder().build();
+        assertEquals(empty, roundTrip(empty));
+        // marker, length, type, flags
+        assertEquals(4, BinaryCodec.INSTANCE.encode(empty).length);
+
+        WireMessage textOnly = WireMessage.builder().text("hi").build();
+        assertEquals(textOnly, roundTrip(textOnly));
+    }
+
+    @Test
+    public void relayFieldsRoundTrip() {
+        WireMessage m = WireMessage.builder().text("hi").msgId(0xDEADBEEF).hopLimit(0).build();
+        assertEquals(m, roundTrip(m));
+        WireMessage idOnly = WireMessage.builder().msgId(7).build();
+        assertEquals(idOnly, roundTrip(idOnly));
+        assertEquals(WireMessage.NO_HOP_LIMIT, roundTrip(idOnly).getHopLimit());
+    }
+
+    @Test
+    public void locationFixRoundTripsInSixBytes() {
+        WireMessage bare = WireMessage.builder().locationE6(12_971_599, 77_594_566).build();
+        WireMessage m = bare.toBuilder().fix(12, 1_760_790_000_999L).build();
+        WireMessage back = roundTrip(m);
+        assertEquals(m, back);
+        assertEquals(1_760_790_000_000L, back.getFixTimeMs());
+        assertEquals(6, BinaryCodec.INSTANCE.encode(m).length - BinaryCodec.INSTANCE.encode(bare).length);
+
+        WireMessage timeOnly = bare.toBuilder().fix(WireMessage.NO_ACCURACY, 5_000).build();
+        assertEquals(WireMessage.NO_ACCURACY, roundTrip(timeOnly).getAccuracyM());
+        assertEquals(WireMessage.MAX_ACCURACY_M, bare.toBuilder().fix(1_000_000, 0).build().getAccuracyM());
+    }
+
+    @Test
+    public void customTypeAndUnicodeRoundTrip() {
+        WireMessage m = WireMessage.builder()
+                .type("battery_report")
+                .text("caf\u00e9 \u2603 \ud83d\ude00")
+                .build();
+        assertEquals(m, roundTrip(m));
+    }
+
+    @Test
+    public void negativeCoordinatesRoundTripExactly() {
+        WireMessage m = WireMessage.builder().locationE6(-33_868_820, -151_209_296).build();
+        WireMessage back = roundTrip(m);
+        assertEquals(-33_868_820, back.getLatitudeE6());
+        assertEquals(-151_209_296, back.getLongitudeE6());
+    }
+
+    @Test
+    public void longTextUsesMultiByteVarint() {
+        char[] chars = new char[300];
+        Arrays.fill(chars, 'x');
+        WireMessage m = WireMessage.builder().text(new String(chars)).build();
+        assertEquals(m, roundTrip(m));
+    }
+
+    @Test
+    public void encodesIntoCallerBufferAtOffset() {
+        WireMessage m = WireMessage.builder().senderMac(MAC).text("ok").build();
+        byte[] buffer = new byte[64];
+        int written = BinaryCodec.INSTANCE.encode(m, buffer, 10);
+        assertEquals(m, BinaryCodec.INSTANCE.decode(buffer, 10, written));
+    }
+
+    @Test
+    public void trailingFieldsFromNewerVersionsAreIgnored() {
+        WireMessage m = WireMessage.builder().text("hi").build();
+        byte[] frame = BinaryCodec.INSTANCE.encode(m);
+        // Same frame with two extra body bytes, as a newer sender would append
+        byte[] extended = Arrays.copyOf(frame, frame.length + 2);
+        extended[1] = (byte) (frame[1] + 2);
+        assertEquals(m, BinaryCodec.INSTANCE.decode(extended, 0, extended.length));
+    }
+
+    @Test(expected = WireFormatException.class)
+    public void truncatedFrameIsRejected() {
+        byte[] frame = BinaryCodec.INSTANCE.encode(WireMessage.builder().text("hello").build());
+        BinaryCodec.INSTANCE.decode(frame, 0, frame.length - 1);
+    }
+
+    @Test(expected = WireFormatException.class)
+    public void hugeStringLengthIsRejectedWithoutOverflow() {
+        // Custom type whose length varint is Integer.MAX_VALUE; pos + length wraps around
+        byte[] frame = {BinaryCodec.MARKER, 0x07, 0x7F, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 0x00};
+        BinaryCodec.INSTANCE.decode(frame, 0, frame.length);
+    }
+
+    @Test(expected = WireFormatException.class)
+    public void shortBodyDoesNotReadIntoTheNextFrame() {
+        byte[] next = BinaryCodec.INSTANCE.encode(WireMessage.builder().text("next").build());
+        // A one-byte body, followed in the same buffer by another frame
+        byte[] buffer = new byte[3 + next.length];
+        buffer[0] = BinaryCodec.MARKER;
+        buffer[1] = 1;
+        System.arraycopy(next, 0, buffer, 3, next.length);
+        BinaryCodec.INSTANCE.decode(buffer, 0, 3);
+    }
+
+    @Test
+    public void binaryIsSmallerThanJson() {
+        WireMessage m = WireMessage.builder()
+                .type(WireMessage.TYPE_MESSAGE)
+                .senderMac(MAC)
+                .groupId("g1")
+                .text("ok")
+                .location(12.971599, 77.594566)
+                .build();
+        int json = JsonCodec.INSTANCE.encode(m).length;
+        int binary = BinaryCodec.INSTANCE.encode(m).length;
+        assertTrue("binary " + binary + " vs json " + json, binary * 3 < json);
+    }
+
+    @Test
+    public void macAddressParsesAndFormats() {
+        assertEquals(0xA4CF129B007EL, MAC);
+        assertEquals("A4:CF:12:9B:00:7E", MacAddress.format(MAC));
+        assertEquals(MAC, MacAddress.parse("a4-cf-12-9b-00-7e"));
+        assertEquals(MacAddress.NONE, MacAddress.parse("SELF"));
+        assertEquals(MacAddress.NONE, MacAddress.parse("A4:CF:12:9B:00:7G"));
+    }
+}
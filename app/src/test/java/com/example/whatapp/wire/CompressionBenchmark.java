@@ -0,0 +1,72 @@
+package com.example.whatapp.wire;
+
+/**
+ * Compression ratio and per-frame encode/decode time of {@link DeflateCodec}
+ * over both inner codecs, and the packets each frame takes at the smallest and
+ * largest ATT payloads we see, on message shapes seen in the field.
+ * <p>
+ * Not a unit test; run {@code main} from the IDE on the host JVM.
+ */
+public final class CompressionBenchmark {
+
+    private static final int ITERATIONS = 50_000;
+    private static final int ROUNDS = 5;
+    // Default MTU, and the old fixed MTU
+    private static final int[] PACKETS = {20, 125};
+
+    private CompressionBenchmark() { }
+
+    public static void main(String[] args) {
+        long mac = MacAddress.parse("A4:CF:12:9B:00:7E");
+        WireMessage[] samples = {
+                WireMessage.builder().type(WireMessage.TYPE_MESSAGE).senderMac(mac).text("ok").build(),
+                WireMessage.builder().type(WireMessage.TYPE_MESSAGE).senderMac(mac).groupId("rescue-2")
+                        .text("Reached checkpoint B, moving to C").location(12.971599, 77.594566).build(),
+                WireMessage.builder().type(WireMessage.TYPE_MESSAGE).senderMac(mac).text("on my way"
+                        + "\nLocation: https://www.openstreetmap.org/?mlat=12.9715987&mlon=77.5945627").build(),
+                WireMessage.builder().type(WireMessage.TYPE_GROUP_JOIN).senderMac(mac).groupId("rescue-2").build(),
+                WireMessage.builder().type(WireMessage.TYPE_MESSAGE).senderMac(mac).groupId("rescue-2")
+                        .text("Water is rising near the bridge on the east road, everyone take the north "
+                                + "track instead and meet at the school. Bring the spare batteries.")
+                        .msgId(0x5EED1234).hopLimit(3).build(),
+        };
+        String[] names = {"short text", "group+text+loc", "osm link", "group_join", "long relayed"};
+        WireCodec[] codecs = {JsonCodec.INSTANCE, DeflateCodec.JSON, BinaryCodec.INSTANCE, DeflateCodec.BINARY};
+        String[] codecNames = {"json", "json+dfl", "bin1", "bin1+dfl"};
+
+        System.out.println("sample          codec      bytes  ratio  pkts@20 pkts@125  enc (ns)  dec (ns)");
+        for (int s = 0; s < samples.length; s++) {
+            WireMessage m = samples[s];
+            int plainJson = JsonCodec.INSTANCE.encode(m).length;
+            for (int c = 0; c < codecs.length; c++) {
+                WireCodec codec = codecs[c];
+                byte[] frame = codec.encode(m);
+                System.out.printf("%-15s %-9s %6d %6.2f %8d %8d %9.0f %9.0f%n",
+                        c == 0 ? names[s] : "", codecNames[c], frame.length, frame.length / (double) plainJson,
+                        packets(frame.length, PACKETS[0]), packets(frame.length, PACKETS[1]),
+                        nsPerOp(() -> codec.encode(m).length),
+                        nsPerOp(() -> WireCodecs.decode(frame, 0, frame.length).getLatitudeE6()));
+            }
+        }
+    }
+
+    private static int packets(int bytes, int packet) {
+        return (bytes + packet - 1) / packet;
+    }
+
+    private interface Op {
+        int run();
+    }
+
+    private static double nsPerOp(Op op) {
+        long sink = 0;
+        double best = Double.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) sink += op.run();
+            best = Math.min(best, (System.nanoTime() - start) / (double) ITERATIONS);
+        }
+        if (sink == 42) System.out.println();
+        return best;
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.whatapp.wire;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DeflateCodecTest {
+
+    private static final long MAC = MacAddress.parse("A4:CF:12:9B:00:7E");
+
+    private static WireMessage sample() {
+        return WireMessage.builder()
+                .type(WireMessage.TYPE_MESSAGE)
+                .senderMac(MAC)
+                .groupId("rescue-2")
+                .text("on my way\nLocation: https://www.openstreetmap.org/?mlat=12.9716&mlon=77.5946")
+                .build();
+    }
+
+    @Test
+    public void compressedFramesRoundTripThroughEitherCodec() {
+        WireMessage m = sample();
+        for (DeflateCodec codec : new DeflateCodec[]{DeflateCodec.JSON, DeflateCodec.BINARY}) {
+            byte[] frame = codec.encode(m);
+            assertEquals(DeflateCodec.MARKER, frame[0]);
+            assertTrue(frame.length < codec.getInner().encode(m).length);
+            assertEquals(m, codec.decode(frame, 0, frame.length));
+            assertEquals(m, WireCodecs.decode(frame, 0, frame.length));
+        }
+    }
+
+    @Test
+    public void dictionaryShrinksShortJsonFrames() {
+        byte[] json = JsonCodec.INSTANCE.encode(WireMessage.builder()
+                .type(WireMessage.TYPE_MESSAGE).senderMac(MAC).text("ok").build());
+        byte[] frame = DeflateCodec.compress(json);
+        assertEquals(DeflateCodec.MARKER, frame[0]);
+        assertTrue(frame.length + " of " + json.length, frame.length * 2 < json.length);
+    }
+
+    @Test
+    public void framesThatDoNotShrinkAreSentPlain() {
+        byte[] tiny = BinaryCodec.INSTANCE.encode(WireMessage.builder().text("hi").build());
+        assertSame(tiny, DeflateCodec.compress(tiny));
+
+        byte[] noise = new byte[200];
+        new Random(1).nextBytes(noise);
+        noise[0] = BinaryCodec.MARKER;
+        assertSame(noise, DeflateCodec.compress(noise));
+    }
+
+    @Test
+    public void corruptFramesAreRejected() {
+        byte[] frame = DeflateCodec.JSON.encode(sample());
+        byte[] truncated = Arrays.copyOf(frame, frame.length - 3);
+        try {
+            WireCodecs.decode(truncated, 0, truncated.length);
+            fail();
+        } catch (WireFormatException expected) {
+        }
+
+        // Claims an inner frame larger than any sender produces
+        byte[] bomb = {DeflateCodec.MARKER, 3, (byte) 0x81, (byte) 0x40, 0};
+        try {
+            WireCodecs.decode(bomb, 0, bomb.length);
+            fail();
+        } catch (WireFormatException expected) {
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.whatapp.wire;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JsonCodecTest {
+
+    private final JsonCodec codec = JsonCodec.INSTANCE;
+
+    @Test
+    public void decodesBoardFrame() {
+        WireMessage m = codec.decode("{\"type\":\"msg\",\"sender_mac\":\"A4:CF:12:9B:00:7E\","
+                + "\"group_id\":\"g1\",\"message\":\"hello\",\"latitude\":12.971599,\"longitude\":77.594566}");
+        assertEquals("msg", m.getType());
+        assertEquals(0xA4CF129B007EL, m.getSenderMac());
+        assertEquals("g1", m.getGroupId());
+        assertEquals("hello", m.getText());
+        assertTrue(m.hasLocation());
+        assertEquals(12_971_599, m.getLatitudeE6());
+        assertEquals(77_594_566, m.getLongitudeE6());
+    }
+
+    @Test
+    public void roundTripsThroughJson() {
+        WireMessage m = WireMessage.builder()
+                .type(WireMessage.TYPE_GROUP_INVITE)
+                .senderMac(0x112233445566L)
+                .groupId("ops")
+                .text("line1\nline2 \"quoted\" back\\slash {brace}")
+                .locationE6(-1_500, 100_000_001)
+                .build();
+        assertEquals(m, codec.decode(codec.toJson(m)));
+    }
+
+    @Test
+    public void relayFieldsRoundTripAsUnsignedNumbers() {
+        WireMessage m = WireMessage.builder().text("hi").msgId(0xDEADBEEF).hopLimit(3).build();
+        String json = codec.toJson(m);
+        assertTrue(json, json.contains("\"msg_id\":3735928559,\"hop_limit\":3"));
+        assertEquals(m, codec.decode(json));
+        assertEquals(5, codec.decode("{\"hop_limit\":\"5\"}").getHopLimit());
+    }
+
+    @Test
+    public void locationFixRoundTripsAndAcceptsFractionalAccuracy() {
+        WireMessage m = WireMessage.builder().locationE6(1, 2).fix(8, 1_760_790_000_000L).build();
+        assertEquals(m, codec.decode(codec.toJson(m)));
+        WireMessage board = codec.decode("{\"latitude\":1.5,\"longitude\":2,\"accuracy\":7.6,\"fix_time\":\"10\"}");
+        assertEquals(8, board.getAccuracyM());
+        assertEquals(10_000, board.getFixTimeMs());
+    }
+
+    @Test
+    public void acceptsQuotedNumbersNullsAndWhitespace() {
+        WireMessage m = codec.decode("{ \"latitude\" : \"-12.5\" , \"longitude\":\"3\", \"group_id\": null,"
+                + " \"message\" : 42 }");
+        assertEquals(-12_500_000, m.getLatitudeE6());
+        assertEquals(3_000_000, m.getLongitudeE6());
+        assertNull(m.getGroupId());
+        assertEquals("42", m.getText());
+
+        WireMessage noLocation = codec.decode("{\"latitude\":null,\"longitude\":null}");
+        assertFalse(noLocation.hasLocation());
+    }
+
+    @Test
+    public void roundsExtraFractionDigitsAndHandlesExponents() {
+        assertEquals(12_345_679, codec.decode("{\"latitude\":12.3456789,\"longitude\":0}").getLatitudeE6());
+        assertEquals(1_250_000, codec.decode("{\"latitude\":1.25e0,\"longitude\":0}").getLatitudeE6());
+    }
+
+    @Test
+    public void skipsUnknownKeysIncludingNestedValues() {
+        WireMessage m = codec.decode("{\"meta\":{\"a\":[1,{\"b\":\"}\"}]},\"rssi\":-70,"
+                + "\"flag\":true,\"message\":\"kept\"}");
+        assertEquals("kept", m.getText());
+    }
+
+    @Test
+    public void decodesEscapes() {
+        WireMessage m = codec.decode("{\"message\":\"tab\\there \\u00e9 \\\"q\\\"\"}");
+        assertEquals("tab\there \u00e9 \"q\"", m.getText());
+    }
+
+    @Test
+    public void nonMacSenderIsTreatedAsAbsent() {
+        assertEquals(MacAddress.NONE, codec.decode("{\"sender_mac\":\"SELF\"}").getSenderMac());
+    }
+
+    @Test(expected = WireFormatException.class)
+    public void truncatedFrameIsRejected() {
+        codec.decode("{\"message\":\"half");
+    }
+
+    @Test
+    public void frameDispatchPicksCodecFromFirstByte() {
+        WireMessage m = WireMessage.builder().text("x").build();
+        byte[] json = codec.encode(m);
+        byte[] binary = BinaryCodec.INSTANCE.encode(m);
+        assertEquals(m, WireCodecs.decode(json, 0, json.length));
+        assertEquals(m, WireCodecs.decode(binary, 0, binary.length));
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.whatapp.wire;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LocationDeltaTest {
+
+    private static final long MAC = MacAddress.parse("A4:CF:12:9B:00:7E");
+    private static final long START_MS = 1_760_000_000_000L;
+
+    /** A walk north-east, one update every five seconds. */
+    private static WireMessage walk(int step) {
+        return WireMessage.builder()
+                .type(WireMessage.TYPE_LOCATION)
+                .senderMac(MAC)
+                .locationE6(12_971_600 + step * 40, 77_594_600 + step * 35)
+                .fix(8, START_MS + step * 5_000L)
+                .build();
+    }
+
+    private static WireMessage decode(LocationDelta.Decoder decoder, byte[] frame) {
+        return decoder.decode(frame, 0, frame.length);
+    }
+
+    @Test
+    public void updatesRoundTripAsSmallDeltas() {
+        LocationDelta.Encoder encoder = new LocationDelta.Encoder();
+        LocationDelta.Decoder decoder = new LocationDelta.Decoder();
+        for (int step = 0; step < 40; step++) {
+            WireMessage update = walk(step);
+            byte[] frame = encoder.encode(update);
+            assertEquals(LocationDelta.MARKER, frame[0]);
+            if (step % LocationDelta.KEY_INTERVAL != 0) {
+                assertTrue("update " + step + " is " + frame.length + " bytes", frame.length <= 14);
+                assertTrue(frame.length < BinaryCodec.INSTANCE.encode(update).length);
+            }
+            assertEquals(update, decode(decoder, frame));
+        }
+        assertEquals(0, decoder.getUnresolved());
+    }
+
+    @Test
+    public void missedUpdateDropsDeltasUntilTheNextKey() {
+        LocationDelta.Encoder encoder = new LocationDelta.Encoder();
+        LocationDelta.Decoder decoder = new LocationDelta.Decoder();
+        List<WireMessage> decoded = new ArrayList<>();
+        for (int step = 0; step < LocationDelta.KEY_INTERVAL + 2; step++) {
+            byte[] frame = encoder.encode(walk(step));
+            if (step == 3) continue;
+            WireMessage m = decode(decoder, frame);
+            if (m != null) decoded.add(m);
+        }
+        assertEquals(3 + 2, decoded.size());
+        assertEquals(walk(LocationDelta.KEY_INTERVAL), decoded.get(3));
+        assertEquals(LocationDelta.KEY_INTERVAL - 4, decoder.getUnresolved());
+    }
+
+    @Test
+    public void jumpsAndResetsSendKeyUpdates() {
+        LocationDelta.Encoder encoder = new LocationDelta.Encoder();
+        LocationDelta.Decoder decoder = new LocationDelta.Decoder();
+        encoder.encode(walk(0));
+        WireMessage far = WireMessage.builder()
+                .type(WireMessage.TYPE_LOCATION)
+                .senderMac(MAC)
+                .locationE6(-33_868_800, 151_209_300)
+                .build();
+        byte[] frame = encoder.encode(far);
+        assertEquals(far, decode(decoder, frame));
+
+        encoder.reset();
+        assertEquals(walk(1), decode(decoder, encoder.encode(walk(1))));
+    }
+
+    @Test
+    public void sendersAreTrackedSeparately() {
+        long other = MacAddress.parse("A4:CF:12:9B:00:7F");
+        LocationDelta.Encoder a = new LocationDelta.Encoder();
+        LocationDelta.Encoder b = new LocationDelta.Encoder();
+        LocationDelta.Decoder decoder = new LocationDelta.Decoder();
+        for (int step = 0; step < 4; step++) {
+            WireMessage mine = walk(step);
+            WireMessage theirs = WireMessage.builder()
+                    .type(WireMessage.TYPE_LOCATION)
+                    .senderMac(other)
+                    .locationE6(-step * 100, step * 100)
+                    .build();
+            assertEquals(mine, decode(decoder, a.encode(mine)));
+            assertEquals(theirs, decode(decoder, b.encode(theirs)));
+        }
+    }
+
+    @Test
+    public void zigzagKeepsSmallMagnitudesSmall() {
+        for (int v : new int[]{0, -1, 1, -64, 63, Integer.MIN_VALUE, Integer.MAX_VALUE}) {
+            assertEquals(v, LocationDelta.unzigzag(LocationDelta.zigzag(v)));
+        }
+        assertEquals(1, LocationDelta.zigzag(-1));
+        assertEquals(2, LocationDelta.zigzag(1));
+    }
+
+    @Test(expected = WireFormatException.class)
+    public void truncatedFramesAreRejected() {
+        byte[] frame = new LocationDelta.Encoder().encode(walk(0));
+        frame[1] = 3;
+        new LocationDelta.Decoder().decode(frame, 0, frame.length);
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.whatapp.wire;
+
+/**
+ * Frame size and encode/decode throughput of {@link BinaryCodec} against the
+ * JSON frames used so far, on message shapes seen in the field.
+ * <p>
+ * Not a unit test; run {@code main} from the IDE on the host JVM.
+ */
+public final class WireCodecBenchmark {
+
+    private static final int ITERATIONS = 200_000;
+    private static final int ROUNDS = 5;
+    // Typical ATT payload with the old fixed MTU
+    private static final int PACKET = 125;
+
+    private WireCodecBenchmark() { }
+
+    public static void main(String[] args) {
+        long mac = MacAddress.parse("A4:CF:12:9B:00:7E");
+        WireMessage[] samples = {
+                WireMessage.builder().type(WireMessage.TYPE_MESSAGE).senderMac(mac).text("ok").build(),
+                WireMessage.builder().type(WireMessage.TYPE_MESSAGE).senderMac(mac).groupId("rescue-2")
+                        .text("Reached checkpoint B, moving to C").location(12.971599, 77.594566).build(),
+                WireMessage.builder().type(WireMessage.TYPE_GROUP_JOIN).senderMac(mac).groupId("rescue-2").build(),
+                WireMessage.builder().type(WireMessage.TYPE_MESSAGE).senderMac(mac)
+                        .location(-33.868820, 151.209296).build(),
+        };
+        String[] names = {"short text", "group+text+loc", "group_join", "location only"};
+
+        System.out.println("sample            json(B) bin(B) ratio  json pkts  bin pkts"
+                + "  json enc/dec (ns)  bin enc/dec (ns)");
+        for (int s = 0; s < samples.length; s++) {
+            WireMessage m = samples[s];
+            byte[] json = JsonCodec.INSTANCE.encode(m);
+            byte[] bin = BinaryCodec.INSTANCE.encode(m);
+            System.out.printf("%-16s %8d %6d %5.2f %10d %9d %9.0f/%-9.0f %8.0f/%.0f%n",
+                    names[s], json.length, bin.length, bin.length / (double) json.length,
+                    packets(json.length), packets(bin.length),
+                    nsPerOp(() -> JsonCodec.INSTANCE.encode(m).length),
+                    nsPerOp(() -> JsonCodec.INSTANCE.decode(json, 0, json.length).getLatitudeE6()),
+                    nsPerOp(() -> BinaryCodec.INSTANCE.encode(m).length),
+                    nsPerOp(() -> BinaryCodec.INSTANCE.decode(bin, 0, bin.length).getLatitudeE6()));
+        }
+    }
+
+    private static int packets(int bytes) {
+        return (bytes + PACKET - 1) / PACKET;
+    }
+
+    private interface Op {
+        int run();
+    }
+
+    private static double nsPerOp(Op op) {
+        long sink = 0;
+        double best = Double.MAX_VALUE;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) sink += op.run();
+            best = Math.min(best, (System.nanoTime() - start) / (double) ITERATIONS);
+        }
+        if (sink == 42) System.out.println();
+        return best;
+    }
+}